@@ -114,6 +114,25 @@ CREATE TABLE `blocks` (
     CONSTRAINT `fk_blocks_diary` FOREIGN KEY (`diary_id`) REFERENCES `diaries` (`id`) ON DELETE CASCADE ON UPDATE RESTRICT
 ) ENGINE = InnoDB AUTO_INCREMENT = 45 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = Dynamic;
 
+-- ----------------------------
+-- Table structure for chat_change_log
+-- ----------------------------
+DROP TABLE IF EXISTS `chat_change_log`;
+
+CREATE TABLE `chat_change_log` (
+    `version` bigint NOT NULL COMMENT '变更版本（雪花 ID，按时间递增）',
+    `scope_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'USER：个人变更 / GROUP：群内所有成员可见的变更',
+    `scope_id` bigint NOT NULL COMMENT 'USER 为用户ID，GROUP 为群ID',
+    `change_type` varchar(32) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'MESSAGE_NEW / MESSAGE_RECALLED / MESSAGE_DELETED / READ / PEER_READ / FRIEND_ADDED / FRIEND_REMOVED / GROUP_JOINED',
+    `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL DEFAULT NULL COMMENT 'PRIVATE / GROUP',
+    `target_id` bigint NULL DEFAULT NULL COMMENT '私聊为对方ID，群聊为群ID，好友变更为好友ID',
+    `message_id` bigint NULL DEFAULT NULL COMMENT '涉及的消息ID（撤回为逻辑消息ID）',
+    `ref_value` bigint NULL DEFAULT NULL COMMENT '附加值：已读变更为新的已读游标',
+    `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (`version`) USING BTREE,
+    INDEX `idx_chat_change_scope_version` (`scope_type` ASC, `scope_id` ASC, `version` ASC) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for chat_group_members
 -- ----------------------------
@@ -149,6 +168,23 @@ CREATE TABLE `chat_groups` (
     CONSTRAINT `fk_chat_groups_owner` FOREIGN KEY (`owner_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE = InnoDB AUTO_INCREMENT = 7 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
 
+-- ----------------------------
+-- Table structure for chat_message_deletions
+-- ----------------------------
+DROP TABLE IF EXISTS `chat_message_deletions`;
+
+CREATE TABLE `chat_message_deletions` (
+    `id` bigint NOT NULL AUTO_INCREMENT,
+    `user_id` bigint NOT NULL COMMENT '删除者',
+    `message_id` bigint NOT NULL COMMENT '群聊规范消息ID（chat_messages.id）',
+    `deleted_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_deletion_user_message` (`user_id` ASC, `message_id` ASC) USING BTREE,
+    INDEX `idx_deletion_message` (`message_id` ASC) USING BTREE,
+    CONSTRAINT `fk_deletion_message` FOREIGN KEY (`message_id`) REFERENCES `chat_messages` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT `fk_deletion_user` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for chat_messages
 -- ----------------------------
@@ -160,14 +196,14 @@ CREATE TABLE `chat_messages` (
     `logic_message_id` bigint NULL DEFAULT NULL COMMENT '逻辑消息ID，同一条消息对所有接收者共用同一ID',
     `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'PRIVATE / GROUP',
     `from_user_id` bigint NOT NULL,
-    `to_user_id` bigint NULL DEFAULT NULL COMMENT '私聊时为对方ID，群聊时为NULL',
+    `to_user_id` bigint NULL DEFAULT NULL COMMENT '私聊时为对方ID（发送者视角为自己），群聊时为NULL（一条规范记录）',
     `group_id` bigint NULL DEFAULT NULL COMMENT '群聊时为群ID，私聊时为NULL',
     `message_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'TEXT / IMAGE',
     `content` text CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL COMMENT '文本内容',
     `attachment_id` bigint NULL DEFAULT NULL COMMENT '图片等附件ID，关联attachments',
     `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
     `deleted_at` datetime NULL DEFAULT NULL,
-    `is_read` tinyint(1) NOT NULL DEFAULT 0 COMMENT '仅对私聊有效：0=未读, 1=已读',
+    `is_read` tinyint(1) NOT NULL DEFAULT 0 COMMENT '已废弃：已读状态由 chat_read_cursors 游标计算',
     PRIMARY KEY (`id`) USING BTREE,
     UNIQUE INDEX `uq_chat_messages_from_client` (
         `from_user_id` ASC,
@@ -184,6 +220,17 @@ CREATE TABLE `chat_messages` (
         `group_id` ASC,
         `created_at` ASC
     ) USING BTREE,
+    INDEX `idx_chat_messages_private_id` (
+        `conversation_type` ASC,
+        `from_user_id` ASC,
+        `to_user_id` ASC,
+        `id` ASC
+    ) USING BTREE,
+    INDEX `idx_chat_messages_group_id` (
+        `conversation_type` ASC,
+        `group_id` ASC,
+        `id` ASC
+    ) USING BTREE,
     INDEX `idx_chat_messages_from` (`from_user_id` ASC) USING BTREE,
     INDEX `fk_chat_messages_to_user` (`to_user_id` ASC) USING BTREE,
     INDEX `fk_chat_messages_group` (`group_id` ASC) USING BTREE,
@@ -194,6 +241,23 @@ CREATE TABLE `chat_messages` (
     CONSTRAINT `fk_chat_messages_to_user` FOREIGN KEY (`to_user_id`) REFERENCES `users` (`id`) ON DELETE SET NULL ON UPDATE CASCADE
 ) ENGINE = InnoDB AUTO_INCREMENT = 34 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
 
+-- ----------------------------
+-- Table structure for chat_read_cursors
+-- ----------------------------
+DROP TABLE IF EXISTS `chat_read_cursors`;
+
+CREATE TABLE `chat_read_cursors` (
+    `id` bigint NOT NULL AUTO_INCREMENT,
+    `user_id` bigint NOT NULL COMMENT '读者',
+    `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'PRIVATE / GROUP',
+    `target_id` bigint NOT NULL COMMENT '私聊为对方ID，群聊为群ID',
+    `last_read_message_id` bigint NOT NULL DEFAULT 0 COMMENT '已读到的最大消息ID（只增不减）',
+    `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_read_cursor` (`user_id` ASC, `conversation_type` ASC, `target_id` ASC) USING BTREE,
+    CONSTRAINT `fk_read_cursor_user` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for collected_items
 -- ----------------------------
@@ -246,6 +310,27 @@ CREATE TABLE `collection_folders_level2` (
     CONSTRAINT `fk_level2_parent` FOREIGN KEY (`parent_folder_id`) REFERENCES `collection_folders_level1` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE = InnoDB AUTO_INCREMENT = 128 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
 
+-- ----------------------------
+-- Table structure for conversation_summary
+-- ----------------------------
+DROP TABLE IF EXISTS `conversation_summary`;
+
+CREATE TABLE `conversation_summary` (
+    `id` bigint NOT NULL AUTO_INCREMENT,
+    `user_id` bigint NOT NULL COMMENT '会话所属用户',
+    `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'PRIVATE / GROUP',
+    `target_id` bigint NOT NULL COMMENT '私聊为对方ID，群聊为群ID',
+    `last_message_id` bigint NULL DEFAULT NULL COMMENT '最新可见消息的逻辑ID，无消息为 NULL',
+    `last_message_preview` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL DEFAULT NULL COMMENT '最新消息预览',
+    `last_message_time` datetime NULL DEFAULT NULL COMMENT '最新消息时间',
+    `unread_count` int NOT NULL DEFAULT 0 COMMENT '未读数',
+    `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_conversation_summary` (`user_id` ASC, `conversation_type` ASC, `target_id` ASC) USING BTREE,
+    INDEX `idx_conversation_summary_user_time` (`user_id` ASC, `last_message_time` ASC) USING BTREE,
+    CONSTRAINT `fk_conversation_summary_user` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for diaries
 -- ----------------------------
@@ -0,0 +1,92 @@
+-- ----------------------------
+-- 001 群消息存储模型迁移：每成员一行 -> 一条规范记录 + 成员已读游标 + 稀疏删除标记
+--
+-- 迁移后：
+--   * 每条群消息只保留发送者那条记录（id = logic_message_id），to_user_id 置 NULL
+--   * 成员已读进度写入 chat_read_cursors（last_read_message_id）
+--   * 成员“仅自己删除”写入 chat_message_deletions；整条撤回仍由 chat_messages.deleted_at 表示
+--
+-- 请在维护窗口停写后执行，执行前备份 chat_messages。脚本可重复执行。
+-- ----------------------------
+SET NAMES utf8mb4;
+
+CREATE TABLE IF NOT EXISTS `chat_message_deletions` (
+    `id` bigint NOT NULL AUTO_INCREMENT,
+    `user_id` bigint NOT NULL COMMENT '删除者',
+    `message_id` bigint NOT NULL COMMENT '群聊规范消息ID（chat_messages.id）',
+    `deleted_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_deletion_user_message` (`user_id` ASC, `message_id` ASC) USING BTREE,
+    INDEX `idx_deletion_message` (`message_id` ASC) USING BTREE,
+    CONSTRAINT `fk_deletion_message` FOREIGN KEY (`message_id`) REFERENCES `chat_messages` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT `fk_deletion_user` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
+CREATE TABLE IF NOT EXISTS `chat_read_cursors` (
+    `id` bigint NOT NULL AUTO_INCREMENT,
+    `user_id` bigint NOT NULL COMMENT '读者',
+    `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'PRIVATE / GROUP',
+    `target_id` bigint NOT NULL COMMENT '私聊为对方ID，群聊为群ID',
+    `last_read_message_id` bigint NOT NULL DEFAULT 0 COMMENT '已读到的最大消息ID（只增不减）',
+    `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_read_cursor` (`user_id` ASC, `conversation_type` ASC, `target_id` ASC) USING BTREE,
+    CONSTRAINT `fk_read_cursor_user` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
+START TRANSACTION;
+
+-- 1. 个别旧数据的发送者记录缺 logic_message_id，先补齐
+UPDATE `chat_messages`
+SET `logic_message_id` = `id`
+WHERE `conversation_type` = 'GROUP'
+  AND `logic_message_id` IS NULL
+  AND `to_user_id` = `from_user_id`;
+
+-- 2. 已读游标：旧逻辑是“整群一次性标记已读”，因此取每个成员已读过的最大逻辑消息ID即可
+INSERT INTO `chat_read_cursors` (`user_id`, `conversation_type`, `target_id`, `last_read_message_id`)
+SELECT `to_user_id`, 'GROUP', `group_id`, MAX(`logic_message_id`)
+FROM `chat_messages`
+WHERE `conversation_type` = 'GROUP'
+  AND `to_user_id` IS NOT NULL
+  AND `logic_message_id` IS NOT NULL
+  AND `id` <> `logic_message_id`
+  AND `is_read` = 1
+GROUP BY `to_user_id`, `group_id`
+ON DUPLICATE KEY UPDATE `last_read_message_id` = GREATEST(`last_read_message_id`, VALUES(`last_read_message_id`));
+
+-- 3. 删除标记：某个视角被删除、但同一逻辑消息仍有未删除的视角（说明不是撤回，而是“仅自己删除”）
+INSERT IGNORE INTO `chat_message_deletions` (`user_id`, `message_id`, `deleted_at`)
+SELECT m.`to_user_id`, m.`logic_message_id`, m.`deleted_at`
+FROM `chat_messages` m
+WHERE m.`conversation_type` = 'GROUP'
+  AND m.`to_user_id` IS NOT NULL
+  AND m.`logic_message_id` IS NOT NULL
+  AND m.`deleted_at` IS NOT NULL
+  AND EXISTS (
+      SELECT 1 FROM `chat_messages` x
+      WHERE x.`logic_message_id` = m.`logic_message_id`
+        AND x.`deleted_at` IS NULL
+  );
+
+-- 4. 规范记录：仍有未删除视角的消息清掉 deleted_at（全部视角都删了 = 撤回，保留），to_user_id 置 NULL
+UPDATE `chat_messages` c
+JOIN (
+    SELECT `logic_message_id`, SUM(`deleted_at` IS NULL) AS alive
+    FROM `chat_messages`
+    WHERE `conversation_type` = 'GROUP'
+      AND `logic_message_id` IS NOT NULL
+    GROUP BY `logic_message_id`
+) agg ON agg.`logic_message_id` = c.`logic_message_id`
+SET c.`deleted_at` = IF(agg.alive > 0, NULL, c.`deleted_at`),
+    c.`to_user_id` = NULL,
+    c.`is_read` = 0
+WHERE c.`conversation_type` = 'GROUP'
+  AND c.`id` = c.`logic_message_id`;
+
+-- 5. 删除成员视角记录
+DELETE FROM `chat_messages`
+WHERE `conversation_type` = 'GROUP'
+  AND (`logic_message_id` IS NULL OR `id` <> `logic_message_id`);
+
+COMMIT;
@@ -0,0 +1,17 @@
+-- ----------------------------
+-- 002 私聊已读状态迁移：is_read 逐条标记 -> chat_read_cursors 游标
+--
+-- 旧逻辑是“一次把某好友发来的未读全部标记已读”，因此取每个接收者对每个好友已读过的最大记录 id 即为游标。
+-- 依赖 001 创建的 chat_read_cursors 表。脚本可重复执行。
+-- ----------------------------
+SET NAMES utf8mb4;
+
+INSERT INTO `chat_read_cursors` (`user_id`, `conversation_type`, `target_id`, `last_read_message_id`)
+SELECT `to_user_id`, 'PRIVATE', `from_user_id`, MAX(`id`)
+FROM `chat_messages`
+WHERE `conversation_type` = 'PRIVATE'
+  AND `to_user_id` IS NOT NULL
+  AND `to_user_id` <> `from_user_id`
+  AND `is_read` = 1
+GROUP BY `to_user_id`, `from_user_id`
+ON DUPLICATE KEY UPDATE `last_read_message_id` = GREATEST(`last_read_message_id`, VALUES(`last_read_message_id`));
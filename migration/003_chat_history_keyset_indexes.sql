@@ -0,0 +1,8 @@
+-- ----------------------------
+-- 003 历史消息游标分页索引：按 (会话, id) 定位后顺序扫描，翻到多深都是常数开销
+-- ----------------------------
+SET NAMES utf8mb4;
+
+ALTER TABLE `chat_messages`
+    ADD INDEX `idx_chat_messages_private_id` (`conversation_type` ASC, `from_user_id` ASC, `to_user_id` ASC, `id` ASC) USING BTREE,
+    ADD INDEX `idx_chat_messages_group_id` (`conversation_type` ASC, `group_id` ASC, `id` ASC) USING BTREE;
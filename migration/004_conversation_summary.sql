@@ -0,0 +1,128 @@
+-- ----------------------------
+-- 004 会话摘要表 conversation_summary：会话列表改为读这张表
+--
+-- 每个用户每个会话一行（最新消息 + 未读数），由发送/已读/撤回/删除路径增量维护。
+-- 本脚本建表并按现有消息、好友、群成员数据回填；依赖 001~003。脚本可重复执行。
+-- ----------------------------
+SET NAMES utf8mb4;
+
+CREATE TABLE IF NOT EXISTS `conversation_summary` (
+    `id` bigint NOT NULL AUTO_INCREMENT,
+    `user_id` bigint NOT NULL COMMENT '会话所属用户',
+    `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'PRIVATE / GROUP',
+    `target_id` bigint NOT NULL COMMENT '私聊为对方ID，群聊为群ID',
+    `last_message_id` bigint NULL DEFAULT NULL COMMENT '最新可见消息的逻辑ID，无消息为 NULL',
+    `last_message_preview` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL DEFAULT NULL COMMENT '最新消息预览',
+    `last_message_time` datetime NULL DEFAULT NULL COMMENT '最新消息时间',
+    `unread_count` int NOT NULL DEFAULT 0 COMMENT '未读数',
+    `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (`id`) USING BTREE,
+    UNIQUE INDEX `uk_conversation_summary` (`user_id` ASC, `conversation_type` ASC, `target_id` ASC) USING BTREE,
+    INDEX `idx_conversation_summary_user_time` (`user_id` ASC, `last_message_time` ASC) USING BTREE,
+    CONSTRAINT `fk_conversation_summary_user` FOREIGN KEY (`user_id`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
+
+-- 1. 建立会话行：好友、有过私聊的两人、群成员
+INSERT IGNORE INTO `conversation_summary` (`user_id`, `conversation_type`, `target_id`)
+SELECT `user_id`, 'PRIVATE', `friend_id` FROM `user_friends`;
+
+INSERT IGNORE INTO `conversation_summary` (`user_id`, `conversation_type`, `target_id`)
+SELECT DISTINCT `from_user_id`, 'PRIVATE', `to_user_id`
+FROM `chat_messages`
+WHERE `conversation_type` = 'PRIVATE' AND `to_user_id` <> `from_user_id` AND `deleted_at` IS NULL;
+
+INSERT IGNORE INTO `conversation_summary` (`user_id`, `conversation_type`, `target_id`)
+SELECT DISTINCT `to_user_id`, 'PRIVATE', `from_user_id`
+FROM `chat_messages`
+WHERE `conversation_type` = 'PRIVATE' AND `to_user_id` <> `from_user_id` AND `deleted_at` IS NULL;
+
+INSERT IGNORE INTO `conversation_summary` (`user_id`, `conversation_type`, `target_id`)
+SELECT `user_id`, 'GROUP', `group_id` FROM `chat_group_members`;
+
+-- 2. 私聊最新消息（口径同 ChatMessageMapper.findLastPrivateMessage）
+UPDATE `conversation_summary` s
+JOIN (
+    SELECT x.`user_id`, x.`target_id`, MAX(x.`id`) AS `last_id`
+    FROM (
+        SELECT `from_user_id` AS `user_id`, `to_user_id` AS `target_id`, `id`
+        FROM `chat_messages`
+        WHERE `conversation_type` = 'PRIVATE' AND `deleted_at` IS NULL AND `to_user_id` <> `from_user_id`
+        UNION ALL
+        SELECT `to_user_id`, `from_user_id`, `id`
+        FROM `chat_messages`
+        WHERE `conversation_type` = 'PRIVATE' AND `deleted_at` IS NULL AND `to_user_id` <> `from_user_id`
+    ) x
+    GROUP BY x.`user_id`, x.`target_id`
+) t ON t.`user_id` = s.`user_id` AND t.`target_id` = s.`target_id` AND s.`conversation_type` = 'PRIVATE'
+JOIN `chat_messages` m ON m.`id` = t.`last_id`
+SET s.`last_message_id` = IFNULL(m.`logic_message_id`, m.`id`),
+    s.`last_message_time` = m.`created_at`,
+    s.`last_message_preview` = CASE UPPER(m.`message_type`)
+        WHEN 'IMAGE' THEN '[图片]'
+        WHEN 'FILE' THEN '[文件]'
+        WHEN 'VIDEO' THEN '[视频]'
+        WHEN 'AUDIO' THEN '[音频]'
+        ELSE IF(CHAR_LENGTH(IFNULL(m.`content`, '')) <= 10, IFNULL(m.`content`, ''), CONCAT(LEFT(m.`content`, 10), '...'))
+    END;
+
+-- 3. 私聊未读数（好友发来的、id 大于已读游标的消息）
+UPDATE `conversation_summary` s
+JOIN (
+    SELECT m.`to_user_id` AS `user_id`, m.`from_user_id` AS `target_id`, COUNT(*) AS `cnt`
+    FROM `chat_messages` m
+    LEFT JOIN `chat_read_cursors` c
+      ON c.`user_id` = m.`to_user_id` AND c.`conversation_type` = 'PRIVATE' AND c.`target_id` = m.`from_user_id`
+    WHERE m.`conversation_type` = 'PRIVATE'
+      AND m.`deleted_at` IS NULL
+      AND m.`to_user_id` <> m.`from_user_id`
+      AND m.`id` > IFNULL(c.`last_read_message_id`, 0)
+    GROUP BY m.`to_user_id`, m.`from_user_id`
+) u ON u.`user_id` = s.`user_id` AND u.`target_id` = s.`target_id` AND s.`conversation_type` = 'PRIVATE'
+SET s.`unread_count` = u.`cnt`;
+
+-- 4. 群聊最新消息（入群之后、未撤回、自己未删除）
+UPDATE `conversation_summary` s
+JOIN `chat_group_members` gm
+  ON gm.`user_id` = s.`user_id` AND gm.`group_id` = s.`target_id` AND s.`conversation_type` = 'GROUP'
+JOIN `chat_messages` m ON m.`id` = (
+    SELECT MAX(x.`id`)
+    FROM `chat_messages` x
+    WHERE x.`conversation_type` = 'GROUP'
+      AND x.`group_id` = gm.`group_id`
+      AND x.`deleted_at` IS NULL
+      AND x.`created_at` >= gm.`joined_at`
+      AND NOT EXISTS (
+          SELECT 1 FROM `chat_message_deletions` d
+          WHERE d.`user_id` = gm.`user_id` AND d.`message_id` = x.`id`
+      )
+)
+SET s.`last_message_id` = m.`id`,
+    s.`last_message_time` = m.`created_at`,
+    s.`last_message_preview` = CASE UPPER(m.`message_type`)
+        WHEN 'IMAGE' THEN '[图片]'
+        WHEN 'FILE' THEN '[文件]'
+        WHEN 'VIDEO' THEN '[视频]'
+        WHEN 'AUDIO' THEN '[音频]'
+        ELSE IF(CHAR_LENGTH(IFNULL(m.`content`, '')) <= 10, IFNULL(m.`content`, ''), CONCAT(LEFT(m.`content`, 10), '...'))
+    END;
+
+-- 5. 群聊未读数（口径同 ChatMessageMapper.countGroupUnread）
+UPDATE `conversation_summary` s
+JOIN (
+    SELECT gm.`user_id`, m.`group_id`, COUNT(*) AS `cnt`
+    FROM `chat_messages` m
+    JOIN `chat_group_members` gm ON gm.`group_id` = m.`group_id`
+    LEFT JOIN `chat_read_cursors` c
+      ON c.`user_id` = gm.`user_id` AND c.`conversation_type` = 'GROUP' AND c.`target_id` = m.`group_id`
+    WHERE m.`conversation_type` = 'GROUP'
+      AND m.`deleted_at` IS NULL
+      AND m.`created_at` >= gm.`joined_at`
+      AND m.`from_user_id` <> gm.`user_id`
+      AND m.`id` > IFNULL(c.`last_read_message_id`, 0)
+      AND NOT EXISTS (
+          SELECT 1 FROM `chat_message_deletions` d
+          WHERE d.`user_id` = gm.`user_id` AND d.`message_id` = m.`id`
+      )
+    GROUP BY gm.`user_id`, m.`group_id`
+) u ON u.`user_id` = s.`user_id` AND u.`group_id` = s.`target_id` AND s.`conversation_type` = 'GROUP'
+SET s.`unread_count` = u.`cnt`;
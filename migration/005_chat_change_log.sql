@@ -0,0 +1,22 @@
+-- ----------------------------
+-- 005 增量同步变更日志 chat_change_log：POST /api/chat/sync 按版本号拉取变更
+--
+-- 只追加：新消息、撤回、删除、已读游标、好友 / 群成员变更各记一行。
+-- 个人变更按用户记（scope_type = USER），群消息 / 群撤回只记一行群范围变更（scope_type = GROUP），不按成员扇出。
+-- 无需回填：客户端首次同步拿到 fullResync 后走原有全量接口，再从返回的 version 开始增量。脚本可重复执行。
+-- ----------------------------
+SET NAMES utf8mb4;
+
+CREATE TABLE IF NOT EXISTS `chat_change_log` (
+    `version` bigint NOT NULL COMMENT '变更版本（雪花 ID，按时间递增）',
+    `scope_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'USER：个人变更 / GROUP：群内所有成员可见的变更',
+    `scope_id` bigint NOT NULL COMMENT 'USER 为用户ID，GROUP 为群ID',
+    `change_type` varchar(32) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NOT NULL COMMENT 'MESSAGE_NEW / MESSAGE_RECALLED / MESSAGE_DELETED / READ / PEER_READ / FRIEND_ADDED / FRIEND_REMOVED / GROUP_JOINED',
+    `conversation_type` varchar(16) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL DEFAULT NULL COMMENT 'PRIVATE / GROUP',
+    `target_id` bigint NULL DEFAULT NULL COMMENT '私聊为对方ID，群聊为群ID，好友变更为好友ID',
+    `message_id` bigint NULL DEFAULT NULL COMMENT '涉及的消息ID（撤回为逻辑消息ID）',
+    `ref_value` bigint NULL DEFAULT NULL COMMENT '附加值：已读变更为新的已读游标',
+    `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (`version`) USING BTREE,
+    INDEX `idx_chat_change_scope_version` (`scope_type` ASC, `scope_id` ASC, `version` ASC) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci ROW_FORMAT = DYNAMIC;
@@ -2,6 +2,7 @@ package com.anime.chat.controller;
 
 import com.anime.auth.web.CurrentUser;
 import com.anime.chat.service.ChatMessageService;
+import com.anime.chat.service.ConversationExecutor;
 import com.anime.common.dto.attachment.PresignRequestDTO;
 import com.anime.common.dto.attachment.PresignResponseDTO;
 import com.anime.common.dto.chat.message.*;
@@ -27,6 +28,7 @@ import java.time.format.DateTimeFormatter;
 public class ChatMessageController {
 
     private final ChatMessageService chatMessageService;
+    private final ConversationExecutor conversationExecutor;
     private final AttachmentService attachmentService;
 
     @Operation(summary = "获取 presign（聊天上传文件）", description = "生成 presigned PUT URL，供前端上传用户文件")
@@ -80,7 +82,10 @@ public class ChatMessageController {
             @CurrentUser Long userId) {
         try {
             System.out.println("======================== read =========================");
-            MarkPrivateMessagesReadResponse resp = chatMessageService.markPrivateMessagesRead(request, userId);
+            // 已读与同一会话的发送 / 撤回在同一通道上串行，已读回执不会越过尚未推送的新消息
+            MarkPrivateMessagesReadResponse resp = conversationExecutor.call(
+                    ConversationExecutor.privateKey(userId, request.getFriendId()),
+                    () -> chatMessageService.markPrivateMessagesRead(request, userId));
             System.out.println("======================== read end =========================");
             return Result.success(resp);
         } catch (IllegalArgumentException e) {
@@ -97,7 +102,9 @@ public class ChatMessageController {
             @RequestBody MarkGroupMessagesReadRequest request,
             @CurrentUser Long userId) {
         try {
-            MarkGroupMessagesReadResponse resp = chatMessageService.markGroupMessagesRead(request, userId);
+            MarkGroupMessagesReadResponse resp = conversationExecutor.call(
+                    ConversationExecutor.groupKey(request.getGroupId()),
+                    () -> chatMessageService.markGroupMessagesRead(request, userId));
             return Result.success(resp);
         } catch (IllegalArgumentException e) {
             log.error(e.getMessage());
@@ -136,7 +143,10 @@ public class ChatMessageController {
             @RequestBody RecallMessageRequest request,
             @CurrentUser Long userId) {
         try {
-            RecallMessageResponse resp = chatMessageService.recallMessage(request, userId);
+            String laneKey = chatMessageService.conversationKeyOf(request.getMessageId());
+            RecallMessageResponse resp = laneKey == null
+                    ? chatMessageService.recallMessage(request, userId)
+                    : conversationExecutor.call(laneKey, () -> chatMessageService.recallMessage(request, userId));
             if (!resp.isAllowed()) {
                 return Result.fail(ResultCode.PARAM_ERROR, resp);
             }
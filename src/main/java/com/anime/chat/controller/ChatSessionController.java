@@ -2,14 +2,21 @@ package com.anime.chat.controller;
 
 import com.anime.auth.web.CurrentUser;
 import com.anime.chat.service.ChatSessionService;
+import com.anime.chat.service.UnreadCounterService;
 import com.anime.common.dto.chat.session.ListSessionsRequest;
 import com.anime.common.dto.chat.session.ListSessionsResponse;
+import com.anime.common.dto.chat.session.UnreadCountItem;
+import com.anime.common.dto.chat.session.UnreadCountsResponse;
 import com.anime.common.enums.ResultCode;
 import com.anime.common.result.Result;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 会话列表接口：
  * - 返回当前用户的所有会话（单聊 + 群聊），
@@ -22,6 +29,7 @@ import org.springframework.web.bind.annotation.*;
 public class ChatSessionController {
 
     private final ChatSessionService chatSessionService;
+    private final UnreadCounterService unreadCounterService;
 
     /**
      * 获取当前用户所有会话列表
@@ -47,4 +55,39 @@ public class ChatSessionController {
             return Result.fail(ResultCode.SYSTEM_ERROR, null);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取当前用户各会话的未读数（角标）
+     *
+     * 直接读 Redis 计数器（一次 HGETALL），缓存不存在时按会话摘要重建
+     */
+    @PostMapping("/unread")
+    public Result<UnreadCountsResponse> unreadCounts(
+            @CurrentUser Long userId) {
+        try {
+            Map<String, Integer> counts = unreadCounterService.getAll(userId);
+            List<UnreadCountItem> items = new ArrayList<>(counts.size());
+            int total = 0;
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                int sep = e.getKey().indexOf(':');
+                if (sep < 0) continue;
+                UnreadCountItem item = new UnreadCountItem();
+                item.setSessionType(e.getKey().substring(0, sep));
+                item.setSessionTargetId(Long.valueOf(e.getKey().substring(sep + 1)));
+                item.setUnreadCount(e.getValue());
+                items.add(item);
+                total += e.getValue();
+            }
+            UnreadCountsResponse resp = new UnreadCountsResponse();
+            resp.setTotal(total);
+            resp.setItems(items);
+            return Result.success(resp);
+        } catch (IllegalArgumentException e) {
+            log.error(e.getMessage());
+            return Result.fail(ResultCode.PARAM_ERROR, null);
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            return Result.fail(ResultCode.SYSTEM_ERROR, null);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.anime.chat.controller;
+
+import com.anime.auth.web.CurrentUser;
+import com.anime.chat.service.ChatSyncService;
+import com.anime.common.dto.chat.sync.ChatSyncRequest;
+import com.anime.common.dto.chat.sync.ChatSyncResponse;
+import com.anime.common.enums.ResultCode;
+import com.anime.common.result.Result;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * 增量同步接口：
+ * - 客户端带上次的 version 拉取之后发生的所有变更（新消息、撤回、删除、已读、好友 / 群成员变更），
+ *   不再每次重连都全量拉会话列表和历史消息。
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/chat")
+@RequiredArgsConstructor
+public class ChatSyncController {
+
+    private final ChatSyncService chatSyncService;
+
+    @PostMapping("/sync")
+    public Result<ChatSyncResponse> sync(@RequestBody(required = false) ChatSyncRequest request,
+                                         @CurrentUser Long userId) {
+        try {
+            return Result.success(chatSyncService.sync(request, userId));
+        } catch (IllegalArgumentException e) {
+            log.warn("chat sync param error userId={} err={}", userId, e.getMessage());
+            return Result.fail(ResultCode.PARAM_ERROR, null);
+        } catch (Exception e) {
+            log.error("chat sync system error userId={}", userId, e);
+            return Result.fail(ResultCode.SYSTEM_ERROR, null);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.anime.chat.service;
+
+import com.anime.chat.socket.WsClusterRouter;
+import com.anime.config.ChatProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 通话登记：callId -> 主叫、被叫、状态
+ *
+ * - 只登记进行中的通话（INVITED / CONNECTED），挂断、拒绝、超时即移除，不再无限增长
+ * - 单实例：本节点内存 Map，条数受 chat.call.max-calls 限制
+ * - 集群（chat.cluster.enabled=true）：登记在 Redis hash call:session:{callId}（带 TTL 兜底），
+ *   主叫和被叫连在不同节点上也能互相找到；状态切换用 Lua 做条件更新，挂断 / 超时并发时只有一方生效
+ * - 集群模式下 ICE 转发只需要参与方，参与方不会变化，本节点缓存几秒，ICE 不必每条都读 Redis；
+ *   本节点处理的挂断立即失效缓存，其它节点处理的挂断最多在缓存时长内继续转发 ICE
+ * - 超时由 CallService 的定时器驱动，这里只负责状态
+ */
+@Slf4j
+@Component
+public class CallRegistry {
+
+    public enum State { INVITED, CONNECTED }
+
+    /**
+     * 一通电话；connectedAt 为 0 表示尚未接通
+     */
+    public record Call(String callId, Long callerId, Long calleeId, State state, long invitedAt, long connectedAt) {
+
+        public boolean involves(Long userId) {
+            return callerId.equals(userId) || calleeId.equals(userId);
+        }
+
+        public Long peerOf(Long userId) {
+            return callerId.equals(userId) ? calleeId : callerId;
+        }
+    }
+
+    private record CachedCall(Call call, long loadedAt) {}
+
+    private static final String KEY_CALL = "call:session:%s";
+    // ICE 集中在建立连接的几秒内，缓存覆盖这段时间即可；短缓存让其它节点上的挂断很快生效
+    private static final long PARTICIPANT_CACHE_MILLIS = 5_000L;
+
+    // 不存在时才登记
+    private static final DefaultRedisScript<Long> CREATE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+              return 0
+            end
+            redis.call('HSET', KEYS[1], 'c', ARGV[1], 'e', ARGV[2], 's', 'INVITED', 'ia', ARGV[3], 'ca', '0')
+            redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            return 1
+            """, Long.class);
+
+    // INVITED -> CONNECTED（已接通时只续期），返回 0 表示通话不存在
+    private static final DefaultRedisScript<Long> CONNECT_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              return 0
+            end
+            if redis.call('HGET', KEYS[1], 's') == 'INVITED' then
+              redis.call('HSET', KEYS[1], 's', 'CONNECTED', 'ca', ARGV[1])
+            end
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // 仍在响铃时才移除
+    private static final DefaultRedisScript<Long> REMOVE_IF_INVITED_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 's') == 'INVITED' then
+              return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final WsClusterRouter clusterRouter;
+    private final ChatProperties.Call props;
+
+    // 单实例模式的登记
+    private final ConcurrentMap<String, Call> local = new ConcurrentHashMap<>();
+
+    // 集群模式：ICE 转发用的参与方缓存
+    private final ConcurrentMap<String, CachedCall> participants = new ConcurrentHashMap<>();
+
+    public CallRegistry(StringRedisTemplate redis, WsClusterRouter clusterRouter, ChatProperties chatProperties) {
+        this.redis = redis;
+        this.clusterRouter = clusterRouter;
+        this.props = chatProperties.getCall();
+    }
+
+    /**
+     * 登记一通新的呼叫；callId 已存在或本节点登记已满时返回 false
+     */
+    public boolean create(String callId, Long callerId, Long calleeId) {
+        long now = System.currentTimeMillis();
+        if (!clusterRouter.isEnabled()) {
+            if (local.size() >= props.getMaxCalls()) {
+                log.warn("CallRegistry: too many active calls ({}), rejecting callId={}", local.size(), callId);
+                return false;
+            }
+            return local.putIfAbsent(callId, new Call(callId, callerId, calleeId, State.INVITED, now, 0L)) == null;
+        }
+        // 响铃超时之后再留一段余量，主叫节点的定时器来不及处理时由 TTL 兜底清理
+        long ttlMillis = (props.getRingTimeoutSeconds() + 60L) * 1000L;
+        Long ok = redis.execute(CREATE_SCRIPT, List.of(key(callId)),
+                String.valueOf(callerId), String.valueOf(calleeId), String.valueOf(now), String.valueOf(ttlMillis));
+        return ok != null && ok > 0;
+    }
+
+    public Call get(String callId) {
+        if (callId == null) return null;
+        if (!clusterRouter.isEnabled()) return local.get(callId);
+        return parse(callId, redis.<String, String>opsForHash().entries(key(callId)));
+    }
+
+    /**
+     * 只需要参与方时使用（ICE 转发）：集群模式下优先取本节点缓存
+     */
+    public Call participants(String callId) {
+        if (callId == null) return null;
+        if (!clusterRouter.isEnabled()) return local.get(callId);
+        long now = System.currentTimeMillis();
+        CachedCall cached = participants.get(callId);
+        if (cached != null && now - cached.loadedAt() < PARTICIPANT_CACHE_MILLIS) {
+            return cached.call();
+        }
+        Call call = get(callId);
+        if (call == null) {
+            participants.remove(callId);
+        } else {
+            participants.put(callId, new CachedCall(call, now));
+        }
+        return call;
+    }
+
+    /**
+     * 接通：INVITED -> CONNECTED，返回更新后的通话；通话不存在时返回 null
+     */
+    public Call connect(String callId) {
+        long now = System.currentTimeMillis();
+        if (!clusterRouter.isEnabled()) {
+            return local.computeIfPresent(callId, (k, c) -> c.state() == State.CONNECTED ? c
+                    : new Call(c.callId(), c.callerId(), c.calleeId(), State.CONNECTED, c.invitedAt(), now));
+        }
+        long ttlMillis = (props.getMaxDurationSeconds() + 60L) * 1000L;
+        Long ok = redis.execute(CONNECT_SCRIPT, List.of(key(callId)), String.valueOf(now), String.valueOf(ttlMillis));
+        return ok != null && ok > 0 ? get(callId) : null;
+    }
+
+    /**
+     * 移除（挂断 / 拒绝 / 到期），返回被移除的通话；已被其它请求移除时返回 null
+     */
+    public Call remove(String callId) {
+        if (callId == null) return null;
+        if (!clusterRouter.isEnabled()) return local.remove(callId);
+        participants.remove(callId);
+        Call call = get(callId);
+        if (call == null) return null;
+        return Boolean.TRUE.equals(redis.delete(key(callId))) ? call : null;
+    }
+
+    /**
+     * 仍在响铃时移除（响铃超时），返回被移除的通话；已接通或已不存在时返回 null
+     */
+    public Call removeIfInvited(String callId) {
+        if (!clusterRouter.isEnabled()) {
+            Call[] removed = new Call[1];
+            local.computeIfPresent(callId, (k, c) -> {
+                if (c.state() != State.INVITED) return c;
+                removed[0] = c;
+                return null;
+            });
+            return removed[0];
+        }
+        participants.remove(callId);
+        Call call = get(callId);
+        if (call == null || call.state() != State.INVITED) return null;
+        Long ok = redis.execute(REMOVE_IF_INVITED_SCRIPT, List.of(key(callId)));
+        return ok != null && ok > 0 ? call : null;
+    }
+
+    /**
+     * 本节点登记的通话数（集群模式下登记在 Redis，返回 0）
+     */
+    public int localSize() {
+        return local.size();
+    }
+
+    @Scheduled(fixedDelay = 10_000L)
+    public void evictParticipants() {
+        long expireBefore = System.currentTimeMillis() - PARTICIPANT_CACHE_MILLIS;
+        participants.entrySet().removeIf(e -> e.getValue().loadedAt() < expireBefore);
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private Call parse(String callId, Map<String, String> h) {
+        if (h == null || h.isEmpty()) return null;
+        try {
+            return new Call(callId,
+                    Long.parseLong(h.get("c")),
+                    Long.parseLong(h.get("e")),
+                    State.valueOf(h.get("s")),
+                    Long.parseLong(h.getOrDefault("ia", "0")),
+                    Long.parseLong(h.getOrDefault("ca", "0")));
+        } catch (Exception e) {
+            log.warn("CallRegistry: bad call entry callId={} value={} err={}", callId, new HashMap<>(h), e.getMessage());
+            return null;
+        }
+    }
+
+    private static String key(String callId) {
+        return String.format(KEY_CALL, callId);
+    }
+}
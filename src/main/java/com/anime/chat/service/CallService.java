@@ -4,10 +4,9 @@ import com.anime.common.dto.chat.call.CallAnswerRequest;
 import com.anime.common.dto.chat.call.CallControlDto;
 import com.anime.common.dto.chat.call.CallInviteRequest;
 import com.anime.common.dto.chat.call.IceCandidateDto;
-import com.anime.common.entity.chat.UserFriend;
-import com.anime.common.mapper.chat.UserFriendMapper;
 import com.anime.chat.socket.WebSocketSessionManager;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.anime.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -15,11 +14,20 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * CallService - 简单信令管理：
- * - 管理 callId -> CallSession（callerId, calleeId, state）
- * - 使用 WebSocketSessionManager 直接向目标用户推送信令 envelope（type + payload）
+ * - 通话登记在 CallRegistry（callId -> callerId, calleeId, state），单实例在内存，集群模式在 Redis，
+ *   挂断 / 拒绝 / 超时即移除
+ * - 使用 WebSocketSessionManager 直接向目标用户推送信令 envelope（type + payload），对端在其它节点时由其跨节点转发
+ * - 超时由单线程 ScheduledThreadPoolExecutor（call-timeout）驱动：响铃超过 ringTimeoutSeconds 未接听，
+ *   双方收到 CALL_TIMEOUT；接通超过 maxDurationSeconds 的登记被释放。定时器挂在发起呼叫的节点上，
+ *   取消的任务立即从队列移除，通话结束后不会残留
  *
  * 这不是媒体代理，仅做信令转发与简单状态管理。
  */
@@ -28,31 +36,32 @@ import java.util.concurrent.ConcurrentHashMap;
 public class CallService {
 
     private final WebSocketSessionManager sessionManager;
-    private final ObjectMapper objectMapper;
-    private final UserFriendMapper userFriendMapper;
+    private final FriendService friendService;
+    private final CallRegistry callRegistry;
+    private final ChatProperties.Call props;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    // callId -> 本节点上挂着的超时
+    private final ConcurrentMap<String, ScheduledFuture<?>> timeouts = new ConcurrentHashMap<>();
 
     public CallService(WebSocketSessionManager sessionManager,
-                       ObjectMapper objectMapper,
-                       UserFriendMapper userFriendMapper) {
+                       FriendService friendService,
+                       CallRegistry callRegistry,
+                       ChatProperties chatProperties) {
         this.sessionManager = sessionManager;
-        this.objectMapper = objectMapper;
-        this.userFriendMapper = userFriendMapper;
-    }
-
-    private static class CallSession {
-        final Long callerId;
-        final Long calleeId;
-        volatile State state;
-        CallSession(Long callerId, Long calleeId, State state) {
-            this.callerId = callerId; this.calleeId = calleeId; this.state = state;
-        }
+        this.friendService = friendService;
+        this.callRegistry = callRegistry;
+        this.props = chatProperties.getCall();
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r);
+            t.setName("call-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
     }
 
-    private enum State { INVITED, CONNECTED, ENDED }
-
-    // callId -> session
-    private final Map<String, CallSession> calls = new ConcurrentHashMap<>();
-
     /**
      * 发起呼叫（caller 发来 offer）：
      * - 生成 callId（如果请求中没提供）
@@ -64,14 +73,9 @@ public class CallService {
         Long calleeId = req.getTargetUserId();
         if (calleeId == null) throw new IllegalArgumentException("targetUserId required");
 
-        // 可选：只允许好友互相呼叫 — 若不需要可去掉这段
+        // 只允许好友互相呼叫（好友关系走缓存，不再每次查库）
         try {
-            var friends = userFriendMapper.selectList(
-                    com.baomidou.mybatisplus.core.toolkit.Wrappers.<UserFriend>lambdaQuery()
-                            .eq(UserFriend::getUserId, callerId)
-                            .eq(UserFriend::getFriendId, calleeId)
-            );
-            if (friends == null || friends.isEmpty()) {
+            if (!friendService.isFriend(callerId, calleeId)) {
                 log.info("CallService: caller {} is not friend with {}", callerId, calleeId);
                 return null;
             }
@@ -82,8 +86,11 @@ public class CallService {
         String callId = req.getCallId();
         if (callId == null || callId.isBlank()) callId = UUID.randomUUID().toString();
 
-        CallSession cs = new CallSession(callerId, calleeId, State.INVITED);
-        calls.put(callId, cs);
+        if (!callRegistry.create(callId, callerId, calleeId)) {
+            log.warn("CallService: cannot register callId={} (duplicate or registry full)", callId);
+            return null;
+        }
+        schedule(callId, TimeUnit.SECONDS.toMillis(props.getRingTimeoutSeconds()));
 
         // build payload to callee using a mutable map (allows null values)
         Map<String, Object> payload = new HashMap<>();
@@ -104,22 +111,13 @@ public class CallService {
     }
 
     /**
-     * 处理 answer：找到 call 会话并把 answer 转发给另一方（caller）。
+     * 处理 answer：找到 call 会话并把 answer 转发给另一方（caller），通话进入 CONNECTED。
      */
     public boolean handleAnswer(Long responderId, CallAnswerRequest req) {
         String callId = req.getCallId();
         if (callId == null) return false;
-        CallSession cs = calls.get(callId);
-        if (cs == null) {
-            log.warn("CallService.handleAnswer: unknown callId={}", callId);
-            return false;
-        }
-        // Only allow callee to send answer to caller
-        if (!responderId.equals(cs.calleeId)) {
-            log.warn("CallService.handleAnswer: responder {} not callee for call {}", responderId, callId);
-            return false;
-        }
-        cs.state = State.CONNECTED;
+        CallRegistry.Call call = connectAsCallee(responderId, callId, "handleAnswer");
+        if (call == null) return false;
 
         Map<String, Object> payload = new HashMap<>();
         payload.put("callId", callId);
@@ -127,8 +125,8 @@ public class CallService {
         payload.put("sdp", req.getSdp());
 
         try {
-            sessionManager.sendToUser(cs.callerId, "CALL_ANSWER", payload);
-            log.info("CallService: forwarded CALL_ANSWER callId={} from {} -> {}", callId, responderId, cs.callerId);
+            sessionManager.sendToUser(call.callerId(), "CALL_ANSWER", payload);
+            log.info("CallService: forwarded CALL_ANSWER callId={} from {} -> {}", callId, responderId, call.callerId());
         } catch (Exception e) {
             log.warn("CallService: failed to forward CALL_ANSWER callId={} err={}", callId, e.getMessage(), e);
             return false;
@@ -136,23 +134,45 @@ public class CallService {
         return true;
     }
 
+    /**
+     * 处理接听（CALL_ACCEPT）：只允许被叫发送，通话进入 CONNECTED 并通知主叫；与挂断不同，登记保留
+     */
+    public boolean handleAccept(Long senderId, CallControlDto ctrl) {
+        if (ctrl == null || ctrl.getCallId() == null) return false;
+        String callId = ctrl.getCallId();
+        CallRegistry.Call call = connectAsCallee(senderId, callId, "handleAccept");
+        if (call == null) return false;
+
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("callId", callId);
+        payload.put("fromUserId", senderId);
+        payload.put("reason", ctrl.getReason());
+
+        try {
+            sessionManager.sendToUser(call.callerId(), "CALL_ACCEPT", payload);
+            log.info("CallService: forwarded CALL_ACCEPT callId={} from {} -> {}", callId, senderId, call.callerId());
+        } catch (Exception e) {
+            log.warn("CallService: failed to forward CALL_ACCEPT callId={} err={}", callId, e.getMessage(), e);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 中继 ICE candidate：寻找 call，并把 candidate 转发给对等方
      */
     public boolean handleIce(Long senderId, IceCandidateDto c) {
         if (c == null || c.getCallId() == null) return false;
-        CallSession cs = calls.get(c.getCallId());
-        if (cs == null) {
+        CallRegistry.Call call = callRegistry.participants(c.getCallId());
+        if (call == null) {
             log.warn("CallService.handleIce: unknown callId={}", c.getCallId());
             return false;
         }
-        Long peer;
-        if (senderId.equals(cs.callerId)) peer = cs.calleeId;
-        else if (senderId.equals(cs.calleeId)) peer = cs.callerId;
-        else {
+        if (!call.involves(senderId)) {
             log.warn("CallService.handleIce: sender {} not part of call {}", senderId, c.getCallId());
             return false;
         }
+        Long peer = call.peerOf(senderId);
 
         Map<String, Object> payload = new HashMap<>();
         payload.put("callId", c.getCallId());
@@ -171,17 +191,26 @@ public class CallService {
     }
 
     /**
-     * 处理挂断（或拒绝）：通知另一方并标记会话结束
+     * 处理挂断（或拒绝）：通知另一方并移除登记
      */
     public boolean handleHangup(Long senderId, CallControlDto ctrl, String eventType) {
         if (ctrl == null || ctrl.getCallId() == null) return false;
         String callId = ctrl.getCallId();
-        CallSession cs = calls.remove(callId);
-        if (cs == null) {
+        CallRegistry.Call call = callRegistry.get(callId);
+        if (call == null) {
             log.warn("CallService.handleHangup: unknown callId={}", callId);
             return false;
         }
-        Long peer = senderId.equals(cs.callerId) ? cs.calleeId : cs.callerId;
+        if (!call.involves(senderId)) {
+            log.warn("CallService.handleHangup: sender {} not part of call {}", senderId, callId);
+            return false;
+        }
+        if (callRegistry.remove(callId) == null) {
+            // 另一方同时挂断 / 已超时，对方已经收到通知
+            return false;
+        }
+        cancelTimeout(callId);
+        Long peer = call.peerOf(senderId);
 
         Map<String, Object> payload = new HashMap<>();
         payload.put("callId", callId);
@@ -202,19 +231,110 @@ public class CallService {
      * 查询 call 是否存在（用于前端/调试）
      */
     public boolean exists(String callId) {
-        return callId != null && calls.containsKey(callId);
+        return callRegistry.get(callId) != null;
     }
 
     /**
      * 若需要，可以提供结束并通知两个端的方法
      */
     public void forceEndCall(String callId) {
-        CallSession cs = calls.remove(callId);
-        if (cs == null) return;
+        endCall(callRegistry.remove(callId), "CALL_ENDED", "terminated_by_server");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private CallRegistry.Call connectAsCallee(Long userId, String callId, String op) {
+        CallRegistry.Call call = callRegistry.get(callId);
+        if (call == null) {
+            log.warn("CallService.{}: unknown callId={}", op, callId);
+            return null;
+        }
+        // Only allow callee to answer / accept
+        if (!userId.equals(call.calleeId())) {
+            log.warn("CallService.{}: responder {} not callee for call {}", op, userId, callId);
+            return null;
+        }
+        CallRegistry.Call connected = callRegistry.connect(callId);
+        if (connected == null) {
+            log.warn("CallService.{}: call {} ended before connect", op, callId);
+        }
+        return connected;
+    }
+
+    /**
+     * 挂一个超时（同一通话只保留最新的一个）
+     */
+    private void schedule(String callId, long delayMillis) {
+        AtomicReference<ScheduledFuture<?>> self = new AtomicReference<>();
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            timeouts.remove(callId, self.get());
+            onTimeout(callId);
+        }, Math.max(0L, delayMillis), TimeUnit.MILLISECONDS);
+        self.set(timeout);
+        ScheduledFuture<?> old = timeouts.put(callId, timeout);
+        if (old != null) old.cancel(false);
+        // 已经在 put 之前触发过的不再保留
+        if (timeout.isDone()) timeouts.remove(callId, timeout);
+    }
+
+    private void cancelTimeout(String callId) {
+        ScheduledFuture<?> t = timeouts.remove(callId);
+        if (t != null) t.cancel(false);
+    }
+
+    /**
+     * 超时到达：仍在响铃则结束并发 CALL_TIMEOUT；已接通则按接通时间重新计时，超过最长时长释放
+     * （接听可能发生在其它节点上，所以这里以登记中的状态为准，而不是由接听方取消定时器）
+     */
+    private void onTimeout(String callId) {
+        try {
+            CallRegistry.Call call = callRegistry.get(callId);
+            if (call == null) return;
+            long now = System.currentTimeMillis();
+            if (call.state() == CallRegistry.State.INVITED) {
+                long deadline = call.invitedAt() + TimeUnit.SECONDS.toMillis(props.getRingTimeoutSeconds());
+                if (now < deadline) {
+                    schedule(callId, deadline - now);
+                } else {
+                    CallRegistry.Call removed = callRegistry.removeIfInvited(callId);
+                    if (removed != null) {
+                        endCall(removed, "CALL_TIMEOUT", "no_answer");
+                    } else {
+                        // 刚好被接通，按接通后的规则再检查一次
+                        schedule(callId, 0L);
+                    }
+                }
+                return;
+            }
+            long deadline = call.connectedAt() + TimeUnit.SECONDS.toMillis(props.getMaxDurationSeconds());
+            if (now < deadline) {
+                schedule(callId, deadline - now);
+            } else {
+                endCall(callRegistry.remove(callId), "CALL_ENDED", "max_duration");
+            }
+        } catch (Exception e) {
+            log.warn("CallService: timeout handling failed callId={} err={}", callId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 通知双方通话结束（call 为 null 表示已被其它请求结束，不重复通知）
+     */
+    private void endCall(CallRegistry.Call call, String eventType, String reason) {
+        if (call == null) return;
+        cancelTimeout(call.callId());
         Map<String, Object> payload = new HashMap<>();
-        payload.put("callId", callId);
-        payload.put("reason", "terminated_by_server");
-        sessionManager.sendToUser(cs.callerId, "CALL_ENDED", payload);
-        sessionManager.sendToUser(cs.calleeId, "CALL_ENDED", payload);
+        payload.put("callId", call.callId());
+        payload.put("reason", reason);
+        sessionManager.sendToUser(call.callerId(), eventType, payload);
+        sessionManager.sendToUser(call.calleeId(), eventType, payload);
+        log.info("CallService: {} callId={} reason={}", eventType, call.callId(), reason);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package com.anime.chat.service;
+
+import com.anime.common.entity.chat.ChatChangeLog;
+import com.anime.common.mapper.chat.ChatChangeLogMapper;
+import com.anime.common.service.MessageIdGenerator;
+import com.anime.config.ChatProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 聊天变更日志（只追加）：增量同步 /api/chat/sync 的数据来源
+ *
+ * 个人变更按用户记一行（scope USER），群消息 / 群撤回只记一行群范围变更（scope GROUP），
+ * 读取时按“本人 + 所在各群”拼出一个用户的变更流。version 用雪花 ID 在写入前生成。
+ * 调用方在自己的事务里追加，变更与业务数据一起提交或回滚。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatChangeLogService {
+
+    public static final String SCOPE_USER = "USER";
+    public static final String SCOPE_GROUP = "GROUP";
+
+    public static final String MESSAGE_NEW = "MESSAGE_NEW";
+    public static final String MESSAGE_RECALLED = "MESSAGE_RECALLED";
+    public static final String MESSAGE_DELETED = "MESSAGE_DELETED";
+    public static final String READ = "READ";
+    public static final String PEER_READ = "PEER_READ";
+    public static final String FRIEND_ADDED = "FRIEND_ADDED";
+    public static final String FRIEND_REMOVED = "FRIEND_REMOVED";
+    public static final String GROUP_JOINED = "GROUP_JOINED";
+
+    private static final int INSERT_CHUNK_ROWS = 500;
+    private static final int PURGE_CHUNK_ROWS = 5000;
+
+    private final ChatChangeLogMapper changeLogMapper;
+    private final MessageIdGenerator messageIdGenerator;
+    private final ChatProperties chatProperties;
+
+    /**
+     * 个人范围的一条变更（targetId：私聊为对方ID，群聊为群ID）
+     */
+    public ChatChangeLog userChange(Long userId, String changeType, String conversationType,
+                                    Long targetId, Long messageId, Long refValue) {
+        return build(SCOPE_USER, userId, changeType, conversationType, targetId, messageId, refValue);
+    }
+
+    /**
+     * 群范围的一条变更：群内所有成员同步时都能看到
+     */
+    public ChatChangeLog groupChange(Long groupId, String changeType, Long messageId) {
+        return build(SCOPE_GROUP, groupId, changeType, "GROUP", groupId, messageId, null);
+    }
+
+    public void append(ChatChangeLog... changes) {
+        append(Arrays.asList(changes));
+    }
+
+    /**
+     * 多条变更一次多行 INSERT 写入（需在调用方事务内）
+     */
+    public void append(List<ChatChangeLog> changes) {
+        List<ChatChangeLog> rows = changes.stream().filter(Objects::nonNull).toList();
+        for (int i = 0; i < rows.size(); i += INSERT_CHUNK_ROWS) {
+            changeLogMapper.insertBatch(rows.subList(i, Math.min(rows.size(), i + INSERT_CHUNK_ROWS)));
+        }
+    }
+
+    /**
+     * 最早仍保留的版本号：早于它的 sinceVersion 无法增量同步
+     */
+    public long retainedFromVersion() {
+        long retentionMillis = Math.max(1, chatProperties.getSync().getRetentionDays()) * 86_400_000L;
+        return messageIdGenerator.floorIdAt(System.currentTimeMillis() - retentionMillis);
+    }
+
+    /**
+     * 每小时清理一次保留期之外的变更，分批删除避免长事务
+     */
+    @Scheduled(fixedDelay = 3_600_000L, initialDelay = 300_000L)
+    public void purgeExpired() {
+        try {
+            long before = retainedFromVersion();
+            long total = 0;
+            int deleted;
+            do {
+                deleted = changeLogMapper.deleteBefore(before, PURGE_CHUNK_ROWS);
+                total += deleted;
+            } while (deleted >= PURGE_CHUNK_ROWS);
+            if (total > 0) {
+                log.info("chat change log purged rows={} beforeVersion={}", total, before);
+            }
+        } catch (Exception e) {
+            log.warn("chat change log purge failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private ChatChangeLog build(String scopeType, Long scopeId, String changeType, String conversationType,
+                                Long targetId, Long messageId, Long refValue) {
+        if (scopeId == null) return null;
+        ChatChangeLog c = new ChatChangeLog();
+        c.setVersion(messageIdGenerator.nextId());
+        c.setScopeType(scopeType);
+        c.setScopeId(scopeId);
+        c.setChangeType(changeType);
+        c.setConversationType(conversationType);
+        c.setTargetId(targetId);
+        c.setMessageId(messageId);
+        c.setRefValue(refValue);
+        return c;
+    }
+}
@@ -3,11 +3,8 @@ package com.anime.chat.service;
 import com.anime.common.dto.chat.group.*;
 import com.anime.common.entity.chat.ChatGroup;
 import com.anime.common.entity.chat.ChatGroupMember;
-import com.anime.common.entity.user.User;
 import com.anime.common.mapper.chat.ChatGroupMapper;
 import com.anime.common.mapper.chat.ChatGroupMemberMapper;
-import com.anime.common.mapper.user.UserMapper;
-import com.anime.common.service.AttachmentService;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.RequiredArgsConstructor;
@@ -16,6 +13,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Service
@@ -23,8 +21,9 @@ import java.util.stream.Collectors;
 public class ChatGroupService extends ServiceImpl<ChatGroupMapper, ChatGroup> {
 
     private final ChatGroupMemberMapper groupMemberMapper;
-    private final UserMapper userMapper;
-    private final AttachmentService attachmentService;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ChatChangeLogService changeLogService;
+    private final UserProfileLoader userProfileLoader;
 
     @Transactional
     public CreateGroupResponse createGroup(CreateGroupRequest request, Long ownerId) {
@@ -64,6 +63,9 @@ public class ChatGroupService extends ServiceImpl<ChatGroupMapper, ChatGroup> {
         m.setUserId(userId);
         m.setRole(role);
         groupMemberMapper.insert(m);
+        conversationSummaryService.ensure(userId, ConversationSummaryService.GROUP, groupId);
+        changeLogService.append(changeLogService.userChange(userId, ChatChangeLogService.GROUP_JOINED,
+                "GROUP", groupId, null, null));
     }
 
     public ListGroupsResponse listMyGroups(ListGroupsRequest request, Long currentUserId) {
@@ -113,25 +115,25 @@ public class ChatGroupService extends ServiceImpl<ChatGroupMapper, ChatGroup> {
             return resp;
         }
 
-        // 2. 查用户信息
+        // 2. 批量查用户信息和头像
         List<Long> userIds = links.stream().map(ChatGroupMember::getUserId).distinct().toList();
-        List<User> users = userMapper.selectBatchIds(userIds);
+        Map<Long, UserProfileLoader.UserProfile> profiles = userProfileLoader.loadAll(userIds, 3600);
         Map<Long, ChatGroupMember> roleMap = links.stream()
-                .collect(Collectors.toMap(ChatGroupMember::getUserId, m -> m));
+                .collect(Collectors.toMap(ChatGroupMember::getUserId, m -> m, (a, b) -> a));
 
         // 3. 转 DTO
-        List<GroupMember> members = users.stream().map(u -> {
-            GroupMember gm = new GroupMember();
-            gm.setUserId(u.getId());
-            gm.setUsername(u.getUsername());
-            gm.setEmail(u.getEmail());
-            gm.setRole(roleMap.get(u.getId()).getRole());
-            Long avatarAttId = userMapper.getAvatarAttachmentIdById(u.getId());
-            if (avatarAttId != null) {
-                gm.setAvatarUrl(attachmentService.generatePresignedGetUrl(avatarAttId, 3600));
-            }
-            return gm;
-        }).toList();
+        List<GroupMember> members = userIds.stream()
+                .map(profiles::get)
+                .filter(Objects::nonNull)
+                .map(u -> {
+                    GroupMember gm = new GroupMember();
+                    gm.setUserId(u.id());
+                    gm.setUsername(u.username());
+                    gm.setEmail(u.email());
+                    gm.setRole(roleMap.get(u.id()).getRole());
+                    gm.setAvatarUrl(u.avatarUrl());
+                    return gm;
+                }).toList();
         resp.setMembers(members);
         return resp;
     }
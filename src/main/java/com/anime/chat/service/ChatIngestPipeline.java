@@ -0,0 +1,234 @@
+package com.anime.chat.service;
+
+import com.anime.common.entity.chat.ChatMessage;
+import com.anime.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送消息的组提交管道
+ *
+ * 调用线程只做准备工作（幂等判重、附件确认、生成 id），然后把消息放进有界队列；
+ * 单个写入线程每隔几毫秒把队列里的消息（可跨会话）合并成多行 INSERT，一个事务提交。
+ * 返回的 future 在该批提交后才完成，ACK / NEW_MESSAGE 挂在 future 上，保证“确认即已落库”。
+ * future 在消息所属会话的通道（ConversationExecutor）上完成：同一会话的投递按提交顺序串行，
+ * 不同会话的投递分散在各通道上，一个慢的群扇出或预签名不会拖住其它会话。
+ *
+ * 队列满时调用方（会话通道）最多阻塞 offer-timeout-millis 等待空位，仍然放不下就拒绝（失败的 future），
+ * 不绕过队列在调用线程上单独写库，否则这条消息会越过队列里同一会话更早的消息先落库。
+ *
+ * 队列只在内存里：进程宕机时未提交的消息没有 ACK，客户端按 clientMessageId 重发，由幂等索引去重。
+ */
+@Slf4j
+@Component
+public class ChatIngestPipeline {
+
+    private static final long IDLE_POLL_MILLIS = 50L;
+
+    private final ChatMessageService chatMessageService;
+    private final ConversationExecutor conversationExecutor;
+    private final ChatProperties.Ingest props;
+
+    private final BlockingQueue<PendingSend> queue;
+    private final Thread writer;
+
+    private final DistributionSummary batchSize;
+    private final Counter rejected;
+
+    private volatile boolean running;
+
+    /**
+     * 落库结果；groupMemberIds 为准备阶段查到的群成员（群消息扇出直接使用，幂等命中或私聊时为空）
+     */
+    public record Sent(ChatMessage message, List<Long> groupMemberIds) {}
+
+    private record PendingSend(ChatMessageService.PreparedMessage message, CompletableFuture<Sent> future) {}
+
+    public ChatIngestPipeline(ChatMessageService chatMessageService,
+                              ConversationExecutor conversationExecutor,
+                              ChatProperties chatProperties,
+                              MeterRegistry meterRegistry) {
+        this.chatMessageService = chatMessageService;
+        this.conversationExecutor = conversationExecutor;
+        this.props = chatProperties.getIngest();
+
+        if (props.isEnabled()) {
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, props.getQueueCapacity()));
+            this.batchSize = DistributionSummary.builder("chat.ingest.batch.size").register(meterRegistry);
+            this.rejected = Counter.builder("chat.ingest.rejected").register(meterRegistry);
+            Gauge.builder("chat.ingest.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+
+            this.running = true;
+            this.writer = new Thread(this::runWriter, "chat-ingest-writer");
+            writer.setDaemon(true);
+            writer.start();
+            log.info("ChatIngestPipeline enabled queueCapacity={} maxBatchSize={} flushIntervalMillis={}",
+                    props.getQueueCapacity(), props.getMaxBatchSize(), props.getFlushIntervalMillis());
+        } else {
+            this.queue = null;
+            this.batchSize = null;
+            this.rejected = null;
+            this.writer = null;
+        }
+    }
+
+    /**
+     * 提交一条消息。参数错误等准备阶段的异常通过失败的 future 返回；
+     * 未开启组提交时在调用线程上同步写库，返回已完成的 future（行为与直接调用 saveMessage 一致）。
+     */
+    public CompletableFuture<Sent> submit(String conversationType,
+                                                 Long fromUserId,
+                                                 Long toUserId,
+                                                 Long groupId,
+                                                 String messageType,
+                                                 String content,
+                                                 Long attachmentId,
+                                                 String clientMessageId) {
+        try {
+            ChatMessageService.PreparedMessage p = chatMessageService.prepareMessage(conversationType,
+                    fromUserId, toUserId, groupId, messageType, content, attachmentId, clientMessageId);
+            if (p.existing() != null) {
+                return CompletableFuture.completedFuture(new Sent(p.existing(), List.of()));
+            }
+            if (!props.isEnabled()) {
+                return CompletableFuture.completedFuture(new Sent(chatMessageService.persistPrepared(p), p.groupMemberIds()));
+            }
+
+            PendingSend pending = new PendingSend(p, new CompletableFuture<>());
+            // 队列满时在会话通道上限时等待，写库变慢时对发送方形成背压；超时（或正在关闭）则拒绝，客户端未收到 ACK 会重发
+            if (running && queue.offer(pending, Math.max(0L, props.getOfferTimeoutMillis()), TimeUnit.MILLISECONDS)) {
+                return pending.future();
+            }
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "chat ingest queue full, clientMessageId=" + clientMessageId));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) return;
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写入线程没能及时退出时，剩余消息在当前线程写完
+        List<PendingSend> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private void runWriter() {
+        int maxBatch = Math.max(1, props.getMaxBatchSize());
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, props.getFlushIntervalMillis()));
+        List<PendingSend> batch = new ArrayList<>(maxBatch);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingSend first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // 凑批：先把已排队的一次取走，不够一批再等到 linger 截止
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) break;
+                    PendingSend next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("chat ingest writer loop error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingSend> batch) {
+        if (batch.isEmpty()) return;
+        batchSize.record(batch.size());
+
+        List<ChatMessageService.PreparedMessage> prepared = new ArrayList<>(batch.size());
+        for (PendingSend s : batch) {
+            prepared.add(s.message());
+        }
+
+        List<ChatMessage> saved;
+        try {
+            saved = chatMessageService.persistBatch(prepared);
+        } catch (Exception e) {
+            // 整批已回滚（通常是并发重复发送撞了唯一索引），逐条重试以隔离出问题的那条
+            log.warn("chat ingest batch of {} failed, retrying one by one: {}", batch.size(), e.getMessage());
+            for (PendingSend s : batch) {
+                try {
+                    release(s, chatMessageService.persistPrepared(s.message()));
+                } catch (Exception ex) {
+                    log.warn("chat ingest persist failed fromUserId={} clientMessageId={}: {}",
+                            s.message().primary().getFromUserId(), s.message().primary().getClientMessageId(), ex.getMessage());
+                    onLane(s, () -> s.future().completeExceptionally(ex));
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            release(batch.get(i), saved.get(i));
+        }
+    }
+
+    private void release(PendingSend s, ChatMessage saved) {
+        onLane(s, () -> s.future().complete(new Sent(saved, s.message().groupMemberIds())));
+    }
+
+    /**
+     * 在消息所属会话的通道上完成 future；通道队列已满时退回写入线程直接完成（仍按批内顺序），不丢 ACK
+     */
+    private void onLane(PendingSend s, Runnable completion) {
+        ChatMessage m = s.message().primary();
+        String key = m.getGroupId() != null
+                ? ConversationExecutor.groupKey(m.getGroupId())
+                : ConversationExecutor.privateKey(m.getFromUserId(), s.message().toUserId());
+        conversationExecutor.submit(key, () -> {
+            completion.run();
+            return null;
+        }).whenComplete((r, e) -> {
+            if (e != null && !s.future().isDone()) {
+                log.warn("chat ingest release on lane {} rejected, completing on writer: {}", key, e.getMessage());
+                completion.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package com.anime.chat.service;
+
+import com.anime.common.entity.chat.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+/**
+ * 发送幂等索引：Redis key chat:idem:{fromUserId}:{clientMessageId}
+ *
+ * - 首次发送用 SET NX 占位（短 TTL 的 PENDING），占位成功说明是新消息，saveMessage 不必再查库判重
+ * - 事务提交后把值替换为保存结果（JSON），客户端重连后的重复发送直接由 Redis 应答，不访问 MySQL
+ * - 占位失败但值仍是 PENDING（并发的同一条消息正在写入）或 Redis 不可用时返回 UNKNOWN，
+ *   由调用方回退到原有的查库 + 唯一索引判重逻辑，正确性始终由唯一索引 uq_chat_messages_from_client 兜底
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatMessageIdempotencyService {
+
+    private static final String KEY_IDEM = "chat:idem:%d:%s";
+    private static final String PENDING = "P";
+    // 占位有效期：写入失败/回滚时不需要主动清理，过期即可重试
+    private static final Duration PENDING_TTL = Duration.ofSeconds(30);
+    // 结果保留时间：覆盖客户端断线重连后的重发窗口
+    private static final Duration RESULT_TTL = Duration.ofHours(24);
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper objectMapper;
+
+    public enum State {
+        /** 本次请求占位成功：确定是新消息 */
+        CLAIMED,
+        /** 重复发送：message 为首次保存的结果 */
+        DUPLICATE,
+        /** 无法判断，调用方查库判重 */
+        UNKNOWN
+    }
+
+    public record Lookup(State state, ChatMessage message) {
+        public static final Lookup UNKNOWN = new Lookup(State.UNKNOWN, null);
+    }
+
+    public Lookup lookup(Long fromUserId, String clientMessageId) {
+        if (fromUserId == null || clientMessageId == null || clientMessageId.isBlank()) {
+            return Lookup.UNKNOWN;
+        }
+        String key = key(fromUserId, clientMessageId);
+        try {
+            Boolean claimed = redis.opsForValue().setIfAbsent(key, PENDING, PENDING_TTL);
+            if (Boolean.TRUE.equals(claimed)) {
+                return new Lookup(State.CLAIMED, null);
+            }
+            String value = redis.opsForValue().get(key);
+            if (value == null || PENDING.equals(value)) {
+                return Lookup.UNKNOWN;
+            }
+            return new Lookup(State.DUPLICATE, objectMapper.readValue(value, ChatMessage.class));
+        } catch (Exception e) {
+            log.warn("idempotency lookup failed fromUserId={} clientMessageId={} err={}",
+                    fromUserId, clientMessageId, e.getMessage());
+            return Lookup.UNKNOWN;
+        }
+    }
+
+    /**
+     * 记录保存结果（当前事务提交后才写入 Redis），原样返回 saved 方便调用方 return
+     */
+    public ChatMessage remember(Long fromUserId, String clientMessageId, ChatMessage saved) {
+        if (fromUserId == null || clientMessageId == null || clientMessageId.isBlank() || saved == null) {
+            return saved;
+        }
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(saved);
+        } catch (Exception e) {
+            log.warn("idempotency serialize failed fromUserId={} clientMessageId={} err={}",
+                    fromUserId, clientMessageId, e.getMessage());
+            return saved;
+        }
+        String key = key(fromUserId, clientMessageId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    write(key, json);
+                }
+            });
+        } else {
+            write(key, json);
+        }
+        return saved;
+    }
+
+    private void write(String key, String json) {
+        try {
+            redis.opsForValue().set(key, json, RESULT_TTL);
+        } catch (Exception e) {
+            log.warn("idempotency write failed key={} err={}", key, e.getMessage());
+        }
+    }
+
+    private static String key(Long fromUserId, String clientMessageId) {
+        return String.format(KEY_IDEM, fromUserId, clientMessageId);
+    }
+}
@@ -3,12 +3,15 @@ package com.anime.chat.service;
 import com.anime.chat.socket.WsEventPublisher;
 import com.anime.common.dto.chat.message.*;
 import com.anime.common.dto.chat.session.SessionItem;
-import com.anime.common.entity.attachment.Attachment;
+import com.anime.common.entity.chat.ChatChangeLog;
 import com.anime.common.entity.chat.ChatMessage;
+import com.anime.common.entity.chat.ConversationSummary;
 import com.anime.common.enums.SocketType;
 import com.anime.common.mapper.chat.ChatGroupMemberMapper;
+import com.anime.common.mapper.chat.ChatMessageDeletionMapper;
 import com.anime.common.mapper.chat.ChatMessageMapper;
 import com.anime.common.service.AttachmentService;
+import com.anime.common.service.MessageIdGenerator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DuplicateKeyException;
@@ -19,7 +22,10 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -33,12 +39,40 @@ public class ChatMessageService {
 
     private final ChatMessageMapper chatMessageMapper;
     private final ChatGroupMemberMapper chatGroupMemberMapper;
+    private final ReadCursorService readCursorService;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ChatChangeLogService changeLogService;
+    private final ChatMessageIdempotencyService idempotencyService;
+    private final MessageIdGenerator messageIdGenerator;
+    private final ChatMessageDeletionMapper chatMessageDeletionMapper;
     private final AttachmentService attachmentService;
     private final ChatSessionService chatSessionService;
+    private final GroupSessionNotifier groupSessionNotifier;
     private final WsEventPublisher wsEventPublisher;
 
     private static final Duration RECALL_WINDOW = Duration.ofMinutes(3);
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
+    // 单条多行 INSERT 最多携带的记录数，避免超过 max_allowed_packet
+    private static final int INSERT_CHUNK_ROWS = 500;
+
+    /**
+     * 一页历史消息：messages 按 id 倒序，nextCursor 为同方向下一次请求要带的游标
+     */
+    private record HistoryPage(List<ChatMessageDTO> messages, boolean hasMore, Long nextCursor) {}
+
+    /**
+     * 待写入的一条消息：rows 为要插入的记录（私聊为发送者/接收者两条视角，群聊为一条规范记录），
+     * primary 为返回给发送者的那条；existing 非空表示幂等命中，直接返回首次结果，不再写库
+     */
+    public record PreparedMessage(ChatMessage primary,
+                                  List<ChatMessage> rows,
+                                  Long toUserId,
+                                  List<Long> groupMemberIds,
+                                  ChatMessage existing) {}
+
     @Transactional
     public ChatMessage saveMessage(String conversationType,
                                    Long fromUserId,
@@ -48,176 +82,281 @@ public class ChatMessageService {
                                    String content,
                                    Long attachmentId,
                                    String clientMessageId) {
+        PreparedMessage p = prepareMessage(conversationType, fromUserId, toUserId, groupId,
+                messageType, content, attachmentId, clientMessageId);
+        return p.existing() != null ? p.existing() : persistPrepared(p);
+    }
+
+    /**
+     * 写库前的准备：幂等判重、确认附件、参数校验，并在插入前生成全部记录（含 id）。
+     * 不开事务，可以在调用线程上执行，真正的写入交给 persistPrepared / persistBatch。
+     */
+    public PreparedMessage prepareMessage(String conversationType,
+                                          Long fromUserId,
+                                          Long toUserId,
+                                          Long groupId,
+                                          String messageType,
+                                          String content,
+                                          Long attachmentId,
+                                          String clientMessageId) {
+
+        // 幂等：先查 Redis 索引，重复发送直接返回首次结果（不访问 MySQL，也不重复确认附件）
+        ChatMessageIdempotencyService.Lookup idem = idempotencyService.lookup(fromUserId, clientMessageId);
+        if (idem.state() == ChatMessageIdempotencyService.State.DUPLICATE) {
+            return new PreparedMessage(null, List.of(), toUserId, List.of(), idem.message());
+        }
 
         if (attachmentId != null) {
-            Attachment a = attachmentService.getAttachmentById(attachmentId);
             attachmentService.completeUpload(attachmentId);
         }
 
-        if (clientMessageId != null && !clientMessageId.isBlank()) {
-            List<ChatMessage> existing = chatMessageMapper.selectByFromAndClientId(fromUserId, clientMessageId);
-            if (existing != null && !existing.isEmpty()) {
-                for (ChatMessage m : existing) {
-                    if (m.getToUserId() != null && m.getToUserId().equals(fromUserId)) {
-                        return m;
-                    }
-                }
-                return existing.get(0);
+        // Redis 占位成功即确定是新消息；否则（并发重复 / Redis 不可用）回退到查库判重
+        if (idem.state() != ChatMessageIdempotencyService.State.CLAIMED) {
+            ChatMessage existing = findExisting(fromUserId, clientMessageId);
+            if (existing != null) {
+                return new PreparedMessage(null, List.of(), toUserId, List.of(),
+                        idempotencyService.remember(fromUserId, clientMessageId, existing));
             }
         }
 
+        LocalDateTime now = LocalDateTime.now();
         if ("PRIVATE".equalsIgnoreCase(conversationType)) {
             if (toUserId == null) {
                 throw new IllegalArgumentException("私聊消息的 toUserId 不能为空");
             }
 
-            try {
-                ChatMessage senderView = new ChatMessage();
-                senderView.setClientMessageId(clientMessageId);
-                senderView.setConversationType("PRIVATE");
-                senderView.setFromUserId(fromUserId);
-                senderView.setToUserId(fromUserId);
-                senderView.setGroupId(null);
-                senderView.setMessageType(messageType);
-                senderView.setContent(content);
-                senderView.setAttachmentId(attachmentId);
-                senderView.setIsRead(1);
-                senderView.setDeletedAt(null);
-
-                chatMessageMapper.insert(senderView);
-                Long logicId = senderView.getId();
-                senderView.setLogicMessageId(logicId);
-                chatMessageMapper.updateById(senderView);
-
-                ChatMessage receiverView = new ChatMessage();
-                receiverView.setClientMessageId(clientMessageId);
-                receiverView.setConversationType("PRIVATE");
-                receiverView.setFromUserId(fromUserId);
-                receiverView.setToUserId(toUserId);
-                receiverView.setGroupId(null);
-                receiverView.setMessageType(messageType);
-                receiverView.setContent(content);
-                receiverView.setAttachmentId(attachmentId);
-                receiverView.setIsRead(0);
-                receiverView.setDeletedAt(null);
-                receiverView.setLogicMessageId(logicId);
-
-                chatMessageMapper.insert(receiverView);
-
-                return senderView;
-
-            } catch (DuplicateKeyException dke) {
-                log.warn("DuplicateKeyException when inserting private message (fromUserId={}, clientMessageId={})",
-                        fromUserId, clientMessageId, dke);
-                if (clientMessageId != null && !clientMessageId.isBlank()) {
-                    List<ChatMessage> existing = chatMessageMapper.selectByFromAndClientId(fromUserId, clientMessageId);
-                    if (existing != null && !existing.isEmpty()) {
-                        for (ChatMessage m : existing) {
-                            if (m.getToUserId() != null && m.getToUserId().equals(fromUserId)) {
-                                return m;
-                            }
-                        }
-                        return existing.get(0);
-                    }
-                }
-                throw dke;
-            }
+            // id 插入前生成：逻辑消息ID = 发送者视角记录 id，两条记录一次 INSERT 写入，不再 insert 后回写
+            long logicId = messageIdGenerator.nextId();
+
+            ChatMessage senderView = new ChatMessage();
+            senderView.setId(logicId);
+            senderView.setLogicMessageId(logicId);
+            senderView.setClientMessageId(clientMessageId);
+            senderView.setConversationType("PRIVATE");
+            senderView.setFromUserId(fromUserId);
+            senderView.setToUserId(fromUserId);
+            senderView.setGroupId(null);
+            senderView.setMessageType(messageType);
+            senderView.setContent(content);
+            senderView.setAttachmentId(attachmentId);
+            senderView.setIsRead(1);
+            senderView.setDeletedAt(null);
+            senderView.setCreatedAt(now);
+
+            // 接收者视角不带 clientMessageId：幂等判重只看发送者视角，也避免两条记录在唯一索引上冲突
+            ChatMessage receiverView = new ChatMessage();
+            receiverView.setId(messageIdGenerator.nextId());
+            receiverView.setClientMessageId(null);
+            receiverView.setConversationType("PRIVATE");
+            receiverView.setFromUserId(fromUserId);
+            receiverView.setToUserId(toUserId);
+            receiverView.setGroupId(null);
+            receiverView.setMessageType(messageType);
+            receiverView.setContent(content);
+            receiverView.setAttachmentId(attachmentId);
+            receiverView.setIsRead(0);
+            receiverView.setDeletedAt(null);
+            receiverView.setLogicMessageId(logicId);
+            receiverView.setCreatedAt(now);
+
+            return new PreparedMessage(senderView, List.of(senderView, receiverView), toUserId, List.of(), null);
         } else if ("GROUP".equalsIgnoreCase(conversationType)) {
             if (groupId == null) {
                 throw new IllegalArgumentException("groupId 不能为空（群聊）");
             }
+            List<Long> memberIds = chatGroupMemberMapper.listUserIdsByGroupId(groupId);
+            if (memberIds == null || memberIds.isEmpty()) {
+                throw new IllegalArgumentException("群内没有成员，无法发送群消息");
+            }
 
-            try {
-                List<Long> memberIds = chatGroupMemberMapper.listUserIdsByGroupId(groupId);
-                if (memberIds == null || memberIds.isEmpty()) {
-                    throw new IllegalArgumentException("群内没有成员，无法发送群消息");
-                }
+            // 群消息只写一条规范记录（to_user_id 为 NULL），成员视角在读取时由已读游标/删除标记计算
+            long logicId = messageIdGenerator.nextId();
+            ChatMessage canonical = new ChatMessage();
+            canonical.setId(logicId);
+            canonical.setLogicMessageId(logicId);
+            canonical.setClientMessageId(clientMessageId);
+            canonical.setConversationType("GROUP");
+            canonical.setFromUserId(fromUserId);
+            canonical.setToUserId(null);
+            canonical.setGroupId(groupId);
+            canonical.setMessageType(messageType);
+            canonical.setContent(content);
+            canonical.setAttachmentId(attachmentId);
+            canonical.setIsRead(0);
+            canonical.setDeletedAt(null);
+            canonical.setCreatedAt(now);
+
+            return new PreparedMessage(canonical, List.of(canonical), null, memberIds, null);
+        } else {
+            throw new IllegalArgumentException("未知的会话类型: " + conversationType);
+        }
+    }
 
-                ChatMessage senderView = new ChatMessage();
-                senderView.setClientMessageId(clientMessageId);
-                senderView.setConversationType("GROUP");
-                senderView.setFromUserId(fromUserId);
-                senderView.setToUserId(fromUserId);
-                senderView.setGroupId(groupId);
-                senderView.setMessageType(messageType);
-                senderView.setContent(content);
-                senderView.setAttachmentId(attachmentId);
-                senderView.setIsRead(1);
-                senderView.setDeletedAt(null);
-
-                chatMessageMapper.insert(senderView);
-                Long logicId = senderView.getId();
-                senderView.setLogicMessageId(logicId);
-                chatMessageMapper.updateById(senderView);
-
-                for (Long uid : memberIds) {
-                    if (uid == null || uid.equals(fromUserId)) {
-                        continue;
-                    }
-                    ChatMessage m = new ChatMessage();
-                    m.setClientMessageId(clientMessageId);
-                    m.setConversationType("GROUP");
-                    m.setFromUserId(fromUserId);
-                    m.setToUserId(uid);
-                    m.setGroupId(groupId);
-                    m.setMessageType(messageType);
-                    m.setContent(content);
-                    m.setAttachmentId(attachmentId);
-                    m.setIsRead(0);
-                    m.setDeletedAt(null);
-                    m.setLogicMessageId(logicId);
-                    chatMessageMapper.insert(m);
-                }
+    /**
+     * 单条写入（需在事务内）：唯一索引冲突说明并发重复发送，返回已落库的首次结果
+     */
+    @Transactional
+    public ChatMessage persistPrepared(PreparedMessage p) {
+        try {
+            chatMessageMapper.insertBatch(p.rows());
+        } catch (DuplicateKeyException dke) {
+            ChatMessage m = p.primary();
+            log.warn("DuplicateKeyException when inserting {} message (fromUserId={}, clientMessageId={})",
+                    m.getConversationType(), m.getFromUserId(), m.getClientMessageId(), dke);
+            ChatMessage existing = findExisting(m.getFromUserId(), m.getClientMessageId());
+            if (existing != null) {
+                return existing;
+            }
+            throw dke;
+        }
+        List<ChatChangeLog> changes = new ArrayList<>();
+        ChatMessage saved = afterInsert(p, changes);
+        changeLogService.append(changes);
+        return saved;
+    }
 
-                for (Long uid : memberIds) {
-                    if (uid == null) continue;
-                    notifySessionNewMessageForGroup(uid, groupId);
-                }
+    /**
+     * 组提交：多条消息（可跨会话）的记录合并成多行 INSERT，在同一个事务里写入。
+     * 任意一条冲突整批回滚，由调用方逐条 persistPrepared 重试。返回值与入参一一对应。
+     */
+    @Transactional
+    public List<ChatMessage> persistBatch(List<PreparedMessage> batch) {
+        List<ChatMessage> rows = new ArrayList<>();
+        for (PreparedMessage p : batch) {
+            rows.addAll(p.rows());
+        }
+        for (int i = 0; i < rows.size(); i += INSERT_CHUNK_ROWS) {
+            chatMessageMapper.insertBatch(rows.subList(i, Math.min(rows.size(), i + INSERT_CHUNK_ROWS)));
+        }
+        List<ChatMessage> saved = new ArrayList<>(batch.size());
+        List<ChatChangeLog> changes = new ArrayList<>();
+        for (PreparedMessage p : batch) {
+            saved.add(afterInsert(p, changes));
+        }
+        changeLogService.append(changes);
+        return saved;
+    }
 
-                return senderView;
-
-            } catch (DuplicateKeyException dke) {
-                log.warn("DuplicateKeyException when inserting group message (fromUserId={}, clientMessageId={}, groupId={})",
-                        fromUserId, clientMessageId, groupId, dke);
-                if (clientMessageId != null && !clientMessageId.isBlank()) {
-                    List<ChatMessage> existing = chatMessageMapper.selectByFromAndClientId(fromUserId, clientMessageId);
-                    if (existing != null && !existing.isEmpty()) {
-                        for (ChatMessage m : existing) {
-                            if (m.getToUserId() != null && m.getToUserId().equals(fromUserId)) {
-                                return m;
-                            }
-                        }
-                        return existing.get(0);
-                    }
-                }
-                throw dke;
+    /**
+     * 写入后的同事务处理：更新会话摘要、登记群成员会话列表提醒和幂等结果（均在提交后生效）；
+     * 变更日志只收集到 changes，由调用方一次写入
+     */
+    private ChatMessage afterInsert(PreparedMessage p, List<ChatChangeLog> changes) {
+        ChatMessage m = p.primary();
+        if ("PRIVATE".equals(m.getConversationType())) {
+            conversationSummaryService.onPrivateMessage(m, p.toUserId());
+            // 双方各记一条，messageId 为各自视角的记录 id
+            changes.add(changeLogService.userChange(m.getFromUserId(), ChatChangeLogService.MESSAGE_NEW,
+                    "PRIVATE", p.toUserId(), m.getId(), null));
+            if (!Objects.equals(p.toUserId(), m.getFromUserId())) {
+                changes.add(changeLogService.userChange(p.toUserId(), ChatChangeLogService.MESSAGE_NEW,
+                        "PRIVATE", m.getFromUserId(), p.rows().get(1).getId(), null));
             }
         } else {
-            throw new IllegalArgumentException("未知的会话类型: " + conversationType);
+            changes.add(changeLogService.groupChange(m.getGroupId(), ChatChangeLogService.MESSAGE_NEW, m.getId()));
+            conversationSummaryService.onGroupMessage(m, p.groupMemberIds());
+            // 成员会话项在提交后批量计算、推送，不占用发送事务
+            groupSessionNotifier.onGroupMessage(m, p.groupMemberIds());
+            // 返回值对发送者而言是已读的
+            m.setIsRead(1);
         }
+        return idempotencyService.remember(m.getFromUserId(), m.getClientMessageId(), m);
+    }
+
+    /**
+     * 按 (fromUserId, clientMessageId) 查已落库的消息，私聊优先返回发送者视角
+     */
+    private ChatMessage findExisting(Long fromUserId, String clientMessageId) {
+        if (clientMessageId == null || clientMessageId.isBlank()) {
+            return null;
+        }
+        List<ChatMessage> existing = chatMessageMapper.selectByFromAndClientId(fromUserId, clientMessageId);
+        if (existing == null || existing.isEmpty()) {
+            return null;
+        }
+        for (ChatMessage m : existing) {
+            if (m.getToUserId() != null && m.getToUserId().equals(fromUserId)) {
+                return m;
+            }
+        }
+        return existing.get(0);
     }
 
     public ListPrivateMessagesResponse listPrivateMessages(ListPrivateMessagesRequest request, Long currentUserId) {
         Long friendId = request.getFriendId();
-        List<ChatMessage> list = chatMessageMapper.listPrivateMessages(currentUserId, friendId,
-                50, (request.getPage() > 0 ? request.getPage() : 0) * 50);
-        List<ChatMessageDTO> dtos = list.stream().map(this::toDto).collect(Collectors.toList());
+        if (friendId == null) {
+            throw new IllegalArgumentException("friendId 不能为空");
+        }
+        int pageSize = normalizePageSize(request.getPageSize());
+        Long afterId = request.getAfterMessageId();
+        Long beforeId = request.getBeforeMessageId();
+        Integer page = request.getPage();
+
+        // 多取一条用来判断 hasMore
+        List<ChatMessage> list;
+        if (afterId != null) {
+            list = chatMessageMapper.listPrivateMessagesAfter(currentUserId, friendId, afterId, pageSize + 1);
+        } else if (beforeId == null && page != null && page > 0) {
+            // 兼容旧客户端的页码分页
+            list = chatMessageMapper.listPrivateMessages(currentUserId, friendId, pageSize + 1, page * pageSize);
+        } else {
+            list = chatMessageMapper.listPrivateMessagesBefore(currentUserId, friendId,
+                    beforeId != null ? beforeId : Long.MAX_VALUE, pageSize + 1);
+        }
+        HistoryPage p = toHistoryPage(list, pageSize, afterId != null);
 
         ListPrivateMessagesResponse resp = new ListPrivateMessagesResponse();
-        resp.setMessages(dtos);
+        resp.setMessages(p.messages());
+        resp.setHasMore(p.hasMore());
+        resp.setNextCursor(p.nextCursor());
         return resp;
     }
 
     public ListGroupMessagesResponse listGroupMessages(ListGroupMessagesRequest request, Long currentUserId) {
         Long groupId = request.getGroupId();
-        List<ChatMessage> list = chatMessageMapper.listGroupMessages(groupId, currentUserId, 1000, 0);
-        List<ChatMessageDTO> dtos = list.stream().map(this::toDto).collect(Collectors.toList());
+        if (groupId == null) {
+            throw new IllegalArgumentException("groupId 不能为空");
+        }
+        int pageSize = normalizePageSize(request.getPageSize());
+        Long afterId = request.getAfterMessageId();
+        Long beforeId = request.getBeforeMessageId();
+
+        List<ChatMessage> list = afterId != null
+                ? chatMessageMapper.listGroupMessagesAfter(groupId, currentUserId, afterId, pageSize + 1)
+                : chatMessageMapper.listGroupMessagesBefore(groupId, currentUserId,
+                        beforeId != null ? beforeId : Long.MAX_VALUE, pageSize + 1);
+        HistoryPage p = toHistoryPage(list, pageSize, afterId != null);
 
         ListGroupMessagesResponse resp = new ListGroupMessagesResponse();
-        resp.setMessages(dtos);
+        resp.setMessages(p.messages());
+        resp.setHasMore(p.hasMore());
+        resp.setNextCursor(p.nextCursor());
         return resp;
     }
 
+    private static int normalizePageSize(Integer pageSize) {
+        if (pageSize == null || pageSize <= 0) return DEFAULT_PAGE_SIZE;
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * rows 最多比 pageSize 多一条（用于判断 hasMore）；ascending 表示按 afterMessageId 正序查出来的，返回前统一转成倒序
+     */
+    private HistoryPage toHistoryPage(List<ChatMessage> rows, int pageSize, boolean ascending) {
+        List<ChatMessage> list = rows == null ? new ArrayList<>() : new ArrayList<>(rows);
+        boolean hasMore = list.size() > pageSize;
+        if (hasMore) {
+            list = list.subList(0, pageSize);
+        }
+        Long nextCursor = list.isEmpty() ? null : list.get(list.size() - 1).getId();
+        if (ascending) {
+            Collections.reverse(list);
+        }
+        List<ChatMessageDTO> dtos = toDtos(list);
+        return new HistoryPage(dtos, hasMore, nextCursor);
+    }
+
+    @Transactional
     public DeleteMessageResponse deleteMessageForUser(DeleteMessageRequest request,
                                                       Long currentUserId) {
         Long messageId = request.getMessageId();
@@ -225,7 +364,27 @@ public class ChatMessageService {
             throw new IllegalArgumentException("messageId 不能为空");
         }
 
-        int deleted = chatMessageMapper.deleteMessageForUser(currentUserId, messageId);
+        int deleted;
+        ChatMessage target = chatMessageMapper.selectById(messageId);
+        if (target != null && "GROUP".equals(target.getConversationType())) {
+            // 群消息是所有成员共享的规范记录，“仅自己删除”只记一条删除标记
+            if (target.getDeletedAt() != null
+                    || chatGroupMemberMapper.countByGroupAndUser(target.getGroupId(), currentUserId) == 0) {
+                deleted = 0;
+            } else {
+                deleted = chatMessageDeletionMapper.insertIgnore(currentUserId, messageId);
+            }
+        } else {
+            deleted = chatMessageMapper.deleteMessageForUser(currentUserId, messageId);
+        }
+        if (deleted > 0) {
+            conversationSummaryService.onDeletedForUser(currentUserId, target);
+            boolean group = "GROUP".equals(target.getConversationType());
+            changeLogService.append(changeLogService.userChange(currentUserId, ChatChangeLogService.MESSAGE_DELETED,
+                    target.getConversationType(),
+                    group ? target.getGroupId() : privatePeerOf(target, currentUserId),
+                    messageId, null));
+        }
 
         if (deleted > 0) {
             try {
@@ -241,6 +400,39 @@ public class ChatMessageService {
         return resp;
     }
 
+    /**
+     * 消息所属会话的通道 key（见 ConversationExecutor）；消息不存在时返回 null
+     */
+    public String conversationKeyOf(Long messageId) {
+        ChatMessage m = messageId == null ? null : chatMessageMapper.selectById(messageId);
+        if (m == null) {
+            return null;
+        }
+        if ("GROUP".equals(m.getConversationType())) {
+            return ConversationExecutor.groupKey(m.getGroupId());
+        }
+        return ConversationExecutor.privateKey(m.getFromUserId(), privatePeerOf(m, m.getFromUserId()));
+    }
+
+    /**
+     * 私聊记录在 viewerId 眼里的对方：发送者视角的 to_user_id 是自己，对端从同一逻辑消息的接收者视角取
+     */
+    private Long privatePeerOf(ChatMessage m, Long viewerId) {
+        if (!Objects.equals(m.getFromUserId(), viewerId)) {
+            return m.getFromUserId();
+        }
+        if (!Objects.equals(m.getToUserId(), m.getFromUserId())) {
+            return m.getToUserId();
+        }
+        Long logicId = m.getLogicMessageId() != null ? m.getLogicMessageId() : m.getId();
+        for (Long uid : chatMessageMapper.listRecipientsByLogicId(logicId)) {
+            if (uid != null && !uid.equals(m.getFromUserId())) {
+                return uid;
+            }
+        }
+        return m.getFromUserId();
+    }
+
     @Transactional
     public RecallMessageResponse recallMessage(RecallMessageRequest request, Long currentUserId) {
         RecallMessageResponse resp = new RecallMessageResponse();
@@ -274,6 +466,26 @@ public class ChatMessageService {
         Long logicId = (anyRecord.getLogicMessageId() != null) ? anyRecord.getLogicMessageId() : anyRecord.getId();
 
         int updated = chatMessageMapper.recallByLogicId(logicId);
+        boolean groupMessage = "GROUP".equals(anyRecord.getConversationType());
+        List<Long> privateRecipients = groupMessage ? null : chatMessageMapper.listRecipientsByLogicId(logicId);
+        if (updated > 0) {
+            conversationSummaryService.onRecall(anyRecord, logicId);
+            if (groupMessage) {
+                changeLogService.append(changeLogService.groupChange(anyRecord.getGroupId(),
+                        ChatChangeLogService.MESSAGE_RECALLED, logicId));
+            } else {
+                List<ChatChangeLog> changes = new ArrayList<>();
+                for (Long uid : privateRecipients) {
+                    if (uid == null) continue;
+                    Long peer = uid.equals(anyRecord.getFromUserId())
+                            ? privatePeerOf(anyRecord, uid)
+                            : anyRecord.getFromUserId();
+                    changes.add(changeLogService.userChange(uid, ChatChangeLogService.MESSAGE_RECALLED,
+                            "PRIVATE", peer, logicId, null));
+                }
+                changeLogService.append(changes);
+            }
+        }
         resp.setAllowed(true);
         resp.setRecalledCount(updated);
         resp.setReason(null);
@@ -283,17 +495,16 @@ public class ChatMessageService {
             @Override
             public void afterCommit() {
                 try {
-                    List<Long> recipients = chatMessageMapper.listRecipientsByLogicId(logicMessageIdFinal);
+                    List<Long> recipients = groupMessage
+                            ? chatGroupMemberMapper.listUserIdsByGroupId(anyRecord.getGroupId())
+                            : privateRecipients;
                     if (recipients != null) {
-                        for (Long uid : recipients) {
-                            if (uid == null) continue;
-                            var payload = java.util.Map.of(
-                                    "logicMessageId", logicMessageIdFinal,
-                                    "conversationType", anyRecord.getConversationType(),
-                                    "senderId", anyRecord.getFromUserId()
-                            );
-                            wsEventPublisher.sendToUser(uid, "MESSAGE_RECALLED", payload);
-                        }
+                        var payload = java.util.Map.of(
+                                "logicMessageId", logicMessageIdFinal,
+                                "conversationType", anyRecord.getConversationType(),
+                                "senderId", anyRecord.getFromUserId()
+                        );
+                        wsEventPublisher.sendToUsers(recipients, "MESSAGE_RECALLED", payload);
                     }
                 } catch (Exception e) {
                     log.warn("notify MESSAGE_RECALLED failed logicId={} err={}", logicMessageIdFinal, e.getMessage());
@@ -304,6 +515,10 @@ public class ChatMessageService {
         return resp;
     }
 
+    /**
+     * 游标、会话摘要与变更日志在同一事务内推进，任一失败整体回滚；已读通知在提交后发出
+     */
+    @Transactional
     public MarkPrivateMessagesReadResponse markPrivateMessagesRead(MarkPrivateMessagesReadRequest request,
                                                                    Long currentUserId) {
         Long friendId = request.getFriendId();
@@ -311,26 +526,45 @@ public class ChatMessageService {
             throw new IllegalArgumentException("friendId 不能为空");
         }
 
-        int updated = chatMessageMapper.markPrivateMessagesRead(currentUserId, friendId);
+        // 已读只推进游标（一行 upsert），不再逐条 UPDATE is_read；游标没动（没有新消息）时直接返回
+        Long upTo = chatMessageMapper.findPrivateReadUpTo(currentUserId, friendId, request.getLastReadMessageId());
+        long previous = readCursorService.getCursor(currentUserId, "PRIVATE", friendId);
+        int updated = 0;
+        boolean advanced = false;
+        if (upTo != null && upTo > previous) {
+            Long moved = chatMessageMapper.countPrivateBetween(currentUserId, friendId, previous, upTo);
+            advanced = readCursorService.advance(currentUserId, "PRIVATE", friendId, upTo);
+            updated = moved == null ? 0 : moved.intValue();
+            if (advanced) {
+                conversationSummaryService.onRead(currentUserId, "PRIVATE", friendId, updated);
+                changeLogService.append(
+                        changeLogService.userChange(currentUserId, ChatChangeLogService.READ, "PRIVATE", friendId, null, upTo),
+                        changeLogService.userChange(friendId, ChatChangeLogService.PEER_READ, "PRIVATE", currentUserId, null, upTo));
+            }
+        }
 
-        if (updated > 0) {
-            try {
-                Long lastReadMessageId = chatMessageMapper.findLastReadMessageIdBetween(currentUserId, friendId);
-                if (lastReadMessageId != null) {
-                    var payload = java.util.Map.of(
-                            "conversationType", "PRIVATE",
-                            "readerId", currentUserId,
-                            "friendId", friendId,
-                            "lastReadMessageId", lastReadMessageId
-                    );
-                    wsEventPublisher.sendToUser(friendId, SocketType.PRIVATE_MESSAGES_READ.toString(), payload);
-                    log.info("markPrivateMessagesRead notify sent, currentUserId={}, friendId={}, lastReadMessageId={}",
-                            currentUserId, friendId, lastReadMessageId);
+        if (advanced) {
+            final Long readUpTo = upTo;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        // 事件直接携带游标，发送方把 id 不大于它的消息标记为已读
+                        var payload = java.util.Map.of(
+                                "conversationType", "PRIVATE",
+                                "readerId", currentUserId,
+                                "friendId", friendId,
+                                "lastReadMessageId", readUpTo
+                        );
+                        wsEventPublisher.sendToUser(friendId, SocketType.PRIVATE_MESSAGES_READ.toString(), payload);
+                        log.info("markPrivateMessagesRead notify sent, currentUserId={}, friendId={}, lastReadMessageId={}",
+                                currentUserId, friendId, readUpTo);
+                    } catch (Exception e) {
+                        log.warn("markPrivateMessagesRead notify failed, currentUserId={}, friendId={}, err={}",
+                                currentUserId, friendId, e.getMessage(), e);
+                    }
                 }
-            } catch (Exception e) {
-                log.warn("markPrivateMessagesRead notify failed, currentUserId={}, friendId={}, err={}",
-                        currentUserId, friendId, e.getMessage(), e);
-            }
+            });
         }
 
         MarkPrivateMessagesReadResponse resp = new MarkPrivateMessagesReadResponse();
@@ -338,21 +572,42 @@ public class ChatMessageService {
         return resp;
     }
 
+    /**
+     * 同私聊：游标、会话摘要与变更日志同一事务，游标确实前进了才扣减未读；通知在提交后发出
+     */
+    @Transactional
     public MarkGroupMessagesReadResponse markGroupMessagesRead(MarkGroupMessagesReadRequest request,
                                                                Long currentUserId) {
         Long groupId = request.getGroupId();
         if (groupId == null) {
             throw new IllegalArgumentException("groupId 不能为空");
         }
-        int updated = chatMessageMapper.markGroupMessagesRead(currentUserId, groupId);
+        // 已读只推进游标（一行 upsert），不再批量 UPDATE 每条消息；返回值保持为“本次变为已读的条数”
+        Long latest = chatMessageMapper.findLatestGroupMessageId(groupId);
+        int updated = 0;
+        if (latest != null && latest > readCursorService.getCursor(currentUserId, "GROUP", groupId)) {
+            // 本次变为已读的条数取会话摘要里的未读数（一次主键读），不再 COUNT 群消息
+            ConversationSummary summary = conversationSummaryService.getOrRebuild(currentUserId, "GROUP", groupId);
+            if (readCursorService.advance(currentUserId, "GROUP", groupId, latest)) {
+                updated = summary == null || summary.getUnreadCount() == null ? 0 : summary.getUnreadCount();
+                conversationSummaryService.onRead(currentUserId, "GROUP", groupId, updated);
+                changeLogService.append(changeLogService.userChange(currentUserId, ChatChangeLogService.READ,
+                        "GROUP", groupId, null, latest));
+            }
+        }
 
         if (updated > 0) {
-            try {
-                notifySessionReadForGroup(currentUserId, groupId);
-            } catch (Exception e) {
-                log.warn("markGroupMessagesRead notify failed, currentUserId={}, groupId={}, err={}",
-                        currentUserId, groupId, e.getMessage());
-            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        notifySessionReadForGroup(currentUserId, groupId);
+                    } catch (Exception e) {
+                        log.warn("markGroupMessagesRead notify failed, currentUserId={}, groupId={}, err={}",
+                                currentUserId, groupId, e.getMessage());
+                    }
+                }
+            });
         }
 
         MarkGroupMessagesReadResponse resp = new MarkGroupMessagesReadResponse();
@@ -364,6 +619,25 @@ public class ChatMessageService {
      * 将实体转换为历史消息 DTO，根据 attachmentId 生成 fileUrl，并携带 isRead
      */
     public ChatMessageDTO toDto(ChatMessage m) {
+        return toDto(m, null);
+    }
+
+    /**
+     * 批量转换：一页消息里的附件一次批量 presign
+     */
+    public List<ChatMessageDTO> toDtos(List<ChatMessage> list) {
+        List<Long> attachmentIds = list.stream()
+                .filter(m -> !Objects.equals(m.getMessageType(), "TEXT") && m.getAttachmentId() != null)
+                .map(ChatMessage::getAttachmentId)
+                .toList();
+        Map<Long, String> urls = attachmentService.presignAll(attachmentIds, 3600);
+        return list.stream().map(m -> toDto(m, urls)).collect(Collectors.toList());
+    }
+
+    /**
+     * urls 为预先批量生成的 attachmentId -> url；为 null 时单独 presign
+     */
+    private ChatMessageDTO toDto(ChatMessage m, Map<Long, String> urls) {
         ChatMessageDTO dto = new ChatMessageDTO();
         dto.setId(m.getId());
         dto.setConversationType(m.getConversationType());
@@ -376,22 +650,14 @@ public class ChatMessageService {
         dto.setIsRead(m.getIsRead()); // 新增：携带是否已读
 
         if (!Objects.equals(m.getMessageType(), "TEXT") && m.getAttachmentId() != null) {
-            String url = attachmentService.generatePresignedGetUrl(m.getAttachmentId(), 3600);
+            String url = urls != null
+                    ? urls.get(m.getAttachmentId())
+                    : attachmentService.generatePresignedGetUrl(m.getAttachmentId(), 3600);
             dto.setFileUrl(url);
         }
         return dto;
     }
 
-    private void notifySessionNewMessageForGroup(Long userId, Long groupId) {
-        try {
-            SessionItem item = chatSessionService.buildGroupSessionItem(userId, groupId);
-            wsEventPublisher.sendToUser(userId, SocketType.NEW_GROUP_MESSAGE.toString(), item);
-        } catch (Exception e) {
-            log.warn("notifySessionNewMessageForGroup failed, userId={}, groupId={}, err={}",
-                    userId, groupId, e.getMessage());
-        }
-    }
-
     private void notifySessionReadForGroup(Long userId, Long groupId) {
         try {
             SessionItem item = chatSessionService.buildGroupSessionItem(userId, groupId);
@@ -0,0 +1,150 @@
+package com.anime.chat.service;
+
+import com.anime.common.dto.chat.message.ChatMessageDTO;
+import com.anime.common.dto.chat.sync.ChatChangeDTO;
+import com.anime.common.dto.chat.sync.ChatSyncRequest;
+import com.anime.common.dto.chat.sync.ChatSyncResponse;
+import com.anime.common.entity.chat.ChatChangeLog;
+import com.anime.common.entity.chat.ChatGroupMember;
+import com.anime.common.entity.chat.ChatMessage;
+import com.anime.common.mapper.chat.ChatChangeLogMapper;
+import com.anime.common.mapper.chat.ChatGroupMemberMapper;
+import com.anime.common.mapper.chat.ChatMessageDeletionMapper;
+import com.anime.common.mapper.chat.ChatMessageMapper;
+import com.anime.common.service.MessageIdGenerator;
+import com.anime.config.ChatProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 增量同步：按 version 返回某用户自 sinceVersion 以来的所有变更（个人 + 所在各群）
+ *
+ * 一次请求 = 每个范围一段变更日志区间扫描（UNION ALL 合并）+ 新消息按 id 批量加载，响应大小只与变更量有关，与历史长度无关。
+ * 群范围从入群时刻起算，与历史消息列表一致，入群前的群消息不会通过同步下发。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatSyncService {
+
+    private final ChatChangeLogMapper changeLogMapper;
+    private final ChatChangeLogService changeLogService;
+    private final ChatGroupMemberMapper chatGroupMemberMapper;
+    private final ChatMessageMapper chatMessageMapper;
+    private final ChatMessageDeletionMapper chatMessageDeletionMapper;
+    private final ChatMessageService chatMessageService;
+    private final MessageIdGenerator messageIdGenerator;
+    private final ChatProperties chatProperties;
+
+    public ChatSyncResponse sync(ChatSyncRequest request, Long currentUserId) {
+        ChatProperties.Sync props = chatProperties.getSync();
+        // 只返回已经“稳定”的变更：更晚的 version 可能还有未提交的事务插在前面
+        long upTo = messageIdGenerator.floorIdAt(System.currentTimeMillis() - props.getSettleMillis());
+
+        ChatSyncResponse resp = new ChatSyncResponse();
+        Long since = request == null ? null : request.getSinceVersion();
+        if (since == null || since <= 0 || since < changeLogService.retainedFromVersion()) {
+            resp.setChanges(List.of());
+            resp.setVersion(upTo - 1);
+            resp.setHasMore(false);
+            resp.setFullResync(true);
+            return resp;
+        }
+
+        int limit = normalizeLimit(request.getLimit(), props);
+        Map<Long, LocalDateTime> joinedAt = new HashMap<>();
+        List<ChatChangeLogMapper.GroupScope> groups = new ArrayList<>();
+        for (ChatGroupMember m : chatGroupMemberMapper.listMembershipsByUserId(currentUserId)) {
+            joinedAt.put(m.getGroupId(), m.getJoinedAt());
+            long after = since;
+            if (m.getJoinedAt() != null) {
+                long joinFloor = messageIdGenerator.floorIdAt(
+                        m.getJoinedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                after = Math.max(since, joinFloor - 1);
+            }
+            groups.add(new ChatChangeLogMapper.GroupScope(m.getGroupId(), after));
+        }
+        List<ChatChangeLog> rows = changeLogMapper.listSince(currentUserId, groups, since, upTo, limit + 1);
+        boolean hasMore = rows.size() > limit;
+        if (hasMore) {
+            rows = rows.subList(0, limit);
+        }
+
+        Map<Long, ChatMessageDTO> messages = loadNewMessages(rows, currentUserId, joinedAt);
+        List<ChatChangeDTO> changes = new ArrayList<>(rows.size());
+        for (ChatChangeLog c : rows) {
+            ChatChangeDTO dto = new ChatChangeDTO();
+            dto.setVersion(c.getVersion());
+            dto.setChangeType(c.getChangeType());
+            dto.setConversationType(c.getConversationType());
+            dto.setTargetId(c.getTargetId());
+            dto.setMessageId(c.getMessageId());
+            if (ChatChangeLogService.READ.equals(c.getChangeType())
+                    || ChatChangeLogService.PEER_READ.equals(c.getChangeType())) {
+                dto.setLastReadMessageId(c.getRefValue());
+            }
+            if (ChatChangeLogService.MESSAGE_NEW.equals(c.getChangeType())) {
+                dto.setMessage(messages.get(c.getMessageId()));
+            }
+            changes.add(dto);
+        }
+
+        resp.setChanges(changes);
+        resp.setVersion(hasMore ? rows.get(rows.size() - 1).getVersion() : Math.max(since, upTo - 1));
+        resp.setHasMore(hasMore);
+        resp.setFullResync(false);
+        return resp;
+    }
+
+    /**
+     * MESSAGE_NEW 涉及的消息一次按主键批量加载（附件一起批量 presign）；
+     * 已撤回 / 删除的、自己删除的、入群之前的群消息不返回内容（与历史消息列表的可见性一致）
+     */
+    private Map<Long, ChatMessageDTO> loadNewMessages(List<ChatChangeLog> rows, Long currentUserId,
+                                                      Map<Long, LocalDateTime> joinedAt) {
+        List<Long> ids = rows.stream()
+                .filter(c -> ChatChangeLogService.MESSAGE_NEW.equals(c.getChangeType()) && c.getMessageId() != null)
+                .map(ChatChangeLog::getMessageId)
+                .distinct()
+                .toList();
+        Map<Long, ChatMessageDTO> byId = new HashMap<>();
+        if (ids.isEmpty()) {
+            return byId;
+        }
+        Set<Long> deletedForMe = new HashSet<>(chatMessageDeletionMapper.listDeletedIn(currentUserId, ids));
+        List<ChatMessage> visible = chatMessageMapper.selectBatchIds(ids).stream()
+                .filter(m -> m.getDeletedAt() == null)
+                .filter(m -> !deletedForMe.contains(m.getId()))
+                .filter(m -> visibleAfterJoin(m, joinedAt))
+                .toList();
+        for (ChatMessageDTO dto : chatMessageService.toDtos(visible)) {
+            byId.put(dto.getId(), dto);
+        }
+        return byId;
+    }
+
+    /**
+     * 群消息只对入群之后的成员可见（created_at >= joined_at，与群历史查询相同的比较）
+     */
+    private static boolean visibleAfterJoin(ChatMessage m, Map<Long, LocalDateTime> joinedAt) {
+        if (!"GROUP".equals(m.getConversationType())) return true;
+        if (!joinedAt.containsKey(m.getGroupId())) return false;
+        LocalDateTime joined = joinedAt.get(m.getGroupId());
+        return joined == null || m.getCreatedAt() == null || !m.getCreatedAt().isBefore(joined);
+    }
+
+    private static int normalizeLimit(Integer limit, ChatProperties.Sync props) {
+        if (limit == null || limit <= 0) return props.getDefaultLimit();
+        return Math.min(limit, props.getMaxLimit());
+    }
+}
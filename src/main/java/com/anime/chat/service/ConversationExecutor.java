@@ -0,0 +1,128 @@
+package com.anime.chat.service;
+
+import com.anime.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 按会话分通道的有序执行器
+ *
+ * 固定数量的通道，每个通道一个线程、一个有界队列；会话 key（private:小id_大id / group:id）哈希到通道。
+ * 同一会话的发送、撤回、已读及其推送在同一通道上串行执行，互不加锁；不同会话分散在各通道上并行。
+ * 通道队列满时直接拒绝（不在调用线程上执行，否则会打乱同一会话的顺序）。
+ */
+@Slf4j
+@Component
+public class ConversationExecutor {
+
+    // 当前线程所在的通道下标，用于同通道内的重入直接执行，避免自己等自己（按实例区分，多个执行器互不影响）
+    private final ThreadLocal<Integer> currentLane = new ThreadLocal<>();
+
+    private final String name;
+    private final ThreadPoolExecutor[] lanes;
+
+    @Autowired
+    public ConversationExecutor(ChatProperties chatProperties) {
+        this("chat-lane", chatProperties.getLanes().getCount(), chatProperties.getLanes().getQueueCapacity());
+    }
+
+    /**
+     * 独立的一组通道（例如群白板房间），与聊天通道的队列、线程互不占用
+     */
+    public ConversationExecutor(String name, int laneCount, int queueCapacity) {
+        this.name = name;
+        int count = Math.max(1, laneCount);
+        this.lanes = new ThreadPoolExecutor[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                    r -> {
+                        Thread t = new Thread(() -> {
+                            currentLane.set(index);
+                            r.run();
+                        });
+                        t.setName(name + "-" + index);
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        log.info("ConversationExecutor {} started lanes={} queueCapacity={}", name, count, queueCapacity);
+    }
+
+    public static String privateKey(Long userA, Long userB) {
+        long a = userA == null ? 0L : userA;
+        long b = userB == null ? 0L : userB;
+        return "private:" + Math.min(a, b) + "_" + Math.max(a, b);
+    }
+
+    public static String groupKey(Long groupId) {
+        return "group:" + groupId;
+    }
+
+    /**
+     * 异步提交到会话所在通道；通道队列满时返回失败的 future（RejectedExecutionException）
+     */
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        int index = laneOf(key);
+        if (Integer.valueOf(index).equals(currentLane.get())) {
+            try {
+                return CompletableFuture.completedFuture(task.get());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(task, lanes[index]);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 同步执行：在会话通道上运行并等待结果，任务抛出的异常原样抛给调用方（供 REST 接口使用）
+     */
+    public <T> T call(String key, Supplier<T> task) {
+        try {
+            return submit(key, task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            try {
+                if (!lane.awaitTermination(5, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int laneOf(String key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, lanes.length);
+    }
+}
@@ -0,0 +1,196 @@
+package com.anime.chat.service;
+
+import com.anime.common.entity.chat.ChatMessage;
+import com.anime.common.entity.chat.ConversationSummary;
+import com.anime.common.mapper.chat.ChatGroupMemberMapper;
+import com.anime.common.mapper.chat.ChatMessageMapper;
+import com.anime.common.mapper.chat.ConversationSummaryMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 会话摘要（conversation_summary）：每个用户每个会话一行，保存最新消息和未读数。
+ *
+ * - 会话列表只读这张表（按 user_id 的一次范围查询），不再扫描用户的全部历史消息
+ * - 发送 / 已读 路径做增量更新；撤回 / 删除这类低频操作直接按消息表重算受影响的行
+ * - 写入与消息写入处于同一事务中
+ * - 未读数同步维护到 Redis 计数器（UnreadCounterService，提交后生效），这张表仍是权威数据
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationSummaryService {
+
+    public static final String PRIVATE = "PRIVATE";
+    public static final String GROUP = "GROUP";
+
+    private final ConversationSummaryMapper conversationSummaryMapper;
+    private final ChatMessageMapper chatMessageMapper;
+    private final ChatGroupMemberMapper chatGroupMemberMapper;
+    private final UnreadCounterService unreadCounterService;
+
+    public List<ConversationSummary> listByUser(Long userId) {
+        return conversationSummaryMapper.listByUser(userId);
+    }
+
+    /**
+     * 读取单个会话摘要；表中还没有这一行时（例如迁移之前的会话）按消息表重算并落库
+     */
+    public ConversationSummary getOrRebuild(Long userId, String conversationType, Long targetId) {
+        ConversationSummary s = conversationSummaryMapper.findOne(userId, conversationType, targetId);
+        if (s != null) return s;
+        if (PRIVATE.equals(conversationType)) {
+            rebuildPrivate(userId, targetId);
+        } else {
+            rebuildGroup(userId, targetId);
+        }
+        return conversationSummaryMapper.findOne(userId, conversationType, targetId);
+    }
+
+    /**
+     * 新私聊消息：发送方和接收方各更新一行，接收方未读 +1
+     */
+    public void onPrivateMessage(ChatMessage message, Long toUserId) {
+        Long logicId = logicId(message);
+        String preview = buildPreview(message.getMessageType(), message.getContent());
+        conversationSummaryMapper.upsertLastMessage(message.getFromUserId(), PRIVATE, toUserId,
+                logicId, preview, message.getCreatedAt(), 0);
+        conversationSummaryMapper.upsertLastMessage(toUserId, PRIVATE, message.getFromUserId(),
+                logicId, preview, message.getCreatedAt(), 1);
+        unreadCounterService.increment(toUserId, PRIVATE, message.getFromUserId(), 1);
+    }
+
+    /**
+     * 新群消息：一条 INSERT ... SELECT 更新所有成员；memberIds 为发送时的成员列表，用于 Redis 计数（一次脚本调用）
+     */
+    public void onGroupMessage(ChatMessage message, List<Long> memberIds) {
+        conversationSummaryMapper.upsertGroupLastMessage(message.getGroupId(), message.getFromUserId(),
+                logicId(message), buildPreview(message.getMessageType(), message.getContent()),
+                message.getCreatedAt());
+        if (memberIds != null) {
+            List<Long> receivers = memberIds.stream()
+                    .filter(uid -> uid != null && !uid.equals(message.getFromUserId()))
+                    .toList();
+            unreadCounterService.increment(receivers, GROUP, message.getGroupId(), 1);
+        }
+    }
+
+    /**
+     * 已读游标推进：未读数减去本次变为已读的条数
+     */
+    public void onRead(Long userId, String conversationType, Long targetId, int readCount) {
+        if (readCount <= 0) return;
+        conversationSummaryMapper.decrementUnread(userId, conversationType, targetId, readCount);
+        unreadCounterService.increment(userId, conversationType, targetId, -readCount);
+    }
+
+    /**
+     * 撤回（需在消息表已标记撤回之后调用）
+     */
+    public void onRecall(ChatMessage anyRecord, Long logicId) {
+        if (GROUP.equals(anyRecord.getConversationType())) {
+            Long groupId = anyRecord.getGroupId();
+            conversationSummaryMapper.decrementGroupUnreadForRecall(groupId, anyRecord.getFromUserId(), logicId);
+            for (Long uid : conversationSummaryMapper.listUserIdsByLastMessage(GROUP, groupId, logicId)) {
+                rebuildGroup(uid, groupId);
+            }
+            // 哪些成员的未读数被扣减取决于各自的已读游标，直接让成员的计数缓存失效、按需重建
+            unreadCounterService.invalidate(chatGroupMemberMapper.listUserIdsByGroupId(groupId));
+        } else {
+            Long fromUserId = anyRecord.getFromUserId();
+            List<Long> recipients = chatMessageMapper.listRecipientsByLogicId(logicId);
+            for (Long uid : recipients) {
+                if (uid == null || uid.equals(fromUserId)) continue;
+                rebuildPrivate(fromUserId, uid);
+                rebuildPrivate(uid, fromUserId);
+            }
+        }
+    }
+
+    /**
+     * “仅自己删除”之后重算该用户这一个会话
+     */
+    public void onDeletedForUser(Long userId, ChatMessage target) {
+        if (GROUP.equals(target.getConversationType())) {
+            rebuildGroup(userId, target.getGroupId());
+            return;
+        }
+        Long peer = userId.equals(target.getFromUserId()) ? target.getToUserId() : target.getFromUserId();
+        if (peer == null || peer.equals(userId)) {
+            // 发送者视角记录（to = from）：对方取同一逻辑消息的另一条记录
+            for (Long uid : chatMessageMapper.listRecipientsByLogicId(logicId(target))) {
+                if (uid != null && !uid.equals(userId)) {
+                    peer = uid;
+                    break;
+                }
+            }
+        }
+        if (peer != null && !peer.equals(userId)) {
+            rebuildPrivate(userId, peer);
+        }
+    }
+
+    /**
+     * 加好友 / 入群：建立空会话，使其在没有消息时也出现在会话列表里
+     */
+    public void ensure(Long userId, String conversationType, Long targetId) {
+        conversationSummaryMapper.insertIgnore(userId, conversationType, targetId);
+    }
+
+    /**
+     * 删好友：去掉从未聊过天的空会话
+     */
+    public void removeIfEmpty(Long userId, String conversationType, Long targetId) {
+        conversationSummaryMapper.deleteIfEmpty(userId, conversationType, targetId);
+    }
+
+    /**
+     * 构造消息预览文本。
+     */
+    public static String buildPreview(String messageType, String content) {
+        if ("IMAGE".equalsIgnoreCase(messageType)) {
+            return "[图片]";
+        } else if ("FILE".equalsIgnoreCase(messageType)) {
+            return "[文件]";
+        } else if ("VIDEO".equalsIgnoreCase(messageType)) {
+            return "[视频]";
+        } else if ("AUDIO".equalsIgnoreCase(messageType)) {
+            return "[音频]";
+        }
+        if (content == null) return "";
+        return content.length() <= 10 ? content : content.substring(0, 10) + "...";
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private void rebuildPrivate(Long userId, Long friendId) {
+        ChatMessage last = chatMessageMapper.findLastPrivateMessage(userId, friendId);
+        Long unread = chatMessageMapper.countPrivateUnread(userId, friendId);
+        replace(userId, PRIVATE, friendId, last, unread);
+    }
+
+    private void rebuildGroup(Long userId, Long groupId) {
+        ChatMessage last = chatMessageMapper.findLastGroupMessage(groupId, userId);
+        Long unread = chatMessageMapper.countGroupUnread(groupId, userId);
+        replace(userId, GROUP, groupId, last, unread);
+    }
+
+    private void replace(Long userId, String conversationType, Long targetId, ChatMessage last, Long unread) {
+        int count = unread == null ? 0 : unread.intValue();
+        conversationSummaryMapper.replace(userId, conversationType, targetId,
+                last != null ? logicId(last) : null,
+                last != null ? buildPreview(last.getMessageType(), last.getContent()) : null,
+                last != null ? last.getCreatedAt() : null,
+                count);
+        unreadCounterService.set(userId, conversationType, targetId, count);
+    }
+
+    private static Long logicId(ChatMessage m) {
+        return m.getLogicMessageId() != null ? m.getLogicMessageId() : m.getId();
+    }
+}
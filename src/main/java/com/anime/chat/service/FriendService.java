@@ -12,17 +12,21 @@ import com.anime.common.mapper.chat.UserFriendMapper;
 import com.anime.common.mapper.chat.UserFriendRequestMapper;
 import com.anime.common.mapper.user.UserMapper;
 import com.anime.common.service.AttachmentService;
+import com.anime.config.ChatProperties;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
@@ -33,10 +37,43 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class FriendService extends ServiceImpl<UserFriendMapper, UserFriend> {
 
+    // 好友关系缓存：userId -> friendId 方向，值为 1 / 0
+    private static final String KEY_FRIEND = "chat:friend:%d:%d";
+
     private final UserMapper userMapper;
     private final AttachmentService attachmentService;
     private final UserFriendRequestMapper userFriendRequestMapper;
     private final WsEventPublisher wsEventPublisher;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ChatChangeLogService changeLogService;
+    private final UserProfileLoader userProfileLoader;
+    private final StringRedisTemplate redis;
+    private final ChatProperties chatProperties;
+
+    /**
+     * 是否好友（呼叫等高频校验用）：先读 Redis 缓存，未命中再查库并回填；
+     * 本类中加好友 / 删好友在事务提交后删除双向缓存
+     */
+    public boolean isFriend(Long userId, Long friendId) {
+        if (userId == null || friendId == null) return false;
+        String key = String.format(KEY_FRIEND, userId, friendId);
+        try {
+            String cached = redis.opsForValue().get(key);
+            if (cached != null) return "1".equals(cached);
+        } catch (Exception e) {
+            log.warn("isFriend: read cache failed key={} err={}", key, e.getMessage());
+        }
+        boolean friend = this.count(Wrappers.<UserFriend>lambdaQuery()
+                .eq(UserFriend::getUserId, userId)
+                .eq(UserFriend::getFriendId, friendId)) > 0;
+        try {
+            redis.opsForValue().set(key, friend ? "1" : "0",
+                    Duration.ofSeconds(Math.max(1L, chatProperties.getCall().getFriendCacheSeconds())));
+        } catch (Exception e) {
+            log.warn("isFriend: write cache failed key={} err={}", key, e.getMessage());
+        }
+        return friend;
+    }
 
     public ListFriendsResponse listFriends(ListFriendsRequest request, Long currentUserId) {
         // 1. 查询好友关系
@@ -49,25 +86,25 @@ public class FriendService extends ServiceImpl<UserFriendMapper, UserFriend> {
             return resp;
         }
 
-        // 2. 查出好友用户信息
+        // 2. 批量查出好友用户信息和头像
         List<Long> friendIds = links.stream()
                 .map(UserFriend::getFriendId)
                 .distinct()
                 .collect(Collectors.toList());
-        List<User> friends = userMapper.selectBatchIds(friendIds);
+        Map<Long, UserProfileLoader.UserProfile> profiles = userProfileLoader.loadAll(friendIds, 3600);
 
         // 3. 转为 DTO
-        List<FriendItem> items = friends.stream().map(u -> {
-            FriendItem item = new FriendItem();
-            item.setId(u.getId());
-            item.setUsername(u.getUsername());
-            item.setPersonalSignature(u.getPersonalSignature());
-            Long avatarAttId = userMapper.getAvatarAttachmentIdById(u.getId());
-            if (avatarAttId != null) {
-                item.setAvatarUrl(attachmentService.generatePresignedGetUrl(avatarAttId, 3600));
-            }
-            return item;
-        }).collect(Collectors.toList());
+        List<FriendItem> items = friendIds.stream()
+                .map(profiles::get)
+                .filter(Objects::nonNull)
+                .map(u -> {
+                    FriendItem item = new FriendItem();
+                    item.setId(u.id());
+                    item.setUsername(u.username());
+                    item.setPersonalSignature(u.signature());
+                    item.setAvatarUrl(u.avatarUrl());
+                    return item;
+                }).collect(Collectors.toList());
         resp.setFriends(items);
         return resp;
     }
@@ -151,22 +188,20 @@ public class FriendService extends ServiceImpl<UserFriendMapper, UserFriend> {
      */
     public ListFriendRequestsResponse listIncomingRequests(Long currentUserId) {
         List<UserFriendRequest> list = userFriendRequestMapper.listPendingForUser(currentUserId);
+        Map<Long, UserProfileLoader.UserProfile> profiles = userProfileLoader.loadAll(
+                list.stream().map(UserFriendRequest::getFromUserId).collect(Collectors.toList()), 300);
         List<FriendRequestItem> items = list.stream().map(fr -> {
             FriendRequestItem it = new FriendRequestItem();
             it.setRequestId(fr.getId());
             it.setFromUserId(fr.getFromUserId());
-            User fromUser = userMapper.selectById(fr.getFromUserId());
+            UserProfileLoader.UserProfile fromUser = profiles.get(fr.getFromUserId());
             if (fromUser != null) {
-                it.setFromUsername(fromUser.getUsername());
-                Long avatar = userMapper.getAvatarAttachmentIdById(fromUser.getId());
-                if (avatar != null) {
-                    it.setFromAvatarUrl(attachmentService.generatePresignedGetUrl(avatar, 300));
-                }
+                it.setFromUsername(fromUser.username());
+                it.setFromAvatarUrl(fromUser.avatarUrl());
                 it.setMessage(fr.getMessage());
                 it.setCreatedAt(fr.getCreatedAt());
                 // 新增：设置发起人的个性签名（signature）
-                String signature = userMapper.getPersonalSignatureById(fromUser.getId());
-                it.setSignature(signature);
+                it.setSignature(fromUser.signature());
             }
             return it;
         }).collect(Collectors.toList());
@@ -231,6 +266,13 @@ public class FriendService extends ServiceImpl<UserFriendMapper, UserFriend> {
                 uf2.setFriendId(toUserId);
                 this.save(uf2);
             }
+            // 没有聊过天的新好友也要出现在会话列表里
+            conversationSummaryService.ensure(toUserId, ConversationSummaryService.PRIVATE, fromUserId);
+            conversationSummaryService.ensure(fromUserId, ConversationSummaryService.PRIVATE, toUserId);
+            evictFriendCacheAfterCommit(fromUserId, toUserId);
+            changeLogService.append(
+                    changeLogService.userChange(toUserId, ChatChangeLogService.FRIEND_ADDED, "PRIVATE", fromUserId, null, null),
+                    changeLogService.userChange(fromUserId, ChatChangeLogService.FRIEND_ADDED, "PRIVATE", toUserId, null, null));
         }
 
         // Register WS notifications to be sent AFTER transaction commit
@@ -335,6 +377,38 @@ public class FriendService extends ServiceImpl<UserFriendMapper, UserFriend> {
                 .eq(UserFriend::getUserId, friendId)
                 .eq(UserFriend::getFriendId, currentUserId));
 
+        // 有聊天记录的会话保留在列表中，空会话随好友关系一起移除
+        conversationSummaryService.removeIfEmpty(currentUserId, ConversationSummaryService.PRIVATE, friendId);
+        conversationSummaryService.removeIfEmpty(friendId, ConversationSummaryService.PRIVATE, currentUserId);
+        evictFriendCacheAfterCommit(currentUserId, friendId);
+        changeLogService.append(
+                changeLogService.userChange(currentUserId, ChatChangeLogService.FRIEND_REMOVED, "PRIVATE", friendId, null, null),
+                changeLogService.userChange(friendId, ChatChangeLogService.FRIEND_REMOVED, "PRIVATE", currentUserId, null, null));
+
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * 好友关系变化：事务提交后删除双向缓存（提交前删除会被并发读回填旧值）
+     */
+    private void evictFriendCacheAfterCommit(long a, long b) {
+        List<String> keys = List.of(String.format(KEY_FRIEND, a, b), String.format(KEY_FRIEND, b, a));
+        Runnable evict = () -> {
+            try {
+                redis.delete(keys);
+            } catch (Exception e) {
+                log.warn("evict friend cache failed keys={} err={}", keys, e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        } else {
+            evict.run();
+        }
+    }
+}
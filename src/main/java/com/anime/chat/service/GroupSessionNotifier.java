@@ -0,0 +1,172 @@
+package com.anime.chat.service;
+
+import com.anime.chat.socket.WsEventPublisher;
+import com.anime.common.dto.chat.session.SessionItem;
+import com.anime.common.entity.chat.ChatGroup;
+import com.anime.common.entity.chat.ChatMessage;
+import com.anime.common.entity.chat.ConversationSummary;
+import com.anime.common.enums.SocketType;
+import com.anime.common.mapper.chat.ChatGroupMapper;
+import com.anime.common.mapper.chat.ConversationSummaryMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 新群消息的会话列表推送（NEW_GROUP_MESSAGE，payload 为 SessionItem）
+ *
+ * - 发送事务内只登记“哪个群有新消息”，同一事务（组提交的一批）里同一个群只保留最新一条
+ * - 提交后交给单独的推送线程：群名一次批量查询，预览 / 时间直接取自消息，
+ *   成员未读数按唯一索引一次批量读出；未读数相同的成员共用一个序列化好的帧
+ * - 推送线程只有一个，同一个群的会话项按提交顺序发出；队列满时丢弃（会话项是可覆盖的状态，客户端刷新列表即可恢复）
+ */
+@Slf4j
+@Component
+public class GroupSessionNotifier {
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int QUERY_CHUNK = 1000;
+
+    // 事务内待推送的群，绑定在 TransactionSynchronizationManager 上
+    private static final Object RESOURCE_KEY = new Object();
+
+    private final ConversationSummaryMapper conversationSummaryMapper;
+    private final ChatGroupMapper chatGroupMapper;
+    private final WsEventPublisher wsEventPublisher;
+    private final ThreadPoolExecutor executor;
+
+    private record Pending(ChatMessage message, List<Long> memberIds) {}
+
+    public GroupSessionNotifier(ConversationSummaryMapper conversationSummaryMapper,
+                                ChatGroupMapper chatGroupMapper,
+                                WsEventPublisher wsEventPublisher) {
+        this.conversationSummaryMapper = conversationSummaryMapper;
+        this.chatGroupMapper = chatGroupMapper;
+        this.wsEventPublisher = wsEventPublisher;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread t = new Thread(r);
+                    t.setName("chat-group-session-notify");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, pool) -> log.warn("group session notify queue full, dropping one batch"));
+    }
+
+    /**
+     * 登记一条新群消息；有事务时在提交后推送，回滚则不推送
+     */
+    public void onGroupMessage(ChatMessage message, List<Long> memberIds) {
+        if (message == null || message.getGroupId() == null || memberIds == null || memberIds.isEmpty()) return;
+        Pending pending = new Pending(message, memberIds);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            Map<Long, Pending> single = new LinkedHashMap<>();
+            single.put(message.getGroupId(), pending);
+            executor.execute(() -> flush(single));
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<Long, Pending> batch = (Map<Long, Pending>) TransactionSynchronizationManager.getResource(RESOURCE_KEY);
+        if (batch == null) {
+            Map<Long, Pending> created = new LinkedHashMap<>();
+            TransactionSynchronizationManager.bindResource(RESOURCE_KEY, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    executor.execute(() -> flush(created));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+                }
+            });
+            batch = created;
+        }
+        batch.merge(message.getGroupId(), pending,
+                (a, b) -> b.message().getId() > a.message().getId() ? b : a);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private void flush(Map<Long, Pending> batch) {
+        if (batch.isEmpty()) return;
+        Map<Long, String> names = new HashMap<>();
+        try {
+            for (ChatGroup g : chatGroupMapper.selectBatchIds(new ArrayList<>(batch.keySet()))) {
+                names.put(g.getId(), g.getName());
+            }
+        } catch (Exception e) {
+            log.warn("group session notify: load groups failed: {}", e.getMessage());
+        }
+        for (Map.Entry<Long, Pending> e : batch.entrySet()) {
+            try {
+                notifyGroup(e.getKey(), names.get(e.getKey()), e.getValue());
+            } catch (Exception ex) {
+                log.warn("group session notify failed, groupId={}, err={}", e.getKey(), ex.getMessage());
+            }
+        }
+    }
+
+    private void notifyGroup(Long groupId, String title, Pending pending) {
+        ChatMessage m = pending.message();
+        String preview = ConversationSummaryService.buildPreview(m.getMessageType(), m.getContent());
+
+        List<Long> memberIds = pending.memberIds().stream().filter(Objects::nonNull).distinct().toList();
+        Map<Long, Integer> unreadByUser = new HashMap<>(memberIds.size() * 2);
+        for (int from = 0; from < memberIds.size(); from += QUERY_CHUNK) {
+            List<Long> chunk = memberIds.subList(from, Math.min(memberIds.size(), from + QUERY_CHUNK));
+            for (ConversationSummary s : conversationSummaryMapper.listUnreadByUsers(
+                    ConversationSummaryService.GROUP, groupId, chunk)) {
+                unreadByUser.put(s.getUserId(), s.getUnreadCount() == null ? 0 : s.getUnreadCount());
+            }
+        }
+
+        // 按未读数分组：payload 只差 unreadCount，同一个值只序列化一次
+        Map<Integer, List<Long>> byUnread = new HashMap<>();
+        for (Long uid : memberIds) {
+            byUnread.computeIfAbsent(unreadByUser.getOrDefault(uid, 0), k -> new ArrayList<>()).add(uid);
+        }
+        String collapseKey = "SESSION:GROUP:" + groupId;
+        for (Map.Entry<Integer, List<Long>> e : byUnread.entrySet()) {
+            SessionItem item = new SessionItem();
+            item.setSessionType("GROUP");
+            item.setSessionTargetId(groupId);
+            item.setTitle(title);
+            item.setLastMessagePreview(preview);
+            item.setLastMessageTime(m.getCreatedAt());
+            item.setUnreadCount(e.getKey());
+            item.setOnline(true);
+            wsEventPublisher.sendToUsers(e.getValue(), SocketType.NEW_GROUP_MESSAGE.toString(), item, collapseKey);
+        }
+    }
+}
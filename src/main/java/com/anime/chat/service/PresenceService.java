@@ -1,5 +1,6 @@
 package com.anime.chat.service;
 
+import com.anime.chat.socket.WsClusterRouter;
 import com.anime.chat.socket.WsEventPublisher;
 import com.anime.common.enums.SocketType;
 import com.anime.common.entity.chat.UserFriend;
@@ -9,6 +10,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,15 +20,17 @@ import java.util.concurrent.ConcurrentHashMap;
  * PresenceService - 维护在线用户集合，并向好友推送在线/离线事件。
  *
  * 设计：
- * - 当用户首次上线（由 WebSocketSessionManager 检测到）调用 userOnline(userId)
- * - 当用户最后一条 session 被注销时调用 userOffline(userId)
- * - 只在状态发生变化（从 offline->online 或 online->offline）时进行广播
+ * - 当用户首次上线（由 WebSocketSessionManager 检测到）调用 userOnline(userId, firstInCluster)
+ * - 当用户最后一条 session 被注销时调用 userOffline(userId, lastInCluster)
+ * - 只在状态发生变化（从 offline->online 或 online->offline）时进行广播；
+ *   开启集群时以集群范围为准：用户在其它节点仍有连接时，本节点的上线 / 下线不广播
  */
 @Slf4j
 @Component
 public class PresenceService {
 
     private final UserFriendMapper userFriendMapper;
+    private final WsClusterRouter clusterRouter;
 
     // WsEventPublisher 使用懒注入，避免与 WebSocketSessionManager/它的依赖形成循环
     @Autowired
@@ -35,17 +40,18 @@ public class PresenceService {
     // 仅存在线用户 id（用于避免重复广播）
     private final Set<Long> onlineUsers = ConcurrentHashMap.newKeySet();
 
-    public PresenceService(UserFriendMapper userFriendMapper) {
+    public PresenceService(UserFriendMapper userFriendMapper, WsClusterRouter clusterRouter) {
         this.userFriendMapper = userFriendMapper;
+        this.clusterRouter = clusterRouter;
     }
 
     /**
-     * 标记用户上线（第一次上线时广播）
+     * 标记用户上线（第一次上线时广播）；firstInCluster=false 表示用户已在其它节点在线，不再广播
      */
-    public void userOnline(Long userId) {
+    public void userOnline(Long userId, boolean firstInCluster) {
         if (userId == null) return;
         boolean first = onlineUsers.add(userId);
-        if (!first) {
+        if (!first || !firstInCluster) {
             log.debug("PresenceService.userOnline: user {} already online, skip broadcast", userId);
             return;
         }
@@ -64,7 +70,7 @@ public class PresenceService {
                 if (l == null || l.getFriendId() == null) continue;
                 // payload 可随需要扩展（这里使用最简单的 { userId }）
                 var payload = java.util.Map.of("userId", userId);
-                wsEventPublisher.sendToUser(l.getFriendId(), SocketType.USER_ONLINE.toString(), payload);
+                wsEventPublisher.sendToUser(l.getFriendId(), SocketType.USER_ONLINE.toString(), payload, "PRESENCE:" + userId);
                 log.info("广播 userId={} 在线给 friendId={}", userId, l.getFriendId());
             }
             log.info("PresenceService: broadcast USER_ONLINE for user={} to {} friends", userId, links.size());
@@ -74,13 +80,13 @@ public class PresenceService {
     }
 
     /**
-     * 标记用户下线（最后一条 session 注销时广播）
+     * 标记用户下线（最后一条 session 注销时广播）；lastInCluster=false 表示用户在其它节点仍在线，不广播
      */
-    public void userOffline(Long userId) {
+    public void userOffline(Long userId, boolean lastInCluster) {
         if (userId == null) return;
         boolean removed = onlineUsers.remove(userId);
-        if (!removed) {
-            log.debug("PresenceService.userOffline: user {} was not marked online, skip broadcast", userId);
+        if (!removed || !lastInCluster) {
+            log.debug("PresenceService.userOffline: user {} was not marked online or still online elsewhere, skip broadcast", userId);
             return;
         }
 
@@ -96,7 +102,7 @@ public class PresenceService {
             for (UserFriend l : links) {
                 if (l == null || l.getFriendId() == null) continue;
                 var payload = Map.of("userId", userId);
-                wsEventPublisher.sendToUser(l.getFriendId(), SocketType.USER_OFFLINE.toString(), payload);
+                wsEventPublisher.sendToUser(l.getFriendId(), SocketType.USER_OFFLINE.toString(), payload, "PRESENCE:" + userId);
                 log.info("广播 userId={} 离线给 friendId={}", userId, l.getFriendId());
             }
             log.info("PresenceService: broadcast USER_OFFLINE for user={} to {} friends", userId, links.size());
@@ -106,10 +112,25 @@ public class PresenceService {
     }
 
     /**
-     * 可查询某用户当前是否在线（主要用于内部或测试）
+     * 可查询某用户当前是否在线：先看本节点，开启集群时再查 Redis 路由表
      */
     public boolean isOnline(Long userId) {
         if (userId == null) return false;
-        return onlineUsers.contains(userId);
+        return onlineUsers.contains(userId) || clusterRouter.isOnlineInCluster(userId);
+    }
+
+    /**
+     * 批量查询，返回其中在线的用户（会话列表使用，集群模式下最多一次 Redis pipeline）
+     */
+    public Set<Long> onlineAmong(Collection<Long> userIds) {
+        Set<Long> online = new HashSet<>();
+        if (userIds == null || userIds.isEmpty()) return online;
+        Set<Long> rest = new HashSet<>();
+        for (Long uid : userIds) {
+            if (uid == null) continue;
+            if (onlineUsers.contains(uid)) online.add(uid); else rest.add(uid);
+        }
+        online.addAll(clusterRouter.onlineInCluster(rest));
+        return online;
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.anime.chat.service;
+
+import com.anime.common.mapper.chat.ChatReadCursorMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 已读游标：每个用户在每个会话一行（chat_read_cursors），id 不大于游标的消息视为已读。
+ *
+ * - 标记已读 = 单行 upsert（GREATEST，只增不减），不再逐条 UPDATE is_read
+ * - Redis hash chat:read:cursor:{userId}（field = TYPE:targetId）缓存游标，
+ *   前端反复调用 markRead 而没有新消息时，直接在缓存层判定“无变化”，不落库
+ * - 缓存写入用 Lua 取最大值，避免并发推进时把游标写小
+ * - 在事务内推进时，缓存等提交后再写：回滚的推进不会留在缓存里把后续的标记已读判成“无变化”
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReadCursorService {
+
+    private static final String KEY_CURSOR = "chat:read:cursor:%d";
+    private static final Duration CACHE_TTL = Duration.ofDays(7);
+
+    private static final DefaultRedisScript<Long> SET_MAX_SCRIPT = new DefaultRedisScript<>("""
+            local cur = redis.call('HGET', KEYS[1], ARGV[1])
+            if (not cur) or tonumber(cur) < tonumber(ARGV[2]) then
+              redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+              cur = ARGV[2]
+            end
+            redis.call('EXPIRE', KEYS[1], ARGV[3])
+            return tonumber(cur)
+            """, Long.class);
+
+    private final ChatReadCursorMapper chatReadCursorMapper;
+    private final StringRedisTemplate redis;
+
+    /**
+     * 当前游标，从未读过返回 0
+     */
+    public long getCursor(Long userId, String conversationType, Long targetId) {
+        String key = String.format(KEY_CURSOR, userId);
+        String field = field(conversationType, targetId);
+        try {
+            Object cached = redis.opsForHash().get(key, field);
+            if (cached != null) {
+                return Long.parseLong(cached.toString());
+            }
+        } catch (Exception e) {
+            log.warn("getCursor: redis read failed userId={} field={} err={}", userId, field, e.getMessage());
+        }
+
+        Long db = chatReadCursorMapper.findLastReadMessageId(userId, conversationType, targetId);
+        long value = db == null ? 0L : db;
+        cacheMax(key, field, value);
+        return value;
+    }
+
+    /**
+     * 把游标推进到 messageId（小于等于当前值时不做任何事）
+     *
+     * @return true 表示游标前进了
+     */
+    public boolean advance(Long userId, String conversationType, Long targetId, long messageId) {
+        if (messageId <= getCursor(userId, conversationType, targetId)) {
+            return false;
+        }
+        chatReadCursorMapper.upsertCursor(userId, conversationType, targetId, messageId);
+        String key = String.format(KEY_CURSOR, userId);
+        String field = field(conversationType, targetId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cacheMax(key, field, messageId);
+                }
+            });
+        } else {
+            cacheMax(key, field, messageId);
+        }
+        return true;
+    }
+
+    private void cacheMax(String key, String field, long value) {
+        try {
+            redis.execute(SET_MAX_SCRIPT, List.of(key), field, String.valueOf(value),
+                    String.valueOf(CACHE_TTL.getSeconds()));
+        } catch (Exception e) {
+            log.warn("cacheMax: redis write failed key={} field={} err={}", key, field, e.getMessage());
+        }
+    }
+
+    private static String field(String conversationType, Long targetId) {
+        return conversationType + ":" + targetId;
+    }
+}
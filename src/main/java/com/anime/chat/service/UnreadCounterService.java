@@ -0,0 +1,340 @@
+package com.anime.chat.service;
+
+import com.anime.common.entity.chat.ConversationSummary;
+import com.anime.common.mapper.chat.ConversationSummaryMapper;
+import com.anime.config.ChatProperties;
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.api.async.RedisKeyAsyncCommands;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 未读数计数器：Redis hash chat:unread:{userId}，field 为 PRIVATE:{friendId} / GROUP:{groupId}
+ *
+ * - 权威数据仍是 conversation_summary.unread_count（与消息同事务维护），这里是它的 O(1) 读缓存
+ * - 发送 HINCRBY +1、已读按本次已读条数扣减、重算时直接覆盖，全部在事务提交后执行
+ * - 只更新已存在的 hash（脚本内判断），不会凭增量造出一个不完整的计数表；
+ *   读取时 hash 不存在即按会话摘要整体重建（rebuild-on-miss）
+ * - 撤回这类影响面不确定的操作直接删掉相关用户的 hash，下次读取时重建
+ * - 每次增量 / 覆盖都会递增版本字段 _v；整体重写（重建、对账）用一个 Lua 脚本完成 DEL + HSET + EXPIRE，
+ *   且只在版本与读取时一致（对账）或 hash 仍不存在（重建）时生效，读到一半被增量改过的不会被旧值覆盖
+ * - 定期对账：SCAN 已缓存的 hash，与 MySQL 不一致的整体覆盖；每轮最多检查 reconcileBatch 个，
+ *   SCAN 游标保存到下一轮继续，多轮走完整个键空间后再从头开始
+ * - 开启集群时对账只在持有租约 chat:unread-reconcile:lease（SET NX + TTL）的节点上执行
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UnreadCounterService {
+
+    private static final String KEY_UNREAD = "chat:unread:%d";
+    // 标记字段：没有任何会话的用户也能区分“已缓存”与“未缓存”
+    private static final String MARKER_FIELD = "_";
+    // 版本字段：每次写入递增，对账据此判断读取之后 hash 是否被改过
+    private static final String VERSION_FIELD = "_v";
+
+    private static final String KEY_RECONCILE_LEASE = "chat:unread-reconcile:lease";
+
+    private static final String SCAN_PATTERN = "chat:unread:*";
+    private static final int SCAN_COUNT = 500;
+    private static final long SCAN_TIMEOUT_SECONDS = 10L;
+
+    /**
+     * KEYS = 各用户的 hash；ARGV[1] = field，ARGV[2] = 增量。hash 不存在的用户跳过，结果不小于 0
+     */
+    private static final DefaultRedisScript<Long> INCR_SCRIPT = new DefaultRedisScript<>("""
+            local n = 0
+            for i = 1, #KEYS do
+              if redis.call('EXISTS', KEYS[i]) == 1 then
+                local v = redis.call('HINCRBY', KEYS[i], ARGV[1], ARGV[2])
+                if v < 0 then redis.call('HSET', KEYS[i], ARGV[1], 0) end
+                redis.call('HINCRBY', KEYS[i], '_v', 1)
+                n = n + 1
+              end
+            end
+            return n
+            """, Long.class);
+
+    /**
+     * KEYS[1] = hash；ARGV[1] = field，ARGV[2] = 新值。hash 不存在时不写
+     */
+    private static final DefaultRedisScript<Long> SET_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+              redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+              redis.call('HINCRBY', KEYS[1], '_v', 1)
+              return 1
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 整体重写。KEYS[1] = hash；ARGV[1] = 读取时的版本（空串表示只在 hash 不存在时写入），
+     * ARGV[2] = TTL 秒，ARGV[3..] = field / value。条件不满足返回 0，不做任何修改
+     */
+    private static final DefaultRedisScript<Long> REPLACE_SCRIPT = new DefaultRedisScript<>("""
+            local exists = redis.call('EXISTS', KEYS[1]) == 1
+            local version = 0
+            if ARGV[1] == '' then
+              if exists then return 0 end
+            else
+              if not exists then return 0 end
+              if (redis.call('HGET', KEYS[1], '_v') or '0') ~= ARGV[1] then return 0 end
+              version = tonumber(ARGV[1]) or 0
+            end
+            redis.call('DEL', KEYS[1])
+            redis.call('HSET', KEYS[1], '_', '1', '_v', version + 1, unpack(ARGV, 3))
+            redis.call('EXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // 对账租约：不存在时抢占，已由本节点持有时续期；返回 1 表示本节点持有
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+              return 1
+            end
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+              redis.call('PEXPIRE', KEYS[1], ARGV[2])
+              return 1
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final ConversationSummaryMapper conversationSummaryMapper;
+    private final ChatProperties chatProperties;
+
+    // 对账进度：上一轮停下的 SCAN 游标（"0" 表示从头开始）
+    private volatile String reconcileCursor = ScanCursor.INITIAL.getCursor();
+
+    /**
+     * 这些用户在某个会话上的未读数 +delta（可为负，结果不小于 0）
+     */
+    public void increment(Collection<Long> userIds, String conversationType, Long targetId, int delta) {
+        if (userIds == null || userIds.isEmpty() || delta == 0) return;
+        List<String> keys = userIds.stream().filter(Objects::nonNull).map(UnreadCounterService::key).toList();
+        if (keys.isEmpty()) return;
+        afterCommit(() -> redis.execute(INCR_SCRIPT, keys, field(conversationType, targetId), String.valueOf(delta)));
+    }
+
+    public void increment(Long userId, String conversationType, Long targetId, int delta) {
+        increment(List.of(userId), conversationType, targetId, delta);
+    }
+
+    /**
+     * 会话重算后直接覆盖为新值
+     */
+    public void set(Long userId, String conversationType, Long targetId, int unread) {
+        if (userId == null) return;
+        afterCommit(() -> redis.execute(SET_SCRIPT, List.of(key(userId)),
+                field(conversationType, targetId), String.valueOf(Math.max(0, unread))));
+    }
+
+    /**
+     * 丢弃这些用户的缓存，下次读取时按会话摘要重建
+     */
+    public void invalidate(Collection<Long> userIds) {
+        if (userIds == null || userIds.isEmpty()) return;
+        List<String> keys = userIds.stream().filter(Objects::nonNull).map(UnreadCounterService::key).toList();
+        if (keys.isEmpty()) return;
+        afterCommit(() -> redis.delete(keys));
+    }
+
+    /**
+     * 读取某用户全部会话的未读数（key 为 PRIVATE:{friendId} / GROUP:{groupId}，只含未读数大于 0 的会话）
+     */
+    public Map<String, Integer> getAll(Long userId) {
+        String key = key(userId);
+        try {
+            Map<Object, Object> cached = redis.opsForHash().entries(key);
+            if (!cached.isEmpty()) {
+                return toCounts(cached);
+            }
+        } catch (Exception e) {
+            log.warn("read unread counters failed userId={} err={}", userId, e.getMessage());
+            return loadFromDb(userId);
+        }
+        Map<String, Integer> counts = loadFromDb(userId);
+        write(key, counts, "");
+        return counts;
+    }
+
+    /**
+     * 定期对账：已缓存的计数与 conversation_summary 不一致时以 MySQL 为准整体覆盖
+     */
+    @Scheduled(fixedDelayString = "${chat.unread.reconcile-interval-millis:600000}",
+            initialDelayString = "${chat.unread.reconcile-interval-millis:600000}")
+    public void reconcile() {
+        if (!holdReconcileLease()) return;
+        int limit = Math.max(1, chatProperties.getUnread().getReconcileBatch());
+        int checked = 0;
+        int fixed = 0;
+        String cursor = reconcileCursor;
+        try {
+            do {
+                KeyScanCursor<byte[]> page = scanPage(cursor);
+                // 一页总是整页处理完再推进游标，下一轮不会跳过本页剩余的 key
+                for (byte[] raw : page.getKeys()) {
+                    String key = new String(raw, StandardCharsets.UTF_8);
+                    Long userId = parseUserId(key);
+                    if (userId == null) continue;
+                    checked++;
+                    // 先读缓存（连同版本）再读 MySQL：之后到达的增量会改变版本，覆盖随之放弃，留给下一轮
+                    Map<Object, Object> entries = redis.opsForHash().entries(key);
+                    if (entries.isEmpty()) continue;
+                    String version = String.valueOf(entries.getOrDefault(VERSION_FIELD, "0"));
+                    Map<String, Integer> expected = loadFromDb(userId);
+                    if (!expected.equals(toCounts(entries)) && write(key, expected, version)) {
+                        fixed++;
+                    }
+                }
+                cursor = page.isFinished() ? ScanCursor.INITIAL.getCursor() : page.getCursor();
+            } while (checked < limit && !ScanCursor.INITIAL.getCursor().equals(cursor));
+        } catch (Exception e) {
+            log.warn("unread counter reconcile failed: {}", e.getMessage(), e);
+        }
+        reconcileCursor = cursor;
+        if (fixed > 0) {
+            log.info("unread counter reconcile checked={} fixed={}", checked, fixed);
+        }
+    }
+
+    public static String field(String conversationType, Long targetId) {
+        return conversationType + ":" + targetId;
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private Map<String, Integer> loadFromDb(Long userId) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (ConversationSummary s : conversationSummaryMapper.listByUser(userId)) {
+            int unread = s.getUnreadCount() == null ? 0 : s.getUnreadCount();
+            if (unread > 0) {
+                counts.put(field(s.getConversationType(), s.getTargetId()), unread);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 原子整体重写；expectedVersion 为空串表示仅在 hash 不存在时写入。返回是否写入
+     */
+    private boolean write(String key, Map<String, Integer> counts, String expectedVersion) {
+        try {
+            List<String> args = new ArrayList<>(counts.size() * 2 + 2);
+            args.add(expectedVersion);
+            args.add(String.valueOf(Duration.ofHours(Math.max(1, chatProperties.getUnread().getTtlHours())).getSeconds()));
+            counts.forEach((f, v) -> {
+                args.add(f);
+                args.add(String.valueOf(v));
+            });
+            Long ok = redis.execute(REPLACE_SCRIPT, List.of(key), args.toArray());
+            return ok != null && ok > 0;
+        } catch (Exception e) {
+            log.warn("write unread counters failed key={} err={}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 未开启集群时直接执行；否则只有持有对账租约的节点执行（租约 TTL 为两个对账周期，持有者宕机后由其它节点接管）
+     */
+    private boolean holdReconcileLease() {
+        ChatProperties.Cluster cluster = chatProperties.getCluster();
+        if (!cluster.isEnabled()) return true;
+        try {
+            long ttlMillis = Math.max(60_000L, chatProperties.getUnread().getReconcileIntervalMillis() * 2);
+            Long held = redis.execute(LEASE_SCRIPT, List.of(KEY_RECONCILE_LEASE),
+                    cluster.getNodeId(), String.valueOf(ttlMillis));
+            return held != null && held > 0;
+        } catch (Exception e) {
+            log.warn("unread reconcile lease failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static Map<String, Integer> toCounts(Map<Object, Object> entries) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<Object, Object> e : entries.entrySet()) {
+            String f = String.valueOf(e.getKey());
+            if (MARKER_FIELD.equals(f) || VERSION_FIELD.equals(f)) continue;
+            try {
+                int v = Integer.parseInt(String.valueOf(e.getValue()));
+                if (v > 0) counts.put(f, v);
+            } catch (NumberFormatException ignore) {}
+        }
+        return counts;
+    }
+
+    /**
+     * 有事务时提交后执行（回滚则不动计数），否则立即执行；Redis 异常只记日志，由对账 / 重建兜底
+     */
+    private void afterCommit(Runnable action) {
+        Runnable safe = () -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                log.warn("unread counter update failed: {}", e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    safe.run();
+                }
+            });
+        } else {
+            safe.run();
+        }
+    }
+
+    /**
+     * 从指定游标继续 SCAN 一页（Spring 的 Cursor 只能从 0 开始，这里直接用 Lettuce 的游标接口）
+     */
+    @SuppressWarnings("unchecked")
+    private KeyScanCursor<byte[]> scanPage(String cursor) {
+        return redis.execute((RedisCallback<KeyScanCursor<byte[]>>) connection -> {
+            RedisKeyAsyncCommands<byte[], byte[]> commands =
+                    (RedisKeyAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+            try {
+                return commands.scan(ScanCursor.of(cursor), ScanArgs.Builder.matches(SCAN_PATTERN).limit(SCAN_COUNT))
+                        .get(SCAN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException("SCAN failed at cursor " + cursor, e);
+            }
+        });
+    }
+
+    private static Long parseUserId(String key) {
+        try {
+            return Long.parseLong(key.substring(key.lastIndexOf(':') + 1));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String key(Long userId) {
+        return String.format(KEY_UNREAD, userId);
+    }
+}
@@ -0,0 +1,78 @@
+package com.anime.chat.service;
+
+import com.anime.common.entity.user.User;
+import com.anime.common.mapper.user.UserMapper;
+import com.anime.common.service.AttachmentService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 列表接口用的用户资料批量加载（DataLoader 风格）
+ *
+ * 调用方先收集本次请求要展示的全部 userId，再一次性加载：
+ * - users 表一条 IN (...) 查询（头像ID、签名等直接取自实体，不再逐个 getAvatarAttachmentIdById）
+ * - 头像附件一次 selectBatchIds + 批量 presign（AttachmentService.presignAll）
+ * 无论列表多长，查询次数都是常数。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserProfileLoader {
+
+    private final UserMapper userMapper;
+    private final AttachmentService attachmentService;
+
+    /**
+     * 列表展示所需的用户资料
+     */
+    public record UserProfile(Long id, String username, String email, String signature, String avatarUrl) {}
+
+    /**
+     * 批量加载用户资料：返回 userId -> UserProfile，不存在的用户不在结果中
+     */
+    public Map<Long, UserProfile> loadAll(Collection<Long> userIds, long avatarExpirySeconds) {
+        if (userIds == null || userIds.isEmpty()) return Collections.emptyMap();
+        List<Long> ids = userIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (ids.isEmpty()) return Collections.emptyMap();
+
+        List<User> users = userMapper.selectBatchIds(ids);
+
+        Map<Long, Long> avatarByUser = new HashMap<>();
+        for (User u : users) {
+            Long avatarAttId = parseAttachmentId(u);
+            if (avatarAttId != null) {
+                avatarByUser.put(u.getId(), avatarAttId);
+            }
+        }
+        Map<Long, String> urls = avatarByUser.isEmpty()
+                ? Collections.emptyMap()
+                : attachmentService.presignAll(avatarByUser.values(), avatarExpirySeconds);
+
+        Map<Long, UserProfile> result = new HashMap<>(users.size() * 2);
+        for (User u : users) {
+            Long avatarAttId = avatarByUser.get(u.getId());
+            result.put(u.getId(), new UserProfile(
+                    u.getId(),
+                    u.getUsername(),
+                    u.getEmail(),
+                    u.getPersonalSignature(),
+                    avatarAttId != null ? urls.get(avatarAttId) : null));
+        }
+        return result;
+    }
+
+    private static Long parseAttachmentId(User u) {
+        String raw = u.getAvatar_attachment_id();
+        if (raw == null || raw.isBlank()) return null;
+        try {
+            return Long.valueOf(raw.trim());
+        } catch (NumberFormatException e) {
+            log.debug("UserProfileLoader: bad avatar_attachment_id for user {}: {}", u.getId(), raw);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.anime.chat.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 白板笔画点的紧凑编码（dv1）与化简
+ *
+ * dv1：坐标是归一化的 0..1，量化为 0..65535 的整数；之后写点数，再逐点写与上一点的差值
+ * （zigzag + varint），最后 base64url（无填充）。相邻点的差值通常只有 1~2 字节，
+ * 比 JSON 的 [[0.123456,0.654321],...] 小数倍。
+ *
+ * 化简：Ramer–Douglas–Peucker，tolerance 同样以归一化坐标为单位。
+ */
+public final class WhiteboardPointCodec {
+
+    public static final String ENCODING = "dv1";
+
+    private static final int SCALE = 65535;
+    // 允许的越界误差，超出即视为非归一化坐标，不做编码
+    private static final double EPSILON = 1e-6;
+
+    private WhiteboardPointCodec() {}
+
+    /**
+     * 编码；点不是归一化的二维坐标时返回 null（调用方保留 JSON 格式）
+     */
+    public static String encode(List<List<Double>> points) {
+        if (points == null) return null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(points.size() * 3 + 4);
+        writeVarint(out, points.size());
+        int px = 0, py = 0;
+        for (List<Double> p : points) {
+            if (p == null || p.size() < 2 || p.get(0) == null || p.get(1) == null) return null;
+            double x = p.get(0), y = p.get(1);
+            if (x < -EPSILON || x > 1 + EPSILON || y < -EPSILON || y > 1 + EPSILON) return null;
+            int qx = quantize(x), qy = quantize(y);
+            writeVarint(out, zigzag(qx - px));
+            writeVarint(out, zigzag(qy - py));
+            px = qx;
+            py = qy;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * 解码；格式错误时抛出 IllegalArgumentException
+     */
+    public static List<List<Double>> decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) return new ArrayList<>();
+        byte[] data = Base64.getUrlDecoder().decode(encoded);
+        int[] pos = {0};
+        int count = readVarint(data, pos);
+        if (count < 0 || count > data.length) {
+            throw new IllegalArgumentException("invalid point count " + count);
+        }
+        List<List<Double>> points = new ArrayList<>(count);
+        int x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            x += unzigzag(readVarint(data, pos));
+            y += unzigzag(readVarint(data, pos));
+            points.add(List.of((double) x / SCALE, (double) y / SCALE));
+        }
+        return points;
+    }
+
+    /**
+     * Ramer–Douglas–Peucker 化简；点数不超过 2 或 tolerance 不大于 0 时原样返回
+     */
+    public static List<List<Double>> simplify(List<List<Double>> points, double tolerance) {
+        if (points == null || points.size() <= 2 || tolerance <= 0) return points;
+        for (List<Double> p : points) {
+            if (p == null || p.size() < 2 || p.get(0) == null || p.get(1) == null) return points;
+        }
+        boolean[] keep = new boolean[points.size()];
+        keep[0] = true;
+        keep[points.size() - 1] = true;
+
+        // 显式栈，避免长笔画递归过深
+        int[] stack = new int[points.size() * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = points.size() - 1;
+        double sqTolerance = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxSq = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = sqSegmentDistance(points.get(i), points.get(first), points.get(last));
+                if (d > maxSq) {
+                    maxSq = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxSq > sqTolerance) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+
+        List<List<Double>> out = new ArrayList<>();
+        for (int i = 0; i < points.size(); i++) {
+            if (keep[i]) out.add(points.get(i));
+        }
+        return out;
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private static int quantize(double v) {
+        long q = Math.round(v * SCALE);
+        return (int) Math.max(0, Math.min(SCALE, q));
+    }
+
+    private static double sqSegmentDistance(List<Double> p, List<Double> a, List<Double> b) {
+        double x = a.get(0), y = a.get(1);
+        double dx = b.get(0) - x, dy = b.get(1) - y;
+        if (dx != 0 || dy != 0) {
+            double t = ((p.get(0) - x) * dx + (p.get(1) - y) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x = b.get(0);
+                y = b.get(1);
+            } else if (t > 0) {
+                x += dx * t;
+                y += dy * t;
+            }
+        }
+        dx = p.get(0) - x;
+        dy = p.get(1) - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= data.length) {
+                throw new IllegalArgumentException("truncated varint");
+            }
+            byte b = data[pos[0]++];
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+}
@@ -0,0 +1,616 @@
+package com.anime.chat.service;
+
+import com.anime.chat.socket.WebSocketSessionManager;
+import com.anime.chat.socket.WsClusterRouter;
+import com.anime.common.mapper.chat.ChatGroupMemberMapper;
+import com.anime.config.ChatProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 群白板房间（convId = group:{groupId}）
+ *
+ * - 每个房间同一时刻只有一个 owner 节点：Redis 键 whiteboard:room:{conv}:owner = nodeId（SET NX + TTL，owner 定期续期）
+ * - owner 在内存里持有房间的权威状态：成员、dv1 成员、上次 CLEAR 之后的整笔、单调递增的 seq；
+ *   所有操作在房间专用通道（whiteboard-room-*，与聊天会话通道分开）上串行执行，seq 即事件顺序，
+ *   转发直接从内存成员表扇出，不读 Redis
+ * - 接管时的恢复（flush、快照、XRANGE、成员集合）在加载线程上完成，期间到达的命令按顺序暂存，
+ *   恢复好的房间交给房间通道后再依次执行，通道上不做 Redis 批量读取
+ * - 连在其它节点上的成员，其 JOIN / STROKE / CLEAR / LEAVE 通过 owner 的频道 whiteboard:node:{nodeId} 转交给 owner
+ * - Redis 只用作：事件的 write-behind 日志（与私聊白板同一套 stream + 快照）、成员集合备份、owner 租约；
+ *   owner 宕机后租约不再续期，TTL 到期后由下一个收到请求的节点 SET NX 接管，从快照 + stream 与成员集合恢复房间；
+ *   不会删除其它节点的租约（频道暂时无人订阅不代表 owner 已失去房间）
+ * - 未开启集群（chat.cluster.enabled=false）时本节点就是所有房间的 owner，不使用租约
+ */
+@Slf4j
+@Service
+public class WhiteboardRoomService implements MessageListener {
+
+    public static final String CONV_PREFIX = "group:";
+
+    private static final String KEY_OWNER = "whiteboard:room:%s:owner";
+    private static final String CHANNEL_NODE = "whiteboard:node:%s";
+
+    // 仅当租约仍属于本节点时续期 / 释放
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+              return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+              return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 转交给 owner 的房间操作（op：JOIN / STROKE / CLEAR / LEAVE）
+     */
+    public record RoomCommand(String op, Long groupId, Long userId, String encoding,
+                              Map<String, Object> payload, Long ts) {}
+
+    /**
+     * owner 节点上的房间状态；除 activeAt 外只在房间通道上读写
+     */
+    private static final class Room {
+        private final String conv;
+        private final Long groupId;
+        // 本次接管的标识，客户端据此判断 seq 是否重新开始
+        private final String term;
+        private long seq;
+        private final Set<Long> members = new HashSet<>();
+        private final Set<Long> compact = new HashSet<>();
+        // 上次 CLEAR 之后已结束的整笔（fromUserId|strokeId -> 笔画）
+        private final Map<String, WhiteboardSnapshotService.Stroke> strokes = new LinkedHashMap<>();
+        private volatile long activeAt;
+
+        private Room(String conv, Long groupId, String term) {
+            this.conv = conv;
+            this.groupId = groupId;
+            this.term = term;
+        }
+    }
+
+    private record OwnerEntry(String nodeId, long loadedAt) {}
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper objectMapper;
+    private final WebSocketSessionManager sessionManager;
+    private final WsClusterRouter clusterRouter;
+    private final ChatGroupMemberMapper chatGroupMemberMapper;
+    private final WhiteboardService whiteboardService;
+    private final WhiteboardSnapshotService snapshotService;
+    private final WhiteboardStreamWriter streamWriter;
+    private final ChatProperties chatProperties;
+
+    // 房间专用通道；接管时的加载线程
+    private final ConversationExecutor roomExecutor;
+    private final ExecutorService loader;
+
+    // 本节点持有的房间
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    // 正在加载的房间：conv -> 加载期间到达的命令（按到达顺序）
+    private final ConcurrentMap<String, List<RoomCommand>> pending = new ConcurrentHashMap<>();
+
+    // 其它节点持有的房间：conv -> owner 缓存
+    private final ConcurrentMap<String, OwnerEntry> owners = new ConcurrentHashMap<>();
+
+    public WhiteboardRoomService(StringRedisTemplate redis,
+                                 ObjectMapper objectMapper,
+                                 WebSocketSessionManager sessionManager,
+                                 WsClusterRouter clusterRouter,
+                                 ChatGroupMemberMapper chatGroupMemberMapper,
+                                 WhiteboardService whiteboardService,
+                                 WhiteboardSnapshotService snapshotService,
+                                 WhiteboardStreamWriter streamWriter,
+                                 ChatProperties chatProperties) {
+        this.redis = redis;
+        this.objectMapper = objectMapper;
+        this.sessionManager = sessionManager;
+        this.clusterRouter = clusterRouter;
+        this.chatGroupMemberMapper = chatGroupMemberMapper;
+        this.whiteboardService = whiteboardService;
+        this.snapshotService = snapshotService;
+        this.streamWriter = streamWriter;
+        this.chatProperties = chatProperties;
+        ChatProperties.Whiteboard props = chatProperties.getWhiteboard();
+        this.roomExecutor = new ConversationExecutor("whiteboard-room", props.getRoomLanes(), props.getRoomQueueCapacity());
+        AtomicInteger seq = new AtomicInteger();
+        this.loader = Executors.newFixedThreadPool(Math.max(1, props.getRoomLoaderThreads()), r -> {
+            Thread t = new Thread(r);
+            t.setName("whiteboard-room-loader-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static String convId(Long groupId) {
+        return CONV_PREFIX + groupId;
+    }
+
+    /**
+     * 本节点订阅的房间命令频道
+     */
+    public String channel() {
+        return String.format(CHANNEL_NODE, clusterRouter.nodeId());
+    }
+
+    /**
+     * JOIN：校验群成员后加入房间，owner 把当前房间内容以 WHITEBOARD_INIT 发给加入者
+     */
+    public void join(Long userId, Long groupId, String encoding) {
+        if (userId == null || groupId == null) {
+            throw new IllegalArgumentException("userId and groupId are required");
+        }
+        if (chatGroupMemberMapper.countByGroupAndUser(groupId, userId) <= 0) {
+            sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "not_group_member", "groupId", groupId));
+            return;
+        }
+        dispatch(new RoomCommand("JOIN", groupId, userId, encoding, null, null));
+    }
+
+    /**
+     * 笔画分片；JSON points 能编码时先转成 pointsEnc（转交给 owner 的消息更小，反序列化后也不会出现整数坐标）
+     */
+    @SuppressWarnings("unchecked")
+    public void stroke(Long userId, Long groupId, Map<String, Object> payload) {
+        if (payload.get("pointsEnc") == null && payload.get("points") instanceof List<?> points) {
+            String enc = WhiteboardPointCodec.encode((List<List<Double>>) points);
+            if (enc != null) {
+                payload.remove("points");
+                payload.put("pointsEnc", enc);
+            }
+        }
+        dispatch(new RoomCommand("STROKE", groupId, userId, null, payload, null));
+    }
+
+    public void clear(Long userId, Long groupId, Long ts) {
+        dispatch(new RoomCommand("CLEAR", groupId, userId, null, null, ts));
+    }
+
+    public void leave(Long userId, Long groupId) {
+        dispatch(new RoomCommand("LEAVE", groupId, userId, null, null, null));
+    }
+
+    /**
+     * 其它节点转交过来的命令：只在本节点确实是 owner（或房间无主、本节点接管成功）时处理，不再转发
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        RoomCommand cmd;
+        try {
+            cmd = objectMapper.readValue(message.getBody(), RoomCommand.class);
+        } catch (Exception e) {
+            log.warn("whiteboard room: bad command err={}", e.getMessage());
+            return;
+        }
+        if (cmd == null || cmd.groupId() == null || cmd.userId() == null) return;
+        String conv = convId(cmd.groupId());
+        if (rooms.containsKey(conv) || clusterRouter.nodeId().equals(acquireOrGet(conv))) {
+            runLocal(conv, cmd);
+        } else {
+            log.debug("whiteboard room: not owner, dropping op={} conv={}", cmd.op(), conv);
+        }
+    }
+
+    /**
+     * 续期本节点持有的房间；处理空闲笔画、裁剪时间窗外的整笔，长时间无操作的房间释放
+     */
+    @Scheduled(fixedDelayString = "${chat.whiteboard.room-renew-interval-millis:5000}")
+    public void maintainRooms() {
+        if (rooms.isEmpty()) return;
+        long idleBefore = System.currentTimeMillis() - chatProperties.getWhiteboard().getRoomIdleSeconds() * 1000L;
+        for (Room room : new ArrayList<>(rooms.values())) {
+            if (clusterRouter.isEnabled() && !renew(room.conv)) {
+                runOnLane(room.conv, () -> {
+                    if (rooms.remove(room.conv, room)) {
+                        log.warn("whiteboard room ownership lost conv={} term={}", room.conv, room.term);
+                    }
+                });
+                continue;
+            }
+            runOnLane(room.conv, () -> {
+                if (rooms.get(room.conv) != room) return;
+                for (Map<String, Object> record : whiteboardService.flushIdleStrokes(room.conv)) {
+                    foldStroke(room, record);
+                }
+                long threshold = System.currentTimeMillis() - WhiteboardService.WINDOW_MS;
+                room.strokes.values().removeIf(s -> s.getTs() < threshold);
+                if (room.activeAt < idleBefore) {
+                    rooms.remove(room.conv, room);
+                    release(room.conv);
+                }
+            });
+        }
+    }
+
+    /**
+     * 停机时释放租约，其它节点可以立即接管
+     */
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+        roomExecutor.shutdown();
+        if (!clusterRouter.isEnabled()) return;
+        for (String conv : rooms.keySet()) {
+            release(conv);
+        }
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    /**
+     * 本节点是 owner 时在房间通道上执行，否则转交给 owner。
+     * 转交无人接收时只尝试 SET NX：租约已过期（owner 确实宕机）才接管，仍被持有时本条命令丢弃，由 TTL 决定何时换主
+     */
+    private void dispatch(RoomCommand cmd) {
+        if (cmd.userId() == null || cmd.groupId() == null) {
+            throw new IllegalArgumentException("userId and groupId are required");
+        }
+        String conv = convId(cmd.groupId());
+        if (!clusterRouter.isEnabled() || rooms.containsKey(conv)) {
+            runLocal(conv, cmd);
+            return;
+        }
+        String owner = ownerOf(conv);
+        if (owner == null) owner = acquireOrGet(conv);
+        if (owner == null) {
+            log.warn("whiteboard room: no owner available conv={} op={}", conv, cmd.op());
+            return;
+        }
+        if (clusterRouter.nodeId().equals(owner)) {
+            runLocal(conv, cmd);
+            return;
+        }
+        if (publish(owner, cmd)) return;
+
+        // 缓存的 owner 可能已过时：重新读取，租约不存在 / 已过期时才由本节点抢占
+        owners.remove(conv);
+        String next = acquireOrGet(conv);
+        if (clusterRouter.nodeId().equals(next)) {
+            log.info("whiteboard room owner {} gone, conv={} taken over", owner, conv);
+            runLocal(conv, cmd);
+        } else if (next != null && !next.equals(owner) && publish(next, cmd)) {
+            return;
+        } else {
+            log.warn("whiteboard room owner {} unreachable but lease still held, dropping op={} conv={}",
+                    next, cmd.op(), conv);
+        }
+    }
+
+    /**
+     * 房间已在本节点时直接排到房间通道；否则暂存命令，第一条命令触发在加载线程上恢复房间
+     */
+    private void runLocal(String conv, RoomCommand cmd) {
+        if (rooms.containsKey(conv) && !pending.containsKey(conv)) {
+            runOnLane(conv, () -> apply(conv, cmd));
+            return;
+        }
+        // [0] 房间已就绪，直接执行；[1] 本条命令触发加载
+        boolean[] flags = new boolean[2];
+        pending.compute(conv, (k, queued) -> {
+            if (queued == null && rooms.containsKey(conv)) {
+                flags[0] = true;
+                return null;
+            }
+            if (queued == null) {
+                queued = new ArrayList<>();
+                flags[1] = true;
+            }
+            queued.add(cmd);
+            return queued;
+        });
+        if (flags[0]) {
+            runOnLane(conv, () -> apply(conv, cmd));
+            return;
+        }
+        if (!flags[1]) return;
+        try {
+            loader.execute(() -> load(conv, cmd.groupId()));
+        } catch (RejectedExecutionException e) {
+            List<RoomCommand> dropped = pending.remove(conv);
+            log.warn("whiteboard room loader rejected conv={} dropped={}", conv, dropped == null ? 0 : dropped.size());
+        }
+    }
+
+    /**
+     * 加载线程：恢复房间后装入 rooms，并把暂存的命令按顺序排到房间通道（在 pending 的同一把桶锁内完成，
+     * 与 runLocal 的入队互斥，后到的命令不会越过暂存的命令）
+     */
+    private void load(String conv, Long groupId) {
+        Room room;
+        try {
+            room = activate(conv, groupId);
+        } catch (Exception e) {
+            List<RoomCommand> dropped = pending.remove(conv);
+            log.warn("whiteboard room activate failed conv={} dropped={} err={}",
+                    conv, dropped == null ? 0 : dropped.size(), e.getMessage(), e);
+            return;
+        }
+        pending.compute(conv, (k, queued) -> {
+            rooms.putIfAbsent(conv, room);
+            if (queued != null) {
+                for (RoomCommand cmd : queued) {
+                    runOnLane(conv, () -> apply(conv, cmd));
+                }
+            }
+            return null;
+        });
+    }
+
+    private void runOnLane(String conv, Runnable task) {
+        roomExecutor.submit(conv, () -> {
+            task.run();
+            return null;
+        }).whenComplete((r, e) -> {
+            if (e != null) log.warn("whiteboard room task failed conv={} err={}", conv, e.getMessage(), e);
+        });
+    }
+
+    private void apply(String conv, RoomCommand cmd) {
+        Room room = rooms.get(conv);
+        if (room == null) {
+            // 排队期间房间已被释放（空闲 / 失去租约）：重新确认 owner 后再执行
+            dispatch(cmd);
+            return;
+        }
+        room.activeAt = System.currentTimeMillis();
+        Long userId = cmd.userId();
+
+        switch (cmd.op()) {
+            case "JOIN" -> {
+                boolean compact = WhiteboardPointCodec.ENCODING.equalsIgnoreCase(cmd.encoding());
+                room.members.add(userId);
+                if (compact) room.compact.add(userId); else room.compact.remove(userId);
+                saveMember(conv, userId, true, compact);
+
+                List<Map<String, Object>> events = new ArrayList<>();
+                long threshold = System.currentTimeMillis() - WhiteboardService.WINDOW_MS;
+                for (WhiteboardSnapshotService.Stroke s : room.strokes.values()) {
+                    if (s.getTs() >= threshold) events.add(whiteboardService.strokeEvent(conv, s, compact));
+                }
+                events.addAll(whiteboardService.openStrokeEvents(conv, compact));
+                sessionManager.sendToUser(userId, "WHITEBOARD_INIT", Map.of(
+                        "events", events, "groupId", room.groupId, "seq", room.seq, "term", room.term));
+            }
+            case "STROKE" -> {
+                if (!checkJoined(room, userId)) return;
+                Map<String, Object> record = whiteboardService.forwardPart(conv, userId,
+                        cmd.payload() == null ? Map.of() : cmd.payload(),
+                        room.members, room.compact, nextSeq(room));
+                if (record != null) foldStroke(room, record);
+            }
+            case "CLEAR" -> {
+                if (!checkJoined(room, userId)) return;
+                whiteboardService.clear(conv, userId, cmd.ts(), room.members, nextSeq(room));
+                room.strokes.clear();
+            }
+            case "LEAVE" -> {
+                room.members.remove(userId);
+                room.compact.remove(userId);
+                saveMember(conv, userId, false, false);
+            }
+            default -> log.warn("whiteboard room: unknown op={} conv={}", cmd.op(), conv);
+        }
+    }
+
+    /**
+     * 接管房间（加载线程上执行）：先把本节点待写入的事件落盘，再由快照 + 快照之后的 stream 恢复整笔，由成员集合恢复成员
+     */
+    private Room activate(String conv, Long groupId) {
+        long now = System.currentTimeMillis();
+        Room room = new Room(conv, groupId, clusterRouter.nodeId() + ":" + now);
+        streamWriter.flush();
+
+        long threshold = now - WhiteboardService.WINDOW_MS;
+        String windowStartId = WhiteboardSnapshotService.idAt(threshold);
+        String fromId = windowStartId;
+        String skipId = null;
+        WhiteboardSnapshotService.Snapshot snapshot = snapshotService.load(conv);
+        if (snapshot != null && snapshot.getStreamId() != null
+                && WhiteboardSnapshotService.compareIds(snapshot.getStreamId(), windowStartId) >= 0) {
+            for (WhiteboardSnapshotService.Stroke s : snapshot.getStrokes()) {
+                if (s.getTs() >= threshold && s.isEnd()) {
+                    room.strokes.put(WhiteboardSnapshotService.strokeKey(s.getFromUserId(), s.getStrokeId()), s);
+                }
+            }
+            fromId = snapshot.getStreamId();
+            skipId = snapshot.getStreamId();
+        }
+        for (MapRecord<String, Object, Object> r : snapshotService.readFrom(
+                String.format(WhiteboardService.KEY_STREAM, conv), fromId, skipId)) {
+            foldStroke(room, r.getValue());
+        }
+        // 旧节点上未结束的笔画不会再有后续分片
+        room.strokes.values().removeIf(s -> !s.isEnd());
+
+        room.members.addAll(loadIds(String.format(WhiteboardService.KEY_MEMBERS, conv)));
+        room.compact.addAll(loadIds(String.format(WhiteboardService.KEY_MEMBERS_DV1, conv)));
+        log.info("whiteboard room activated conv={} term={} strokes={} members={}",
+                conv, room.term, room.strokes.size(), room.members.size());
+        return room;
+    }
+
+    /**
+     * 整笔 / CLEAR 记录折叠进房间状态，点重新以 dv1 保存
+     */
+    private void foldStroke(Room room, Map<?, ?> record) {
+        snapshotService.fold(room.strokes, record);
+        Object strokeId = record.get("strokeId");
+        WhiteboardSnapshotService.Stroke s = strokeId == null ? null
+                : room.strokes.get(WhiteboardSnapshotService.strokeKey(record.get("fromUserId"), strokeId));
+        if (s != null && s.getPointsEnc() == null) {
+            String enc = WhiteboardPointCodec.encode(s.getPoints());
+            if (enc != null) {
+                s.setPointsEnc(enc);
+                s.setPoints(new ArrayList<>());
+            }
+        }
+    }
+
+    private Map<String, Object> nextSeq(Room room) {
+        Map<String, Object> extra = new LinkedHashMap<>();
+        extra.put("groupId", String.valueOf(room.groupId));
+        extra.put("seq", String.valueOf(++room.seq));
+        return extra;
+    }
+
+    private boolean checkJoined(Room room, Long userId) {
+        if (room.members.contains(userId)) return true;
+        sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "not_joined", "groupId", room.groupId));
+        return false;
+    }
+
+    /**
+     * 成员集合写入 Redis，仅用于 owner 切换后恢复
+     */
+    private void saveMember(String conv, Long userId, boolean joined, boolean compact) {
+        String membersKey = String.format(WhiteboardService.KEY_MEMBERS, conv);
+        String compactKey = String.format(WhiteboardService.KEY_MEMBERS_DV1, conv);
+        String uid = String.valueOf(userId);
+        try {
+            if (joined) {
+                redis.opsForSet().add(membersKey, uid);
+                redis.expire(membersKey, WhiteboardService.MEMBERS_TTL);
+            } else {
+                redis.opsForSet().remove(membersKey, uid);
+            }
+            if (joined && compact) {
+                redis.opsForSet().add(compactKey, uid);
+                redis.expire(compactKey, WhiteboardService.MEMBERS_TTL);
+            } else {
+                redis.opsForSet().remove(compactKey, uid);
+            }
+        } catch (Exception e) {
+            log.warn("whiteboard room save member failed conv={} userId={} err={}", conv, userId, e.getMessage());
+        }
+    }
+
+    private Set<Long> loadIds(String key) {
+        Set<Long> ids = new HashSet<>();
+        try {
+            Set<String> raw = redis.opsForSet().members(key);
+            if (raw != null) {
+                for (String s : raw) {
+                    try { ids.add(Long.parseLong(s)); } catch (NumberFormatException ignore) {}
+                }
+            }
+        } catch (Exception e) {
+            log.warn("whiteboard room load members failed key={} err={}", key, e.getMessage());
+        }
+        return ids;
+    }
+
+    /**
+     * owner 查询（本节点缓存 ownerCacheMillis）
+     */
+    private String ownerOf(String conv) {
+        long now = System.currentTimeMillis();
+        OwnerEntry cached = owners.get(conv);
+        if (cached != null && now - cached.loadedAt() < chatProperties.getWhiteboard().getOwnerCacheMillis()) {
+            return cached.nodeId();
+        }
+        String owner = redis.opsForValue().get(ownerKey(conv));
+        if (owner == null) {
+            owners.remove(conv);
+        } else {
+            owners.put(conv, new OwnerEntry(owner, now));
+        }
+        return owner;
+    }
+
+    /**
+     * 房间无主时抢占租约，返回当前 owner
+     */
+    private String acquireOrGet(String conv) {
+        if (!clusterRouter.isEnabled()) return clusterRouter.nodeId();
+        String key = ownerKey(conv);
+        String nodeId = clusterRouter.nodeId();
+        try {
+            if (Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(key, nodeId, ownerTtl()))) {
+                owners.remove(conv);
+                return nodeId;
+            }
+            String owner = redis.opsForValue().get(key);
+            if (owner != null && !owner.equals(nodeId)) {
+                owners.put(conv, new OwnerEntry(owner, System.currentTimeMillis()));
+            }
+            return owner;
+        } catch (Exception e) {
+            log.warn("whiteboard room acquire failed conv={} err={}", conv, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean renew(String conv) {
+        try {
+            Long ok = redis.execute(RENEW_SCRIPT, List.of(ownerKey(conv)),
+                    clusterRouter.nodeId(), String.valueOf(ownerTtl().toMillis()));
+            return ok != null && ok > 0;
+        } catch (Exception e) {
+            // Redis 暂时不可用时保留房间，租约过期前还有机会续上
+            log.warn("whiteboard room renew failed conv={} err={}", conv, e.getMessage());
+            return true;
+        }
+    }
+
+    private void release(String conv) {
+        if (!clusterRouter.isEnabled()) return;
+        try {
+            redis.execute(RELEASE_SCRIPT, List.of(ownerKey(conv)), clusterRouter.nodeId());
+        } catch (Exception e) {
+            log.warn("whiteboard room release failed conv={} err={}", conv, e.getMessage());
+        }
+    }
+
+    /**
+     * 转交给 owner 节点；没有订阅者（owner 已下线）时返回 false
+     */
+    private boolean publish(String ownerNodeId, RoomCommand cmd) {
+        try {
+            Long receivers = redis.convertAndSend(String.format(CHANNEL_NODE, ownerNodeId),
+                    objectMapper.writeValueAsString(cmd));
+            return receivers != null && receivers > 0;
+        } catch (Exception e) {
+            log.warn("whiteboard room publish failed owner={} op={} err={}", ownerNodeId, cmd.op(), e.getMessage());
+            return false;
+        }
+    }
+
+    private String ownerKey(String conv) {
+        return String.format(KEY_OWNER, conv);
+    }
+
+    private Duration ownerTtl() {
+        return Duration.ofSeconds(Math.max(1L, chatProperties.getWhiteboard().getOwnerTtlSeconds()));
+    }
+}
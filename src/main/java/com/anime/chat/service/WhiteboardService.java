@@ -1,26 +1,35 @@
 package com.anime.chat.service;
 
 import com.anime.chat.socket.WebSocketSessionManager;
+import com.anime.config.ChatProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.MapRecord;
-import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * WhiteboardService - 会话级唯一白板（Redis Streams 兼容版）
  *
  * - 不再有 boardId，使用 convId（private:minUserId_maxUserId）唯一标识会话白板
- * - 事件写入 Redis Streams；用 trim(count) 做数量裁剪兜底
- * - JOIN 时按 ts 过滤出“最近 15 分钟”的事件，满足时间窗需求
- * - members Set 只给 JOIN 了的用户转发，避免串扰
+ * - 事件先转发给成员，再交给 WhiteboardStreamWriter 批量写入 Redis Streams（pipeline XADD，定期 XTRIM MAXLEN ~）
+ * - 笔画分片实时转发，但在本节点拼接（WhiteboardStrokeAssembler），结束时化简（RDP）后作为一条整笔记录写入
+ * - points 支持紧凑编码 dv1（WhiteboardPointCodec）：stream / 快照里一律存 dv1；
+ *   JOIN 时带 encoding=dv1 的成员收到的实时事件和初始事件都用 pointsEnc，其余成员仍是 JSON points
+ * - JOIN 时返回“最近 15 分钟”的内容：最新快照里的整笔 + 快照之后（不早于时间窗起点）的 XRANGE + 正在画的笔画，
+ *   不再读全量 stream 后逐条过滤
+ * - members Set 只给 JOIN 了的用户转发，避免串扰；本节点缓存成员列表，加入 / 离开时直接更新缓存，
+ *   笔画转发不再每次 SMEMBERS
+ * - 群白板房间（group:{groupId}）由 WhiteboardRoomService 在 owner 节点上维护，复用这里的转发 / 写入逻辑
  */
 @Slf4j
 @Service
@@ -30,19 +39,31 @@ public class WhiteboardService {
     private final StringRedisTemplate redis;
     private final ObjectMapper objectMapper;
     private final WebSocketSessionManager sessionManager;
+    private final WhiteboardStreamWriter streamWriter;
+    private final WhiteboardSnapshotService snapshotService;
+    private final WhiteboardStrokeAssembler strokeAssembler;
+    private final ChatProperties chatProperties;
+
+    // convId -> 成员缓存（本节点）
+    private final ConcurrentMap<String, CachedMembers> memberCache = new ConcurrentHashMap<>();
+
+    // compact：JOIN 时声明支持 dv1 编码的成员
+    private record CachedMembers(Set<Long> userIds, Set<Long> compact, long loadedAt) {}
 
     // 键空间（会话级）
-    private static final String KEY_STREAM  = "whiteboard:conv:%s:stream";
-    private static final String KEY_MEMBERS = "whiteboard:conv:%s:members";
-    private static final String KEY_LOCK    = "whiteboard:conv:%s:lock";
+    static final String KEY_STREAM              = "whiteboard:conv:%s:stream";
+    static final String KEY_MEMBERS             = "whiteboard:conv:%s:members";
+    static final String KEY_MEMBERS_DV1         = "whiteboard:conv:%s:members:dv1";
+    private static final String KEY_LOCK        = "whiteboard:conv:%s:lock";
+
+    // 整笔记录（分片拼接后写入 stream 的类型）；下发给客户端时仍然是 WHITEBOARD_STROKE_PART + isEnd=true
+    static final String TYPE_STROKE = "WHITEBOARD_STROKE";
 
     // 时间窗：15 分钟
-    private static final long WINDOW_MS = 15 * 60_000L;
-    // 记录上限（兜底，避免无限增长；按你的场景调大/调小）
-    private static final long MAX_RECORDS = 20_000L;
+    static final long WINDOW_MS = 15 * 60_000L;
 
     // 兜底过期
-    private static final Duration MEMBERS_TTL = Duration.ofMinutes(30);
+    static final Duration MEMBERS_TTL = Duration.ofMinutes(30);
     private static final Duration LOCK_TTL    = Duration.ofSeconds(2);
 
     // 规范化 convId（仅支持私聊）
@@ -64,76 +85,88 @@ public class WhiteboardService {
     }
 
     /**
-     * JOIN：加入 members，并返回最近时间窗内的事件（按 ts 过滤）
+     * JOIN：加入 members，并返回最近时间窗内的事件；encoding=dv1 时 points 以 pointsEnc 返回
      */
-    public List<Map<String, Object>> joinAndLoadWindow(Long selfUserId, Long otherUserId) {
+    public List<Map<String, Object>> joinAndLoadWindow(Long selfUserId, Long otherUserId, String encoding) {
         String conv = convId(selfUserId, otherUserId);
         String membersKey = String.format(KEY_MEMBERS, conv);
+        String compactKey = String.format(KEY_MEMBERS_DV1, conv);
         String streamKey  = String.format(KEY_STREAM, conv);
+        boolean compact = WhiteboardPointCodec.ENCODING.equalsIgnoreCase(encoding);
 
         // 成员加入
         redis.opsForSet().add(membersKey, String.valueOf(selfUserId));
         redis.expire(membersKey, MEMBERS_TTL);
+        if (compact) {
+            redis.opsForSet().add(compactKey, String.valueOf(selfUserId));
+            redis.expire(compactKey, MEMBERS_TTL);
+        } else {
+            redis.opsForSet().remove(compactKey, String.valueOf(selfUserId));
+        }
+        memberCache.remove(conv);
 
-        // 读取全量，再按 ts 过滤出 15 分钟窗口（避免依赖 MINID API）
-        Range<String> range = Range.unbounded();
-        List<MapRecord<String, Object, Object>> records = redis.opsForStream().range(streamKey, range);
+        // 已转发但还在写入队列里的事件先落到 stream
+        streamWriter.flush();
 
         long threshold = System.currentTimeMillis() - WINDOW_MS;
+        String windowStartId = WhiteboardSnapshotService.idAt(threshold);
         List<Map<String, Object>> events = new ArrayList<>();
-        if (records != null) {
-            for (var r : records) {
-                Map<Object, Object> body = r.getValue();
-                Map<String, Object> ev = new HashMap<>();
-                // 还原字段（全部以字符串/对象存储，需要转换为字符串再解析）
-                for (Map.Entry<Object, Object> e : body.entrySet()) {
-                    ev.put(String.valueOf(e.getKey()), e.getValue());
-                }
-                ev.put("convId", conv);
-
-                // ts 过滤（字符串/对象转 long）
-                long ts = parseLong(ev.get("ts"));
-                if (ts == 0L) continue;
-                if (ts >= threshold) {
-                    // points 恢复为数组（如果存在，且是 JSON 字符串）
-                    if (ev.containsKey("points")) {
-                        try {
-                            List<List<Double>> pts = objectMapper.readValue(
-                                    String.valueOf(ev.get("points")),
-                                    new TypeReference<List<List<Double>>>(){}
-                            );
-                            ev.put("points", pts);
-                        } catch (Exception ignore) {}
-                    }
-                    // isEnd 恢复为 boolean
-                    if (ev.containsKey("isEnd")) {
-                        ev.put("isEnd", Boolean.parseBoolean(String.valueOf(ev.get("isEnd"))));
-                    }
-                    // width 恢复为 number
-                    if (ev.containsKey("width")) {
-                        ev.put("width", parseDouble(ev.get("width")));
-                    }
-                    events.add(ev);
+
+        // 快照：时间窗内的整笔，每笔一条事件
+        String fromId = windowStartId;
+        String skipId = null;
+        WhiteboardSnapshotService.Snapshot snapshot = snapshotService.load(conv);
+        if (snapshot != null && snapshot.getStreamId() != null
+                && WhiteboardSnapshotService.compareIds(snapshot.getStreamId(), windowStartId) >= 0) {
+            for (WhiteboardSnapshotService.Stroke stroke : snapshot.getStrokes()) {
+                if (stroke.getTs() >= threshold) {
+                    events.add(strokeEvent(conv, stroke, compact));
                 }
             }
+            fromId = snapshot.getStreamId();
+            skipId = snapshot.getStreamId();
+        }
+
+        // 快照之后的原始事件：按 stream id 从时间窗起点读起，ts 再过滤一次（客户端时间与 Redis 时间可能有偏差）
+        for (MapRecord<String, Object, Object> r : snapshotService.readFrom(streamKey, fromId, skipId)) {
+            Map<Object, Object> body = r.getValue();
+            // ts 过滤（字符串/对象转 long）
+            long ts = parseLong(body.get("ts"));
+            if (ts == 0L || ts < threshold) continue;
+            events.add(recordEvent(conv, body, compact));
         }
+
+        // 本节点上正在画、尚未写入 stream 的笔画
+        events.addAll(openStrokeEvents(conv, compact));
         return events;
     }
 
     /**
-     * 写入笔画并转发（仅 members；不含发送者）
-     * 注意：为兼容老 API，这里将事件字段统一作为 Object 写入；points 用 JSON 字符串
+     * 转发笔画分片（仅 members；不含发送者），笔画结束时把整笔化简后异步写入 stream
+     * payload 中的点可以是 points（JSON 数组）或 pointsEnc（dv1）
      */
     public void appendStrokeAndForward(Long fromUserId, Long otherUserId, Map<String, Object> payload) {
         String conv = convId(fromUserId, otherUserId);
+        CachedMembers members = members(conv);
+        forwardPart(conv, fromUserId, payload, members.userIds(), members.compact(), Map.of());
+    }
+
+    /**
+     * 转发一个分片并交给拼接缓冲（私聊白板与群白板房间共用）
+     *
+     * @param extra 额外写入事件的字段（如群白板的 groupId / seq）
+     * @return 该分片使笔画结束时，返回写入 stream 的整笔记录；否则为 null
+     */
+    Map<String, Object> forwardPart(String conv, Long fromUserId, Map<String, Object> payload,
+                                    Set<Long> userIds, Set<Long> compactUserIds, Map<String, Object> extra) {
         String streamKey  = String.format(KEY_STREAM, conv);
-        String membersKey = String.format(KEY_MEMBERS, conv);
 
         long ts = payload.get("ts") instanceof Number ? ((Number) payload.get("ts")).longValue() : System.currentTimeMillis();
 
         Map<String, Object> fields = new LinkedHashMap<>();
         fields.put("type", payload.getOrDefault("type", "WHITEBOARD_STROKE_PART"));
         fields.put("convId", conv);
+        fields.putAll(extra);
         fields.put("fromUserId", String.valueOf(fromUserId)); // 用字符串便于前端解析
         fields.put("strokeId", payload.get("strokeId"));
         if (payload.get("tool") != null)  fields.put("tool", payload.get("tool"));
@@ -141,69 +174,71 @@ public class WhiteboardService {
         if (payload.get("width") != null) fields.put("width", String.valueOf(payload.get("width"))); // 字符串存储
         if (payload.get("isEnd") != null) fields.put("isEnd", String.valueOf(payload.get("isEnd")));
         fields.put("ts", String.valueOf(ts));
-        // points 序列化为 JSON 字符串
-        if (payload.get("points") != null) {
-            try {
-                fields.put("points", objectMapper.writeValueAsString(payload.get("points")));
-            } catch (Exception e) {
-                fields.put("points", "[]");
-            }
-        }
 
-        MapRecord<String, String, Object> record =
-                MapRecord.create(streamKey, fields).withId(RecordId.autoGenerate());
-        redis.opsForStream().add(record);
+        // 客户端发来的 pointsEnc 也先解码再重新编码，转发和存储的一律是规范的 dv1
+        List<List<Double>> points = pointsOf(payload);
+        String encoded = WhiteboardPointCodec.encode(points);
 
-        // 兜底数量裁剪（不依赖 MINID）
-        try {
-            redis.opsForStream().trim(streamKey, MAX_RECORDS);
-        } catch (Exception ignore) {}
+        // 先转发给 members（不含发送者），转发不等待 Redis 写入；两种编码各序列化一次
+        List<Long> legacyPeers = new ArrayList<>();
+        List<Long> compactPeers = new ArrayList<>();
+        for (Long uid : userIds) {
+            if (uid.equals(fromUserId)) continue;
+            (encoded != null && compactUserIds.contains(uid) ? compactPeers : legacyPeers).add(uid);
+        }
+        if (!legacyPeers.isEmpty()) {
+            Map<String, Object> legacy = new LinkedHashMap<>(fields);
+            // points 序列化为 JSON 字符串（与旧版本一致）
+            legacy.put("points", toJson(points));
+            broadcast(legacyPeers, "WHITEBOARD_EVENT", legacy);
+        }
+        if (!compactPeers.isEmpty()) {
+            Map<String, Object> packed = new LinkedHashMap<>(fields);
+            packed.put("pointsEnc", encoded);
+            broadcast(compactPeers, "WHITEBOARD_EVENT", packed);
+        }
 
-        // 转发给 members（不含发送者）
-        Set<String> members = redis.opsForSet().members(membersKey);
-        if (members != null) {
-            for (String uidStr : members) {
-                if (uidStr == null) continue;
-                long uid = parseLong(uidStr);
-                if (uid == fromUserId) continue;
-                // 转发原始 map；前端对 points 解析为数组后绘制
-                sessionManager.sendToUser(uid, "WHITEBOARD_EVENT", fields);
-            }
+        String strokeId = payload.get("strokeId") == null ? null : String.valueOf(payload.get("strokeId"));
+        if (strokeId == null) {
+            // 没有 strokeId 的分片无法拼接，按单条记录写入
+            Map<String, Object> record = new LinkedHashMap<>(fields);
+            putPoints(record, points, encoded);
+            streamWriter.append(streamKey, record);
+            snapshotService.markDirty(conv);
+            return null;
         }
+        boolean end = Boolean.parseBoolean(String.valueOf(payload.get("isEnd")));
+        WhiteboardStrokeAssembler.OpenStroke done =
+                strokeAssembler.add(conv, String.valueOf(fromUserId), strokeId, fields, points, end);
+        return done == null ? null : appendStroke(done);
     }
 
     /**
-     * 清空：写 CLEAR 事件并广播（兼容 Object 字段）
+     * 清空：广播 CLEAR 事件并写入 stream（与笔画走同一个写入队列，顺序不变）
      */
     public void clearAndBroadcast(Long selfUserId, Long otherUserId, Long ts) {
         String conv = convId(selfUserId, otherUserId);
-        String streamKey  = String.format(KEY_STREAM, conv);
-        String membersKey = String.format(KEY_MEMBERS, conv);
+        clear(conv, selfUserId, ts, members(conv).userIds(), Map.of());
+    }
+
+    /**
+     * 广播 CLEAR（含发送者）、丢弃未结束的笔画并写入 stream（私聊白板与群白板房间共用）
+     */
+    void clear(String conv, Long fromUserId, Long ts, Collection<Long> userIds, Map<String, Object> extra) {
         long now = (ts == null) ? System.currentTimeMillis() : ts;
 
         Map<String, Object> ev = new LinkedHashMap<>();
         ev.put("type", "WHITEBOARD_CLEAR");
         ev.put("convId", conv);
-        ev.put("fromUserId", String.valueOf(selfUserId));
+        ev.putAll(extra);
+        ev.put("fromUserId", String.valueOf(fromUserId));
         ev.put("ts", String.valueOf(now));
 
-        MapRecord<String, String, Object> record =
-                MapRecord.create(streamKey, ev).withId(RecordId.autoGenerate());
-        redis.opsForStream().add(record);
+        broadcast(userIds, "WHITEBOARD_CLEAR", ev);
 
-        // 数量裁剪兜底
-        try {
-            redis.opsForStream().trim(streamKey, MAX_RECORDS);
-        } catch (Exception ignore) {}
-
-        // 广播
-        Set<String> members = redis.opsForSet().members(membersKey);
-        if (members != null) {
-            for (String uidStr : members) {
-                if (uidStr == null) continue;
-                sessionManager.sendToUser(parseLong(uidStr), "WHITEBOARD_CLEAR", ev);
-            }
-        }
+        strokeAssembler.clear(conv);
+        streamWriter.append(String.format(KEY_STREAM, conv), ev);
+        snapshotService.markDirty(conv);
     }
 
     /**
@@ -214,9 +249,245 @@ public class WhiteboardService {
         String membersKey = String.format(KEY_MEMBERS, conv);
         try {
             redis.opsForSet().remove(membersKey, String.valueOf(selfUserId));
+            redis.opsForSet().remove(String.format(KEY_MEMBERS_DV1, conv), String.valueOf(selfUserId));
         } catch (Exception e) {
             log.warn("whiteboard leave failed conv={} userId={} err={}", conv, selfUserId, e.getMessage());
         }
+        memberCache.remove(conv);
+    }
+
+    /**
+     * 清理长时间未使用的成员缓存
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    public void evictIdleMemberCache() {
+        long expireBefore = System.currentTimeMillis() - Math.max(60_000L, chatProperties.getWhiteboard().getMemberCacheMillis());
+        memberCache.entrySet().removeIf(e -> e.getValue().loadedAt() < expireBefore);
+    }
+
+    /**
+     * 长时间没有后续分片的笔画（丢了 isEnd）按结束处理，写入 stream
+     */
+    @Scheduled(fixedDelay = 10_000L)
+    public void flushIdleStrokes() {
+        long idleBefore = System.currentTimeMillis() - chatProperties.getWhiteboard().getStrokeIdleMillis();
+        // 群白板房间的笔画由 WhiteboardRoomService 在房间通道上处理（需要同时更新房间状态）
+        for (WhiteboardStrokeAssembler.OpenStroke s : strokeAssembler.drainIdle(idleBefore,
+                conv -> !conv.startsWith(WhiteboardRoomService.CONV_PREFIX))) {
+            appendStroke(s);
+        }
+    }
+
+    /**
+     * 某个白板上空闲的未结束笔画按结束处理，返回写入 stream 的整笔记录
+     */
+    List<Map<String, Object>> flushIdleStrokes(String conv) {
+        long idleBefore = System.currentTimeMillis() - chatProperties.getWhiteboard().getStrokeIdleMillis();
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (WhiteboardStrokeAssembler.OpenStroke s : strokeAssembler.drainIdle(idleBefore, conv::equals)) {
+            records.add(appendStroke(s));
+        }
+        return records;
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    /**
+     * 一整笔化简后作为一条记录写入 stream，返回该记录
+     */
+    private Map<String, Object> appendStroke(WhiteboardStrokeAssembler.OpenStroke s) {
+        List<List<Double>> points = WhiteboardPointCodec.simplify(s.getPoints(),
+                chatProperties.getWhiteboard().getSimplifyTolerance());
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", TYPE_STROKE);
+        record.put("convId", s.getConv());
+        record.put("fromUserId", s.getFromUserId());
+        record.put("strokeId", s.getStrokeId());
+        if (s.getTool() != null)  record.put("tool", s.getTool());
+        if (s.getColor() != null) record.put("color", s.getColor());
+        if (s.getWidth() != null) record.put("width", s.getWidth());
+        record.put("isEnd", "true");
+        record.put("ts", String.valueOf(s.getTs()));
+        putPoints(record, points, WhiteboardPointCodec.encode(points));
+
+        streamWriter.append(String.format(KEY_STREAM, s.getConv()), record);
+        snapshotService.markDirty(s.getConv());
+        return record;
+    }
+
+    /**
+     * 白板成员：优先取本节点缓存，过期后重新 SMEMBERS（其它节点上的加入 / 离开最多延迟 memberCacheMillis 可见）
+     */
+    private CachedMembers members(String conv) {
+        long now = System.currentTimeMillis();
+        CachedMembers cached = memberCache.get(conv);
+        if (cached != null && now - cached.loadedAt() < chatProperties.getWhiteboard().getMemberCacheMillis()) {
+            return cached;
+        }
+        CachedMembers loaded;
+        try {
+            loaded = new CachedMembers(
+                    parseIds(redis.opsForSet().members(String.format(KEY_MEMBERS, conv))),
+                    parseIds(redis.opsForSet().members(String.format(KEY_MEMBERS_DV1, conv))),
+                    now);
+        } catch (Exception e) {
+            log.warn("whiteboard load members failed conv={} err={}", conv, e.getMessage());
+            return cached != null ? cached : new CachedMembers(Set.of(), Set.of(), now);
+        }
+        memberCache.put(conv, loaded);
+        return loaded;
+    }
+
+    private Set<Long> parseIds(Set<String> raw) {
+        Set<Long> ids = new HashSet<>();
+        if (raw != null) {
+            for (String uidStr : raw) {
+                long uid = parseLong(uidStr);
+                if (uid != 0L) ids.add(uid);
+            }
+        }
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * 同一帧序列化一次，发给所有接收者
+     */
+    void broadcast(Collection<Long> userIds, String type, Map<String, Object> payload) {
+        if (userIds == null || userIds.isEmpty()) return;
+        try {
+            Map<String, Object> env = new HashMap<>();
+            env.put("type", type);
+            env.put("payload", payload);
+            sessionManager.sendToUsers(userIds, type, new TextMessage(objectMapper.writeValueAsString(env)));
+        } catch (Exception e) {
+            log.warn("whiteboard broadcast failed type={} err={}", type, e.getMessage());
+        }
+    }
+
+    /**
+     * stream 记录还原成下发给客户端的事件；整笔记录下发为 STROKE_PART + isEnd=true
+     */
+    Map<String, Object> recordEvent(String conv, Map<?, ?> body, boolean compact) {
+        Map<String, Object> ev = new HashMap<>();
+        // 还原字段（全部以字符串/对象存储，需要转换为字符串再解析）
+        for (Map.Entry<?, ?> e : body.entrySet()) {
+            ev.put(String.valueOf(e.getKey()), e.getValue());
+        }
+        ev.put("convId", conv);
+        if (TYPE_STROKE.equals(ev.get("type"))) {
+            ev.put("type", "WHITEBOARD_STROKE_PART");
+        }
+        // isEnd 恢复为 boolean
+        if (ev.containsKey("isEnd")) {
+            ev.put("isEnd", Boolean.parseBoolean(String.valueOf(ev.get("isEnd"))));
+        }
+        // width 恢复为 number
+        if (ev.containsKey("width")) {
+            ev.put("width", parseDouble(ev.get("width")));
+        }
+        // points：dv1 客户端直接转发存储的 pointsEnc，其它客户端还原为数组
+        if (ev.containsKey("points") || ev.containsKey("pointsEnc")) {
+            Object enc = ev.remove("pointsEnc");
+            Object json = ev.remove("points");
+            if (compact && enc != null) {
+                ev.put("pointsEnc", enc);
+            } else {
+                Map<String, Object> raw = new HashMap<>();
+                if (enc != null) raw.put("pointsEnc", enc);
+                if (json != null) raw.put("points", json);
+                ev.put("points", pointsOf(raw));
+            }
+        }
+        return ev;
+    }
+
+    /**
+     * 本节点上正在画、尚未写入 stream 的笔画，每笔一条事件
+     */
+    List<Map<String, Object>> openStrokeEvents(String conv, boolean compact) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        for (WhiteboardStrokeAssembler.OpenStroke s : strokeAssembler.openStrokes(conv)) {
+            events.add(strokeEvent(conv, s.getFromUserId(), s.getStrokeId(), s.getTool(), s.getColor(),
+                    s.getWidth() == null ? null : parseDouble(s.getWidth()), false, s.getTs(),
+                    null, s.getPoints(), compact));
+        }
+        return events;
+    }
+
+    Map<String, Object> strokeEvent(String conv, WhiteboardSnapshotService.Stroke stroke, boolean compact) {
+        return strokeEvent(conv, stroke.getFromUserId(), stroke.getStrokeId(), stroke.getTool(),
+                stroke.getColor(), stroke.getWidth(), stroke.isEnd(), stroke.getTs(),
+                stroke.getPointsEnc(), stroke.getPoints(), compact);
+    }
+
+    /**
+     * 一整笔（快照里的或正在画的）还原成一条 STROKE_PART 事件，字段与实时事件一致
+     */
+    private Map<String, Object> strokeEvent(String conv, String fromUserId, String strokeId, String tool,
+                                            String color, Double width, boolean end, long ts,
+                                            String pointsEnc, List<List<Double>> points, boolean compact) {
+        Map<String, Object> ev = new HashMap<>();
+        ev.put("type", "WHITEBOARD_STROKE_PART");
+        ev.put("convId", conv);
+        ev.put("fromUserId", fromUserId);
+        ev.put("strokeId", strokeId);
+        if (tool != null)  ev.put("tool", tool);
+        if (color != null) ev.put("color", color);
+        if (width != null) ev.put("width", width);
+        ev.put("isEnd", end);
+        ev.put("ts", String.valueOf(ts));
+        if (compact) {
+            String enc = pointsEnc != null ? pointsEnc : WhiteboardPointCodec.encode(points);
+            if (enc != null) {
+                ev.put("pointsEnc", enc);
+                return ev;
+            }
+        }
+        ev.put("points", pointsEnc != null ? WhiteboardPointCodec.decode(pointsEnc) : points);
+        return ev;
+    }
+
+    /**
+     * 取出点：pointsEnc（dv1）优先，其次 points（数组或 JSON 字符串）；无法解析时返回空列表
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<Double>> pointsOf(Map<String, Object> m) {
+        try {
+            Object enc = m.get("pointsEnc");
+            if (enc instanceof String s && !s.isEmpty()) {
+                return WhiteboardPointCodec.decode(s);
+            }
+            Object pts = m.get("points");
+            if (pts instanceof List<?> list) {
+                return (List<List<Double>>) list;
+            }
+            if (pts != null) {
+                return objectMapper.readValue(String.valueOf(pts), new TypeReference<List<List<Double>>>(){});
+            }
+        } catch (Exception ignore) {}
+        return new ArrayList<>();
+    }
+
+    /**
+     * 写入 stream 的点：能编码就只存 pointsEnc，否则存 JSON
+     */
+    private void putPoints(Map<String, Object> record, List<List<Double>> points, String encoded) {
+        if (encoded != null) {
+            record.put("pointsEnc", encoded);
+        } else {
+            record.put("points", toJson(points));
+        }
+    }
+
+    private String toJson(List<List<Double>> points) {
+        try {
+            return objectMapper.writeValueAsString(points == null ? List.of() : points);
+        } catch (Exception e) {
+            return "[]";
+        }
     }
 
     private long parseLong(Object v) {
@@ -225,4 +496,4 @@ public class WhiteboardService {
     private double parseDouble(Object v) {
         try { return Double.parseDouble(String.valueOf(v)); } catch (Exception e) { return 0d; }
     }
-}
\ No newline at end of file
+}
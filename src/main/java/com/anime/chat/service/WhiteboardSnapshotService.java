@@ -0,0 +1,282 @@
+package com.anime.chat.service;
+
+import com.anime.config.ChatProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 白板快照：把 stream 里的事件折叠成“上次 CLEAR 之后的笔画”，附带折叠到的 stream id
+ *
+ * - 定期对本节点写过的白板做增量折叠：从上个快照的 stream id 之后读起，
+ *   整笔记录直接收入，旧格式的分片合并为整笔（同 strokeId 的 points 依次拼接），遇到 CLEAR 清空，超出时间窗的笔画丢弃
+ * - 笔画按 fromUserId|strokeId 区分（与 WhiteboardStrokeAssembler 一致）：strokeId 由客户端生成，
+ *   不同成员的同名 strokeId 互不覆盖，也不能借同一个 id 改掉别人的笔画
+ * - 快照里的点以 dv1 编码保存（pointsEnc），无法编码的才保留 points 数组
+ * - 未结束的笔画也保存在快照里（end=false），快照 id 之前的分片不会丢
+ * - JOIN 时读取快照 + 快照 id（或时间窗起点）之后的 XRANGE，新加入者拿到的是若干整笔，而不是上万条分片
+ * - 多节点同时折叠同一白板时用 SET NX 锁互斥
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WhiteboardSnapshotService {
+
+    private static final String KEY_SNAPSHOT      = "whiteboard:conv:%s:snapshot";
+    private static final String KEY_SNAPSHOT_LOCK = "whiteboard:conv:%s:snapshot:lock";
+
+    private static final Duration SNAPSHOT_TTL = Duration.ofMinutes(30);
+    private static final Duration LOCK_TTL     = Duration.ofSeconds(10);
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper objectMapper;
+    private final WhiteboardStreamWriter streamWriter;
+    private final ChatProperties chatProperties;
+
+    // 上次折叠之后本节点写过事件的白板
+    private final Set<String> dirtyConvs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 折叠后的白板状态
+     */
+    @Data
+    public static class Snapshot {
+        // 已折叠到的最后一条 stream 记录 id
+        private String streamId;
+        private List<Stroke> strokes = new ArrayList<>();
+    }
+
+    /**
+     * 一整笔（由同 strokeId 的分片合并而来）
+     */
+    @Data
+    public static class Stroke {
+        private String strokeId;
+        private String fromUserId;
+        private String tool;
+        private String color;
+        private Double width;
+        // 最后一个分片的时间
+        private long ts;
+        private boolean end;
+        // dv1 编码的点（见 WhiteboardPointCodec）；为空时使用 points
+        private String pointsEnc;
+        private List<List<Double>> points = new ArrayList<>();
+    }
+
+    public void markDirty(String conv) {
+        dirtyConvs.add(conv);
+    }
+
+    public Snapshot load(String conv) {
+        try {
+            String json = redis.opsForValue().get(String.format(KEY_SNAPSHOT, conv));
+            return json == null ? null : objectMapper.readValue(json, Snapshot.class);
+        } catch (Exception e) {
+            log.warn("whiteboard load snapshot failed conv={} err={}", conv, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 分页 XRANGE：从 fromId 开始（含）读到末尾，跳过 id 等于 skipId 的记录（用于“快照 id 之后”）
+     */
+    public List<MapRecord<String, Object, Object>> readFrom(String streamKey, String fromId, String skipId) {
+        int page = Math.max(1, chatProperties.getWhiteboard().getReadBatch());
+        List<MapRecord<String, Object, Object>> out = new ArrayList<>();
+        String cursor = fromId;
+        String skip = skipId;
+        while (true) {
+            List<MapRecord<String, Object, Object>> records = redis.opsForStream().range(streamKey,
+                    Range.rightUnbounded(Range.Bound.inclusive(cursor)), Limit.limit().count(page));
+            if (records == null || records.isEmpty()) break;
+            for (MapRecord<String, Object, Object> r : records) {
+                if (r.getId().getValue().equals(skip)) continue;
+                out.add(r);
+            }
+            if (records.size() < page) break;
+            // 下一页从本页最后一条开始（含），再跳过它
+            cursor = records.get(records.size() - 1).getId().getValue();
+            skip = cursor;
+        }
+        return out;
+    }
+
+    /**
+     * 时间窗起点对应的 stream id（自动生成的 id 以毫秒时间戳开头）
+     */
+    public static String idAt(long epochMillis) {
+        return Math.max(0L, epochMillis) + "-0";
+    }
+
+    /**
+     * 比较两个 stream id（ms-seq）
+     */
+    public static int compareIds(String a, String b) {
+        long[] x = splitId(a);
+        long[] y = splitId(b);
+        int c = Long.compare(x[0], y[0]);
+        return c != 0 ? c : Long.compare(x[1], y[1]);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.whiteboard.snapshot-interval-millis:10000}")
+    public void compactDirty() {
+        if (dirtyConvs.isEmpty()) return;
+        List<String> convs = new ArrayList<>(dirtyConvs);
+        dirtyConvs.removeAll(convs);
+        streamWriter.flush();
+        for (String conv : convs) {
+            try {
+                compact(conv);
+            } catch (Exception e) {
+                log.warn("whiteboard compact failed conv={} err={}", conv, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 把某个白板快照之后的新事件折叠进快照
+     */
+    public void compact(String conv) throws Exception {
+        String lockKey = String.format(KEY_SNAPSHOT_LOCK, conv);
+        if (!Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(lockKey, "1", LOCK_TTL))) {
+            return; // 其它节点正在折叠，本轮跳过（事件仍在 stream 里，下次折叠或 JOIN 时都能读到）
+        }
+        try {
+            long threshold = System.currentTimeMillis() - WhiteboardService.WINDOW_MS;
+            String windowStartId = idAt(threshold);
+
+            Snapshot snapshot = load(conv);
+            String fromId = windowStartId;
+            String skipId = null;
+            if (snapshot != null && snapshot.getStreamId() != null
+                    && compareIds(snapshot.getStreamId(), windowStartId) >= 0) {
+                fromId = snapshot.getStreamId();
+                skipId = snapshot.getStreamId();
+            } else {
+                snapshot = new Snapshot();
+            }
+
+            List<MapRecord<String, Object, Object>> records =
+                    readFrom(String.format(WhiteboardService.KEY_STREAM, conv), fromId, skipId);
+            if (records.isEmpty() && snapshot.getStreamId() != null) return;
+
+            Map<String, Stroke> strokes = new LinkedHashMap<>();
+            for (Stroke s : snapshot.getStrokes()) {
+                if (s.getTs() >= threshold) strokes.put(strokeKey(s.getFromUserId(), s.getStrokeId()), s);
+            }
+            for (MapRecord<String, Object, Object> r : records) {
+                fold(strokes, r.getValue());
+                snapshot.setStreamId(r.getId().getValue());
+            }
+            if (snapshot.getStreamId() == null) {
+                snapshot.setStreamId(windowStartId);
+            }
+            for (Stroke s : strokes.values()) {
+                if (s.getPointsEnc() != null) continue;
+                String enc = WhiteboardPointCodec.encode(s.getPoints());
+                if (enc != null) {
+                    s.setPointsEnc(enc);
+                    s.setPoints(new ArrayList<>());
+                }
+            }
+            snapshot.setStrokes(new ArrayList<>(strokes.values()));
+
+            redis.opsForValue().set(String.format(KEY_SNAPSHOT, conv),
+                    objectMapper.writeValueAsString(snapshot), SNAPSHOT_TTL);
+        } finally {
+            redis.delete(lockKey);
+        }
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    /**
+     * 笔画表的 key：fromUserId|strokeId
+     */
+    static String strokeKey(Object fromUserId, Object strokeId) {
+        return fromUserId + "|" + strokeId;
+    }
+
+    /**
+     * 把一条 stream 记录折叠进笔画表（群白板房间的内存状态也用它维护），key 见 strokeKey
+     */
+    void fold(Map<String, Stroke> strokes, Map<?, ?> body) {
+        String type = str(body.get("type"));
+        if ("WHITEBOARD_CLEAR".equals(type)) {
+            strokes.clear();
+            return;
+        }
+        String strokeId = str(body.get("strokeId"));
+        if (strokeId == null) return;
+        String fromUserId = str(body.get("fromUserId"));
+        String key = strokeKey(fromUserId, strokeId);
+
+        // 整笔记录：替换掉同一成员之前可能已有的同一笔
+        if (WhiteboardService.TYPE_STROKE.equals(type)) {
+            strokes.remove(key);
+        }
+        Stroke s = strokes.computeIfAbsent(key, k -> {
+            Stroke created = new Stroke();
+            created.setStrokeId(strokeId);
+            created.setFromUserId(fromUserId);
+            return created;
+        });
+        // 要继续拼接分片时先把已编码的点解开
+        if (s.getPointsEnc() != null) {
+            s.setPoints(new ArrayList<>(WhiteboardPointCodec.decode(s.getPointsEnc())));
+            s.setPointsEnc(null);
+        }
+        if (body.get("fromUserId") != null) s.setFromUserId(str(body.get("fromUserId")));
+        if (body.get("tool") != null) s.setTool(str(body.get("tool")));
+        if (body.get("color") != null) s.setColor(str(body.get("color")));
+        if (body.get("width") != null) {
+            try { s.setWidth(Double.parseDouble(str(body.get("width")))); } catch (NumberFormatException ignore) {}
+        }
+        try { s.setTs(Long.parseLong(str(body.get("ts")))); } catch (NumberFormatException ignore) {}
+        if (Boolean.parseBoolean(str(body.get("isEnd")))) s.setEnd(true);
+        if (body.get("pointsEnc") != null) {
+            try {
+                s.getPoints().addAll(WhiteboardPointCodec.decode(str(body.get("pointsEnc"))));
+            } catch (Exception ignore) {}
+        } else if (body.get("points") != null) {
+            try {
+                s.getPoints().addAll(objectMapper.readValue(str(body.get("points")),
+                        new TypeReference<List<List<Double>>>(){}));
+            } catch (Exception ignore) {}
+        }
+    }
+
+    private static long[] splitId(String id) {
+        if (id == null) return new long[]{0L, 0L};
+        int dash = id.indexOf('-');
+        try {
+            if (dash < 0) return new long[]{Long.parseLong(id), 0L};
+            return new long[]{Long.parseLong(id.substring(0, dash)), Long.parseLong(id.substring(dash + 1))};
+        } catch (NumberFormatException e) {
+            return new long[]{0L, 0L};
+        }
+    }
+
+    private static String str(Object v) {
+        return v == null ? null : String.valueOf(v);
+    }
+}
@@ -0,0 +1,163 @@
+package com.anime.chat.service;
+
+import com.anime.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 白板事件的 Redis Stream 批量写入
+ *
+ * - 笔画 / 清空事件先转发给对端，再进入内存队列；后台线程每隔几十毫秒把队列里的事件
+ *   用一次 pipeline 的多个 XADD 写入（跨白板合并），写 Redis 不再阻塞绘制线程
+ * - 裁剪不再每次追加都做：定期对写过的 stream 发一次 XTRIM MAXLEN ~（近似裁剪，只删整块）
+ * - 队列和写入都在同一把锁下按入队顺序进行，同一白板的事件在 stream 里保持发送顺序；
+ *   JOIN 读取 stream 之前调用 flush()，保证新加入者能看到已转发的事件
+ * - 进程宕机时丢失的最多是最近一个刷新周期的事件（白板只是 15 分钟的临时数据）
+ */
+@Slf4j
+@Component
+public class WhiteboardStreamWriter {
+
+    private record Append(String streamKey, Map<String, Object> fields) {}
+
+    private final StringRedisTemplate redis;
+    private final ChatProperties.Whiteboard props;
+
+    private final BlockingQueue<Append> queue;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 上次裁剪之后写过的 stream
+    private final Set<String> dirtyStreams = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    public WhiteboardStreamWriter(StringRedisTemplate redis, ChatProperties chatProperties) {
+        this.redis = redis;
+        this.props = chatProperties.getWhiteboard();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, props.getQueueCapacity()));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("whiteboard-stream-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        long flushMillis = Math.max(1L, props.getFlushIntervalMillis());
+        long trimSeconds = Math.max(1L, props.getTrimIntervalSeconds());
+        scheduler.scheduleWithFixedDelay(this::flushSafely, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::trimSafely, trimSeconds, trimSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 追加一条事件（非阻塞）；队列满时在调用线程上先刷一次，仍然放不下才丢弃
+     */
+    public void append(String streamKey, Map<String, Object> fields) {
+        Append a = new Append(streamKey, fields);
+        if (queue.offer(a)) return;
+        flush();
+        if (!queue.offer(a)) {
+            log.warn("whiteboard stream queue full, dropping event stream={}", streamKey);
+        }
+    }
+
+    /**
+     * 立即把队列里的事件写入 Redis（同步）
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            int maxBatch = Math.max(1, props.getMaxBatch());
+            List<Append> batch = new ArrayList<>(maxBatch);
+            while (queue.drainTo(batch, maxBatch) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushSafely();
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("whiteboard stream flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void write(List<Append> batch) {
+        try {
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                RedisStreamCommands streams = connection.streamCommands();
+                for (Append a : batch) {
+                    streams.xAdd(StreamRecords.newRecord()
+                            .in(bytes(a.streamKey()))
+                            .ofMap(toBytes(a.fields())));
+                }
+                return null;
+            });
+            for (Append a : batch) {
+                dirtyStreams.add(a.streamKey());
+            }
+        } catch (Exception e) {
+            log.warn("whiteboard stream write of {} events failed: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void trimSafely() {
+        if (dirtyStreams.isEmpty()) return;
+        List<String> keys = new ArrayList<>(dirtyStreams);
+        dirtyStreams.removeAll(keys);
+        long maxLen = Math.max(1L, props.getMaxRecords());
+        try {
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                RedisStreamCommands streams = connection.streamCommands();
+                for (String key : keys) {
+                    streams.xTrim(bytes(key), maxLen, true);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("whiteboard stream trim of {} streams failed: {}", keys.size(), e.getMessage());
+        }
+    }
+
+    private static Map<byte[], byte[]> toBytes(Map<String, Object> fields) {
+        Map<byte[], byte[]> out = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : fields.entrySet()) {
+            if (e.getValue() == null) continue;
+            out.put(bytes(e.getKey()), bytes(String.valueOf(e.getValue())));
+        }
+        return out;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
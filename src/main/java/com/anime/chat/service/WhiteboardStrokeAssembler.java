@@ -0,0 +1,123 @@
+package com.anime.chat.service;
+
+import com.anime.config.ChatProperties;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * 正在绘制的笔画缓冲（本节点）
+ *
+ * 分片照常实时转发，但不再逐条写 stream：同一笔的分片在这里拼接，笔画结束（isEnd）时
+ * 作为一条整笔记录交给调用方写入。分片总是由发送者所在节点处理，所以一笔只会在一个节点上缓冲。
+ * 长时间没有后续分片的笔画（客户端断线、丢了 isEnd）由调用方定期取出按结束处理。
+ */
+@Component
+@RequiredArgsConstructor
+public class WhiteboardStrokeAssembler {
+
+    private final ChatProperties chatProperties;
+
+    // conv|fromUserId|strokeId -> 未结束的笔画
+    private final ConcurrentMap<String, OpenStroke> open = new ConcurrentHashMap<>();
+
+    @Getter
+    public static final class OpenStroke {
+        private final String conv;
+        private final String fromUserId;
+        private final String strokeId;
+        private String tool;
+        private String color;
+        private String width;
+        private long ts;
+        private final List<List<Double>> points = new ArrayList<>();
+        private long touchedAt;
+
+        private OpenStroke(String conv, String fromUserId, String strokeId) {
+            this.conv = conv;
+            this.fromUserId = fromUserId;
+            this.strokeId = strokeId;
+        }
+
+        private OpenStroke copy() {
+            OpenStroke c = new OpenStroke(conv, fromUserId, strokeId);
+            c.tool = tool;
+            c.color = color;
+            c.width = width;
+            c.ts = ts;
+            c.points.addAll(points);
+            c.touchedAt = touchedAt;
+            return c;
+        }
+    }
+
+    /**
+     * 追加一个分片；该笔结束（或点数达到上限）时从缓冲移除并返回整笔，否则返回 null
+     */
+    public OpenStroke add(String conv, String fromUserId, String strokeId, Map<String, Object> fields,
+                          List<List<Double>> points, boolean end) {
+        String key = conv + "|" + fromUserId + "|" + strokeId;
+        int maxPoints = Math.max(1, chatProperties.getWhiteboard().getMaxPointsPerStroke());
+        OpenStroke[] done = new OpenStroke[1];
+        open.compute(key, (k, s) -> {
+            if (s == null) s = new OpenStroke(conv, fromUserId, strokeId);
+            if (fields.get("tool") != null)  s.tool = String.valueOf(fields.get("tool"));
+            if (fields.get("color") != null) s.color = String.valueOf(fields.get("color"));
+            if (fields.get("width") != null) s.width = String.valueOf(fields.get("width"));
+            try { s.ts = Long.parseLong(String.valueOf(fields.get("ts"))); } catch (NumberFormatException ignore) {}
+            if (points != null) s.points.addAll(points);
+            s.touchedAt = System.currentTimeMillis();
+            if (end || s.points.size() >= maxPoints) {
+                done[0] = s;
+                return null;
+            }
+            return s;
+        });
+        return done[0];
+    }
+
+    /**
+     * 白板被清空：丢弃该白板上未结束的笔画
+     */
+    public void clear(String conv) {
+        open.values().removeIf(s -> s.conv.equals(conv));
+    }
+
+    /**
+     * 该白板上未结束的笔画（JOIN 时一并返回，避免新加入者看不到正在画的那一笔）
+     */
+    public List<OpenStroke> openStrokes(String conv) {
+        List<OpenStroke> out = new ArrayList<>();
+        String prefix = conv + "|";
+        for (String key : open.keySet()) {
+            if (!key.startsWith(prefix)) continue;
+            // 在 compute 内复制，避免与正在追加的分片并发修改同一个 points 列表
+            open.computeIfPresent(key, (k, s) -> {
+                out.add(s.copy());
+                return s;
+            });
+        }
+        return out;
+    }
+
+    /**
+     * 取出并移除 idleBefore 之前就没有新分片、且白板满足 convFilter 的笔画
+     */
+    public List<OpenStroke> drainIdle(long idleBefore, Predicate<String> convFilter) {
+        List<OpenStroke> out = new ArrayList<>();
+        for (Map.Entry<String, OpenStroke> e : open.entrySet()) {
+            OpenStroke s = e.getValue();
+            if (s.touchedAt < idleBefore && convFilter.test(s.conv) && open.remove(e.getKey(), s)) {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+}
@@ -1,7 +1,9 @@
 package com.anime.chat.socket;
 
 import com.anime.chat.service.CallService;
-import com.anime.chat.service.ChatMessageService;
+import com.anime.chat.service.ChatIngestPipeline;
+import com.anime.chat.service.ConversationExecutor;
+import com.anime.chat.service.WhiteboardRoomService;
 import com.anime.chat.service.WhiteboardService;
 import com.anime.common.dto.chat.call.CallAnswerRequest;
 import com.anime.common.dto.chat.call.CallControlDto;
@@ -9,14 +11,15 @@ import com.anime.common.dto.chat.call.CallInviteRequest;
 import com.anime.common.dto.chat.call.IceCandidateDto;
 import com.anime.common.dto.chat.socket.NewMessageResponse;
 import com.anime.common.dto.chat.socket.SendMessageRequest;
+import com.anime.common.dto.chat.socket.TypingRequest;
 import com.anime.common.dto.chat.socket.WebSocketEnvelope;
 import com.anime.common.dto.chat.whiteboard.WhiteboardClearRequest;
 import com.anime.common.dto.chat.whiteboard.WhiteboardJoinRequest;
 import com.anime.common.dto.chat.whiteboard.WhiteboardStrokePart;
 import com.anime.common.entity.chat.ChatMessage;
-import com.anime.common.mapper.chat.ChatGroupMemberMapper;
 import com.anime.common.service.AttachmentService;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -30,19 +33,24 @@ import java.util.Map;
 
 /**
  * WebSocket 处理��：增加 TYPING_START/TYPING_STOP 事件转发（微信式“正在输入”）
+ *
+ * 入站帧统一交给 WsMessageRouter 按 type 查表分发，一次解析即得到类型化的 payload。
  */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class ChatWebSocketHandler extends TextWebSocketHandler {
 
-    private final ChatMessageService chatMessageService;
+    private final ChatIngestPipeline ingestPipeline;
+    private final ConversationExecutor conversationExecutor;
     private final AttachmentService attachmentService;
-    private final ChatGroupMemberMapper chatGroupMemberMapper;
     private final ObjectMapper objectMapper;
     private final WebSocketSessionManager sessionManager;
+    private final WsEventPublisher wsEventPublisher;
+    private final WsMessageRouter messageRouter;
     private final CallService callService;
     private final WhiteboardService whiteboardService;
+    private final WhiteboardRoomService whiteboardRoomService;
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
@@ -55,6 +63,34 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
         log.info("WS connected: userId={} sessionId={}", userId, session.getId());
     }
 
+    /**
+     * 启动时把所有入站消息类型注册进路由表（新增事件类型只需在这里加一行）
+     */
+    @PostConstruct
+    void registerRoutes() {
+        messageRouter.register("SEND_MESSAGE", SendMessageRequest.class, (userId, session, req) -> handleSendMessage(userId, req));
+
+        // ---- Typing indicator ----
+        messageRouter.register("TYPING_START", TypingRequest.class, (userId, session, req) -> handleTyping(userId, req, true));
+        messageRouter.register("TYPING_STOP", TypingRequest.class, (userId, session, req) -> handleTyping(userId, req, false));
+
+        // --- WebRTC signaling ---
+        messageRouter.register("CALL_INVITE", CallInviteRequest.class, (userId, session, req) -> handleCallInvite(userId, req));
+        messageRouter.register("CALL_ANSWER", CallAnswerRequest.class, (userId, session, req) -> handleCallAnswer(userId, req));
+        messageRouter.register("CALL_ICE", IceCandidateDto.class, (userId, session, c) -> handleCallIce(userId, c));
+        messageRouter.register("CALL_HANGUP", CallControlDto.class, (userId, session, ctrl) -> callService.handleHangup(userId, ctrl, "CALL_HANGUP"));
+        messageRouter.register("CALL_REJECT", CallControlDto.class, (userId, session, ctrl) -> callService.handleHangup(userId, ctrl, "CALL_REJECT"));
+        messageRouter.register("CALL_ACCEPT", CallControlDto.class, (userId, session, ctrl) -> callService.handleAccept(userId, ctrl));
+
+        // --------------- whiteboard ----------------
+        messageRouter.register("WHITEBOARD_OPEN", WhiteboardJoinRequest.class, (userId, session, req) -> handleWhiteboardOpen(userId, req));
+        messageRouter.register("WHITEBOARD_CREATE", WhiteboardJoinRequest.class, (userId, session, req) -> handleWhiteboardOpen(userId, req));
+        messageRouter.register("WHITEBOARD_JOIN", WhiteboardJoinRequest.class, (userId, session, req) -> handleWhiteboardJoin(userId, req));
+        messageRouter.register("WHITEBOARD_STROKE_PART", WhiteboardStrokePart.class, (userId, session, part) -> handleWhiteboardStrokePart(userId, part));
+        messageRouter.register("WHITEBOARD_CLEAR", WhiteboardClearRequest.class, (userId, session, req) -> handleWhiteboardClear(userId, req));
+        messageRouter.register("WHITEBOARD_LEAVE", WhiteboardJoinRequest.class, (userId, session, req) -> handleWhiteboardLeave(userId, req));
+    }
+
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
         Long userId = getUserId(session);
@@ -62,193 +98,123 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
             closeSession(session, CloseStatus.BAD_DATA);
             return;
         }
+        messageRouter.dispatch(userId, session, message.getPayload());
+    }
 
-        String payload = message.getPayload();
-        WebSocketEnvelope<?> envelope;
-        try {
-            envelope = objectMapper.readValue(payload, WebSocketEnvelope.class);
-        } catch (Exception e) {
-            log.warn("WS parse envelope failed: {}", e.getMessage());
+    private void handleTyping(Long userId, TypingRequest req, boolean isTyping) {
+        Long targetUserId = req == null ? null : req.getTargetUserId();
+        if (targetUserId == null) {
+            sessionManager.sendToUser(userId, "PEER_TYPING", Map.of("isTyping", false));
             return;
         }
+        var forward = Map.of(
+                "fromUserId", userId,
+                "toUserId", targetUserId,
+                "isTyping", isTyping,
+                "ts", System.currentTimeMillis()
+        );
+        sessionManager.sendToUser(targetUserId, "PEER_TYPING", forward, "PEER_TYPING:" + userId);
+    }
 
-        String type = envelope.getType();
-        try {
-            if ("SEND_MESSAGE".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<SendMessageRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, SendMessageRequest.class));
-                handleSendMessage(userId, env.getPayload());
-                return;
-            }
-
-            // ---- Typing indicator ----
-            if ("TYPING_START".equalsIgnoreCase(type) || "TYPING_STOP".equalsIgnoreCase(type)) {
-                Map<?,?> p = (Map<?,?>) envelope.getPayload();
-                Object tu = p == null ? null : p.get("targetUserId");
-                Long targetUserId = null;
-                if (tu instanceof Number n) targetUserId = n.longValue();
-                else if (tu instanceof String s) try { targetUserId = Long.parseLong(s); } catch (Exception ignore) {}
-                if (targetUserId == null) {
-                    sessionManager.sendToUser(userId, "PEER_TYPING", Map.of("isTyping", false));
-                    return;
-                }
-                boolean isTyping = "TYPING_START".equalsIgnoreCase(type);
-                var forward = Map.of(
-                        "fromUserId", userId,
-                        "toUserId", targetUserId,
-                        "isTyping", isTyping,
-                        "ts", System.currentTimeMillis()
-                );
-                sessionManager.sendToUser(targetUserId, "PEER_TYPING", forward);
-                return;
-            }
-
-            // --- WebRTC signaling ---
-            if ("CALL_INVITE".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<CallInviteRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, CallInviteRequest.class));
-                CallInviteRequest req = env.getPayload();
-                String callId = callService.createAndForwardInvite(userId, req);
-                if (callId == null) {
-                    sessionManager.sendToUser(userId, "CALL_FAILED", Map.of("reason", "target_unavailable_or_not_friend"));
-                } else {
-                    sessionManager.sendToUser(userId, "CALL_OUTGOING", Map.of("callId", callId, "targetUserId", req.getTargetUserId()));
-                }
-                return;
-            }
-
-            if ("CALL_ANSWER".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<CallAnswerRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, CallAnswerRequest.class));
-                CallAnswerRequest req = env.getPayload();
-                boolean ok = callService.handleAnswer(userId, req);
-                if (!ok) {
-                    sessionManager.sendToUser(userId, "CALL_FAILED", Map.of("reason", "invalid_call_or_not_allowed"));
-                }
-                return;
-            }
-
-            if ("CALL_ICE".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<IceCandidateDto> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, IceCandidateDto.class));
-                IceCandidateDto c = env.getPayload();
-                boolean ok = callService.handleIce(userId, c);
-                if (!ok) {
-                    log.debug("Failed to forward ICE candidate for userId={} callId={}", userId, c == null ? null : c.getCallId());
-                }
-                return;
-            }
-
-            if ("CALL_HANGUP".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<CallControlDto> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, CallControlDto.class));
-                CallControlDto ctrl = env.getPayload();
-                callService.handleHangup(userId, ctrl, "CALL_HANGUP");
-                return;
-            }
-
-            if ("CALL_REJECT".equalsIgnoreCase(type) || "CALL_ACCEPT".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<CallControlDto> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, CallControlDto.class));
-                CallControlDto ctrl = env.getPayload();
-                String ev = type.equalsIgnoreCase("CALL_REJECT") ? "CALL_REJECT" : "CALL_ACCEPT";
-                callService.handleHangup(userId, ctrl, ev);
-                return;
-            }
+    private void handleCallInvite(Long userId, CallInviteRequest req) {
+        String callId = callService.createAndForwardInvite(userId, req);
+        if (callId == null) {
+            sessionManager.sendToUser(userId, "CALL_FAILED", Map.of("reason", "target_unavailable_or_not_friend"));
+        } else {
+            sessionManager.sendToUser(userId, "CALL_OUTGOING", Map.of("callId", callId, "targetUserId", req.getTargetUserId()));
+        }
+    }
 
-            // --------------- whiteboard (new) ----------------
-            if ("WHITEBOARD_OPEN".equalsIgnoreCase(type) || "WHITEBOARD_CREATE".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<WhiteboardJoinRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, WhiteboardJoinRequest.class));
-                WhiteboardJoinRequest req = env.getPayload();
-                Long targetUserId = req.getTargetUserId();
-                if (targetUserId == null) {
-                    sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
-                } else {
-                    whiteboardService.openWhiteboardIfNeeded(userId, targetUserId);
-                    sessionManager.sendToUser(userId, "WHITEBOARD_OPENED", Map.of("targetUserId", targetUserId));
-                }
-                return;
-            }
+    private void handleCallAnswer(Long userId, CallAnswerRequest req) {
+        boolean ok = callService.handleAnswer(userId, req);
+        if (!ok) {
+            sessionManager.sendToUser(userId, "CALL_FAILED", Map.of("reason", "invalid_call_or_not_allowed"));
+        }
+    }
 
-            if ("WHITEBOARD_JOIN".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<WhiteboardJoinRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, WhiteboardJoinRequest.class));
-                WhiteboardJoinRequest req = env.getPayload();
-                Long targetUserId = req.getTargetUserId();
-                if (targetUserId == null) {
-                    sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
-                    return;
-                }
-                whiteboardService.openWhiteboardIfNeeded(userId, targetUserId);
-                List<Map<String, Object>> events = whiteboardService.joinAndLoadWindow(userId, targetUserId);
-                sessionManager.sendToUser(userId, "WHITEBOARD_INIT", Map.of("events", events));
-                return;
-            }
+    private void handleCallIce(Long userId, IceCandidateDto c) {
+        boolean ok = callService.handleIce(userId, c);
+        if (!ok) {
+            log.debug("Failed to forward ICE candidate for userId={} callId={}", userId, c == null ? null : c.getCallId());
+        }
+    }
 
-            if ("WHITEBOARD_STROKE_PART".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<WhiteboardStrokePart> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, WhiteboardStrokePart.class));
-                WhiteboardStrokePart p = env.getPayload();
-                Long targetUserId = p.getTargetUserId();
-                if (targetUserId == null) {
-                    sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
-                    return;
-                }
+    private void handleWhiteboardOpen(Long userId, WhiteboardJoinRequest req) {
+        if (req.getGroupId() != null) {
+            // 群白板房间无需预先创建，首次 JOIN 时由 owner 节点激活
+            sessionManager.sendToUser(userId, "WHITEBOARD_OPENED", Map.of("groupId", req.getGroupId()));
+            return;
+        }
+        Long targetUserId = req.getTargetUserId();
+        if (targetUserId == null) {
+            sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
+        } else {
+            whiteboardService.openWhiteboardIfNeeded(userId, targetUserId);
+            sessionManager.sendToUser(userId, "WHITEBOARD_OPENED", Map.of("targetUserId", targetUserId));
+        }
+    }
 
-                Map<String, Object> ev = new HashMap<>();
-                ev.put("type", "WHITEBOARD_STROKE_PART");
-                ev.put("strokeId", p.getStrokeId());
-                ev.put("tool", p.getTool());
-                ev.put("color", p.getColor());
-                ev.put("width", p.getWidth());
-                ev.put("points", p.getPoints());
-                ev.put("isEnd", p.getIsEnd());
-                ev.put("ts", p.getTs() == null ? System.currentTimeMillis() : p.getTs());
-
-                whiteboardService.appendStrokeAndForward(userId, targetUserId, ev);
-                return;
-            }
+    private void handleWhiteboardJoin(Long userId, WhiteboardJoinRequest req) {
+        if (req.getGroupId() != null) {
+            whiteboardRoomService.join(userId, req.getGroupId(), req.getEncoding());
+            return;
+        }
+        Long targetUserId = req.getTargetUserId();
+        if (targetUserId == null) {
+            sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
+            return;
+        }
+        whiteboardService.openWhiteboardIfNeeded(userId, targetUserId);
+        List<Map<String, Object>> events = whiteboardService.joinAndLoadWindow(userId, targetUserId, req.getEncoding());
+        sessionManager.sendToUser(userId, "WHITEBOARD_INIT", Map.of("events", events));
+    }
 
-            if ("WHITEBOARD_CLEAR".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<WhiteboardClearRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, WhiteboardClearRequest.class));
-                WhiteboardClearRequest r = env.getPayload();
-                Long targetUserId = r.getTargetUserId();
-                if (targetUserId == null) {
-                    sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
-                    return;
-                }
-                whiteboardService.clearAndBroadcast(userId, targetUserId, r.getTs());
-                return;
-            }
+    private void handleWhiteboardStrokePart(Long userId, WhiteboardStrokePart p) {
+        Long targetUserId = p.getTargetUserId();
+        if (targetUserId == null && p.getGroupId() == null) {
+            sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
+            return;
+        }
 
-            if ("WHITEBOARD_LEAVE".equalsIgnoreCase(type)) {
-                WebSocketEnvelope<WhiteboardJoinRequest> env =
-                        objectMapper.readValue(payload,
-                                objectMapper.getTypeFactory().constructParametricType(WebSocketEnvelope.class, WhiteboardJoinRequest.class));
-                WhiteboardJoinRequest req = env.getPayload();
-                Long targetUserId = req.getTargetUserId();
-                if (targetUserId != null) {
-                    whiteboardService.leave(userId, targetUserId);
-                }
-                return;
-            }
+        Map<String, Object> ev = new HashMap<>();
+        ev.put("type", "WHITEBOARD_STROKE_PART");
+        ev.put("strokeId", p.getStrokeId());
+        ev.put("tool", p.getTool());
+        ev.put("color", p.getColor());
+        ev.put("width", p.getWidth());
+        ev.put("points", p.getPoints());
+        ev.put("pointsEnc", p.getPointsEnc());
+        ev.put("isEnd", p.getIsEnd());
+        ev.put("ts", p.getTs() == null ? System.currentTimeMillis() : p.getTs());
+
+        if (p.getGroupId() != null) {
+            whiteboardRoomService.stroke(userId, p.getGroupId(), ev);
+            return;
+        }
+        whiteboardService.appendStrokeAndForward(userId, targetUserId, ev);
+    }
 
-            log.debug("WS unknown type: {}", type);
+    private void handleWhiteboardClear(Long userId, WhiteboardClearRequest r) {
+        if (r.getGroupId() != null) {
+            whiteboardRoomService.clear(userId, r.getGroupId(), r.getTs());
+            return;
+        }
+        Long targetUserId = r.getTargetUserId();
+        if (targetUserId == null) {
+            sessionManager.sendToUser(userId, "WHITEBOARD_ERROR", Map.of("reason", "target_required"));
+            return;
+        }
+        whiteboardService.clearAndBroadcast(userId, targetUserId, r.getTs());
+    }
 
-        } catch (Exception e) {
-            log.error("WS handleTextMessage error for type={} userId={}", type, userId, e);
+    private void handleWhiteboardLeave(Long userId, WhiteboardJoinRequest req) {
+        if (req.getGroupId() != null) {
+            whiteboardRoomService.leave(userId, req.getGroupId());
+            return;
+        }
+        Long targetUserId = req.getTargetUserId();
+        if (targetUserId != null) {
+            whiteboardService.leave(userId, targetUserId);
         }
     }
 
@@ -280,17 +246,45 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 return;
             }
 
-            ChatMessage saved = chatMessageService.saveMessage(
+            // 同一会话的发送在同一通道上串行：id 生成、写库与推送顺序一致；
+            // 写库交给组提交管道，ACK / NEW_MESSAGE 在消息所在批次提交后才发出（管道回到同一通道上完成 future）
+            String laneKey = toUserId != null
+                    ? ConversationExecutor.privateKey(fromUserId, toUserId)
+                    : ConversationExecutor.groupKey(groupId);
+            final Long targetUserId = toUserId;
+            final Long targetGroupId = groupId;
+            conversationExecutor.submit(laneKey, () -> ingestPipeline.submit(
                     convType.toUpperCase(),
                     fromUserId,
-                    toUserId,
-                    groupId,
+                    targetUserId,
+                    targetGroupId,
                     msgType.toUpperCase(),
                     req.getContent(),
                     req.getAttachmentId(),
                     req.getClientMessageId()
-            );
+            ).whenComplete((sent, err) -> {
+                if (err != null) {
+                    log.error("WS handleSendMessage error, fromUserId={}", fromUserId, err);
+                } else {
+                    deliverSentMessage(fromUserId, targetUserId, req, sent.message(), sent.groupMemberIds());
+                }
+            })).whenComplete((ignored, err) -> {
+                if (err != null) {
+                    log.warn("WS SEND_MESSAGE rejected, fromUserId={} lane={} err={}", fromUserId, laneKey, err.getMessage());
+                }
+            });
 
+        } catch (Exception e) {
+            log.error("WS handleSendMessage error, fromUserId={}", fromUserId, e);
+        }
+    }
+
+    /**
+     * 消息落库后：给发送者回 ACK，再把 NEW_MESSAGE 投递给会话双方 / 群成员
+     */
+    private void deliverSentMessage(Long fromUserId, Long toUserId, SendMessageRequest req, ChatMessage saved,
+                                    List<Long> groupMemberIds) {
+        try {
             try {
                 Map<String, Object> ackPayload = new HashMap<>();
                 if (req.getClientMessageId() != null) {
@@ -310,7 +304,7 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 log.warn("Failed to send ACK to user {}: {}", fromUserId, e.getMessage());
             }
 
-            if ("PRIVATE".equalsIgnoreCase(convType)) {
+            if ("PRIVATE".equals(saved.getConversationType())) {
                 NewMessageResponse respForReceiver = new NewMessageResponse();
                 respForReceiver.setId(saved.getLogicMessageId() != null ? saved.getLogicMessageId() : saved.getId());
                 respForReceiver.setConversationType(saved.getConversationType());
@@ -338,7 +332,8 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                 if (!toUserId.equals(fromUserId)) {
                     sessionManager.sendToUser(toUserId, outMsgReceiver);
                 }
-            } else if ("GROUP".equalsIgnoreCase(convType)) {
+            } else if ("GROUP".equals(saved.getConversationType())) {
+                // 群消息的 payload 对所有成员相同（不携带 toUserId），只序列化一次后整体分发
                 NewMessageResponse baseResp = new NewMessageResponse();
                 baseResp.setId(saved.getId());
                 baseResp.setConversationType(saved.getConversationType());
@@ -355,46 +350,16 @@ public class ChatWebSocketHandler extends TextWebSocketHandler {
                     }
                 }
 
-                sendToGroup(saved.getGroupId(), baseResp);
-            }
-
-        } catch (Exception e) {
-            log.error("WS handleSendMessage error, fromUserId={}", fromUserId, e);
-        }
-    }
-
-    private void sendToGroup(Long groupId, NewMessageResponse baseResp) {
-        try {
-            var memberIds = chatGroupMemberMapper.listUserIdsByGroupId(groupId);
-            if (memberIds == null || memberIds.isEmpty()) {
-                log.warn("WS sendToGroup: group {} has no members", groupId);
-                return;
+                // 成员列表复用准备阶段查到的结果；幂等命中的重发没有成员列表时再按群查询
+                if (groupMemberIds != null && !groupMemberIds.isEmpty()) {
+                    wsEventPublisher.sendToUsers(groupMemberIds, "NEW_MESSAGE", baseResp);
+                } else {
+                    wsEventPublisher.sendToGroup(saved.getGroupId(), "NEW_MESSAGE", baseResp);
+                }
             }
 
-            for (Long uid : memberIds) {
-                if (uid == null) continue;
-                NewMessageResponse respForUser = new NewMessageResponse();
-                respForUser.setId(baseResp.getId());
-                respForUser.setConversationType(baseResp.getConversationType());
-                respForUser.setFromUserId(baseResp.getFromUserId());
-                respForUser.setToUserId(uid);
-                respForUser.setGroupId(baseResp.getGroupId());
-                respForUser.setMessageType(baseResp.getMessageType());
-                respForUser.setContent(baseResp.getContent());
-                respForUser.setCreatedAt(baseResp.getCreatedAt());
-                respForUser.setFileUrl(baseResp.getFileUrl());
-
-                WebSocketEnvelope<NewMessageResponse> out = new WebSocketEnvelope<>();
-                out.setType("NEW_MESSAGE");
-                out.setPayload(respForUser);
-
-                String json = objectMapper.writeValueAsString(out);
-                TextMessage outMsg = new TextMessage(json);
-
-                sessionManager.sendToUser(uid, outMsg);
-            }
         } catch (Exception e) {
-            log.error("WS sendToGroup failed, groupId={}", groupId, e);
+            log.error("WS deliver sent message error, fromUserId={}, messageId={}", fromUserId, saved.getId(), e);
         }
     }
 
@@ -69,6 +69,34 @@ public class ChatWebSocketHandshakeInterceptor implements HandshakeInterceptor {
 
         // 将 userId 放入 WebSocketSession attributes 中，后面 handler 可以获取
         attributes.put("userId", userId);
+
+        // 客户端声明支持 BATCH 合并帧（batch=1），服务端开启 chat.outbound.coalesce.enabled 时才会生效
+        if (request instanceof ServletServerHttpRequest servletRequest) {
+            String batch = servletRequest.getServletRequest().getParameter("batch");
+            if ("1".equals(batch) || "true".equalsIgnoreCase(batch)) {
+                attributes.put("batch", Boolean.TRUE);
+            }
+
+            // 断线续传（chat.replay.enabled 开启时生效）：resume=1 表示需要 SESSION_RESUME，
+            // 重连时再带上次收到的 resumeEpoch 和 lastSeq（最后一个带 seq 的帧）
+            var http = servletRequest.getServletRequest();
+            String resume = http.getParameter("resume");
+            String resumeEpoch = http.getParameter("resumeEpoch");
+            if ("1".equals(resume) || "true".equalsIgnoreCase(resume) || resumeEpoch != null) {
+                attributes.put("resume", Boolean.TRUE);
+                if (resumeEpoch != null && !resumeEpoch.isBlank()) {
+                    attributes.put("resumeEpoch", resumeEpoch);
+                }
+                try {
+                    String lastSeq = http.getParameter("lastSeq");
+                    if (lastSeq != null && !lastSeq.isBlank()) {
+                        attributes.put("lastSeq", Long.parseLong(lastSeq.trim()));
+                    }
+                } catch (NumberFormatException e) {
+                    log.warn("WS handshake: invalid lastSeq parameter, userId={}", userId);
+                }
+            }
+        }
         log.info("WS handshake success, userId={}", userId);
         return true;
     }
@@ -0,0 +1,162 @@
+package com.anime.chat.socket;
+
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单个 WebSocketSession 的出站邮箱：有界队列 + “同一时刻最多一个 drain 任务”标记。
+ *
+ * - 入队由任意线程调用（offer），出队只由持有 drain 标记的发送线程调用（poll）
+ * - 同一 session 的帧严格按入队顺序发送，从而避免 Tomcat 的 TEXT_PARTIAL_WRITING
+ * - 队列满时按帧类型执行背压策略：瞬时事件丢最旧，可靠事件返回 OVERFLOW 交给上层断开
+ * - 带 collapseKey 的帧入队时会替换队列里尚未发出的同 key 旧帧（例如同一个人的 PEER_TYPING）
+ * - batching=true 的连接，drain 时可以一次取出多帧合并成一个 BATCH 帧发送
+ */
+final class SessionOutbox {
+
+    enum OfferResult { ACCEPTED, DROPPED, OVERFLOW }
+
+    record Frame(String type, TextMessage message, boolean ephemeral, String collapseKey, long enqueuedAt) {}
+
+    private final Long userId;
+    private final WebSocketSession session;
+    private final int capacity;
+    private final boolean batching;
+
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicBoolean lingerArmed = new AtomicBoolean(false);
+    private volatile boolean closed;
+
+    SessionOutbox(Long userId, WebSocketSession session, int capacity, boolean batching) {
+        this.userId = userId;
+        this.session = session;
+        this.capacity = Math.max(1, capacity);
+        this.batching = batching;
+    }
+
+    Long userId() {
+        return userId;
+    }
+
+    WebSocketSession session() {
+        return session;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isBatching() {
+        return batching;
+    }
+
+    OfferResult offer(Frame frame) {
+        synchronized (queue) {
+            if (closed) return OfferResult.DROPPED;
+            if (frame.collapseKey() != null) {
+                removeByCollapseKey(frame.collapseKey());
+            }
+            if (queue.size() >= capacity) {
+                if (!frame.ephemeral()) {
+                    return OfferResult.OVERFLOW;
+                }
+                // drop-oldest：腾出最旧的一条瞬时事件；如果队列里全是可靠事件，则丢弃新来的瞬时事件本身
+                if (!removeOldestEphemeral()) {
+                    return OfferResult.DROPPED;
+                }
+            }
+            queue.addLast(frame);
+            return OfferResult.ACCEPTED;
+        }
+    }
+
+    Frame poll() {
+        synchronized (queue) {
+            return queue.pollFirst();
+        }
+    }
+
+    /**
+     * 一次取出最多 max 帧（合并发送用）
+     */
+    List<Frame> pollBatch(int max) {
+        synchronized (queue) {
+            int n = Math.min(Math.max(1, max), queue.size());
+            List<Frame> out = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                out.add(queue.pollFirst());
+            }
+            return out;
+        }
+    }
+
+    boolean isEmpty() {
+        synchronized (queue) {
+            return queue.isEmpty();
+        }
+    }
+
+    /**
+     * 队头帧已等待的时长（毫秒），队列为空时为 0
+     */
+    long headWaitMillis(long now) {
+        synchronized (queue) {
+            Frame head = queue.peekFirst();
+            return head == null ? 0L : now - head.enqueuedAt();
+        }
+    }
+
+    boolean tryStartDrain() {
+        return draining.compareAndSet(false, true);
+    }
+
+    void finishDrain() {
+        draining.set(false);
+    }
+
+    /**
+     * 合并窗口计时：同一时刻最多挂一个延迟 drain
+     */
+    boolean tryArmLinger() {
+        return lingerArmed.compareAndSet(false, true);
+    }
+
+    void disarmLinger() {
+        lingerArmed.set(false);
+    }
+
+    void close() {
+        closed = true;
+        synchronized (queue) {
+            queue.clear();
+        }
+    }
+
+    private void removeByCollapseKey(String key) {
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (key.equals(it.next().collapseKey())) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    private boolean removeOldestEphemeral() {
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().ephemeral()) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+}
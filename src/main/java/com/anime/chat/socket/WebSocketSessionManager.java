@@ -1,26 +1,60 @@
 package com.anime.chat.socket;
 
 import com.anime.chat.service.PresenceService;
+import com.anime.config.ChatProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.NativeWebSocketSession;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 管理 WebSocketSession，并提供向特定 userId 发送消息的能力。
  *
- * 关键：为了避免 Tomcat 的 "TEXT_PARTIAL_WRITING" 异常，
- * 我们为每个 WebSocketSession 创建一个单线程 Executor（序列化该 session 的所有发送）。
+ * 关键：为了避免 Tomcat 的 "TEXT_PARTIAL_WRITING" 异常，同一 session 的发送必须串行。
+ * 现在每个 session 只有一个有界出站队列（SessionOutbox），由一组共享发送线程轮流 drain，
+ * 不再为每个 session 创建单线程 Executor（2 万连接不再意味着 2 万个平台线程）。
+ *
+ * 背压策略：
+ * - 瞬时事件（chat.outbound.ephemeral-types，默认 PEER_TYPING / USER_ONLINE / USER_OFFLINE）：队列满时丢最旧的
+ * - 其它事件（聊天消息、ACK 等）：队列满说明客户端消费不过来，直接断开，由客户端重连后补拉
+ * - 队头帧等待过久同样判定为慢消费者并断开
+ * - 每次 sendMessage 都有硬上限（chat.outbound.send-timeout-millis，设置为容器的阻塞发送超时），
+ *   TCP 窗口卡住的客户端最多占用发送线程这么久，超时即断开，不会拖住其它用户的投递
+ *
+ * 合并发送（chat.outbound.coalesce.enabled=true 且客户端握手带 batch=1）：
+ * - 配置了窗口的类型（白板事件、typing、在线状态、会话列表更新等）入队后等待一个短窗口，
+ *   窗口内同一连接的帧合并成一个 { "type": "BATCH", "payload": [ 帧, 帧, ... ] } 发出
+ * - 其余类型到达即触发发送，连同已排队的帧一起合并发出，不会被延迟
+ * - 带 collapseKey 的帧会替换队列里尚未发出的同 key 旧帧（不论是否开启合并）；这类帧不参与续传编号
  *
  * 另外提供了与现有 ChatWebSocketHandler 兼容的便捷方法：
  * - register(userId, session) / unregister(userId, session)
- * - sendToUser(userId, TextMessage)   （直接发送已序列化的 TextMessage）
- * - sendToUser(userId, type, payload) （按 envelope 序列化后发送）
+ * - sendToUser(userId, TextMessage)         （直接发送已序列化的 TextMessage，按可靠事件处理）
+ * - sendToUser(userId, type, TextMessage)   （已序列化的 TextMessage，按 type 选择背压策略）
+ * - sendToUser(userId, type, payload)       （按 envelope 序列化后发送）
+ * - sendToUsers(userIds, type, TextMessage) （同一帧群发给多个用户）
+ * - sendToUser(userId, type, payload, collapseKey) （可被后续同 key 帧覆盖的状态类事件）
+ *
+ * 开启 chat.cluster.enabled 后，发送接口除了投递本地 session，还会通过 WsClusterRouter
+ * 把同一帧转发给连接在其它节点上的用户；其它节点转发过来的帧走 deliverLocal，只投递本地。
+ *
+ * 开启 chat.replay.enabled 后，可靠事件在投递到本节点时按用户编号（见 WsReplayBuffer），
+ * 握手带 resume=1（及上次的 resumeEpoch / lastSeq）的连接先收到 SESSION_RESUME 和补发帧，再收实时帧。
  */
 @Slf4j
 @Component
@@ -28,24 +62,51 @@ public class WebSocketSessionManager {
 
     private final ObjectMapper objectMapper;
     private final PresenceService presenceService;
+    private final ChatProperties.Outbound outboundProps;
+    private final ChatProperties.Coalesce coalesceProps;
+    private final WsClusterRouter clusterRouter;
+    private final WsReplayBuffer replayBuffer;
 
     // userId -> sessions
     private final ConcurrentMap<Long, CopyOnWriteArraySet<WebSocketSession>> sessionsByUser = new ConcurrentHashMap<>();
 
-    // sessionId -> single-thread executor for serializing sends to that session
-    private final ConcurrentMap<String, ExecutorService> sessionExecutors = new ConcurrentHashMap<>();
+    // sessionId -> 出站队列
+    private final ConcurrentMap<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+
+    // 所有 session 共享的发送线程
+    private final ExecutorService senderPool;
 
-    // shared pool for lightweight tasks (not actual sends)
-    private final ExecutorService sharedExecutor = Executors.newCachedThreadPool(r -> {
-        Thread t = new Thread(r);
-        t.setName("ws-shared-exec-" + t.getId());
-        t.setDaemon(true);
-        return t;
-    });
+    // 合并窗口到期后触发 drain（仅开启合并时创建）
+    private final ScheduledExecutorService lingerTimer;
 
-    public WebSocketSessionManager(ObjectMapper objectMapper, PresenceService presenceService) {
+    // Tomcat JSR-356 实现读取的阻塞发送超时（毫秒，Long），按 session 设置在 userProperties 里
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    public WebSocketSessionManager(ObjectMapper objectMapper, PresenceService presenceService,
+                                   ChatProperties chatProperties, WsClusterRouter clusterRouter,
+                                   WsReplayBuffer replayBuffer) {
         this.objectMapper = objectMapper;
         this.presenceService = presenceService;
+        this.outboundProps = chatProperties.getOutbound();
+        this.coalesceProps = outboundProps.getCoalesce();
+        this.clusterRouter = clusterRouter;
+        this.replayBuffer = replayBuffer;
+
+        AtomicInteger seq = new AtomicInteger();
+        this.senderPool = Executors.newFixedThreadPool(Math.max(1, outboundProps.getSenderThreads()), r -> {
+            Thread t = new Thread(r);
+            t.setName("ws-send-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.lingerTimer = coalesceProps.isEnabled()
+                ? Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r);
+                    t.setName("ws-linger");
+                    t.setDaemon(true);
+                    return t;
+                })
+                : null;
     }
 
     /**
@@ -62,29 +123,38 @@ public class WebSocketSessionManager {
         if (userId == null || session == null) return;
 
         CopyOnWriteArraySet<WebSocketSession> set = sessionsByUser.computeIfAbsent(userId, k -> new CopyOnWriteArraySet<>());
-        set.add(session);
 
-        // create per-session single-thread executor
-        sessionExecutors.compute(session.getId(), (sid, existing) -> {
-            if (existing == null || existing.isShutdown() || existing.isTerminated()) {
-                ThreadFactory tf = r -> {
-                    Thread t = new Thread(r);
-                    t.setName("ws-send-" + sid);
-                    t.setDaemon(true);
-                    return t;
-                };
-                return Executors.newSingleThreadExecutor(tf);
-            }
-            return existing;
-        });
+        applySendTimeout(session);
+
+        boolean batching = coalesceProps.isEnabled() && Boolean.TRUE.equals(session.getAttributes().get("batch"));
+        outboxes.computeIfAbsent(session.getId(), sid -> new SessionOutbox(userId, session, outboundProps.getQueueCapacity(), batching));
+
+        if (replayBuffer.isEnabled()) {
+            // 补发帧要在 session 加入投递集合之前入队，保证排在所有实时帧前面；补发量不超过出站队列的一半
+            Map<String, Object> attrs = session.getAttributes();
+            boolean wantsResume = Boolean.TRUE.equals(attrs.get("resume"));
+            replayBuffer.attach(userId, (String) attrs.get("resumeEpoch"), (Long) attrs.get("lastSeq"),
+                    outboundProps.getQueueCapacity() / 2, r -> {
+                        if (wantsResume) {
+                            enqueue(session, "SESSION_RESUME", resumeFrame(r), null);
+                            for (TextMessage f : r.frames()) {
+                                enqueue(session, null, f, null);
+                            }
+                        }
+                        set.add(session);
+                    });
+        } else {
+            set.add(session);
+        }
 
         int total = sessionsByUser.getOrDefault(userId, new CopyOnWriteArraySet<>()).size();
         log.debug("register session userId={} sessionId={} totalSessionsForUser={}", userId, session.getId(), total);
 
         // 如果这是用户的第一个 session（从 0 -> 1），触发上线广播
         if (total == 1) {
+            boolean firstInCluster = clusterRouter.onUserConnected(userId);
             try {
-                presenceService.userOnline(userId);
+                presenceService.userOnline(userId, firstInCluster);
             } catch (Exception e) {
                 log.warn("registerSession: presenceService.userOnline failed for userId={} err={}", userId, e.getMessage(), e);
             }
@@ -110,19 +180,19 @@ public class WebSocketSessionManager {
                 sessionsByUser.remove(userId, Collections.emptySet());
             }
         }
-        ExecutorService ex = sessionExecutors.remove(session.getId());
-        if (ex != null) {
-            try {
-                ex.shutdownNow();
-            } catch (Exception ignore) {}
+        SessionOutbox box = outboxes.remove(session.getId());
+        if (box != null) {
+            box.close();
         }
         int remaining = sessionsByUser.getOrDefault(userId, new CopyOnWriteArraySet<>()).size();
         log.debug("unregister session userId={} sessionId={} remainingForUser={}", userId, session.getId(), remaining);
 
         // 如果这是最后一个 session 被移除（变成 0），触发下线广播
         if (remaining == 0) {
+            replayBuffer.detach(userId);
+            boolean lastInCluster = clusterRouter.onUserDisconnected(userId);
             try {
-                presenceService.userOffline(userId);
+                presenceService.userOffline(userId, lastInCluster);
             } catch (Exception e) {
                 log.warn("unregisterSession: presenceService.userOffline failed for userId={} err={}", userId, e.getMessage(), e);
             }
@@ -132,54 +202,52 @@ public class WebSocketSessionManager {
     /**
      * 发送已构造好的 TextMessage 到某个 userId（会发送到该用户的所有活跃 session 上）。
      * 这是对 ChatWebSocketHandler 现有调用的兼容接口（它有时已经在上层把消息序列化成 TextMessage）。
+     * 不带 type 的帧一律按可靠事件处理。
      */
     public void sendToUser(Long userId, TextMessage textMessage) {
+        sendToUser(userId, null, textMessage);
+    }
+
+    /**
+     * 发送已构造好的 TextMessage，type 仅用于选择背压策略（不会改写消息内容）。
+     */
+    public void sendToUser(Long userId, String type, TextMessage textMessage) {
+        sendToUser(userId, type, textMessage, null);
+    }
+
+    /**
+     * 发送可被覆盖的状态类帧：队列里尚未发出的同 collapseKey 旧帧会被替换（例如 PEER_TYPING:{fromUserId}）
+     */
+    public void sendToUser(Long userId, String type, TextMessage textMessage, String collapseKey) {
         if (userId == null || textMessage == null) return;
-        Set<WebSocketSession> sessions = sessionsByUser.get(userId);
-        if (sessions == null || sessions.isEmpty()) {
-            log.debug("sendToUser(TextMessage): no sessions for userId={}", userId);
-            return;
-        }
+        deliverLocal(userId, type, textMessage, collapseKey);
+        clusterRouter.forward(List.of(userId), type, textMessage, collapseKey);
+    }
 
-        for (WebSocketSession s : sessions) {
-            if (s == null) continue;
-            ExecutorService ex = sessionExecutors.get(s.getId());
-            if (ex == null) {
-                ex = Executors.newSingleThreadExecutor(r -> {
-                    Thread t = new Thread(r);
-                    t.setName("ws-send-" + s.getId());
-                    t.setDaemon(true);
-                    return t;
-                });
-                ExecutorService prev = sessionExecutors.putIfAbsent(s.getId(), ex);
-                if (prev != null) {
-                    ex.shutdownNow();
-                    ex = prev;
-                }
-            }
+    /**
+     * 把同一个已序列化的帧发给一批用户（群发场景，帧只编码一次）
+     */
+    public void sendToUsers(Collection<Long> userIds, String type, TextMessage textMessage) {
+        sendToUsers(userIds, type, textMessage, null);
+    }
 
-            final WebSocketSession sessionRef = s;
-            final TextMessage msgRef = textMessage;
-            final ExecutorService executorRef = ex;
-            try {
-                executorRef.submit(() -> {
-                    try {
-                        synchronized (sessionRef) {
-                            if (!sessionRef.isOpen()) {
-                                log.debug("sendToUser(TextMessage): session {} closed, skipping", sessionRef.getId());
-                                return;
-                            }
-                            sessionRef.sendMessage(msgRef);
-                        }
-                    } catch (Throwable sendErr) {
-                        log.warn("sendToUser(TextMessage): unexpected error sending to userId={} sessionId={} err={}", userId, sessionRef.getId(), sendErr.getMessage(), sendErr);
-                        try { sessionRef.close(); } catch (Exception ignore) {}
-                        try { unregisterSession(userId, sessionRef); } catch (Exception ignore2) {}
-                    }
-                });
-            } catch (RejectedExecutionException rej) {
-                log.warn("sendToUser(TextMessage): executor rejected for sessionId={}, userId={}", s.getId(), userId);
-            }
+    /**
+     * 同上，附带 collapseKey（见 sendToUser(userId, type, TextMessage, collapseKey)）
+     */
+    public void sendToUsers(Collection<Long> userIds, String type, TextMessage textMessage, String collapseKey) {
+        if (userIds == null || textMessage == null) return;
+        deliverLocal(userIds, type, textMessage, collapseKey);
+        clusterRouter.forward(userIds, type, textMessage, collapseKey);
+    }
+
+    /**
+     * 只投递给本节点上的 session（供 WsClusterSubscriber 处理其它节点转发来的帧，不会再次转发）
+     */
+    public void deliverLocal(Collection<Long> userIds, String type, TextMessage textMessage, String collapseKey) {
+        if (userIds == null || textMessage == null) return;
+        for (Long uid : userIds) {
+            if (uid == null) continue;
+            deliverLocal(uid, type, textMessage, collapseKey);
         }
     }
 
@@ -189,9 +257,15 @@ public class WebSocketSessionManager {
      * payloadObject 会被序列化为 JSON，消息 envelope 可由上层封装为 { type, payload }。
      */
     public void sendToUser(Long userId, String type, Object payloadObject) {
+        sendToUser(userId, type, payloadObject, null);
+    }
+
+    /**
+     * 同上，附带 collapseKey（见 sendToUser(userId, type, TextMessage, collapseKey)）
+     */
+    public void sendToUser(Long userId, String type, Object payloadObject, String collapseKey) {
         if (userId == null) return;
-        Set<WebSocketSession> sessions = sessionsByUser.get(userId);
-        if (sessions == null || sessions.isEmpty()) {
+        if (countSessionsForUser(userId) == 0 && !clusterRouter.isEnabled()) {
             log.debug("sendToUser: no sessions for userId={}", userId);
             return;
         }
@@ -207,66 +281,231 @@ public class WebSocketSessionManager {
             return;
         }
 
+        sendToUser(userId, type, new TextMessage(jsonPayload), collapseKey);
+    }
+
+    /**
+     * 可选：查询用户当前的活跃 session 数
+     */
+    public int countSessionsForUser(Long userId) {
+        Set<WebSocketSession> set = sessionsByUser.get(userId);
+        return set == null ? 0 : set.size();
+    }
+
+    /**
+     * 在应用关闭时释放发送线程
+     */
+    @PreDestroy
+    public void shutdown() {
+        try {
+            senderPool.shutdownNow();
+            if (lingerTimer != null) lingerTimer.shutdownNow();
+        } catch (Exception ignore) {}
+        for (SessionOutbox box : outboxes.values()) {
+            box.close();
+        }
+        outboxes.clear();
+    }
+
+    // --------------------------
+    // 出站队列 / 背压 / 慢消费者
+    // --------------------------
+
+    private void deliverLocal(Long userId, String type, TextMessage textMessage, String collapseKey) {
+        if (replayBuffer.isEnabled()) {
+            // session 集合在用户锁内读取：与 registerSession 的补发互斥，新 session 不会漏掉刚编号的帧
+            replayBuffer.deliver(userId, type, collapseKey, textMessage, stamped -> enqueueAll(userId, type, stamped, collapseKey));
+        } else {
+            enqueueAll(userId, type, textMessage, collapseKey);
+        }
+    }
+
+    private void enqueueAll(Long userId, String type, TextMessage textMessage, String collapseKey) {
+        Set<WebSocketSession> sessions = sessionsByUser.get(userId);
+        if (sessions == null || sessions.isEmpty()) {
+            log.debug("deliverLocal: no local sessions for userId={}", userId);
+            return;
+        }
         for (WebSocketSession s : sessions) {
             if (s == null) continue;
-            ExecutorService ex = sessionExecutors.get(s.getId());
-            if (ex == null) {
-                ex = Executors.newSingleThreadExecutor(r -> {
-                    Thread t = new Thread(r);
-                    t.setName("ws-send-" + s.getId());
-                    t.setDaemon(true);
-                    return t;
-                });
-                ExecutorService prev = sessionExecutors.putIfAbsent(s.getId(), ex);
-                if (prev != null) {
-                    ex.shutdownNow();
-                    ex = prev;
+            enqueue(s, type, textMessage, collapseKey);
+        }
+    }
+
+    private void enqueue(WebSocketSession session, String type, TextMessage message, String collapseKey) {
+        SessionOutbox box = outboxes.get(session.getId());
+        if (box == null || box.isClosed()) {
+            log.debug("enqueue: no outbox for sessionId={}, skipping", session.getId());
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (box.headWaitMillis(now) > outboundProps.getSlowConsumerMillis()) {
+            evictSlowConsumer(box, "head_wait_exceeded");
+            return;
+        }
+
+        boolean ephemeral = type != null && outboundProps.getEphemeralTypes().contains(type);
+        switch (box.offer(new SessionOutbox.Frame(type, message, ephemeral, collapseKey, now))) {
+            case ACCEPTED -> {
+                long window = box.isBatching() ? coalesceWindow(type) : 0L;
+                if (window > 0) {
+                    scheduleLingerDrain(box, window);
+                } else {
+                    scheduleDrain(box);
                 }
             }
+            case DROPPED -> log.debug("enqueue: dropped ephemeral frame type={} sessionId={}", type, session.getId());
+            case OVERFLOW -> evictSlowConsumer(box, "queue_full");
+        }
+    }
 
-            final WebSocketSession sessionRef = s;
-            final String payload = jsonPayload;
-            final ExecutorService executorRef = ex;
-            try {
-                executorRef.submit(() -> {
+    private TextMessage resumeFrame(WsReplayBuffer.Resume r) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("status", r.status().name());
+        payload.put("epoch", r.epoch());
+        payload.put("seq", r.seq());
+        payload.put("replayed", r.frames().size());
+        Map<String, Object> env = new HashMap<>();
+        env.put("type", "SESSION_RESUME");
+        env.put("payload", payload);
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(env));
+        } catch (Exception e) {
+            // 序列化失败时退化为 RESYNC，客户端全量刷新即可
+            return new TextMessage("{\"type\":\"SESSION_RESUME\",\"payload\":{\"status\":\"RESYNC\"}}");
+        }
+    }
+
+    private long coalesceWindow(String type) {
+        if (type == null) return 0L;
+        Long w = coalesceProps.getWindowMillis().get(type);
+        return w == null ? 0L : w;
+    }
+
+    /**
+     * 合并窗口：已经挂了延迟 drain（或正在 drain）时什么都不做，新帧会被那一次一起带走
+     */
+    private void scheduleLingerDrain(SessionOutbox box, long windowMillis) {
+        if (!box.tryArmLinger()) return;
+        try {
+            lingerTimer.schedule(() -> {
+                box.disarmLinger();
+                scheduleDrain(box);
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rej) {
+            box.disarmLinger();
+            scheduleDrain(box);
+        }
+    }
+
+    private void scheduleDrain(SessionOutbox box) {
+        if (!box.tryStartDrain()) return; // 已有 drain 任务在跑，它会把新帧一起发掉
+        try {
+            senderPool.execute(() -> drain(box));
+        } catch (RejectedExecutionException rej) {
+            box.finishDrain();
+            log.warn("scheduleDrain: sender pool rejected sessionId={}", box.session().getId());
+        }
+    }
+
+    private void drain(SessionOutbox box) {
+        WebSocketSession s = box.session();
+        try {
+            int sent = 0;
+            TextMessage out;
+            while (sent < outboundProps.getMaxFramesPerDrain() && (out = nextOutgoing(box)) != null) {
+                synchronized (s) {
+                    if (!s.isOpen()) {
+                        log.debug("drain: session {} closed, discarding queued frames", s.getId());
+                        box.close();
+                        return;
+                    }
                     try {
-                        synchronized (sessionRef) {
-                            if (!sessionRef.isOpen()) {
-                                log.debug("sendToUser: session {} closed, skipping", sessionRef.getId());
-                                return;
-                            }
-                            sessionRef.sendMessage(new TextMessage(payload));
-                        }
-                    } catch (Throwable sendErr) {
-                        log.warn("sendToUser: unexpected error sending to userId={} sessionId={} err={}", userId, sessionRef.getId(), sendErr.getMessage(), sendErr);
-                        try { sessionRef.close(); } catch (Exception ignore) {}
-                        try { unregisterSession(userId, sessionRef); } catch (Exception ignore2) {}
+                        s.sendMessage(out);
+                    } catch (IOException timeoutOrBroken) {
+                        // 包括阻塞发送超时：客户端长时间不读，直接断开，不再占着发送线程
+                        log.debug("drain: send failed sessionId={} err={}", s.getId(), timeoutOrBroken.getMessage());
+                        evictSlowConsumer(box, "send_timeout");
+                        return;
                     }
-                });
-            } catch (RejectedExecutionException rej) {
-                log.warn("sendToUser: executor rejected for sessionId={}, userId={}", s.getId(), userId);
+                }
+                sent++;
             }
+        } catch (Throwable sendErr) {
+            log.warn("drain: unexpected error sending to userId={} sessionId={} err={}", box.userId(), s.getId(), sendErr.getMessage(), sendErr);
+            box.close();
+            try { s.close(); } catch (Exception ignore) {}
+            try { unregisterSession(box.userId(), s); } catch (Exception ignore2) {}
+            return;
+        } finally {
+            box.finishDrain();
+        }
+        // drain 结束到 finishDrain 之间可能有新帧入队，它们的 scheduleDrain 会失败，这里补一次
+        if (!box.isEmpty()) {
+            scheduleDrain(box);
         }
     }
 
     /**
-     * 可选：查询用户当前的活跃 session 数
+     * 取出下一次要写到 socket 的帧：普通连接一次一帧；合并连接一次取多帧拼成 BATCH
      */
-    public int countSessionsForUser(Long userId) {
-        Set<WebSocketSession> set = sessionsByUser.get(userId);
-        return set == null ? 0 : set.size();
+    private TextMessage nextOutgoing(SessionOutbox box) {
+        if (!box.isBatching()) {
+            SessionOutbox.Frame f = box.poll();
+            return f == null ? null : f.message();
+        }
+        List<SessionOutbox.Frame> frames = box.pollBatch(coalesceProps.getMaxBatchFrames());
+        if (frames.isEmpty()) return null;
+        if (frames.size() == 1) return frames.get(0).message();
+
+        // 子帧本身就是完整的 JSON envelope，直接拼接，不再重新序列化
+        int len = 32;
+        for (SessionOutbox.Frame f : frames) len += f.message().getPayloadLength() + 1;
+        StringBuilder sb = new StringBuilder(len);
+        sb.append("{\"type\":\"BATCH\",\"payload\":[");
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(frames.get(i).message().getPayload());
+        }
+        sb.append("]}");
+        return new TextMessage(sb.toString());
     }
 
     /**
-     * 在应用关闭时可以调用以释放资源（视需要）
+     * 给 session 设置容器的阻塞发送超时，让每次 sendMessage 都有上限
      */
-    public void shutdown() {
+    private void applySendTimeout(WebSocketSession session) {
+        long timeout = Math.max(1L, outboundProps.getSendTimeoutMillis());
+        WebSocketSession raw = WebSocketSessionDecorator.unwrap(session);
         try {
-            sharedExecutor.shutdownNow();
-        } catch (Exception ignore) {}
-        for (ExecutorService ex : sessionExecutors.values()) {
-            try { ex.shutdownNow(); } catch (Exception ignore) {}
+            if (raw instanceof NativeWebSocketSession nws) {
+                jakarta.websocket.Session ns = nws.getNativeSession(jakarta.websocket.Session.class);
+                if (ns != null) {
+                    ns.getUserProperties().put(BLOCKING_SEND_TIMEOUT, timeout);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("applySendTimeout: failed sessionId={} err={}", session.getId(), e.getMessage());
+            return;
+        }
+        log.warn("applySendTimeout: unsupported session type {}, sends are not time-bounded", raw.getClass().getName());
+    }
+
+    private void evictSlowConsumer(SessionOutbox box, String reason) {
+        WebSocketSession s = box.session();
+        log.warn("evicting slow websocket consumer userId={} sessionId={} reason={}", box.userId(), s.getId(), reason);
+        box.close();
+        // 关闭与注销放到发送线程上做：enqueue 可能正持有用户的补发锁，注销触发的下线广播会去拿其他用户的锁
+        Runnable teardown = () -> {
+            try { s.close(CloseStatus.SESSION_NOT_RELIABLE); } catch (Exception ignore) {}
+            try { unregisterSession(box.userId(), s); } catch (Exception ignore2) {}
+        };
+        try {
+            senderPool.execute(teardown);
+        } catch (RejectedExecutionException rej) {
+            teardown.run();
         }
-        sessionExecutors.clear();
     }
-}
\ No newline at end of file
+}
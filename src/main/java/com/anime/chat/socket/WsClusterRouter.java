@@ -0,0 +1,433 @@
+package com.anime.chat.socket;
+
+import com.anime.config.ChatProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 跨节点 WebSocket 路由（chat.cluster.enabled=true 时生效，默认关闭，单实例行为不变）
+ *
+ * - Redis 中维护 user -> node 路由表：hash ws:route:user:{userId}，field=nodeId，value=过期时间戳(ms)；
+ *   本节点定期续期自己持有连接的用户，节点宕机后条目过期即被忽略（读到时顺手 HDEL）
+ * - 每个节点订阅自己的频道 ws:node:{nodeId}（见 ChatClusterConfig / WsClusterSubscriber）
+ * - 转发的是已经序列化好的帧文本；同一帧发往同一节点的多个用户只占一条记录，
+ *   各节点的待转发帧按 flush-interval-millis 攒批后一次 PUBLISH
+ * - forward() 只入队，不访问 Redis：路由查询在 ws-cluster 线程上每个刷新周期合并成一次 pipeline，
+ *   发送线程 / 会话通道不再等 Redis 往返
+ * - 查到的路由在本节点缓存 route-cache-millis（包括"不在线"），用户换节点后其它节点最多延迟这么久才转发过去；
+ *   在线状态查询（isOnlineInCluster / onlineInCluster）共用这份缓存，批量查询只对未命中的用户发一次 pipeline
+ * - 上线 / 下线时写路由和统计其它存活节点在同一个 Lua 脚本里完成，返回值决定是否是集群范围内的
+ *   第一条 / 最后一条连接（在线 / 离线广播只在 0->1、1->0 时发出）
+ */
+@Slf4j
+@Component
+public class WsClusterRouter {
+
+    private static final String KEY_ROUTE = "ws:route:user:%d";
+    private static final String CHANNEL_NODE = "ws:node:%s";
+
+    // 写入本节点路由，返回其它存活节点数；顺手清理过期条目
+    private static final DefaultRedisScript<Long> CONNECT_SCRIPT = new DefaultRedisScript<>("""
+            local others = 0
+            local all = redis.call('HGETALL', KEYS[1])
+            for i = 1, #all, 2 do
+              if all[i] ~= ARGV[1] then
+                local expireAt = tonumber(all[i + 1])
+                if expireAt and expireAt > tonumber(ARGV[2]) then
+                  others = others + 1
+                else
+                  redis.call('HDEL', KEYS[1], all[i])
+                end
+              end
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[3])
+            redis.call('EXPIRE', KEYS[1], ARGV[4])
+            return others
+            """, Long.class);
+
+    // 删除本节点路由，返回剩余存活节点数
+    private static final DefaultRedisScript<Long> DISCONNECT_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('HDEL', KEYS[1], ARGV[1])
+            local live = 0
+            local all = redis.call('HGETALL', KEYS[1])
+            for i = 1, #all, 2 do
+              local expireAt = tonumber(all[i + 1])
+              if expireAt and expireAt > tonumber(ARGV[2]) then
+                live = live + 1
+              else
+                redis.call('HDEL', KEYS[1], all[i])
+              end
+            end
+            return live
+            """, Long.class);
+
+    /**
+     * 一条转发记录：u=目标用户，t=帧类型（用于背压策略），k=collapseKey（可为空），f=帧原文
+     */
+    public record ForwardedFrame(List<Long> u, String t, String k, String f) {}
+
+    /**
+     * 一次 PUBLISH 的内容
+     */
+    public record ForwardBatch(String from, List<ForwardedFrame> frames) {}
+
+    // 等待解析路由的转发请求
+    private record Outgoing(List<Long> userIds, String type, String collapseKey, String payload) {}
+
+    // 用户的存活节点（空列表表示不在线）
+    private record RouteEntry(List<String> nodes, long loadedAt) {}
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper objectMapper;
+    private final ChatProperties.Cluster props;
+
+    // 本节点当前持有连接的用户（用于路由续期和关闭时清理）
+    private final Set<Long> localUsers = ConcurrentHashMap.newKeySet();
+
+    // 待解析路由的转发请求，由 ws-cluster 线程批量处理
+    private final ConcurrentLinkedQueue<Outgoing> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outgoingSize = new AtomicInteger();
+
+    // userId -> 路由缓存
+    private final ConcurrentMap<Long, RouteEntry> routeCache = new ConcurrentHashMap<>();
+
+    // nodeId -> 待转发帧
+    private final ConcurrentMap<String, ConcurrentLinkedQueue<ForwardedFrame>> pendingByNode = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    public WsClusterRouter(StringRedisTemplate redis, ObjectMapper objectMapper, ChatProperties chatProperties) {
+        this.redis = redis;
+        this.objectMapper = objectMapper;
+        this.props = chatProperties.getCluster();
+
+        if (props.isEnabled()) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setName("ws-cluster");
+                t.setDaemon(true);
+                return t;
+            });
+            long flushMs = Math.max(1L, props.getFlushIntervalMillis());
+            scheduler.scheduleWithFixedDelay(this::flushSafely, flushMs, flushMs, TimeUnit.MILLISECONDS);
+            long refreshSec = Math.max(1L, props.getRouteTtlSeconds() / 3);
+            scheduler.scheduleWithFixedDelay(this::refreshRoutesSafely, refreshSec, refreshSec, TimeUnit.SECONDS);
+            log.info("WsClusterRouter enabled nodeId={} channel={}", props.getNodeId(), channel());
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    public String nodeId() {
+        return props.getNodeId();
+    }
+
+    /**
+     * 本节点订阅的频道
+     */
+    public String channel() {
+        return String.format(CHANNEL_NODE, props.getNodeId());
+    }
+
+    /**
+     * 用户在本节点的第一个 session 建立；返回 true 表示此前不在任何节点在线（集群范围 0 -> 1）。
+     * 未开启集群或 Redis 不可用时按本节点判断，返回 true
+     */
+    public boolean onUserConnected(Long userId) {
+        if (!isEnabled() || userId == null) return true;
+        localUsers.add(userId);
+        routeCache.remove(userId);
+        try {
+            Long others = redis.execute(CONNECT_SCRIPT, List.of(routeKey(userId)),
+                    props.getNodeId(), String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(routeExpireAt()), String.valueOf(props.getRouteTtlSeconds()));
+            return others == null || others == 0L;
+        } catch (Exception e) {
+            log.warn("onUserConnected: write route failed userId={} err={}", userId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 用户在本节点的最后一个 session 断开；返回 true 表示已不在任何节点在线（集群范围 1 -> 0）。
+     * 未开启集群或 Redis 不可用时按本节点判断，返回 true
+     */
+    public boolean onUserDisconnected(Long userId) {
+        if (!isEnabled() || userId == null) return true;
+        localUsers.remove(userId);
+        routeCache.remove(userId);
+        try {
+            Long live = redis.execute(DISCONNECT_SCRIPT, List.of(routeKey(userId)),
+                    props.getNodeId(), String.valueOf(System.currentTimeMillis()));
+            return live == null || live == 0L;
+        } catch (Exception e) {
+            log.warn("onUserDisconnected: remove route failed userId={} err={}", userId, e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * 用户是否在集群内任一节点在线（未开启集群时恒为 false）
+     */
+    public boolean isOnlineInCluster(Long userId) {
+        if (userId == null) return false;
+        return !onlineInCluster(List.of(userId)).isEmpty();
+    }
+
+    /**
+     * 批量查询在线状态，返回其中在线的用户：本节点 / 缓存命中的不访问 Redis，其余合并成一次 pipeline
+     */
+    public Set<Long> onlineInCluster(Collection<Long> userIds) {
+        Set<Long> online = new HashSet<>();
+        if (!isEnabled() || userIds == null || userIds.isEmpty()) return online;
+        long now = System.currentTimeMillis();
+        List<Long> misses = new ArrayList<>();
+        for (Long uid : new LinkedHashSet<>(userIds)) {
+            if (uid == null) continue;
+            if (localUsers.contains(uid)) {
+                online.add(uid);
+                continue;
+            }
+            RouteEntry cached = cachedRoute(uid, now);
+            if (cached == null) {
+                misses.add(uid);
+            } else if (!cached.nodes().isEmpty()) {
+                online.add(uid);
+            }
+        }
+        if (misses.isEmpty()) return online;
+        try {
+            Map<Long, List<String>> routes = loadRoutes(misses);
+            routes.forEach((uid, nodes) -> {
+                if (!nodes.isEmpty()) online.add(uid);
+            });
+        } catch (Exception e) {
+            log.warn("onlineInCluster: read route failed users={} err={}", misses.size(), e.getMessage());
+        }
+        return online;
+    }
+
+    /**
+     * 把一帧转发给其它节点上的这些用户（本节点的投递由调用方自己完成）；
+     * 只入队，路由在 ws-cluster 线程上批量解析，队列超过 max-pending-forwards 时丢弃并告警
+     */
+    public void forward(Collection<Long> userIds, String type, TextMessage frame, String collapseKey) {
+        if (!isEnabled() || userIds == null || userIds.isEmpty() || frame == null) return;
+
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        ids.removeIf(Objects::isNull);
+        if (ids.isEmpty()) return;
+
+        if (outgoingSize.incrementAndGet() > Math.max(1, props.getMaxPendingForwards())) {
+            outgoingSize.decrementAndGet();
+            log.warn("forward: pending queue full, dropping type={} users={}", type, ids.size());
+            return;
+        }
+        outgoing.add(new Outgoing(ids, type, collapseKey, frame.getPayload()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        flushSafely();
+        for (Long uid : localUsers) {
+            try {
+                redis.opsForHash().delete(routeKey(uid), props.getNodeId());
+            } catch (Exception ignore) {}
+        }
+        localUsers.clear();
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("WsClusterRouter flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flush() {
+        resolveOutgoing();
+        int max = Math.max(1, props.getMaxBatchFrames());
+        for (Map.Entry<String, ConcurrentLinkedQueue<ForwardedFrame>> e : pendingByNode.entrySet()) {
+            ConcurrentLinkedQueue<ForwardedFrame> queue = e.getValue();
+            List<ForwardedFrame> batch = new ArrayList<>();
+            ForwardedFrame f;
+            while ((f = queue.poll()) != null) {
+                batch.add(f);
+                if (batch.size() >= max) {
+                    publish(e.getKey(), batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                publish(e.getKey(), batch);
+            }
+        }
+    }
+
+    /**
+     * 取出所有待解析的转发请求，缓存未命中的用户合并成一次 pipeline 查询，再按节点放入待转发队列
+     */
+    private void resolveOutgoing() {
+        if (outgoing.isEmpty()) return;
+        List<Outgoing> batch = new ArrayList<>();
+        Outgoing o;
+        while ((o = outgoing.poll()) != null) {
+            outgoingSize.decrementAndGet();
+            batch.add(o);
+        }
+
+        long now = System.currentTimeMillis();
+        Map<Long, List<String>> routes = new HashMap<>();
+        Set<Long> misses = new LinkedHashSet<>();
+        for (Outgoing out : batch) {
+            for (Long uid : out.userIds()) {
+                if (routes.containsKey(uid) || misses.contains(uid)) continue;
+                RouteEntry cached = cachedRoute(uid, now);
+                if (cached == null) {
+                    misses.add(uid);
+                } else {
+                    routes.put(uid, cached.nodes());
+                }
+            }
+        }
+        if (!misses.isEmpty()) {
+            try {
+                routes.putAll(loadRoutes(new ArrayList<>(misses)));
+            } catch (Exception e) {
+                log.warn("forward: route lookup failed users={} err={}", misses.size(), e.getMessage());
+            }
+        }
+
+        for (Outgoing out : batch) {
+            Map<String, List<Long>> usersByNode = new HashMap<>();
+            for (Long uid : out.userIds()) {
+                for (String node : routes.getOrDefault(uid, List.of())) {
+                    if (node.equals(props.getNodeId())) continue;
+                    usersByNode.computeIfAbsent(node, k -> new ArrayList<>()).add(uid);
+                }
+            }
+            usersByNode.forEach((node, uids) ->
+                    pendingByNode.computeIfAbsent(node, k -> new ConcurrentLinkedQueue<>())
+                            .add(new ForwardedFrame(uids, out.type(), out.collapseKey(), out.payload())));
+        }
+    }
+
+    /**
+     * 一次 pipeline 查询这些用户的路由，结果写入缓存
+     */
+    private Map<Long, List<String>> loadRoutes(List<Long> ids) {
+        List<Object> results = redis.executePipelined((RedisCallback<Object>) connection -> {
+            lookupRoutes(connection, ids);
+            return null;
+        });
+        long now = System.currentTimeMillis();
+        Map<Long, List<String>> routes = new HashMap<>();
+        for (int i = 0; i < ids.size() && i < results.size(); i++) {
+            Long uid = ids.get(i);
+            List<String> nodes = results.get(i) instanceof Map<?, ?> entries && !entries.isEmpty()
+                    ? liveNodes(uid, entries) : List.of();
+            routes.put(uid, nodes);
+            routeCache.put(uid, new RouteEntry(nodes, now));
+        }
+        return routes;
+    }
+
+    private RouteEntry cachedRoute(Long userId, long now) {
+        RouteEntry cached = routeCache.get(userId);
+        if (cached == null || now - cached.loadedAt() >= props.getRouteCacheMillis()) return null;
+        return cached;
+    }
+
+    private void publish(String node, List<ForwardedFrame> frames) {
+        try {
+            String body = objectMapper.writeValueAsString(new ForwardBatch(props.getNodeId(), frames));
+            redis.convertAndSend(String.format(CHANNEL_NODE, node), body);
+        } catch (Exception e) {
+            log.warn("publish to node={} failed frames={} err={}", node, frames.size(), e.getMessage());
+        }
+    }
+
+    private void refreshRoutesSafely() {
+        long expireBefore = System.currentTimeMillis() - props.getRouteCacheMillis();
+        routeCache.values().removeIf(e -> e.loadedAt() < expireBefore);
+        if (localUsers.isEmpty()) return;
+        try {
+            byte[] field = props.getNodeId().getBytes(StandardCharsets.UTF_8);
+            byte[] value = String.valueOf(routeExpireAt()).getBytes(StandardCharsets.UTF_8);
+            long ttl = props.getRouteTtlSeconds();
+            List<Long> users = new ArrayList<>(localUsers);
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long uid : users) {
+                    byte[] key = routeKey(uid).getBytes(StandardCharsets.UTF_8);
+                    connection.hashCommands().hSet(key, field, value);
+                    connection.keyCommands().expire(key, ttl);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("WsClusterRouter refresh routes failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private static void lookupRoutes(RedisConnection connection, List<Long> ids) {
+        for (Long uid : ids) {
+            connection.hashCommands().hGetAll(routeKey(uid).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 过滤出未过期的节点；过期条目顺手删除
+     */
+    private List<String> liveNodes(Long userId, Map<?, ?> entries) {
+        long now = System.currentTimeMillis();
+        List<String> live = new ArrayList<>(entries.size());
+        for (Map.Entry<?, ?> e : entries.entrySet()) {
+            String node = String.valueOf(e.getKey());
+            long expireAt;
+            try {
+                expireAt = Long.parseLong(String.valueOf(e.getValue()));
+            } catch (NumberFormatException nfe) {
+                expireAt = 0L;
+            }
+            if (expireAt > now) {
+                live.add(node);
+            } else {
+                try {
+                    redis.opsForHash().delete(routeKey(userId), node);
+                } catch (Exception ignore) {}
+            }
+        }
+        return live;
+    }
+
+    private long routeExpireAt() {
+        return System.currentTimeMillis() + props.getRouteTtlSeconds() * 1000L;
+    }
+
+    private static String routeKey(Long userId) {
+        return String.format(KEY_ROUTE, userId);
+    }
+}
@@ -0,0 +1,38 @@
+package com.anime.chat.socket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+/**
+ * 订阅本节点频道 ws:node:{nodeId}，把其它节点转发过来的帧投递给本地 session。
+ * 只做本地投递，不会再次转发（避免节点间回环）。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WsClusterSubscriber implements MessageListener {
+
+    private final WebSocketSessionManager sessionManager;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        WsClusterRouter.ForwardBatch batch;
+        try {
+            batch = objectMapper.readValue(message.getBody(), WsClusterRouter.ForwardBatch.class);
+        } catch (Exception e) {
+            log.warn("WsClusterSubscriber: bad forward batch err={}", e.getMessage());
+            return;
+        }
+        if (batch == null || batch.frames() == null) return;
+        for (WsClusterRouter.ForwardedFrame f : batch.frames()) {
+            if (f == null || f.u() == null || f.f() == null) continue;
+            sessionManager.deliverLocal(f.u(), f.t(), new TextMessage(f.f()), f.k());
+        }
+    }
+}
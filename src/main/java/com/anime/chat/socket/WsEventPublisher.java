@@ -1,12 +1,16 @@
 package com.anime.chat.socket;
 
 import com.anime.common.dto.chat.socket.WebSocketEnvelope;
+import com.anime.common.mapper.chat.ChatGroupMemberMapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.TextMessage;
 
+import java.util.Collection;
+import java.util.List;
+
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -14,11 +18,19 @@ public class WsEventPublisher {
 
     private final WebSocketSessionManager sessionManager;
     private final ObjectMapper objectMapper;
+    private final ChatGroupMemberMapper chatGroupMemberMapper;
 
     /**
      * 向某个用户推送任意类型的 WS 事件（会发到该用户所有在线 WebSocketSession）
      */
     public void sendToUser(Long userId, String type, Object payload) {
+        sendToUser(userId, type, payload, null);
+    }
+
+    /**
+     * 推送状态类事件：collapseKey 相同的、尚未发出的旧事件会被新事件覆盖（如同一用户的在线/离线）
+     */
+    public void sendToUser(Long userId, String type, Object payload, String collapseKey) {
         if (userId == null) return;
         try {
             log.info("WsEventPublisher sendToUser");
@@ -28,10 +40,49 @@ public class WsEventPublisher {
             String json = objectMapper.writeValueAsString(env);
             log.info("WsEventPublisher sendToUser userId={}, type={}, json={}",
                     userId, type, json);
-            sessionManager.sendToUser(userId, new TextMessage(json));
+            sessionManager.sendToUser(userId, type, new TextMessage(json), collapseKey);
         } catch (Exception e) {
             log.error("WsEventPublisher sendToUser failed, userId={}, type={}, err={}",
                     userId, type, e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 向一批用户推送同一个事件：envelope 只序列化一次，所有接收者共享同一个 TextMessage。
+     * 适用于 payload 与接收者无关的场景（群消息、撤回通知等），序列化开销与接收人数无关。
+     */
+    public void sendToUsers(Collection<Long> userIds, String type, Object payload) {
+        sendToUsers(userIds, type, payload, null);
+    }
+
+    /**
+     * 同上，附带 collapseKey：各接收者队列里尚未发出的同 key 旧帧被新帧覆盖
+     */
+    public void sendToUsers(Collection<Long> userIds, String type, Object payload, String collapseKey) {
+        if (userIds == null || userIds.isEmpty()) return;
+        try {
+            WebSocketEnvelope<Object> env = new WebSocketEnvelope<>();
+            env.setType(type);
+            env.setPayload(payload);
+            TextMessage frame = new TextMessage(objectMapper.writeValueAsString(env));
+            log.debug("WsEventPublisher sendToUsers type={}, recipients={}", type, userIds.size());
+            sessionManager.sendToUsers(userIds, type, frame, collapseKey);
+        } catch (Exception e) {
+            log.error("WsEventPublisher sendToUsers failed, type={}, recipients={}, err={}",
+                    type, userIds.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 向群内所有成员推送同一个事件（序列化一次）
+     */
+    public void sendToGroup(Long groupId, String type, Object payload) {
+        if (groupId == null) return;
+        List<Long> memberIds = chatGroupMemberMapper.listUserIdsByGroupId(groupId);
+        if (memberIds == null || memberIds.isEmpty()) {
+            log.warn("WsEventPublisher sendToGroup: group {} has no members", groupId);
+            return;
+        }
+        sendToUsers(memberIds, type, payload);
+    }
+}
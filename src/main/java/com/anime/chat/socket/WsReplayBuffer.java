@@ -0,0 +1,210 @@
+package com.anime.chat.socket;
+
+import com.anime.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 断线续传：每个用户一个递增序号 + 最近事件的补发环（chat.replay.enabled=true 时生效）
+ *
+ * - 可靠事件投递到本节点时在用户的环上编号，帧变成 { "seq": N, "type": ..., "payload": ... } 后入环并入队；
+ *   瞬时事件（typing、在线状态）不编号、不入环；带 collapseKey 的帧同样不编号——它们可能在出站队列里被同 key
+ *   新帧替换掉，编号后会让客户端看到序号空洞
+ * - 编号、入环、入队在同一把用户锁内完成，所以每个 session 收到的序号严格递增
+ * - 客户端重连时在握手参数里带上 resumeEpoch / lastSeq，新 session 加入投递之前先补发错过的帧；
+ *   环已经不够（或 epoch 对不上）时回复 RESYNC，由客户端全量刷新
+ * - epoch 标识一个环的生命周期：节点重启、环过期重建后 epoch 都会变，旧序号不会被误认
+ * - 环只在内存里。开启 chat.cluster.enabled 时，用户离开本节点后其它节点的事件不会再路由过来，
+ *   环无法保证完整，因此最后一个连接断开即丢弃，重连一律 RESYNC
+ */
+@Slf4j
+@Component
+public class WsReplayBuffer {
+
+    public enum Status { RESUMED, RESYNC }
+
+    /**
+     * 续传结果：seq 为当前最新序号，frames 为要补发的帧（RESYNC 时为空）
+     */
+    public record Resume(Status status, String epoch, long seq, List<TextMessage> frames) {}
+
+    private final ChatProperties.Replay props;
+    private final Set<String> ephemeralTypes;
+    private final boolean dropOnDisconnect;
+
+    // 节点级 epoch 前缀，每个环再带一个自增编号
+    private final String epochPrefix = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong ringCounter = new AtomicLong();
+
+    private final ConcurrentMap<Long, Ring> rings = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public WsReplayBuffer(ChatProperties chatProperties) {
+        this.props = chatProperties.getReplay();
+        this.ephemeralTypes = chatProperties.getOutbound().getEphemeralTypes();
+        this.dropOnDisconnect = chatProperties.getCluster().isEnabled();
+
+        if (props.isEnabled()) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setName("ws-replay-sweep");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1L, props.getTtlSeconds() / 2);
+            sweeper.scheduleWithFixedDelay(this::sweepSafely, period, period, TimeUnit.SECONDS);
+        } else {
+            this.sweeper = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /**
+     * 投递一帧：需要编号的帧在用户锁内编号、入环后交给 sink（sink 负责入队到该用户的本地 session）
+     * 瞬时事件和可被覆盖（collapseKey 非空）的帧直接交给 sink
+     */
+    public void deliver(Long userId, String type, String collapseKey, TextMessage frame, Consumer<TextMessage> sink) {
+        boolean unnumbered = collapseKey != null || (type != null && ephemeralTypes.contains(type));
+        Ring ring = unnumbered ? null : rings.get(userId);
+        if (ring == null) {
+            sink.accept(frame);
+            return;
+        }
+        synchronized (ring) {
+            sink.accept(ring.append(frame));
+        }
+    }
+
+    /**
+     * 用户的一个新 session 接入：在用户锁内计算续传结果并回调 onAttach（回调里补发并把 session 加入投递集合），
+     * 回调期间不会有新帧被编号，补发帧一定排在实时帧前面
+     */
+    public void attach(Long userId, String clientEpoch, Long lastSeq, int maxFrames, Consumer<Resume> onAttach) {
+        while (true) {
+            Ring ring = rings.computeIfAbsent(userId, k -> new Ring(epochPrefix + "." + ringCounter.incrementAndGet()));
+            synchronized (ring) {
+                if (ring.removed) continue; // 刚被清理掉，重新建一个
+                ring.idleSince = 0L;
+                onAttach.accept(ring.resume(clientEpoch, lastSeq, Math.min(maxFrames, props.getCapacity())));
+                return;
+            }
+        }
+    }
+
+    /**
+     * 用户在本节点的最后一个 session 断开：开始计算保留时长（集群模式下直接丢弃）
+     */
+    public void detach(Long userId) {
+        Ring ring = rings.get(userId);
+        if (ring == null) return;
+        synchronized (ring) {
+            if (dropOnDisconnect) {
+                ring.removed = true;
+                rings.remove(userId, ring);
+            } else {
+                ring.idleSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) sweeper.shutdownNow();
+        rings.clear();
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    private void sweepSafely() {
+        try {
+            long expireBefore = System.currentTimeMillis() - props.getTtlSeconds() * 1000L;
+            for (Map.Entry<Long, Ring> e : rings.entrySet()) {
+                Ring ring = e.getValue();
+                synchronized (ring) {
+                    if (ring.idleSince > 0 && ring.idleSince < expireBefore) {
+                        ring.removed = true;
+                        rings.remove(e.getKey(), ring);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("WsReplayBuffer sweep failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 在 envelope 的最前面插入 seq 字段：帧本身是完整 JSON 对象，直接拼接，不再重新序列化
+     */
+    static String withSeq(String json, long seq) {
+        if (json == null || json.length() < 2 || json.charAt(0) != '{') return json;
+        return "{\"seq\":" + seq + "," + json.substring(1);
+    }
+
+    private record Entry(long seq, TextMessage frame) {}
+
+    /**
+     * 单个用户的序号与补发环；所有方法都在持有该对象锁时调用
+     */
+    private final class Ring {
+        private final String epoch;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private long seq;
+        // 最后一个连接断开的时间；0 表示仍有连接
+        private long idleSince;
+        private boolean removed;
+
+        Ring(String epoch) {
+            this.epoch = epoch;
+        }
+
+        TextMessage append(TextMessage frame) {
+            long next = seq + 1;
+            String stamped = withSeq(frame.getPayload(), next);
+            if (stamped == frame.getPayload()) {
+                return frame; // 不是 JSON 对象，不编号
+            }
+            seq = next;
+            TextMessage out = new TextMessage(stamped);
+            entries.addLast(new Entry(seq, out));
+            while (entries.size() > Math.max(1, props.getCapacity())) {
+                entries.pollFirst();
+            }
+            return out;
+        }
+
+        Resume resume(String clientEpoch, Long lastSeq, int maxFrames) {
+            if (clientEpoch == null || lastSeq == null || !epoch.equals(clientEpoch) || lastSeq > seq || lastSeq < 0) {
+                return new Resume(Status.RESYNC, epoch, seq, List.of());
+            }
+            long oldest = entries.isEmpty() ? seq + 1 : entries.peekFirst().seq();
+            if (lastSeq + 1 < oldest || seq - lastSeq > maxFrames) {
+                return new Resume(Status.RESYNC, epoch, seq, List.of());
+            }
+            List<TextMessage> missed = new ArrayList<>((int) (seq - lastSeq));
+            for (Entry e : entries) {
+                if (e.seq() > lastSeq) missed.add(e.frame());
+            }
+            return new Resume(Status.RESUMED, epoch, seq, missed);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
@@ -88,6 +89,8 @@ public class CollectedItemService {
         List<CollectedItem> items = collectedItemMapper.selectList(
                 new QueryWrapper<CollectedItem>().eq("folder_level2_id", level2Id)
         );
+        Map<Long, String> urls = attachmentService.presignAll(
+                items.stream().map(CollectedItem::getAttachmentId).toList(), ATTACHMENT_URL_TTL_SECONDS);
         List<ItemResultDTO> results = new ArrayList<>();
         for (CollectedItem collectionItem : items) {
             ItemResultDTO itemResultDTO = new ItemResultDTO();
@@ -95,16 +98,9 @@ public class CollectedItemService {
             itemResultDTO.setDescription(collectionItem.getDescription());
             itemResultDTO.setFolder_level2_id(level2Id);
             itemResultDTO.setName(collectionItem.getName());
-            // 生成短期预签名 URL 用于前端展示
-            try {
-                if (collectionItem.getAttachmentId() != null) {
-                    String url = attachmentService.generatePresignedGetUrl(collectionItem.getAttachmentId(), ATTACHMENT_URL_TTL_SECONDS);
-                    // 方法名视 ItemResultDTO 的字段名而定，下面尝试 setUrl / setAttachmentUrl / setURL 等，你需要使用实际 DTO 的 setter
-                    // 我假设 DTO 有 setUrl 方法（如果 DTO 字段名不同，请相应调整）
-                    itemResultDTO.setURL(url);
-                }
-            } catch (Exception ex) {
-                // 忽略单个 attachment 的 URL 生成错误
+            // 短期预签名 URL 用于前端展示（已批量生成；生成失败的 attachment 没有 URL）
+            if (collectionItem.getAttachmentId() != null) {
+                itemResultDTO.setURL(urls.get(collectionItem.getAttachmentId()));
             }
             results.add(itemResultDTO);
         }
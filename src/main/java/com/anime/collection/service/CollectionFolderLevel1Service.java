@@ -10,6 +10,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
@@ -38,12 +39,14 @@ public class CollectionFolderLevel1Service {
             return new ArrayList<>();
         }
         List<CollectionFolderLevel1> level1s = collectionFolderLevel1Mapper.findByUserId(user_id);
+        Map<Long, String> urls = attachmentService.presignAll(
+                level1s.stream().map(CollectionFolderLevel1::getAttachmentId).toList(), ATTACHMENT_URL_TTL_SECONDS);
         List<Level1ResultDTO> results = new ArrayList<>();
         for (CollectionFolderLevel1 collectionFolderLevel1 : level1s) {
             Level1ResultDTO level1ResultDTO = new Level1ResultDTO();
             level1ResultDTO.setId(collectionFolderLevel1.getId());
             level1ResultDTO.setName(collectionFolderLevel1.getName());
-            level1ResultDTO.setURL(attachmentService.generatePresignedGetUrl(collectionFolderLevel1.getAttachmentId(),ATTACHMENT_URL_TTL_SECONDS));
+            level1ResultDTO.setURL(collectionFolderLevel1.getAttachmentId() == null ? null : urls.get(collectionFolderLevel1.getAttachmentId()));
             results.add(level1ResultDTO);
         }
         return results;
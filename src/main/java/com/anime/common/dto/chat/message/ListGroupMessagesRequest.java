@@ -12,4 +12,19 @@ public class ListGroupMessagesRequest {
      * 群ID
      */
     private Long groupId;
+
+    /**
+     * 游标：取 id 小于它的更早消息（向上翻历史），与 afterMessageId 二选一；都不传则取最新一页
+     */
+    private Long beforeMessageId;
+
+    /**
+     * 游标：取 id 大于它的更新消息（断线重连补拉）
+     */
+    private Long afterMessageId;
+
+    /**
+     * 每页条数，默认 50，最大 200
+     */
+    private Integer pageSize;
 }
\ No newline at end of file
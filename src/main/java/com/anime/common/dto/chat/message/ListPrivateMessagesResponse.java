@@ -11,7 +11,17 @@ import java.util.List;
 public class ListPrivateMessagesResponse {
 
     /**
-     * 与指定好友的所有历史消息（按时间排序）
+     * 与指定好友的历史消息（按 id 倒序，最新的在前）
      */
     private List<ChatMessageDTO> messages;
+
+    /**
+     * 下一页游标：按 beforeMessageId 翻页时为本页最小 id，按 afterMessageId 补拉时为本页最大 id；本页为空时为 null
+     */
+    private Long nextCursor;
+
+    /**
+     * 同方向上是否还有更多消息
+     */
+    private Boolean hasMore;
 }
\ No newline at end of file
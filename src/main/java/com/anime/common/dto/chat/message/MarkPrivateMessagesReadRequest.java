@@ -12,4 +12,9 @@ public class MarkPrivateMessagesReadRequest {
      * 好友用户ID（对方）
      */
     private Long friendId;
+
+    /**
+     * 可选：读到哪条消息为止（历史列表的消息 id 或实时推送的消息 id 均可），不传则读到最新
+     */
+    private Long lastReadMessageId;
 }
\ No newline at end of file
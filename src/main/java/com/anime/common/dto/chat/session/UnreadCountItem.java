@@ -0,0 +1,22 @@
+package com.anime.common.dto.chat.session;
+
+import lombok.Data;
+
+/**
+ * 单个会话的未读数
+ */
+@Data
+public class UnreadCountItem {
+
+    /**
+     * 会话类型：PRIVATE / GROUP
+     */
+    private String sessionType;
+
+    /**
+     * 单聊为对方 userId，群聊为 groupId
+     */
+    private Long sessionTargetId;
+
+    private Integer unreadCount;
+}
@@ -0,0 +1,22 @@
+package com.anime.common.dto.chat.session;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 未读数（角标）响应：来自 Redis 计数器，不加载会话列表的其它字段
+ */
+@Data
+public class UnreadCountsResponse {
+
+    /**
+     * 所有会话未读数之和
+     */
+    private Integer total;
+
+    /**
+     * 未读数大于 0 的会话
+     */
+    private List<UnreadCountItem> items;
+}
@@ -26,7 +26,7 @@ public class NewMessageResponse {
     private Long fromUserId;
 
     /**
-     * 接收者用户ID（仅 PRIVATE）
+     * 接收者用户ID（仅 PRIVATE；群消息对所有成员共用同一份 payload，不携带该字段）
      */
     private Long toUserId;
 
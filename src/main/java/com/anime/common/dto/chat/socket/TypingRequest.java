@@ -0,0 +1,15 @@
+package com.anime.common.dto.chat.socket;
+
+import lombok.Data;
+
+/**
+ * 正在输入事件（客户端 -> 服务器，TYPING_START / TYPING_STOP）
+ */
+@Data
+public class TypingRequest {
+
+    /**
+     * 对方用户ID
+     */
+    private Long targetUserId;
+}
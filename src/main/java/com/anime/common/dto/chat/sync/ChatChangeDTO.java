@@ -0,0 +1,46 @@
+package com.anime.common.dto.chat.sync;
+
+import com.anime.common.dto.chat.message.ChatMessageDTO;
+import lombok.Data;
+
+/**
+ * 一条变更
+ */
+@Data
+public class ChatChangeDTO {
+
+    /**
+     * 变更版本
+     */
+    private Long version;
+
+    /**
+     * MESSAGE_NEW / MESSAGE_RECALLED / MESSAGE_DELETED / READ / PEER_READ / FRIEND_ADDED / FRIEND_REMOVED / GROUP_JOINED
+     */
+    private String changeType;
+
+    /**
+     * 会话类型：PRIVATE / GROUP
+     */
+    private String conversationType;
+
+    /**
+     * 私聊为对方用户ID，群聊为群ID
+     */
+    private Long targetId;
+
+    /**
+     * 涉及的消息ID（MESSAGE_RECALLED 为逻辑消息ID）
+     */
+    private Long messageId;
+
+    /**
+     * READ / PEER_READ：新的已读游标（id 不大于它的消息已读）
+     */
+    private Long lastReadMessageId;
+
+    /**
+     * MESSAGE_NEW：消息内容；消息已被撤回或删除时为 null（后面会有对应的变更）
+     */
+    private ChatMessageDTO message;
+}
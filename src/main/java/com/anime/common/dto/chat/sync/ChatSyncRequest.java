@@ -0,0 +1,20 @@
+package com.anime.common.dto.chat.sync;
+
+import lombok.Data;
+
+/**
+ * 增量同步请求
+ */
+@Data
+public class ChatSyncRequest {
+
+    /**
+     * 上次同步返回的 version；首次同步不传（或传 0），服务端返回 fullResync=true
+     */
+    private Long sinceVersion;
+
+    /**
+     * 本次最多返回的变更条数，默认 200，最大 1000
+     */
+    private Integer limit;
+}
@@ -0,0 +1,33 @@
+package com.anime.common.dto.chat.sync;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 增量同步响应
+ */
+@Data
+public class ChatSyncResponse {
+
+    /**
+     * 按 version 升序排列的变更
+     */
+    private List<ChatChangeDTO> changes;
+
+    /**
+     * 下次同步要带的 sinceVersion
+     */
+    private Long version;
+
+    /**
+     * 是否还有更多变更（为 true 时立即带新的 version 继续拉）
+     */
+    private boolean hasMore;
+
+    /**
+     * 为 true 表示无法增量（首次同步或 sinceVersion 已超出保留期）：
+     * 先用会话列表 / 历史消息接口全量刷新，再从返回的 version 开始增量同步
+     */
+    private boolean fullResync;
+}
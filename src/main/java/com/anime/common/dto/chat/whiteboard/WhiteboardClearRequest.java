@@ -8,5 +8,6 @@ import lombok.Data;
 @Data
 public class WhiteboardClearRequest {
     private Long targetUserId;
+    private Long groupId; // 群白板房间（不为空时忽略 targetUserId）
     private Long ts;
 }
\ No newline at end of file
@@ -11,4 +11,8 @@ public class WhiteboardJoinRequest {
     private String boardId;
     // 参与方（由服务端从 session 注入时通常不需客户端传）
     private Long targetUserId; // 当要创建一个新白板并指定对方时可传
+    // 群白板房间：传 groupId 时忽略 targetUserId
+    private Long groupId;
+    // 点的编码："dv1" 表示客户端支持紧凑编码（下发 pointsEnc），为空则下发 JSON points
+    private String encoding;
 }
\ No newline at end of file
@@ -11,12 +11,14 @@ import java.util.List;
 @Data
 public class WhiteboardStrokePart {
     private Long targetUserId;
+    private Long groupId; // 群白板房间（不为空时忽略 targetUserId）
     private String boardId;
     private String strokeId;
     private String tool; // "pen" / "eraser" ...
     private String color;
     private Integer width;
     private List<List<Double>> points;
+    private String pointsEnc; // dv1 编码的 points（见 WhiteboardPointCodec），与 points 二选一
     private Boolean isEnd; // 该笔画是否结束
     private Long ts;
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.anime.common.entity.chat;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@TableName("chat_change_log")
+public class ChatChangeLog {
+
+    /**
+     * 变更版本（雪花 ID，插入前生成，按时间递增）
+     */
+    @TableId(type = IdType.INPUT)
+    private Long version;
+
+    /**
+     * USER：个人变更 / GROUP：群内所有成员可见的变更
+     */
+    private String scopeType;
+
+    /**
+     * USER 为用户ID，GROUP 为群ID
+     */
+    private Long scopeId;
+
+    /**
+     * MESSAGE_NEW / MESSAGE_RECALLED / MESSAGE_DELETED / READ / PEER_READ / FRIEND_ADDED / FRIEND_REMOVED / GROUP_JOINED
+     */
+    private String changeType;
+
+    /**
+     * 会话类型：PRIVATE / GROUP（好友变更为 PRIVATE）
+     */
+    private String conversationType;
+
+    /**
+     * 私聊为对方用户ID，群聊为群ID
+     */
+    private Long targetId;
+
+    /**
+     * 涉及的消息ID（撤回为逻辑消息ID）
+     */
+    private Long messageId;
+
+    /**
+     * 附加值：READ / PEER_READ 为新的已读游标
+     */
+    private Long refValue;
+
+    @TableField(value = "created_at", insertStrategy = FieldStrategy.NEVER, updateStrategy = FieldStrategy.NEVER)
+    private LocalDateTime createdAt;
+}
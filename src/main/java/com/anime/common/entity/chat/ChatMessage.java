@@ -9,19 +9,24 @@ import java.time.LocalDateTime;
 @TableName("chat_messages")
 public class ChatMessage {
 
-    @TableId(type = IdType.AUTO)
+    /**
+     * 由 MessageIdGenerator 在插入前生成（时间有序，不超过 2^53，前端可直接当 number 使用）；
+     * IdType.INPUT 不会回退到数据库自增，插入前必须赋值
+     */
+    @TableId(type = IdType.INPUT)
     private Long id;
 
     /**
      * 客户端幂等 ID（由客户端生成，允许为空）
-     * 用于同一发送者对同一逻辑消息的去重（from_user_id + client_message_id 唯一）
+     * 用于同一发送者对同一逻辑消息的去重（from_user_id + client_message_id 唯一）；
+     * 只写在发送者视角记录/群聊规范记录上，私聊接收者视角记录为 NULL
      */
     private String clientMessageId;
 
     /**
      * 逻辑消息ID：
      * - 同一条逻辑消息对多个接收者的多条记录共用一个值
-     * - 一般设为“第一条插入记录的 id”
+     * - 等于发送者视角记录（群聊为规范记录）的 id，插入前即已确定
      */
     private Long logicMessageId;
 
@@ -37,8 +42,8 @@ public class ChatMessage {
 
     /**
      * 接收者ID：
-     * - 私聊：对方ID
-     * - 群聊：每个群成员一条记录，对应成员ID
+     * - 私聊：对方ID（发送者视角那条为发送者自己）
+     * - 群聊：NULL，群消息只存一条规范记录，成员视角由 chat_read_cursors / chat_message_deletions 计算
      */
     private Long toUserId;
 
@@ -76,6 +81,7 @@ public class ChatMessage {
      * 是否已读（对该接收方）：
      * 0 = 未读
      * 1 = 已读
+     * 不再落库维护，查询时按接收方的已读游标（chat_read_cursors）计算
      */
     private Integer isRead;
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.anime.common.entity.chat;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 群聊“仅自己删除”标记：群消息只有一条规范记录，成员删除时只记一条标记，不动消息本身
+ */
+@Data
+@TableName("chat_message_deletions")
+public class ChatMessageDeletion {
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 删除者用户ID（users.id）
+     */
+    private Long userId;
+
+    /**
+     * 群聊规范消息ID（chat_messages.id）
+     */
+    private Long messageId;
+
+    @TableField(value = "deleted_at", insertStrategy = FieldStrategy.NEVER)
+    private LocalDateTime deletedAt;
+}
@@ -0,0 +1,37 @@
+package com.anime.common.entity.chat;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@TableName("chat_read_cursors")
+public class ChatReadCursor {
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 读者用户ID（users.id）
+     */
+    private Long userId;
+
+    /**
+     * 会话类型：PRIVATE / GROUP
+     */
+    private String conversationType;
+
+    /**
+     * 私聊为对方用户ID，群聊为群ID
+     */
+    private Long targetId;
+
+    /**
+     * 已读到的最大消息ID：id 不大于它的消息都视为已读，只增不减
+     */
+    private Long lastReadMessageId;
+
+    @TableField(value = "updated_at", insertStrategy = FieldStrategy.NEVER, updateStrategy = FieldStrategy.NEVER)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,49 @@
+package com.anime.common.entity.chat;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@TableName("conversation_summary")
+public class ConversationSummary {
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 会话所属用户ID（users.id）
+     */
+    private Long userId;
+
+    /**
+     * 会话类型：PRIVATE / GROUP
+     */
+    private String conversationType;
+
+    /**
+     * 私聊为对方用户ID，群聊为群ID
+     */
+    private Long targetId;
+
+    /**
+     * 该用户在此会话中可见的最新一条消息的逻辑ID，无消息时为 NULL
+     */
+    private Long lastMessageId;
+
+    /**
+     * 最新消息预览（文本截断或 [图片] 等占位）
+     */
+    private String lastMessagePreview;
+
+    private LocalDateTime lastMessageTime;
+
+    /**
+     * 未读数（发送 +1，已读/撤回/删除时修正）
+     */
+    private Integer unreadCount;
+
+    @TableField(value = "updated_at", insertStrategy = FieldStrategy.NEVER, updateStrategy = FieldStrategy.NEVER)
+    private LocalDateTime updatedAt;
+}
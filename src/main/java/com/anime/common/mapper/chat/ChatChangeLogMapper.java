@@ -0,0 +1,76 @@
+package com.anime.common.mapper.chat;
+
+import com.anime.common.entity.chat.ChatChangeLog;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
+
+@Mapper
+public interface ChatChangeLogMapper extends BaseMapper<ChatChangeLog> {
+
+    /**
+     * 多行写入（version 已在插入前生成）
+     */
+    @Insert("""
+        <script>
+        INSERT INTO chat_change_log
+          (version, scope_type, scope_id, change_type, conversation_type, target_id, message_id, ref_value)
+        VALUES
+        <foreach collection="rows" item="c" separator=",">
+          (#{c.version}, #{c.scopeType}, #{c.scopeId}, #{c.changeType}, #{c.conversationType}, #{c.targetId}, #{c.messageId}, #{c.refValue})
+        </foreach>
+        </script>
+        """)
+    int insertBatch(@Param("rows") List<ChatChangeLog> rows);
+
+    /**
+     * 一个群范围：只返回 version 大于 afterVersion 的变更（取 sinceVersion 与入群时刻中较晚的一个）
+     */
+    record GroupScope(Long groupId, long afterVersion) {}
+
+    /**
+     * 某用户 (sinceVersion, upToVersion) 之间的变更：个人范围 + 所在各群的群范围（每个群从入群时刻起）
+     *
+     * 每个范围单独一个子查询，都是 idx_chat_change_scope_version 上的一段区间扫描、最多读 limit 行，
+     * 再 UNION ALL 后按 version 合并取前 limit 条；不用 OR 拼条件，避免优化器退化成按主键全区间扫描
+     */
+    @Select("""
+        <script>
+        (SELECT version, scope_type, scope_id, change_type, conversation_type, target_id, message_id, ref_value, created_at
+         FROM chat_change_log
+         WHERE scope_type = 'USER' AND scope_id = #{userId}
+           AND version &gt; #{sinceVersion}
+           AND version &lt; #{upToVersion}
+         ORDER BY version ASC
+         LIMIT #{limit})
+        <foreach collection="groups" item="g">
+        UNION ALL
+        (SELECT version, scope_type, scope_id, change_type, conversation_type, target_id, message_id, ref_value, created_at
+         FROM chat_change_log
+         WHERE scope_type = 'GROUP' AND scope_id = #{g.groupId}
+           AND version &gt; #{g.afterVersion}
+           AND version &lt; #{upToVersion}
+         ORDER BY version ASC
+         LIMIT #{limit})
+        </foreach>
+        ORDER BY version ASC
+        LIMIT #{limit}
+        </script>
+        """)
+    List<ChatChangeLog> listSince(@Param("userId") Long userId,
+                                  @Param("groups") List<GroupScope> groups,
+                                  @Param("sinceVersion") long sinceVersion,
+                                  @Param("upToVersion") long upToVersion,
+                                  @Param("limit") int limit);
+
+    /**
+     * 清理保留期之外的变更，每次最多删 limit 行
+     */
+    @Delete("DELETE FROM chat_change_log WHERE version < #{beforeVersion} LIMIT #{limit}")
+    int deleteBefore(@Param("beforeVersion") long beforeVersion, @Param("limit") int limit);
+}
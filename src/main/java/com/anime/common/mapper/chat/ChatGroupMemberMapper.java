@@ -3,6 +3,7 @@ package com.anime.common.mapper.chat;
 import com.anime.common.entity.chat.ChatGroupMember;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
 import java.util.List;
@@ -14,4 +15,22 @@ public interface ChatGroupMemberMapper extends BaseMapper<ChatGroupMember> {
      */
     @Select("SELECT user_id FROM chat_group_members WHERE group_id = #{groupId}")
     List<Long> listUserIdsByGroupId(Long groupId);
-}
\ No newline at end of file
+
+    /**
+     * 查询用户所在的所有群 ID
+     */
+    @Select("SELECT group_id FROM chat_group_members WHERE user_id = #{userId}")
+    List<Long> listGroupIdsByUserId(@Param("userId") Long userId);
+
+    /**
+     * 判断用户是否为群成员（返回 0 / 1）
+     */
+    @Select("SELECT COUNT(*) FROM chat_group_members WHERE group_id = #{groupId} AND user_id = #{userId}")
+    int countByGroupAndUser(@Param("groupId") Long groupId, @Param("userId") Long userId);
+
+    /**
+     * 用户所在的群及入群时间（只取 group_id、joined_at）
+     */
+    @Select("SELECT group_id, joined_at FROM chat_group_members WHERE user_id = #{userId}")
+    List<ChatGroupMember> listMembershipsByUserId(@Param("userId") Long userId);
+}
@@ -0,0 +1,39 @@
+package com.anime.common.mapper.chat;
+
+import com.anime.common.entity.chat.ChatMessageDeletion;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Collection;
+import java.util.List;
+
+@Mapper
+public interface ChatMessageDeletionMapper extends BaseMapper<ChatMessageDeletion> {
+
+    /**
+     * 记录“仅自己删除”，重复删除返回 0
+     */
+    @Insert("""
+        INSERT IGNORE INTO chat_message_deletions (user_id, message_id)
+        VALUES (#{userId}, #{messageId})
+        """)
+    int insertIgnore(@Param("userId") Long userId,
+                     @Param("messageId") Long messageId);
+
+    /**
+     * messageIds 中被该用户“仅自己删除”的消息 ID
+     */
+    @Select("""
+        <script>
+        SELECT message_id FROM chat_message_deletions
+        WHERE user_id = #{userId}
+          AND message_id IN
+          <foreach collection="messageIds" item="id" open="(" separator="," close=")">#{id}</foreach>
+        </script>
+        """)
+    List<Long> listDeletedIn(@Param("userId") Long userId,
+                             @Param("messageIds") Collection<Long> messageIds);
+}
@@ -2,6 +2,7 @@ package com.anime.common.mapper.chat;
 
 import com.anime.common.entity.chat.ChatMessage;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -12,163 +13,253 @@ import java.util.List;
 @Mapper
 public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
 
+    /**
+     * 多行写入（id / logic_message_id 已在插入前生成）：私聊的两条视角、或组提交时多条消息的记录一次 INSERT
+     */
+    @Insert("""
+        <script>
+        INSERT INTO chat_messages
+          (id, client_message_id, logic_message_id, conversation_type, from_user_id, to_user_id, group_id,
+           message_type, content, attachment_id, created_at, is_read)
+        VALUES
+        <foreach collection="rows" item="m" separator=",">
+          (#{m.id}, #{m.clientMessageId}, #{m.logicMessageId}, #{m.conversationType}, #{m.fromUserId}, #{m.toUserId}, #{m.groupId},
+           #{m.messageType}, #{m.content}, #{m.attachmentId}, #{m.createdAt}, #{m.isRead})
+        </foreach>
+        </script>
+        """)
+    int insertBatch(@Param("rows") List<ChatMessage> rows);
+
     /**
      * 查询私聊历史消息（按时间倒序分页）
      *
-     * 注意：过滤已逻辑删除的记录（deleted_at IS NULL）
+     * 仅用于兼容旧客户端的页码分页，OFFSET 越深越慢，新代码请用 listPrivateMessagesBefore/After。
+     * 注意：过滤已逻辑删除的记录（deleted_at IS NULL）；
+     * is_read 由接收方（to_user_id）的已读游标计算：id 不大于游标即已读
      */
     @Select("""
-        SELECT * FROM chat_messages
-        WHERE conversation_type = 'PRIVATE'
-          AND deleted_at IS NULL
+        SELECT m.id, m.client_message_id, m.logic_message_id, m.conversation_type,
+               m.from_user_id, m.to_user_id, m.group_id, m.message_type, m.content,
+               m.attachment_id, m.created_at, m.deleted_at,
+               CASE WHEN m.id <= IFNULL(c.last_read_message_id, 0) THEN 1 ELSE 0 END AS is_read
+        FROM chat_messages m
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = m.to_user_id AND c.conversation_type = 'PRIVATE' AND c.target_id = m.from_user_id
+        WHERE m.conversation_type = 'PRIVATE'
+          AND m.deleted_at IS NULL
           AND (
-                (from_user_id = #{userId} AND to_user_id = #{friendId})
-             OR (from_user_id = #{friendId} AND to_user_id = #{userId})
+                (m.from_user_id = #{userId} AND m.to_user_id = #{friendId})
+             OR (m.from_user_id = #{friendId} AND m.to_user_id = #{userId})
           )
-        ORDER BY created_at DESC
+        ORDER BY m.created_at DESC
         LIMIT #{limit} OFFSET #{offset}
         """)
     List<ChatMessage> listPrivateMessages(Long userId, Long friendId, int limit, int offset);
 
     /**
-     * 查询群聊历史消息（当前用户视角）
+     * 私聊历史：id 小于 beforeId 的最近 limit 条（按 id 倒序），向上翻历史用
      *
-     * 注意：过滤 deleted_at，并确保是当前用户的视角（to_user_id = 当前用户）
+     * 两个方向（我发给对方 / 对方发给我）各自在 idx_chat_messages_private_id
+     * (conversation_type, from_user_id, to_user_id, id) 上做一次定位 + 顺序扫描，再合并取前 limit 条
      */
     @Select("""
-        SELECT * FROM chat_messages
-        WHERE conversation_type = 'GROUP'
-          AND deleted_at IS NULL
-          AND group_id = #{groupId}
-          AND to_user_id = #{currentUserId}
-        ORDER BY created_at DESC
-        LIMIT #{limit} OFFSET #{offset}
+        SELECT m.id, m.client_message_id, m.logic_message_id, m.conversation_type,
+               m.from_user_id, m.to_user_id, m.group_id, m.message_type, m.content,
+               m.attachment_id, m.created_at, m.deleted_at,
+               CASE WHEN m.id <= IFNULL(c.last_read_message_id, 0) THEN 1 ELSE 0 END AS is_read
+        FROM (
+            (SELECT * FROM chat_messages
+             WHERE conversation_type = 'PRIVATE'
+               AND from_user_id = #{userId} AND to_user_id = #{friendId}
+               AND id < #{beforeId}
+               AND deleted_at IS NULL
+             ORDER BY id DESC
+             LIMIT #{limit})
+            UNION ALL
+            (SELECT * FROM chat_messages
+             WHERE conversation_type = 'PRIVATE'
+               AND from_user_id = #{friendId} AND to_user_id = #{userId}
+               AND id < #{beforeId}
+               AND deleted_at IS NULL
+             ORDER BY id DESC
+             LIMIT #{limit})
+        ) m
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = m.to_user_id AND c.conversation_type = 'PRIVATE' AND c.target_id = m.from_user_id
+        ORDER BY m.id DESC
+        LIMIT #{limit}
         """)
-    List<ChatMessage> listGroupMessages(Long groupId, Long currentUserId, int limit, int offset);
+    List<ChatMessage> listPrivateMessagesBefore(@Param("userId") Long userId,
+                                                @Param("friendId") Long friendId,
+                                                @Param("beforeId") Long beforeId,
+                                                @Param("limit") int limit);
 
     /**
-     * 查询当前用户参与的所有私聊消息（自己发出的或别人发给自己的），按时间倒序。
-     * 后续在 Service 中按“对方 userId”分组，取每个会话的最新一条。
+     * 私聊历史：id 大于 afterId 的最早 limit 条（按 id 正序），断线补拉用
      *
-     * 注意：过滤 deleted_at
+     * 两个方向（我发给对方 / 对方发给我）各自在 idx_chat_messages_private_id
+     * (conversation_type, from_user_id, to_user_id, id) 上做一次定位 + 顺序扫描，再合并取前 limit 条
      */
     @Select("""
-        SELECT *
-        FROM chat_messages
-        WHERE conversation_type = 'PRIVATE'
-          AND deleted_at IS NULL
-          AND (from_user_id = #{userId} OR to_user_id = #{userId})
-        ORDER BY created_at DESC
+        SELECT m.id, m.client_message_id, m.logic_message_id, m.conversation_type,
+               m.from_user_id, m.to_user_id, m.group_id, m.message_type, m.content,
+               m.attachment_id, m.created_at, m.deleted_at,
+               CASE WHEN m.id <= IFNULL(c.last_read_message_id, 0) THEN 1 ELSE 0 END AS is_read
+        FROM (
+            (SELECT * FROM chat_messages
+             WHERE conversation_type = 'PRIVATE'
+               AND from_user_id = #{userId} AND to_user_id = #{friendId}
+               AND id > #{afterId}
+               AND deleted_at IS NULL
+             ORDER BY id ASC
+             LIMIT #{limit})
+            UNION ALL
+            (SELECT * FROM chat_messages
+             WHERE conversation_type = 'PRIVATE'
+               AND from_user_id = #{friendId} AND to_user_id = #{userId}
+               AND id > #{afterId}
+               AND deleted_at IS NULL
+             ORDER BY id ASC
+             LIMIT #{limit})
+        ) m
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = m.to_user_id AND c.conversation_type = 'PRIVATE' AND c.target_id = m.from_user_id
+        ORDER BY m.id ASC
+        LIMIT #{limit}
         """)
-    List<ChatMessage> listAllPrivateMessagesForUser(Long userId);
+    List<ChatMessage> listPrivateMessagesAfter(@Param("userId") Long userId,
+                                               @Param("friendId") Long friendId,
+                                               @Param("afterId") Long afterId,
+                                               @Param("limit") int limit);
 
     /**
-     * 查询当前用户所在所有群里的全部群聊消息（按时间倒序）。
-     *
-     * 逻辑：
-     *  - 先在 chat_group_members 表中找出该用户加入的所有 group_id
-     *  - 再查这些 group_id 对应“发给该用户”的消息
+     * 群聊历史：id 小于 beforeId 的最近 limit 条（按 id 倒序）
      *
-     * 注意：过滤 deleted_at，并且限定 to_user_id = 当前用户
+     * 群消息只有一条规范记录，当前用户视角 = 入群之后的消息 - 已撤回(deleted_at) - 自己删除的(chat_message_deletions)；
+     * is_read 由已读游标计算：自己发的，或 id 不大于游标的视为已读。
+     * 在 idx_chat_messages_group_id (conversation_type, group_id, id) 上定位后顺序扫描
      */
     @Select("""
-        SELECT *
-        FROM chat_messages
-        WHERE conversation_type = 'GROUP'
-          AND deleted_at IS NULL
-          AND group_id IN (
-              SELECT group_id
-              FROM chat_group_members
-              WHERE user_id = #{userId}
+        SELECT m.id, m.client_message_id, m.logic_message_id, m.conversation_type,
+               m.from_user_id, m.to_user_id, m.group_id, m.message_type, m.content,
+               m.attachment_id, m.created_at, m.deleted_at,
+               CASE WHEN m.from_user_id = #{currentUserId}
+                      OR m.id <= IFNULL(c.last_read_message_id, 0) THEN 1 ELSE 0 END AS is_read
+        FROM chat_messages m
+        JOIN chat_group_members gm
+          ON gm.group_id = m.group_id AND gm.user_id = #{currentUserId}
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = #{currentUserId} AND c.conversation_type = 'GROUP' AND c.target_id = m.group_id
+        WHERE m.conversation_type = 'GROUP'
+          AND m.group_id = #{groupId}
+          AND m.id < #{beforeId}
+          AND m.deleted_at IS NULL
+          AND m.created_at >= gm.joined_at
+          AND NOT EXISTS (
+              SELECT 1 FROM chat_message_deletions d
+              WHERE d.user_id = #{currentUserId} AND d.message_id = m.id
           )
-          AND to_user_id = #{userId}
-        ORDER BY created_at DESC
-        """)
-    List<ChatMessage> listAllGroupMessagesForUser(Long userId);
-
-    /**
-     * 将当前用户作为接收方，来自指定好友的未读私聊消息全部标记为已读。
-     *
-     * 注意：只更新未删除的记录
-     */
-    @Update("""
-        UPDATE chat_messages
-        SET is_read = 1
-        WHERE conversation_type = 'PRIVATE'
-          AND deleted_at IS NULL
-          AND to_user_id = #{currentUserId}
-          AND from_user_id = #{friendId}
-          AND is_read = 0
+        ORDER BY m.id DESC
+        LIMIT #{limit}
         """)
-    int markPrivateMessagesRead(Long currentUserId, Long friendId);
+    List<ChatMessage> listGroupMessagesBefore(@Param("groupId") Long groupId,
+                                              @Param("currentUserId") Long currentUserId,
+                                              @Param("beforeId") Long beforeId,
+                                              @Param("limit") int limit);
 
     /**
-     * 当前用户对某条消息执行逻辑删除。
+     * 群聊历史：id 大于 afterId 的最早 limit 条（按 id 正序）
      *
-     * 由于现在是一人一条记录，所以只会删当前用户视角那条。
+     * 群消息只有一条规范记录，当前用户视角 = 入群之后的消息 - 已撤回(deleted_at) - 自己删除的(chat_message_deletions)；
+     * is_read 由已读游标计算：自己发的，或 id 不大于游标的视为已读。
+     * 在 idx_chat_messages_group_id (conversation_type, group_id, id) 上定位后顺序扫描
      */
-    @Update("""
-        UPDATE chat_messages
-        SET deleted_at = NOW()
-        WHERE id = #{messageId}
-          AND (
-               from_user_id = #{userId}
-            OR to_user_id = #{userId}
+    @Select("""
+        SELECT m.id, m.client_message_id, m.logic_message_id, m.conversation_type,
+               m.from_user_id, m.to_user_id, m.group_id, m.message_type, m.content,
+               m.attachment_id, m.created_at, m.deleted_at,
+               CASE WHEN m.from_user_id = #{currentUserId}
+                      OR m.id <= IFNULL(c.last_read_message_id, 0) THEN 1 ELSE 0 END AS is_read
+        FROM chat_messages m
+        JOIN chat_group_members gm
+          ON gm.group_id = m.group_id AND gm.user_id = #{currentUserId}
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = #{currentUserId} AND c.conversation_type = 'GROUP' AND c.target_id = m.group_id
+        WHERE m.conversation_type = 'GROUP'
+          AND m.group_id = #{groupId}
+          AND m.id > #{afterId}
+          AND m.deleted_at IS NULL
+          AND m.created_at >= gm.joined_at
+          AND NOT EXISTS (
+              SELECT 1 FROM chat_message_deletions d
+              WHERE d.user_id = #{currentUserId} AND d.message_id = m.id
           )
-          AND deleted_at IS NULL
+        ORDER BY m.id ASC
+        LIMIT #{limit}
         """)
-    int deleteMessageForUser(Long userId, Long messageId);
+    List<ChatMessage> listGroupMessagesAfter(@Param("groupId") Long groupId,
+                                             @Param("currentUserId") Long currentUserId,
+                                             @Param("afterId") Long afterId,
+                                             @Param("limit") int limit);
 
     /**
-     * 查询当前用户作为接收方的所有私聊未读消息数量，
-     * 按发送方分组。
-     *
-     * 返回每个好友的未读数量（from_user_id, unread_count）。
+     * 计算私聊已读游标要推进到的位置：好友发给当前用户的、不超过 upTo 的最大记录 id。
      *
-     * 注意：只统计未删除的记录
+     * upTo 可以是历史列表里的记录 id，也可以是实时推送里的逻辑消息 id；为 NULL 时读到最新。
      */
     @Select("""
-        SELECT from_user_id AS friendId,
-               COUNT(*)      AS unreadCount
+        SELECT MAX(id)
         FROM chat_messages
         WHERE conversation_type = 'PRIVATE'
-          AND deleted_at IS NULL
+          AND from_user_id = #{friendId}
           AND to_user_id = #{currentUserId}
-          AND is_read = 0
-        GROUP BY from_user_id
+          AND (#{upTo} IS NULL OR id <= #{upTo} OR logic_message_id <= #{upTo})
         """)
-    List<java.util.Map<String, Object>> listPrivateUnreadCountsByFriend(Long currentUserId);
+    Long findPrivateReadUpTo(@Param("currentUserId") Long currentUserId,
+                             @Param("friendId") Long friendId,
+                             @Param("upTo") Long upTo);
 
     /**
-     * 查询当前用户在各个群聊中的未读消息数量。
-     *
-     * 返回：groupId -> unreadCount
+     * 统计好友发给当前用户、id 落在 (afterId, upToId] 之间的未删除私聊消息数（游标推进时“本次变为已读”的条数）
      */
     @Select("""
-        SELECT group_id AS groupId,
-               COUNT(*)  AS unreadCount
+        SELECT COUNT(*)
         FROM chat_messages
-        WHERE conversation_type = 'GROUP'
-          AND to_user_id = #{currentUserId}
+        WHERE conversation_type = 'PRIVATE'
           AND deleted_at IS NULL
-          AND is_read = 0
-        GROUP BY group_id
+          AND from_user_id = #{friendId}
+          AND to_user_id = #{currentUserId}
+          AND id > #{afterId}
+          AND id <= #{upToId}
         """)
-    List<GroupUnreadCountRow> listGroupUnreadCountsByGroup(Long currentUserId);
+    Long countPrivateBetween(@Param("currentUserId") Long currentUserId,
+                             @Param("friendId") Long friendId,
+                             @Param("afterId") Long afterId,
+                             @Param("upToId") Long upToId);
+
+    /**
+     * 某群最新一条消息的 id（含已撤回），群已读游标推进到这里
+     */
+    @Select("SELECT MAX(id) FROM chat_messages WHERE conversation_type = 'GROUP' AND group_id = #{groupId}")
+    Long findLatestGroupMessageId(@Param("groupId") Long groupId);
 
     /**
-     * 将当前用户在指定群的群聊消息全部标记为已读。
+     * 当前用户对某条私聊消息执行逻辑删除。
+     *
+     * 私聊是一人一条记录，所以只会删当前用户视角那条；群聊删除见 ChatMessageDeletionMapper。
      */
     @Update("""
         UPDATE chat_messages
-        SET is_read = 1
-        WHERE conversation_type = 'GROUP'
-          AND to_user_id = #{currentUserId}
-          AND group_id = #{groupId}
+        SET deleted_at = NOW()
+        WHERE id = #{messageId}
+          AND conversation_type = 'PRIVATE'
+          AND (
+               from_user_id = #{userId}
+            OR to_user_id = #{userId}
+          )
           AND deleted_at IS NULL
-          AND is_read = 0
         """)
-    int markGroupMessagesRead(Long currentUserId, Long groupId);
+    int deleteMessageForUser(Long userId, Long messageId);
 
     /**
      * 根据发送者和 clientMessageId 查找已存在的记录（返回所有匹配记录）
@@ -182,7 +273,7 @@ public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
      * 查询某用户与某好友之间的最新一条私聊消息（按时间倒序取 1 条）
      *
      * 注意：这里仍然是“消息表”的记录（可能是本人视角或对方视角），
-     * 用于会话列表展示 lastMessagePreview/lastMessageTime
+     * 用于重算会话摘要（conversation_summary）的 lastMessagePreview/lastMessageTime
      */
     @Select("""
         SELECT *
@@ -200,7 +291,7 @@ public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
                                        @Param("friendId") Long friendId);
 
     /**
-     * 查询某用户作为接收方，来自指定好友的未读私聊消息数量
+     * 查询某用户作为接收方，来自指定好友的未读私聊消息数量（id 大于已读游标）
      */
     @Select("""
         SELECT COUNT(*)
@@ -209,63 +300,67 @@ public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
           AND deleted_at IS NULL
           AND to_user_id = #{userId}
           AND from_user_id = #{friendId}
-          AND is_read = 0
+          AND id > IFNULL((
+              SELECT last_read_message_id FROM chat_read_cursors
+              WHERE user_id = #{userId} AND conversation_type = 'PRIVATE' AND target_id = #{friendId}
+          ), 0)
         """)
     Long countPrivateUnread(@Param("userId") Long userId,
                             @Param("friendId") Long friendId);
 
-
-    @Select("""
-    SELECT id
-    FROM chat_messages
-    WHERE conversation_type = 'PRIVATE'
-      AND deleted_at IS NULL
-      AND from_user_id = #{friendId}    -- 对方发给我的消息
-      AND to_user_id = #{currentUserId}
-      AND is_read = 1
-    ORDER BY created_at DESC
-    LIMIT 1
-    """)
-    Long findLastReadMessageIdBetween(@Param("currentUserId") Long currentUserId,
-                                      @Param("friendId") Long friendId);
-
     /**
      * 查询当前用户在某个群中的最新一条群聊消息（按时间倒序取 1 条）
      *
      * 注意：
-     * - 这里用的是“当前用户视角”的记录（to_user_id = currentUserId）
-     * - 用于会话列表里的 lastMessagePreview/lastMessageTime
+     * - 群消息为规范记录，按当前用户视角过滤（入群之后、未撤回、自己未删除）
+     * - 用于重算会话摘要（conversation_summary）的 lastMessagePreview/lastMessageTime
      */
     @Select("""
-        SELECT *
-        FROM chat_messages
-        WHERE conversation_type = 'GROUP'
-          AND deleted_at IS NULL
-          AND group_id = #{groupId}
-          AND to_user_id = #{currentUserId}
-        ORDER BY created_at DESC
+        SELECT m.*
+        FROM chat_messages m
+        JOIN chat_group_members gm
+          ON gm.group_id = m.group_id AND gm.user_id = #{currentUserId}
+        WHERE m.conversation_type = 'GROUP'
+          AND m.group_id = #{groupId}
+          AND m.deleted_at IS NULL
+          AND m.created_at >= gm.joined_at
+          AND NOT EXISTS (
+              SELECT 1 FROM chat_message_deletions d
+              WHERE d.user_id = #{currentUserId} AND d.message_id = m.id
+          )
+        ORDER BY m.created_at DESC
         LIMIT 1
         """)
     ChatMessage findLastGroupMessage(@Param("groupId") Long groupId,
                                      @Param("currentUserId") Long currentUserId);
 
     /**
-     * 查询当前用户在某个群中的未读消息数量
+     * 查询当前用户在某个群中的未读消息数量（入群之后、别人发的、id 大于已读游标、未撤回且自己未删除）
      */
     @Select("""
         SELECT COUNT(*)
-        FROM chat_messages
-        WHERE conversation_type = 'GROUP'
-          AND deleted_at IS NULL
-          AND group_id = #{groupId}
-          AND to_user_id = #{currentUserId}
-          AND is_read = 0
+        FROM chat_messages m
+        JOIN chat_group_members gm
+          ON gm.group_id = m.group_id AND gm.user_id = #{currentUserId}
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = #{currentUserId} AND c.conversation_type = 'GROUP' AND c.target_id = m.group_id
+        WHERE m.conversation_type = 'GROUP'
+          AND m.group_id = #{groupId}
+          AND m.deleted_at IS NULL
+          AND m.created_at >= gm.joined_at
+          AND m.from_user_id <> #{currentUserId}
+          AND m.id > IFNULL(c.last_read_message_id, 0)
+          AND NOT EXISTS (
+              SELECT 1 FROM chat_message_deletions d
+              WHERE d.user_id = #{currentUserId} AND d.message_id = m.id
+          )
         """)
     Long countGroupUnread(@Param("groupId") Long groupId,
                           @Param("currentUserId") Long currentUserId);
 
     /**
      * 撤回：根据逻辑消息ID，批量逻辑删除该逻辑消息下的所有记录
+     * （私聊为两条视角记录；群聊只有一条规范记录）
      */
     @Update("""
         UPDATE chat_messages
@@ -276,7 +371,9 @@ public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
     int recallByLogicId(@Param("logicMessageId") Long logicMessageId);
 
     /**
-     * 找到该逻辑消息涉及到的所有用户（以各记录的 to_user_id 为准，包含发送者自己的视角记录）
+     * 找到该私聊逻辑消息涉及到的所有用户（以各记录的 to_user_id 为准，包含发送者自己的视角记录）
+     *
+     * 群聊规范记录的 to_user_id 为 NULL，接收者请按群成员获取
      */
     @Select("""
         SELECT DISTINCT to_user_id
@@ -284,9 +381,4 @@ public interface ChatMessageMapper extends BaseMapper<ChatMessage> {
         WHERE logic_message_id = #{logicMessageId}
         """)
     List<Long> listRecipientsByLogicId(@Param("logicMessageId") Long logicMessageId);
-
-    interface GroupUnreadCountRow {
-        Long getGroupId();
-        Long getUnreadCount();
-    }
 }
\ No newline at end of file
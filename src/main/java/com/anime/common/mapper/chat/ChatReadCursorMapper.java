@@ -0,0 +1,42 @@
+package com.anime.common.mapper.chat;
+
+import com.anime.common.entity.chat.ChatReadCursor;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+@Mapper
+public interface ChatReadCursorMapper extends BaseMapper<ChatReadCursor> {
+
+    /**
+     * 推进已读游标（单行 upsert，只增不减）
+     *
+     * 返回影响行数：0 = 游标未变化，>0 = 新建或前进
+     */
+    @Insert("""
+        INSERT INTO chat_read_cursors (user_id, conversation_type, target_id, last_read_message_id)
+        VALUES (#{userId}, #{conversationType}, #{targetId}, #{lastReadMessageId})
+        ON DUPLICATE KEY UPDATE
+          last_read_message_id = GREATEST(last_read_message_id, VALUES(last_read_message_id))
+        """)
+    int upsertCursor(@Param("userId") Long userId,
+                     @Param("conversationType") String conversationType,
+                     @Param("targetId") Long targetId,
+                     @Param("lastReadMessageId") Long lastReadMessageId);
+
+    /**
+     * 查询某个会话的已读游标，不存在时返回 null
+     */
+    @Select("""
+        SELECT last_read_message_id
+        FROM chat_read_cursors
+        WHERE user_id = #{userId}
+          AND conversation_type = #{conversationType}
+          AND target_id = #{targetId}
+        """)
+    Long findLastReadMessageId(@Param("userId") Long userId,
+                               @Param("conversationType") String conversationType,
+                               @Param("targetId") Long targetId);
+}
@@ -0,0 +1,194 @@
+package com.anime.common.mapper.chat;
+
+import com.anime.common.entity.chat.ConversationSummary;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Mapper
+public interface ConversationSummaryMapper extends BaseMapper<ConversationSummary> {
+
+    /**
+     * 查询某用户的全部会话摘要（会话列表），按最后消息时间倒序，无消息的排在最后
+     */
+    @Select("""
+        SELECT *
+        FROM conversation_summary
+        WHERE user_id = #{userId}
+        ORDER BY last_message_time DESC, id DESC
+        """)
+    List<ConversationSummary> listByUser(@Param("userId") Long userId);
+
+    @Select("""
+        SELECT *
+        FROM conversation_summary
+        WHERE user_id = #{userId}
+          AND conversation_type = #{conversationType}
+          AND target_id = #{targetId}
+        """)
+    ConversationSummary findOne(@Param("userId") Long userId,
+                                @Param("conversationType") String conversationType,
+                                @Param("targetId") Long targetId);
+
+    /**
+     * 新消息：更新单个用户的会话摘要，未读数加 unreadDelta
+     *
+     * 只有消息 id 不小于当前记录时才替换预览/时间（并发发送时不会被旧消息覆盖）；
+     * MySQL 按书写顺序赋值，last_message_id 必须放在最后
+     */
+    @Insert("""
+        INSERT INTO conversation_summary
+          (user_id, conversation_type, target_id, last_message_id, last_message_preview, last_message_time, unread_count)
+        VALUES (#{userId}, #{conversationType}, #{targetId}, #{messageId}, #{preview}, #{messageTime}, #{unreadDelta})
+        ON DUPLICATE KEY UPDATE
+          last_message_preview = IF(VALUES(last_message_id) >= IFNULL(last_message_id, 0), VALUES(last_message_preview), last_message_preview),
+          last_message_time    = IF(VALUES(last_message_id) >= IFNULL(last_message_id, 0), VALUES(last_message_time), last_message_time),
+          unread_count         = unread_count + VALUES(unread_count),
+          last_message_id      = GREATEST(IFNULL(last_message_id, 0), VALUES(last_message_id))
+        """)
+    int upsertLastMessage(@Param("userId") Long userId,
+                          @Param("conversationType") String conversationType,
+                          @Param("targetId") Long targetId,
+                          @Param("messageId") Long messageId,
+                          @Param("preview") String preview,
+                          @Param("messageTime") LocalDateTime messageTime,
+                          @Param("unreadDelta") int unreadDelta);
+
+    /**
+     * 新群消息：一条语句更新全部群成员的会话摘要，发送者自己不计未读
+     */
+    @Insert("""
+        INSERT INTO conversation_summary
+          (user_id, conversation_type, target_id, last_message_id, last_message_preview, last_message_time, unread_count)
+        SELECT gm.user_id, 'GROUP', gm.group_id, #{messageId}, #{preview}, #{messageTime},
+               IF(gm.user_id = #{fromUserId}, 0, 1)
+        FROM chat_group_members gm
+        WHERE gm.group_id = #{groupId}
+        ON DUPLICATE KEY UPDATE
+          last_message_preview = IF(VALUES(last_message_id) >= IFNULL(last_message_id, 0), VALUES(last_message_preview), last_message_preview),
+          last_message_time    = IF(VALUES(last_message_id) >= IFNULL(last_message_id, 0), VALUES(last_message_time), last_message_time),
+          unread_count         = unread_count + VALUES(unread_count),
+          last_message_id      = GREATEST(IFNULL(last_message_id, 0), VALUES(last_message_id))
+        """)
+    int upsertGroupLastMessage(@Param("groupId") Long groupId,
+                               @Param("fromUserId") Long fromUserId,
+                               @Param("messageId") Long messageId,
+                               @Param("preview") String preview,
+                               @Param("messageTime") LocalDateTime messageTime);
+
+    /**
+     * 用重新计算出的值整体覆盖某个会话摘要（撤回/删除后修正）
+     */
+    @Insert("""
+        INSERT INTO conversation_summary
+          (user_id, conversation_type, target_id, last_message_id, last_message_preview, last_message_time, unread_count)
+        VALUES (#{userId}, #{conversationType}, #{targetId}, #{messageId}, #{preview}, #{messageTime}, #{unreadCount})
+        ON DUPLICATE KEY UPDATE
+          last_message_id      = VALUES(last_message_id),
+          last_message_preview = VALUES(last_message_preview),
+          last_message_time    = VALUES(last_message_time),
+          unread_count         = VALUES(unread_count)
+        """)
+    int replace(@Param("userId") Long userId,
+                @Param("conversationType") String conversationType,
+                @Param("targetId") Long targetId,
+                @Param("messageId") Long messageId,
+                @Param("preview") String preview,
+                @Param("messageTime") LocalDateTime messageTime,
+                @Param("unreadCount") int unreadCount);
+
+    /**
+     * 已读：未读数减去本次变为已读的条数（不小于 0）
+     */
+    @Update("""
+        UPDATE conversation_summary
+        SET unread_count = GREATEST(unread_count - #{delta}, 0)
+        WHERE user_id = #{userId}
+          AND conversation_type = #{conversationType}
+          AND target_id = #{targetId}
+        """)
+    int decrementUnread(@Param("userId") Long userId,
+                        @Param("conversationType") String conversationType,
+                        @Param("targetId") Long targetId,
+                        @Param("delta") int delta);
+
+    /**
+     * 群消息撤回：对仍把它算作未读的成员（收到过、游标未越过、自己未删除）未读数减 1
+     */
+    @Update("""
+        UPDATE conversation_summary s
+        LEFT JOIN chat_read_cursors c
+          ON c.user_id = s.user_id AND c.conversation_type = 'GROUP' AND c.target_id = s.target_id
+        SET s.unread_count = GREATEST(s.unread_count - 1, 0)
+        WHERE s.conversation_type = 'GROUP'
+          AND s.target_id = #{groupId}
+          AND s.user_id <> #{fromUserId}
+          AND s.last_message_id >= #{messageId}
+          AND IFNULL(c.last_read_message_id, 0) < #{messageId}
+          AND NOT EXISTS (
+              SELECT 1 FROM chat_message_deletions d
+              WHERE d.user_id = s.user_id AND d.message_id = #{messageId}
+          )
+        """)
+    int decrementGroupUnreadForRecall(@Param("groupId") Long groupId,
+                                      @Param("fromUserId") Long fromUserId,
+                                      @Param("messageId") Long messageId);
+
+    /**
+     * 最新消息指向某条消息的用户（该消息被撤回后需要重算这些用户的摘要）
+     */
+    @Select("""
+        SELECT user_id
+        FROM conversation_summary
+        WHERE conversation_type = #{conversationType}
+          AND target_id = #{targetId}
+          AND last_message_id = #{messageId}
+        """)
+    List<Long> listUserIdsByLastMessage(@Param("conversationType") String conversationType,
+                                        @Param("targetId") Long targetId,
+                                        @Param("messageId") Long messageId);
+
+    /**
+     * 一批用户在某个会话上的未读数（只取 user_id / unread_count，走唯一索引）
+     */
+    @Select("""
+        <script>
+        SELECT user_id, unread_count
+        FROM conversation_summary
+        WHERE conversation_type = #{conversationType}
+          AND target_id = #{targetId}
+          AND user_id IN
+          <foreach collection="userIds" item="uid" open="(" separator="," close=")">#{uid}</foreach>
+        </script>
+        """)
+    List<ConversationSummary> listUnreadByUsers(@Param("conversationType") String conversationType,
+                                                @Param("targetId") Long targetId,
+                                                @Param("userIds") List<Long> userIds);
+
+    /**
+     * 建立空会话（加好友 / 入群），已存在则不动
+     */
+    @Insert("""
+        INSERT IGNORE INTO conversation_summary (user_id, conversation_type, target_id, unread_count)
+        VALUES (#{userId}, #{conversationType}, #{targetId}, 0)
+        """)
+    int insertIgnore(@Param("userId") Long userId,
+                     @Param("conversationType") String conversationType,
+                     @Param("targetId") Long targetId);
+
+    /**
+     * 删除从未有过消息的空会话（删好友后，有聊天记录的会话仍保留在列表中）
+     */
+    @Delete("""
+        DELETE FROM conversation_summary
+        WHERE user_id = #{userId}
+          AND conversation_type = #{conversationType}
+          AND target_id = #{targetId}
+          AND last_message_id IS NULL
+        """)
+    int deleteIfEmpty(@Param("userId") Long userId,
+                      @Param("conversationType") String conversationType,
+                      @Param("targetId") Long targetId);
+}
@@ -0,0 +1,162 @@
+package com.anime.common.service;
+
+import com.anime.common.entity.attachment.Attachment;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * AttachmentService 的本地两级缓存：
+ *
+ * - 元数据：attachmentId -> Attachment（bucket/storageKey 等上传后不再变化），
+ *   带过期时间兜底多实例之间的状态变化（completeUpload / 删除在本实例上会主动失效）
+ * - 签名 URL：(bucket, storageKey, 有效期) -> 已签好的 URL，只在其有效期的前 reuse-fraction 内复用，
+ *   保证返回给前端的链接至少还剩 (1 - reuse-fraction) 的有效时间
+ *
+ * 两者都是按条数上限淘汰的 LRU；命中/未命中计入 Micrometer 计数器 storage.attachment.cache（tag: cache, result）。
+ * 返回的 Attachment 是缓存中的共享实例，调用方只读不改。
+ */
+@Component
+public class AttachmentCache {
+
+    private record CachedMeta(Attachment attachment, long expireAt) {}
+
+    private record UrlKey(String bucket, String storageKey, long ttlSeconds) {}
+
+    private record SignedUrl(String url, long reuseUntil) {}
+
+    private final LruMap<Long, CachedMeta> metadata;
+    private final LruMap<UrlKey, SignedUrl> urls;
+    private final long metadataTtlMillis;
+    private final double urlReuseFraction;
+
+    private final Counter metaHit;
+    private final Counter metaMiss;
+    private final Counter urlHit;
+    private final Counter urlMiss;
+
+    public AttachmentCache(MeterRegistry meterRegistry,
+                           @Value("${storage.cache.metadata-max-entries:10000}") int metadataMaxEntries,
+                           @Value("${storage.cache.metadata-ttl-seconds:600}") long metadataTtlSeconds,
+                           @Value("${storage.cache.url-max-entries:20000}") int urlMaxEntries,
+                           @Value("${storage.cache.url-reuse-fraction:0.5}") double urlReuseFraction) {
+        this.metadata = new LruMap<>(Math.max(1, metadataMaxEntries));
+        this.urls = new LruMap<>(Math.max(1, urlMaxEntries));
+        this.metadataTtlMillis = Math.max(1L, metadataTtlSeconds) * 1000L;
+        this.urlReuseFraction = Math.min(0.9, Math.max(0.0, urlReuseFraction));
+
+        this.metaHit = counter(meterRegistry, "metadata", "hit");
+        this.metaMiss = counter(meterRegistry, "metadata", "miss");
+        this.urlHit = counter(meterRegistry, "url", "hit");
+        this.urlMiss = counter(meterRegistry, "url", "miss");
+        Gauge.builder("storage.attachment.cache.size", metadata, LruMap::size)
+                .tag("cache", "metadata")
+                .register(meterRegistry);
+        Gauge.builder("storage.attachment.cache.size", urls, LruMap::size)
+                .tag("cache", "url")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 取缓存的元数据，未命中或已过期返回 null
+     */
+    public Attachment getMetadata(Long attachmentId) {
+        CachedMeta m = metadata.get(attachmentId);
+        if (m == null || m.expireAt() < System.currentTimeMillis()) {
+            metaMiss.increment();
+            return null;
+        }
+        metaHit.increment();
+        return m.attachment();
+    }
+
+    public void putMetadata(Attachment a) {
+        if (a == null || a.getId() == null) return;
+        metadata.put(a.getId(), new CachedMeta(a, System.currentTimeMillis() + metadataTtlMillis));
+    }
+
+    /**
+     * 取仍可复用的签名 URL，未命中返回 null
+     */
+    public String getUrl(String bucket, String storageKey, long ttlSeconds) {
+        SignedUrl u = urls.get(new UrlKey(bucket, storageKey, ttlSeconds));
+        if (u == null || u.reuseUntil() < System.currentTimeMillis()) {
+            urlMiss.increment();
+            return null;
+        }
+        urlHit.increment();
+        return u.url();
+    }
+
+    /**
+     * 记录刚签好的 URL（signedAt 取签名前的时间，保守估计剩余有效期）
+     */
+    public void putUrl(String bucket, String storageKey, long ttlSeconds, long signedAt, String url) {
+        if (urlReuseFraction <= 0.0 || url == null) return;
+        long reuseUntil = signedAt + (long) (ttlSeconds * 1000L * urlReuseFraction);
+        urls.put(new UrlKey(bucket, storageKey, ttlSeconds), new SignedUrl(url, reuseUntil));
+    }
+
+    /**
+     * 附件状态变化（completeUpload）或删除时调用
+     */
+    public void invalidate(Attachment a) {
+        if (a == null) return;
+        if (a.getId() != null) {
+            metadata.remove(a.getId());
+        }
+        if (a.getStorageKey() != null) {
+            urls.removeIf(k -> a.getStorageKey().equals(k.storageKey()));
+        }
+    }
+
+    private static Counter counter(MeterRegistry registry, String cache, String result) {
+        return Counter.builder("storage.attachment.cache")
+                .description("附件元数据/签名 URL 缓存命中情况")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * 线程安全的定长 LRU（access-order LinkedHashMap）
+     */
+    private static final class LruMap<K, V> {
+        private final LinkedHashMap<K, V> map;
+
+        LruMap(int maxEntries) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized V get(K key) {
+            return map.get(key);
+        }
+
+        synchronized void put(K key, V value) {
+            map.put(key, value);
+        }
+
+        synchronized void remove(K key) {
+            map.remove(key);
+        }
+
+        synchronized void removeIf(Predicate<K> predicate) {
+            map.keySet().removeIf(predicate);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.anime.common.entity.attachment.Attachment;
 import com.anime.common.dto.attachment.PresignResponseDTO;
 import com.anime.common.mapper.attachment.AttachmentMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -23,6 +24,9 @@ import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,6 +42,8 @@ public class AttachmentService {
     private final S3Client s3Client;
     private final S3Presigner s3Presigner;
     private final HttpClient httpClient;
+    private final AttachmentCache attachmentCache;
+    private final Executor presignExecutor;
 
     @Value("${storage.bucket}")
     private String bucket;
@@ -49,6 +55,8 @@ public class AttachmentService {
     private static final long PRESIGN_MINUTES = 15L;
     // server fetch max size (example 20MB)
     private static final long MAX_SERVER_FETCH_BYTES = 20L * 1024L * 1024L;
+    // presignAll：待签名数量达到该值才分片并行，每片至少这么多个
+    private static final int PARALLEL_PRESIGN_CHUNK = 32;
 
     // 简单的 content-type -> 扩展名 映射（常用）
     private static final Map<String, String> MIME_TO_EXT;
@@ -69,10 +77,14 @@ public class AttachmentService {
 
     public AttachmentService(AttachmentMapper attachmentMapper,
                              S3Client s3Client,
-                             S3Presigner s3Presigner) {
+                             S3Presigner s3Presigner,
+                             AttachmentCache attachmentCache,
+                             @Qualifier("presignExecutor") Executor presignExecutor) {
         this.attachmentMapper = attachmentMapper;
         this.s3Client = s3Client;
         this.s3Presigner = s3Presigner;
+        this.attachmentCache = attachmentCache;
+        this.presignExecutor = presignExecutor;
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .followRedirects(HttpClient.Redirect.NORMAL)
@@ -236,6 +248,7 @@ public class AttachmentService {
             a.setUrl(cdnDomain.endsWith("/") ? cdnDomain + a.getStorageKey() : cdnDomain + "/" + a.getStorageKey());
         }
         attachmentMapper.updateById(a);
+        attachmentCache.invalidate(a);
         return a;
     }
 
@@ -337,6 +350,7 @@ public class AttachmentService {
     public void deleteAttachment(Long attachmentId, boolean soft) {
         Attachment a = attachmentMapper.selectById(attachmentId);
         if (a == null) return;
+        attachmentCache.invalidate(a);
         if (soft) {
             a.setStatus("deleted");
             attachmentMapper.updateById(a);
@@ -359,25 +373,101 @@ public class AttachmentService {
      */
     public String generatePresignedGetUrl(Long attachmentId, long expirySeconds) {
         if (attachmentId == null) return null;
-        Attachment a = attachmentMapper.selectById(attachmentId);
+        Attachment a = loadMetadata(attachmentId);
         if (a == null) throw new IllegalArgumentException("attachment not found: " + attachmentId);
+        return presignGet(a, expirySeconds);
+    }
 
+    /**
+     * 批量生成 GET url：一次 selectBatchIds 取全部元数据，返回 attachmentId -> url。
+     * 不存在的 id 不会出现在结果中（不抛异常），列表接口据此跳过即可。
+     * 数量较多时按 PARALLEL_PRESIGN_CHUNK 分片，在 presignExecutor 上并行签名。
+     * @param attachmentIds
+     * @param expirySeconds
+     * @return
+     */
+    public Map<Long, String> presignAll(Collection<Long> attachmentIds, long expirySeconds) {
+        if (attachmentIds == null || attachmentIds.isEmpty()) return Collections.emptyMap();
+        List<Long> ids = attachmentIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (ids.isEmpty()) return Collections.emptyMap();
+
+        List<Attachment> found = new ArrayList<>(ids.size());
+        List<Long> misses = new ArrayList<>();
+        for (Long id : ids) {
+            Attachment cached = attachmentCache.getMetadata(id);
+            if (cached != null) {
+                found.add(cached);
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            for (Attachment a : attachmentMapper.selectBatchIds(misses)) {
+                attachmentCache.putMetadata(a);
+                found.add(a);
+            }
+        }
+
+        Map<Long, String> urls = new ConcurrentHashMap<>(ids.size() * 2);
+        if (found.size() < PARALLEL_PRESIGN_CHUNK * 2) {
+            presignInto(found, expirySeconds, urls);
+            return urls;
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < found.size(); i += PARALLEL_PRESIGN_CHUNK) {
+            List<Attachment> chunk = found.subList(i, Math.min(found.size(), i + PARALLEL_PRESIGN_CHUNK));
+            futures.add(CompletableFuture.runAsync(() -> presignInto(chunk, expirySeconds, urls), presignExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return urls;
+    }
+
+    private void presignInto(List<Attachment> attachments, long expirySeconds, Map<Long, String> out) {
+        for (Attachment a : attachments) {
+            try {
+                out.put(a.getId(), presignGet(a, expirySeconds));
+            } catch (Exception e) {
+                log.warn("presignAll: presign failed for attachmentId={} err={}", a.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private String presignGet(Attachment a, long expirySeconds) {
         if (cdnDomain != null && !cdnDomain.isBlank()) {
             return cdnDomain.endsWith("/") ? cdnDomain + a.getStorageKey() : cdnDomain + "/" + a.getStorageKey();
         }
 
+        long ttlSeconds = Math.max(60, expirySeconds);
+        String cached = attachmentCache.getUrl(a.getBucket(), a.getStorageKey(), ttlSeconds);
+        if (cached != null) return cached;
+
+        long signedAt = System.currentTimeMillis();
         GetObjectRequest getReq = GetObjectRequest.builder()
                 .bucket(a.getBucket())
                 .key(a.getStorageKey())
                 .build();
 
         GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.ofSeconds(Math.max(60, expirySeconds)))
+                .signatureDuration(Duration.ofSeconds(ttlSeconds))
                 .getObjectRequest(getReq)
                 .build();
 
         PresignedGetObjectRequest presigned = s3Presigner.presignGetObject(presignRequest);
-        return presigned.url().toString();
+        String url = presigned.url().toString();
+        attachmentCache.putUrl(a.getBucket(), a.getStorageKey(), ttlSeconds, signedAt, url);
+        return url;
+    }
+
+    /**
+     * 读取附件元数据（先查本地缓存）
+     */
+    private Attachment loadMetadata(Long attachmentId) {
+        Attachment a = attachmentCache.getMetadata(attachmentId);
+        if (a != null) return a;
+        a = attachmentMapper.selectById(attachmentId);
+        attachmentCache.putMetadata(a);
+        return a;
     }
 
     public String generatePresignedGetUrlByKey(String storageKey, long expirySeconds) {
@@ -401,6 +491,6 @@ public class AttachmentService {
 
     public Attachment getAttachmentById(Long attachmentId) {
         if (attachmentId == null) return null;
-        return attachmentMapper.selectById(attachmentId);
+        return loadMetadata(attachmentId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package com.anime.common.service;
+
+/**
+ * 消息 ID 生成器：插入前即可拿到 ID，单调递增（同一节点内严格递增，跨节点按时间大致有序）
+ */
+public interface MessageIdGenerator {
+
+    long nextId();
+
+    /**
+     * 指定时刻（毫秒时间戳）之后生成的 ID 都不小于该值，用于按时间截取 ID 区间
+     */
+    long floorIdAt(long epochMillis);
+}
@@ -0,0 +1,183 @@
+package com.anime.common.service;
+
+import com.anime.config.ChatProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snowflake 风格的消息 ID（53 位，JS Number 可精确表示，前端无需改为字符串）：
+ *
+ *   | 41 位毫秒时间戳（自 2024-01-01 起，可用约 69 年） | 5 位 workerId | 7 位序列号 |
+ *
+ * - 单节点每毫秒 128 个，序列号用完时借用下一毫秒
+ * - 时钟回拨在 max-backward-wait-millis 内则等待追平，否则沿用上次时间戳继续发号（逻辑时钟），保证不重复
+ * - workerId 可显式配置；默认通过 Redis 租约 id:worker:{n}（SET NX + 定期续期）自动分配。
+ *   启动时 Redis 不可用或 32 个 workerId 都已被占用则启动失败（需要显式配置 chat.message-id.worker-id），
+ *   不按 nodeId 取模兜底——取模结果可能与其它节点租到的 workerId 冲突，产生重复 ID
+ * - 新 ID 远大于历史自增 ID，按 id 排序/游标分页的语义保持不变
+ */
+@Slf4j
+@Component
+public class SnowflakeMessageIdGenerator implements MessageIdGenerator {
+
+    private static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+    private static final int WORKER_BITS = 5;
+    private static final int SEQUENCE_BITS = 7;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final String KEY_WORKER = "id:worker:%d";
+    private static final Duration LEASE_TTL = Duration.ofSeconds(60);
+
+    // 仍由本节点持有时续期，返回 1；已被他人占用返回 0
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+              redis.call('EXPIRE', KEYS[1], ARGV[2])
+              return 1
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+    private final String nodeId;
+    private final long maxBackwardWaitMillis;
+    private final ScheduledExecutorService leaseRenewer;
+
+    private volatile long workerId;
+    private long lastTimestamp = -1L;
+    private long sequence = 0L;
+
+    public SnowflakeMessageIdGenerator(StringRedisTemplate redis, ChatProperties chatProperties) {
+        this.redis = redis;
+        this.nodeId = chatProperties.getCluster().getNodeId();
+        this.maxBackwardWaitMillis = Math.max(0L, chatProperties.getMessageId().getMaxBackwardWaitMillis());
+
+        int configured = chatProperties.getMessageId().getWorkerId();
+        if (configured >= 0) {
+            if (configured > MAX_WORKER_ID) {
+                throw new IllegalArgumentException("chat.message-id.worker-id 超出范围 0~" + MAX_WORKER_ID + ": " + configured);
+            }
+            this.workerId = configured;
+            this.leaseRenewer = null;
+        } else {
+            this.workerId = leaseWorkerId();
+            this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setName("id-worker-lease");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = LEASE_TTL.getSeconds() / 3;
+            leaseRenewer.scheduleWithFixedDelay(this::renewLeaseSafely, period, period, TimeUnit.SECONDS);
+        }
+        log.info("SnowflakeMessageIdGenerator workerId={} nodeId={}", workerId, nodeId);
+    }
+
+    @Override
+    public synchronized long nextId() {
+        long now = currentTimeMillis();
+        if (now < lastTimestamp) {
+            long backward = lastTimestamp - now;
+            if (backward <= maxBackwardWaitMillis) {
+                try {
+                    Thread.sleep(backward);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                now = currentTimeMillis();
+            }
+            if (now < lastTimestamp) {
+                if (backward > maxBackwardWaitMillis) {
+                    log.warn("clock moved backwards by {}ms, keep issuing ids on last timestamp", backward);
+                }
+                now = lastTimestamp;
+            }
+        }
+
+        if (now == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                // 本毫秒序列号用完，借用下一毫秒
+                now = lastTimestamp + 1;
+            }
+        } else {
+            sequence = 0L;
+        }
+        lastTimestamp = now;
+
+        return ((now - EPOCH) << (WORKER_BITS + SEQUENCE_BITS))
+                | (workerId << SEQUENCE_BITS)
+                | sequence;
+    }
+
+    @Override
+    public long floorIdAt(long epochMillis) {
+        return Math.max(0L, epochMillis - EPOCH) << (WORKER_BITS + SEQUENCE_BITS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (leaseRenewer == null) return;
+        leaseRenewer.shutdownNow();
+        try {
+            String key = String.format(KEY_WORKER, workerId);
+            if (nodeId.equals(redis.opsForValue().get(key))) {
+                redis.delete(key);
+            }
+        } catch (Exception ignore) {}
+    }
+
+    // --------------------------
+    // internal
+    // --------------------------
+
+    /**
+     * 发号使用的时钟；包内可见，测试里覆盖以模拟时钟回拨
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private long leaseWorkerId() {
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            Boolean ok = redis.opsForValue().setIfAbsent(String.format(KEY_WORKER, id), nodeId, LEASE_TTL);
+            if (Boolean.TRUE.equals(ok)) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("no free workerId in Redis (all " + (MAX_WORKER_ID + 1)
+                + " leased), configure chat.message-id.worker-id explicitly");
+    }
+
+    private void renewLeaseSafely() {
+        try {
+            String key = String.format(KEY_WORKER, workerId);
+            Long renewed = redis.execute(RENEW_SCRIPT, List.of(key), nodeId, String.valueOf(LEASE_TTL.getSeconds()));
+            if (renewed != null && renewed == 1L) return;
+
+            // 租约丢失（Redis 故障恢复 / 长时间停顿）：先尝试夺回原 workerId，失败再换一个
+            Boolean ok = redis.opsForValue().setIfAbsent(key, nodeId, LEASE_TTL);
+            if (!Boolean.TRUE.equals(ok)) {
+                long previous = workerId;
+                try {
+                    workerId = leaseWorkerId();
+                    log.warn("workerId lease lost, switched {} -> {}", previous, workerId);
+                } catch (IllegalStateException e) {
+                    // 没有空闲 workerId：保留原值继续发号并告警，等下一轮续期再尝试
+                    log.error("workerId lease lost and no free workerId, keep {}: {}", previous, e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("renew workerId lease failed: {}", e.getMessage());
+        }
+    }
+}
@@ -3,12 +3,15 @@ package com.anime.config;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
 
     @Bean(name = "transcodeExecutor")
@@ -21,4 +24,21 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 批量 presign（AttachmentService.presignAll）用的有界线程池：
+     * 签名是纯 CPU 计算，线程数与核数相同；队列满时由调用线程自己签，不会丢任务
+     */
+    @Bean(name = "presignExecutor")
+    public Executor presignExecutor() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(cpus);
+        executor.setMaxPoolSize(cpus);
+        executor.setQueueCapacity(256);
+        executor.setThreadNamePrefix("presign-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.anime.config;
+
+import com.anime.chat.service.WhiteboardRoomService;
+import com.anime.chat.socket.WsClusterRouter;
+import com.anime.chat.socket.WsClusterSubscriber;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 多实例部署：订阅本节点的 Redis 频道，接收其它节点转发过来的 WebSocket 帧，
+ * 以及转交给本节点的群白板房间命令
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "chat.cluster", name = "enabled", havingValue = "true")
+public class ChatClusterConfig {
+
+    @Bean
+    public RedisMessageListenerContainer chatClusterListenerContainer(LettuceConnectionFactory factory,
+                                                                      WsClusterRouter clusterRouter,
+                                                                      WsClusterSubscriber subscriber,
+                                                                      WhiteboardRoomService whiteboardRoomService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(subscriber, new ChannelTopic(clusterRouter.channel()));
+        container.addMessageListener(whiteboardRoomService, new ChannelTopic(whiteboardRoomService.channel()));
+        return container;
+    }
+}
@@ -0,0 +1,271 @@
+package com.anime.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 聊天模块配置（前缀 chat.*），所有字段都有默认值，不配置也能直接运行
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    // WebSocket 出站发送配置
+    private Outbound outbound = new Outbound();
+
+    // 多实例部署时的跨节点投递配置
+    private Cluster cluster = new Cluster();
+
+    // 消息 ID 生成配置
+    private MessageId messageId = new MessageId();
+
+    // 发送消息的组提交写入管道
+    private Ingest ingest = new Ingest();
+
+    // 按会话分通道的有序执行配置
+    private Lanes lanes = new Lanes();
+
+    // 断线续传（每用户序号 + 补发缓冲）配置
+    private Replay replay = new Replay();
+
+    // 增量同步（/api/chat/sync）配置
+    private Sync sync = new Sync();
+
+    // Redis 未读数计数器配置
+    private Unread unread = new Unread();
+
+    // 白板事件写入配置
+    private Whiteboard whiteboard = new Whiteboard();
+
+    // 音视频通话信令（呼叫登记、超时）配置
+    private Call call = new Call();
+
+    @Data
+    public static class Outbound {
+        // 共享发送线程数：所有 session 共用这一组线程，不再“一 session 一线程”
+        private int senderThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+        // 每个 session 的待发送队列上限（帧数）
+        private int queueCapacity = 256;
+
+        // 单次 drain 最多连续发送的帧数，避免某个繁忙 session 长时间占住发送线程
+        private int maxFramesPerDrain = 64;
+
+        // 慢消费者判定（毫秒）：队头帧等待超过该时长即断开该 session
+        private long slowConsumerMillis = 10_000L;
+
+        // 单次 sendMessage 的硬上限（毫秒，容器阻塞发送超时），超时即断开；应明显小于 slowConsumerMillis
+        private long sendTimeoutMillis = 2_000L;
+
+        /**
+         * 瞬时事件类型：队列满时丢弃最旧的瞬时事件（drop-oldest），而不是断开连接。
+         * 其余类型（聊天消息、ACK 等）视为可靠事件，队列满即判定为慢消费者并断开，由客户端重连后补拉。
+         */
+        private Set<String> ephemeralTypes = new HashSet<>(Set.of("PEER_TYPING", "USER_ONLINE", "USER_OFFLINE"));
+
+        // 小帧合并发送（BATCH）配置
+        private Coalesce coalesce = new Coalesce();
+    }
+
+    @Data
+    public static class Coalesce {
+        // 是否允许合并发送；开启后还需要客户端握手时带 batch=1，才会对该连接生效（老客户端不受影响）
+        private boolean enabled = false;
+
+        /**
+         * 各事件类型的合并窗口（毫秒）：窗口内同一连接的帧合并成一个 BATCH 帧。
+         * 未列出的类型（聊天消息、ACK 等）不等待，到达即连同已排队的帧一起发出。
+         */
+        private Map<String, Long> windowMillis = new HashMap<>(Map.of(
+                "WHITEBOARD_EVENT", 10L,
+                "PEER_TYPING", 20L,
+                "USER_ONLINE", 20L,
+                "USER_OFFLINE", 20L,
+                "NEW_GROUP_MESSAGE", 10L,
+                "GROUP_MESSAGES_READ", 10L
+        ));
+
+        // 一个 BATCH 帧最多包含的子帧数
+        private int maxBatchFrames = 64;
+    }
+
+    @Data
+    public static class Cluster {
+        // 是否开启跨节点投递（多实例部署时打开，依赖 Redis pub/sub）
+        private boolean enabled = false;
+
+        // 节点标识：默认每次启动随机生成，固定部署时可显式配置
+        private String nodeId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+
+        // user -> node 路由条目的有效期（秒），本节点按 1/3 周期续期；节点宕机后条目自然过期
+        private long routeTtlSeconds = 90L;
+
+        // 跨节点转发的批量刷新间隔（毫秒）
+        private long flushIntervalMillis = 5L;
+
+        // 单条 pub/sub 消息最多携带的帧数
+        private int maxBatchFrames = 256;
+
+        // 本节点缓存 user -> node 路由的时长（毫秒）；用户换节点后其它节点最多延迟这么久才转发到新节点
+        private long routeCacheMillis = 1_000L;
+
+        // 等待解析路由的转发请求上限，超过即丢弃（客户端重连后通过同步接口补齐）
+        private int maxPendingForwards = 100_000;
+    }
+
+    @Data
+    public static class MessageId {
+        // 本节点的 workerId（0~31）；-1 表示启动时通过 Redis 租约自动分配，分配不到则启动失败
+        private int workerId = -1;
+
+        // 时钟回拨不超过该值（毫秒）时等待追平，超过则沿用上次时间戳继续发号
+        private long maxBackwardWaitMillis = 5L;
+    }
+
+    @Data
+    public static class Ingest {
+        // 是否开启组提交：关闭时 SEND_MESSAGE 仍在 WebSocket 线程上逐条同步写库
+        private boolean enabled = false;
+
+        // 待写入队列上限（条）
+        private int queueCapacity = 10_000;
+
+        // 队列满时调用方最多等待的时长（毫秒），仍然放不下即拒绝该条消息
+        private long offerTimeoutMillis = 200L;
+
+        // 一次组提交最多包含的消息数
+        private int maxBatchSize = 256;
+
+        // 收到第一条消息后最多再等待多久凑批（毫秒）
+        private long flushIntervalMillis = 2L;
+    }
+
+    @Data
+    public static class Lanes {
+        // 通道数：同一会话固定落在一个通道上串行执行，不同会话分散到各通道
+        private int count = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+        // 每个通道的待执行任务上限，满了直接拒绝（客户端未收到 ACK 会重发）
+        private int queueCapacity = 10_000;
+    }
+
+    @Data
+    public static class Replay {
+        // 是否给可靠事件编号并保留补发缓冲；客户端重连时带 resume 参数即可补发断线期间的事件
+        private boolean enabled = false;
+
+        // 每个用户保留的最近事件数；断线期间错过的事件超过该值时让客户端全量刷新
+        private int capacity = 128;
+
+        // 用户所有连接断开后，补发缓冲再保留多久（秒）
+        private long ttlSeconds = 120L;
+    }
+
+    @Data
+    public static class Sync {
+        // 变更日志保留天数；客户端的 sinceVersion 早于保留期时要求全量刷新
+        private int retentionDays = 30;
+
+        /**
+         * 只返回早于“当前时间 - settleMillis”的变更：version 在事务开始时生成，
+         * 晚提交的事务可能带着更小的 version，留出这段时间让它们落库，避免被客户端跳过
+         */
+        private long settleMillis = 2000L;
+
+        // 单次同步默认 / 最多返回的变更条数
+        private int defaultLimit = 200;
+        private int maxLimit = 1000;
+    }
+
+    @Data
+    public static class Unread {
+        // 计数 hash 的过期时间（小时），过期后下次读取按会话摘要重建
+        private int ttlHours = 24;
+
+        // 与 conversation_summary 对账的间隔（毫秒），由 @Scheduled 直接读取 chat.unread.reconcile-interval-millis
+        private long reconcileIntervalMillis = 600_000L;
+
+        // 每轮对账最多检查的用户数
+        private int reconcileBatch = 1000;
+    }
+
+    @Data
+    public static class Whiteboard {
+        // 笔画事件批量写入 Redis Stream 的间隔（毫秒）
+        private long flushIntervalMillis = 20L;
+
+        // 单次 pipeline 最多写入的事件数
+        private int maxBatch = 512;
+
+        // 待写入事件队列上限
+        private int queueCapacity = 50_000;
+
+        // 每个白板 stream 保留的记录数上限（XTRIM MAXLEN ~，近似）
+        private long maxRecords = 20_000L;
+
+        // 近似裁剪的执行间隔（秒）
+        private long trimIntervalSeconds = 30L;
+
+        // 本节点缓存白板成员的时长（毫秒）；本节点的加入 / 离开立即生效，其它节点的变化最多延迟这么久
+        private long memberCacheMillis = 5_000L;
+
+        // 快照折叠间隔（毫秒），由 @Scheduled 直接读取 chat.whiteboard.snapshot-interval-millis
+        private long snapshotIntervalMillis = 10_000L;
+
+        // XRANGE 每页读取的记录数
+        private int readBatch = 1000;
+
+        // 笔画结束时 RDP 化简的容差（归一化坐标，0.0005 约等于 1000px 画布上的半个像素），0 表示不化简
+        private double simplifyTolerance = 0.0005;
+
+        // 单笔最多缓冲的点数，超过即按结束处理
+        private int maxPointsPerStroke = 20_000;
+
+        // 多久没有后续分片的笔画按结束处理（毫秒）
+        private long strokeIdleMillis = 30_000L;
+
+        // 群白板房间 owner 租约时长（秒），owner 宕机后最多这么久由其它节点接管
+        private long ownerTtlSeconds = 15L;
+
+        // 房间续期 / 维护间隔（毫秒），由 @Scheduled 直接读取 chat.whiteboard.room-renew-interval-millis，应小于 ownerTtlSeconds
+        private long roomRenewIntervalMillis = 5_000L;
+
+        // 非 owner 节点缓存房间 owner 的时长（毫秒）
+        private long ownerCacheMillis = 1_000L;
+
+        // 房间多久没有操作即释放内存状态和租约（秒）
+        private long roomIdleSeconds = 300L;
+
+        // 群白板房间专用通道数（与聊天会话通道分开，笔画流量不占聊天通道的队列）
+        private int roomLanes = 4;
+
+        // 每个房间通道的队列上限，满了拒绝该条命令
+        private int roomQueueCapacity = 10_000;
+
+        // 接管房间时加载快照 / stream / 成员的线程数
+        private int roomLoaderThreads = 2;
+    }
+
+    @Data
+    public static class Call {
+        // 响铃超时（秒）：被叫在这段时间内没有接听 / 拒绝，双方收到 CALL_TIMEOUT
+        private long ringTimeoutSeconds = 45L;
+
+        // 已接通通话的最长保留时间（秒），到期后登记释放，双方收到 CALL_ENDED（reason=max_duration）
+        private long maxDurationSeconds = 4 * 3600L;
+
+        // 本节点最多同时登记的通话数，超出时新的呼叫直接失败
+        private int maxCalls = 100_000;
+
+        // 好友关系缓存时长（秒）；加好友 / 删好友提交后立即失效
+        private long friendCacheSeconds = 3600L;
+    }
+}
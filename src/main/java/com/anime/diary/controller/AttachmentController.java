@@ -15,6 +15,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 @Tag(name = "Attachment", description = "附件上传与 presign 相关接口")
@@ -24,6 +25,8 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class AttachmentController {
 
+    private static final int MAX_BATCH_IDS = 500;
+
     private final AttachmentService attachmentService;
 
     @Operation(summary = "上传完成通知", description = "前端 PUT 到 presigned URL 后调用，后端将 attachment 标记为 available 并更新 metadata")
@@ -44,10 +47,32 @@ public class AttachmentController {
         return ResponseEntity.ok(Collections.singletonMap("url", url));
     }
 
+    @Operation(summary = "批量获取 presigned GET URL", description = "一次返回多个附件的短期 GET URL（attachmentId -> url），不存在的 id 不出现在结果中；单次最多 " + MAX_BATCH_IDS + " 个")
+    @PostMapping("/presigned-get/batch")
+    public ResponseEntity<Map<String, Map<Long, String>>> presignedGetBatch(@RequestBody BatchPresignRequest req) {
+        if (req == null || req.getIds() == null || req.getIds().isEmpty()) {
+            return ResponseEntity.ok(Collections.singletonMap("urls", Collections.emptyMap()));
+        }
+        if (req.getIds().size() > MAX_BATCH_IDS) {
+            return ResponseEntity.badRequest().build();
+        }
+        long expirySeconds = req.getExpiry() != null ? req.getExpiry() : 300L;
+        Map<Long, String> urls = attachmentService.presignAll(req.getIds(), expirySeconds);
+        return ResponseEntity.ok(Collections.singletonMap("urls", urls));
+    }
+
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
     public static class CompleteRequest {
         private Long attachmentId;
     }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class BatchPresignRequest {
+        private List<Long> ids;
+        private Long expiry;
+    }
 }
\ No newline at end of file
@@ -109,17 +109,7 @@ public class DiaryService {
         List<Block> finalBlocks = blockService.getBlocksByDiaryId(diaryId);
 
         // 为 image 类型的 block 动态注入短期下载 URL（attachmentUrl）
-        for (Block b : finalBlocks) {
-            try {
-                if (b != null && "image".equalsIgnoreCase(b.getType()) && b.getAttachmentId() != null) {
-                    String url = attachmentService.generatePresignedGetUrl(b.getAttachmentId(), ATTACHMENT_URL_TTL_SECONDS);
-                    b.setAttachmentUrl(url);
-                }
-            } catch (Exception ex) {
-                // 不要因为单个 attachment 生成失败而中断整体返回，记录警告即可
-                log.warn("failed to generate attachment url for block id={} attachmentId={}: {}", b == null ? null : b.getId(), b == null ? null : b.getAttachmentId(), ex.getMessage());
-            }
-        }
+        injectAttachmentUrls(finalBlocks);
 
         return new SaveResult(finalDiary, finalBlocks);
     }
@@ -213,18 +203,33 @@ public class DiaryService {
         if (d == null) return null;
         List<Block> blocks = blockService.getBlocksByDiaryId(diaryId);
 
+        injectAttachmentUrls(blocks);
+
+        return new SaveResult(d, blocks);
+    }
+
+    /**
+     * 为 image 类型的 block 注入短期下载 URL：所有附件一次批量 presign，
+     * 单个 attachment 生成失败不影响整体返回（该 block 没有 attachmentUrl）
+     */
+    private void injectAttachmentUrls(List<Block> blocks) {
+        if (blocks == null || blocks.isEmpty()) return;
+        List<Long> attachmentIds = blocks.stream()
+                .filter(b -> b != null && "image".equalsIgnoreCase(b.getType()) && b.getAttachmentId() != null)
+                .map(Block::getAttachmentId)
+                .toList();
+        if (attachmentIds.isEmpty()) return;
+
+        Map<Long, String> urls = attachmentService.presignAll(attachmentIds, ATTACHMENT_URL_TTL_SECONDS);
         for (Block b : blocks) {
-            try {
-                if (b != null && "image".equalsIgnoreCase(b.getType()) && b.getAttachmentId() != null) {
-                    String url = attachmentService.generatePresignedGetUrl(b.getAttachmentId(), ATTACHMENT_URL_TTL_SECONDS);
-                    b.setAttachmentUrl(url);
+            if (b != null && "image".equalsIgnoreCase(b.getType()) && b.getAttachmentId() != null) {
+                String url = urls.get(b.getAttachmentId());
+                if (url == null) {
+                    log.warn("failed to generate attachment url for block id={} attachmentId={}", b.getId(), b.getAttachmentId());
                 }
-            } catch (Exception ex) {
-                log.warn("failed to generate attachment url for block id={} attachmentId={}: {}", b == null ? null : b.getId(), b == null ? null : b.getAttachmentId(), ex.getMessage());
+                b.setAttachmentUrl(url);
             }
         }
-
-        return new SaveResult(d, blocks);
     }
 
     @Data
@@ -0,0 +1,140 @@
+package com.anime.chat.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WhiteboardPointCodec：dv1 编解码与 RDP 化简
+ */
+class WhiteboardPointCodecTest {
+
+    // 量化步长 1/65535，往返误差不超过半个步长
+    private static final double QUANTUM = 1.0 / 65535;
+
+    @Test
+    void roundTripWithinQuantization() {
+        List<List<Double>> points = List.of(
+                List.of(0.123456, 0.654321),
+                List.of(0.123500, 0.654300),
+                List.of(0.9, 0.1),
+                List.of(0.0, 1.0),
+                List.of(0.5, 0.5));
+
+        List<List<Double>> decoded = WhiteboardPointCodec.decode(WhiteboardPointCodec.encode(points));
+
+        assertEquals(points.size(), decoded.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.get(i).get(0), decoded.get(i).get(0), QUANTUM / 2 + 1e-12);
+            assertEquals(points.get(i).get(1), decoded.get(i).get(1), QUANTUM / 2 + 1e-12);
+        }
+    }
+
+    @Test
+    void boundsAreExactAndSlightOvershootIsClamped() {
+        List<List<Double>> decoded = WhiteboardPointCodec.decode(WhiteboardPointCodec.encode(List.of(
+                List.of(0.0, 1.0),
+                List.of(1.0, 0.0),
+                List.of(-1e-7, 1 + 1e-7))));
+
+        assertEquals(List.of(0.0, 1.0), decoded.get(0));
+        assertEquals(List.of(1.0, 0.0), decoded.get(1));
+        assertEquals(List.of(0.0, 1.0), decoded.get(2));
+    }
+
+    @Test
+    void nonNormalizedPointsAreNotEncoded() {
+        assertNull(WhiteboardPointCodec.encode(List.of(List.of(0.5, 0.5), List.of(1.5, 0.5))));
+        assertNull(WhiteboardPointCodec.encode(List.of(List.of(-0.01, 0.5))));
+        assertNull(WhiteboardPointCodec.encode(List.of(List.of(120.0, 300.0))));
+        assertNull(WhiteboardPointCodec.encode(List.of(List.of(0.5))));
+        assertNull(WhiteboardPointCodec.encode(null));
+    }
+
+    @Test
+    void emptyAndSinglePointStrokes() {
+        String empty = WhiteboardPointCodec.encode(List.of());
+        assertNotNull(empty);
+        assertTrue(WhiteboardPointCodec.decode(empty).isEmpty());
+        assertTrue(WhiteboardPointCodec.decode("").isEmpty());
+        assertTrue(WhiteboardPointCodec.decode(null).isEmpty());
+
+        List<List<Double>> single = WhiteboardPointCodec.decode(WhiteboardPointCodec.encode(List.of(List.of(0.25, 0.75))));
+        assertEquals(1, single.size());
+        assertEquals(0.25, single.get(0).get(0), QUANTUM);
+        assertEquals(0.75, single.get(0).get(1), QUANTUM);
+    }
+
+    @Test
+    void malformedInputThrowsIllegalArgument() {
+        // 非 base64url
+        assertThrows(IllegalArgumentException.class, () -> WhiteboardPointCodec.decode("not base64!"));
+
+        // 截断：声明 3 个点，只保留点数和第一个点的 x
+        String full = WhiteboardPointCodec.encode(List.of(List.of(0.1, 0.1), List.of(0.2, 0.2), List.of(0.3, 0.3)));
+        byte[] bytes = Base64.getUrlDecoder().decode(full);
+        byte[] truncated = new byte[3];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        assertThrows(IllegalArgumentException.class,
+                () -> WhiteboardPointCodec.decode(encode(truncated)));
+
+        // 点数远大于数据长度
+        assertThrows(IllegalArgumentException.class,
+                () -> WhiteboardPointCodec.decode(encode(new byte[]{(byte) 0xE8, 0x07, 0x00})));
+
+        // varint 超过 5 字节
+        assertThrows(IllegalArgumentException.class,
+                () -> WhiteboardPointCodec.decode(encode(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80,
+                        (byte) 0x80, (byte) 0x80, 0x01})));
+    }
+
+    @Test
+    void simplifyKeepsEndpointsAndDropsCollinearPoints() {
+        List<List<Double>> line = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            line.add(List.of(i / 10.0, i / 10.0));
+        }
+
+        List<List<Double>> simplified = WhiteboardPointCodec.simplify(line, 0.0005);
+
+        assertEquals(List.of(line.get(0), line.get(10)), simplified);
+    }
+
+    @Test
+    void simplifyKeepsCornersBeyondTolerance() {
+        List<List<Double>> corner = List.of(
+                List.of(0.0, 0.0),
+                List.of(0.25, 0.0001),
+                List.of(0.5, 0.0),
+                List.of(0.5, 0.5),
+                List.of(0.5, 1.0));
+
+        List<List<Double>> simplified = WhiteboardPointCodec.simplify(corner, 0.001);
+
+        assertEquals(List.of(corner.get(0), corner.get(2), corner.get(4)), simplified);
+    }
+
+    @Test
+    void simplifyLeavesShortStrokesAndZeroToleranceUnchanged() {
+        List<List<Double>> two = List.of(List.of(0.1, 0.1), List.of(0.2, 0.2));
+        assertSame(two, WhiteboardPointCodec.simplify(two, 0.01));
+
+        List<List<Double>> three = List.of(List.of(0.1, 0.1), List.of(0.15, 0.15), List.of(0.2, 0.2));
+        assertSame(three, WhiteboardPointCodec.simplify(three, 0));
+
+        assertTrue(WhiteboardPointCodec.simplify(List.of(), 0.01).isEmpty());
+    }
+
+    private static String encode(byte[] raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+}
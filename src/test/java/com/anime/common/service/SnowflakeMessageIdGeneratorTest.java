@@ -0,0 +1,170 @@
+package com.anime.common.service;
+
+import com.anime.config.ChatProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SnowflakeMessageIdGenerator：序列号溢出、时钟回拨、floorIdAt 与 nextId 的顺序关系
+ *
+ * workerId 显式配置，不依赖 Redis；时钟通过覆盖 currentTimeMillis() 控制。
+ */
+class SnowflakeMessageIdGeneratorTest {
+
+    private static final long EPOCH = 1704067200000L;
+    private static final long T = EPOCH + 86_400_000L;
+
+    @Test
+    void sequenceRolloverBorrowsNextMillisecond() {
+        FakeClockGenerator gen = generator(1, 5L);
+        gen.setClock(T);
+
+        long previous = -1L;
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            long id = gen.nextId();
+            assertTrue(id > previous, "ids must be strictly increasing");
+            assertTrue(seen.add(id), "ids must be unique");
+            assertEquals(1L, workerOf(id));
+            previous = id;
+
+            if (i < 128) {
+                assertEquals(T, timestampOf(id));
+                assertEquals(i, sequenceOf(id));
+            }
+            if (i == 128) {
+                assertEquals(T + 1, timestampOf(id));
+                assertEquals(0L, sequenceOf(id));
+            }
+        }
+    }
+
+    @Test
+    void smallBackwardJumpWaitsForTheClock() {
+        FakeClockGenerator gen = generator(1, 5L);
+        gen.setClock(T);
+        long first = gen.nextId();
+
+        // 回拨 3ms（在等待阈值内），等待之后时钟已追上
+        gen.setClock(T - 3, T + 1);
+        long second = gen.nextId();
+
+        assertTrue(second > first);
+        assertEquals(T + 1, timestampOf(second));
+        assertEquals(0L, sequenceOf(second));
+    }
+
+    @Test
+    void largeBackwardJumpKeepsLastTimestamp() {
+        FakeClockGenerator gen = generator(1, 5L);
+        gen.setClock(T);
+        long previous = gen.nextId();
+
+        // 回拨 10s（超过等待阈值）：沿用上次时间戳继续发号，不重复、不倒退
+        gen.setClock(T - 10_000);
+        for (int i = 1; i < 50; i++) {
+            long id = gen.nextId();
+            assertTrue(id > previous);
+            assertEquals(T, timestampOf(id));
+            assertEquals(i, sequenceOf(id));
+            previous = id;
+        }
+
+        // 时钟恢复后按真实时间继续
+        gen.setClock(T + 1);
+        long resumed = gen.nextId();
+        assertTrue(resumed > previous);
+        assertEquals(T + 1, timestampOf(resumed));
+        assertEquals(0L, sequenceOf(resumed));
+    }
+
+    @Test
+    void floorIdAtBoundsIdsIssuedInTheSameMillisecond() {
+        // 最大 workerId + 整毫秒的序列号，仍然落在 [floorIdAt(t), floorIdAt(t + 1)) 内
+        FakeClockGenerator gen = generator(31, 5L);
+        gen.setClock(T);
+
+        for (int i = 0; i < 128; i++) {
+            long id = gen.nextId();
+            assertTrue(gen.floorIdAt(T) <= id);
+            assertTrue(id < gen.floorIdAt(T + 1));
+            assertTrue(id < (1L << 53), "ids must stay within JS safe integers");
+        }
+        assertTrue(gen.floorIdAt(T - 1) < gen.floorIdAt(T));
+        assertEquals(0L, gen.floorIdAt(EPOCH - 1000));
+    }
+
+    @Test
+    void idsIssuedLaterAreAboveEarlierFloors() {
+        FakeClockGenerator gen = generator(0, 5L);
+        long before = T;
+        gen.setClock(T + 7);
+        long id = gen.nextId();
+
+        assertTrue(id >= gen.floorIdAt(before));
+        assertTrue(id >= gen.floorIdAt(T + 7));
+        assertTrue(id < gen.floorIdAt(T + 8));
+    }
+
+    @Test
+    void workerIdOutOfRangeIsRejected() {
+        ChatProperties props = new ChatProperties();
+        props.getMessageId().setWorkerId(32);
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeMessageIdGenerator(null, props));
+    }
+
+    // --------------------------
+    // helpers
+    // --------------------------
+
+    private static FakeClockGenerator generator(int workerId, long maxBackwardWaitMillis) {
+        ChatProperties props = new ChatProperties();
+        props.getMessageId().setWorkerId(workerId);
+        props.getMessageId().setMaxBackwardWaitMillis(maxBackwardWaitMillis);
+        return new FakeClockGenerator(props);
+    }
+
+    private static long timestampOf(long id) {
+        return (id >>> 12) + EPOCH;
+    }
+
+    private static long workerOf(long id) {
+        return (id >>> 7) & 31L;
+    }
+
+    private static long sequenceOf(long id) {
+        return id & 127L;
+    }
+
+    /**
+     * 依次返回设置的时间；只剩一个时一直返回它
+     */
+    private static final class FakeClockGenerator extends SnowflakeMessageIdGenerator {
+
+        private final Deque<Long> clock = new ArrayDeque<>();
+
+        private FakeClockGenerator(ChatProperties props) {
+            super(null, props);
+        }
+
+        private void setClock(long... times) {
+            clock.clear();
+            for (long t : times) {
+                clock.add(t);
+            }
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return clock.size() > 1 ? clock.poll() : clock.peek();
+        }
+    }
+}